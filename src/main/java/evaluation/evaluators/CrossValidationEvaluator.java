@@ -23,7 +23,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import timeseriesweka.classifiers.MultiThreadable;
 import utilities.ClassifierTools;
+import utilities.ParallelUtils;
 import weka.classifiers.Classifier;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -36,9 +38,12 @@ import weka.core.Instances;
  * evaluate method, however predictions split across each fold can also be retrieved
  * afterwards
  * 
+ * Given a thread allowance greater than one, the folds (and classifiers) are built and 
+ * predicted concurrently, see setThreadAllowance(...)
+ * 
  * @author James Large (james.large@uea.ac.uk)
  */
-public class CrossValidationEvaluator extends SamplingEvaluator {
+public class CrossValidationEvaluator extends SamplingEvaluator implements MultiThreadable {
       
     //cursed code to allow tuning of regressors, should be removed if we ever delve deeper into regression stuff
     public static boolean REGRESSION_HACK = false;
@@ -47,6 +52,16 @@ public class CrossValidationEvaluator extends SamplingEvaluator {
     
     private ArrayList<Instances> folds;
     private ArrayList<ArrayList<Integer>> foldIndexing;
+    
+    private int numThreads = 1;
+    
+    /**
+     * Memory guard, the most fold models that may be built/held at once, and hence the most 
+     * (fold, classifier) pairs evaluated at once in the parallel mode, whatever the thread allowance. 
+     * If maintainClassifiers is true every fold model is kept, so evaluating more classifiers times 
+     * folds than this throws an exception rather than going over it
+     */
+    private int maxFoldModelsInMemory = Integer.MAX_VALUE;
 
     public CrossValidationEvaluator() {
         super(0,false,false,false,false);
@@ -66,6 +81,28 @@ public class CrossValidationEvaluator extends SamplingEvaluator {
 
     public ArrayList<ArrayList<Integer>> getFoldIndices() { return foldIndexing; }
 
+    /**
+     * If numThreads > 1, (fold, classifier) pairs are evaluated as separate tasks on a pool of 
+     * numThreads workers (or maxFoldModelsInMemory, if fewer), each with its own copy of the fold's 
+     * train/test data. The classifiers used are the same as sequentially: with cloneClassifiers, 
+     * the per-fold clones, so every pair can run at once; without it, the classifiers passed are 
+     * built on each fold in turn and end up trained on the last, so only the classifiers of one 
+     * fold run at once and a single classifier is evaluated sequentially. The predictions are the 
+     * same as sequentially, though the timings will include any contention between the threads
+     */
+    @Override
+    public void setThreadAllowance(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+    
+    public int getMaxFoldModelsInMemory() {
+        return maxFoldModelsInMemory;
+    }
+    
+    public void setMaxFoldModelsInMemory(int maxFoldModelsInMemory) {
+        this.maxFoldModelsInMemory = maxFoldModelsInMemory;
+    }
+
     /**
      * @return the index in the original train set of the instance found at folds.get(fold).get(indexInFold) 
      */
@@ -84,6 +121,15 @@ public class CrossValidationEvaluator extends SamplingEvaluator {
         if (!REGRESSION_HACK) res.findAllStatsOnce();
         return res;
     }
+
+    @Override
+    public Evaluator cloneEvaluator() {
+        CrossValidationEvaluator ev = new CrossValidationEvaluator(seed, cloneData, setClassMissing, cloneClassifiers, maintainClassifiers);
+        ev.setNumFolds(numFolds);
+        ev.setThreadAllowance(numThreads);
+        ev.setMaxFoldModelsInMemory(maxFoldModelsInMemory);
+        return ev;
+    }
     
     public ClassifierResults crossValidateWithStats(Classifier classifier, Instances dataset) throws Exception {
         return crossValidateWithStats(new Classifier[] { classifier }, dataset)[0];
@@ -108,110 +154,197 @@ public class CrossValidationEvaluator extends SamplingEvaluator {
         if (folds == null || !previousRelationName.equals(dataset.relationName()))
             buildFolds(dataset);
         
-        //store for later storage of results, in case we want to set the class values missing
-        //on each instance at predict time
-        double[] trueClassVals = dataset.attributeToDoubleArray(dataset.classIndex());
+        resultsPerFold = evaluateFolds(classifiers, dataset, 0, numFolds);
         
-        //these will store dists and preds for instance AS THEY ARE ORDERED IN THE DATASET GIVEN
-        //as opposed to instances in the order that they are predicted, after having been split into the k folds.
-        //storing them here in order, then adding into the classifierresults objects in order after the actual 
-        //cv has finished
-        double[][][] allFolds_distsForInsts = new double[classifiers.length][dataset.numInstances()][];
-        long[][] allFolds_predTimes = new long[classifiers.length][dataset.numInstances()];
-        long[] totalBuildTimes = new long[classifiers.length];
+        //shove concatenated fold data into ClassifierResults objects, the singular form
+        //to represent the entire cv process (trainFoldX)
+        ClassifierResults[] results = new ClassifierResults[classifiers.length];
+        for (int c = 0; c < classifiers.length; c++)
+            results[c] = concatenateFolds(resultsPerFold[c], dataset, classifiers[c].getClass().getSimpleName());
+
+        return results;
+    }
+    
+    /**
+     * Cross validates the classifier on folds startFold (inclusive) to endFold (exclusive) only, 
+     * using the same folds as a full cross validation with this seed would. Intended for racing 
+     * classifiers (e.g parameter sets in the Tuner) over the first few folds, dropping the poor 
+     * ones early and carrying on with the rest of the folds for the others
+     * 
+     * @return the results on each fold evaluated, [0] being startFold
+     */
+    public ClassifierResults[] crossValidateFolds(Classifier classifier, Instances dataset, int startFold, int endFold) throws Exception {
+        if (folds == null || !previousRelationName.equals(dataset.relationName()))
+            buildFolds(dataset);
         
-        resultsPerFold = new ClassifierResults[classifiers.length][numFolds];
+        ClassifierResults[] foldResults = new ClassifierResults[endFold - startFold];
+        System.arraycopy(evaluateFolds(new Classifier[] { classifier }, dataset, startFold, endFold)[0], startFold, foldResults, 0, foldResults.length);
+        return foldResults;
+    }
+    
+    /**
+     * Evaluates each classifier on folds startFold to endFold-1, sequentially or on numThreads workers
+     * 
+     * @return [classifier][fold], null outside of the folds evaluated
+     */
+    private ClassifierResults[][] evaluateFolds(Classifier[] classifiers, Instances dataset, int startFold, int endFold) throws Exception {
+        ClassifierResults[][] foldResults = new ClassifierResults[classifiers.length][numFolds];
+        
+        if (maintainClassifiers && (long)classifiers.length * numFolds > maxFoldModelsInMemory)
+            throw new Exception("maintainClassifiers keeps " + classifiers.length + " classifiers x " + numFolds 
+                    + " folds of models, more than maxFoldModelsInMemory (" + maxFoldModelsInMemory + ")");
         
         if (cloneClassifiers)
             cloneClassifiers(classifiers);
         
+        int numWorkers = Math.min(numThreads, maxFoldModelsInMemory);
+        if (numWorkers > 1 && cloneClassifiers) {
+            //tasks ordered fold by fold, as sequentially, each on its own clone
+            ParallelUtils.forEach(numWorkers, classifiers.length * (endFold - startFold), (task) -> {
+                int fold = startFold + task / classifiers.length;
+                int classifierIndex = task % classifiers.length;
+                
+                foldResults[classifierIndex][fold] = evaluateFold(foldClassifiers[classifierIndex][fold], buildTrainTestSet(fold), dataset, fold);
+                
+                if (!maintainClassifiers)
+                    foldClassifiers[classifierIndex][fold] = null; //free the memory
+            });
+            return foldResults;
+        }
+        
+        if (numWorkers > 1 && classifiers.length > 1) {
+            //the same classifier objects are built on every fold, so the folds are taken in turn
+            for (int fold = startFold; fold < endFold; fold++) {
+                final int f = fold;
+                ParallelUtils.forEach(numWorkers, classifiers.length, (classifierIndex) -> 
+                    foldResults[classifierIndex][f] = evaluateFold(classifiers[classifierIndex], buildTrainTestSet(f), dataset, f)
+                );
+            }
+            return foldResults;
+        }
+        
         //for each fold as test
-        for(int fold = 0; fold < numFolds; fold++){
+        for(int fold = startFold; fold < endFold; fold++){
             Instances[] trainTest = buildTrainTestSet(fold);
 
             //for each classifier in ensemble
             for (int classifierIndex = 0; classifierIndex < classifiers.length; ++classifierIndex) {
-                long t1 = System.nanoTime();
-                
                 // get the classifier instance to be used this fold
                 Classifier foldClassifier = classifiers[classifierIndex];
                 if (cloneClassifiers)
                     //use the clone instead
                     foldClassifier = foldClassifiers[classifierIndex][fold];
                
-                foldClassifier.buildClassifier(trainTest[0]);
-                
-                // init the classifierXfold results object
-                ClassifierResults classifierFoldRes = new ClassifierResults(dataset.numClasses());
-                classifierFoldRes.setTimeUnit(TimeUnit.NANOSECONDS);
-                classifierFoldRes.setClassifierName(foldClassifier.getClass().getSimpleName());
-                classifierFoldRes.setDatasetName(dataset.relationName()+"_cvfold"+fold);
-                classifierFoldRes.setFoldID(seed);
-                classifierFoldRes.setSplit("train"); 
-                classifierFoldRes.turnOffZeroTimingsErrors();
-
-                //for each test instance on this fold
-                for(int i = 0; i < trainTest[1].numInstances(); i++){
-                    int instIndex = getOriginalInstIndex(fold, i);
-                    
-                    Instance testInst = trainTest[1].instance(i);
-                    
-                    double classVal = testInst.classValue(); //save in case we're deleting next line
-                    if (setClassMissing)
-                        testInst.setClassMissing();
-                    
-                    //classify and store prediction
-                    long startTime = System.nanoTime();
-                    double[] dist = foldClassifier.distributionForInstance(testInst);
-                    long predTime = System.nanoTime()- startTime;
-                    
-                    allFolds_distsForInsts[classifierIndex][instIndex] = dist;
-                    allFolds_predTimes[classifierIndex][instIndex] = predTime;
-
-                    if(REGRESSION_HACK) classifierFoldRes.addPrediction(classVal, dist, Double.isNaN(dist[0]) ? 0 : dist[(int) indexOfMax(dist)], predTime, "");
-                    else classifierFoldRes.addPrediction(classVal, dist, indexOfMax(dist), predTime, "");
-                }    
-                
-                long foldBuildTime = System.nanoTime() - t1;
-                totalBuildTimes[classifierIndex] += foldBuildTime;
-                
-                classifierFoldRes.setBuildTime(foldBuildTime);
-                classifierFoldRes.turnOnZeroTimingsErrors();
-                classifierFoldRes.finaliseResults();
-                if(!REGRESSION_HACK) classifierFoldRes.findAllStatsOnce();
-                resultsPerFold[classifierIndex][fold] = classifierFoldRes;
+                foldResults[classifierIndex][fold] = evaluateFold(foldClassifier, trainTest, dataset, fold);
                 
                 if (cloneClassifiers && !maintainClassifiers)
                     foldClassifiers[classifierIndex][fold] = null; //free the memory
             }
         }
+        return foldResults;
+    }
+    
+    /**
+     * Concatenates the results of the first foldResults.length folds, e.g as returned over one or more 
+     * calls to crossValidateFolds, into one results object with the predictions in dataset order, 
+     * as evaluate(...) would return them were all the folds passed
+     */
+    public ClassifierResults combineFoldResults(ClassifierResults[] foldResults, Instances dataset) throws Exception {
+        if (folds == null || !previousRelationName.equals(dataset.relationName()))
+            buildFolds(dataset);
         
-        //shove concatenated fold data into ClassifierResults objects, the singular form
-        //to represent the entire cv process (trainFoldX)
-        ClassifierResults[] results = new ClassifierResults[classifiers.length];
-        for (int c = 0; c < classifiers.length; c++) {
-            results[c] = new ClassifierResults(dataset.numClasses());
-            results[c].setTimeUnit(TimeUnit.NANOSECONDS);
-            results[c].setClassifierName(classifiers[c].getClass().getSimpleName());
-            results[c].setDatasetName(dataset.relationName());
-            results[c].setFoldID(seed);
-            results[c].setSplit("train"); //todo revisit, or leave with the assumption that calling method will set this to test when needed
-            
-            results[c].turnOffZeroTimingsErrors();
-            results[c].setBuildTime(totalBuildTimes[c]);
-            for (int i = 0; i < dataset.numInstances(); i++) {
-                double tiesResolvedRandomlyPred;
+        ClassifierResults res = concatenateFolds(foldResults, dataset, foldResults[0].getClassifierName());
+        if (!REGRESSION_HACK) res.findAllStatsOnce();
+        return res;
+    }
+    
+    /**
+     * Builds the classifier on the train set of this fold and predicts each instance of its test set
+     */
+    private ClassifierResults evaluateFold(Classifier foldClassifier, Instances[] trainTest, Instances dataset, int fold) throws Exception {
+        long t1 = System.nanoTime();
+        
+        foldClassifier.buildClassifier(trainTest[0]);
+
+        // init the classifierXfold results object
+        ClassifierResults classifierFoldRes = new ClassifierResults(dataset.numClasses());
+        classifierFoldRes.setTimeUnit(TimeUnit.NANOSECONDS);
+        classifierFoldRes.setClassifierName(foldClassifier.getClass().getSimpleName());
+        classifierFoldRes.setDatasetName(dataset.relationName()+"_cvfold"+fold);
+        classifierFoldRes.setFoldID(seed);
+        classifierFoldRes.setSplit("train"); 
+        classifierFoldRes.turnOffZeroTimingsErrors();
+
+        //for each test instance on this fold
+        for(int i = 0; i < trainTest[1].numInstances(); i++){
+            Instance testInst = trainTest[1].instance(i);
+
+            double classVal = testInst.classValue(); //save in case we're deleting next line
+            if (setClassMissing)
+                testInst.setClassMissing();
 
-                if(REGRESSION_HACK) tiesResolvedRandomlyPred = Double.isNaN(allFolds_distsForInsts[c][i][0]) ? 0 : allFolds_distsForInsts[c][i][(int)indexOfMax(allFolds_distsForInsts[c][i])];
-                else tiesResolvedRandomlyPred = indexOfMax(allFolds_distsForInsts[c][i]);
+            //classify and store prediction
+            long startTime = System.nanoTime();
+            double[] dist = foldClassifier.distributionForInstance(testInst);
+            long predTime = System.nanoTime()- startTime;
 
-                results[c].addPrediction(allFolds_distsForInsts[c][i], tiesResolvedRandomlyPred, allFolds_predTimes[c][i], "");
+            if(REGRESSION_HACK) classifierFoldRes.addPrediction(classVal, dist, Double.isNaN(dist[0]) ? 0 : dist[(int) indexOfMax(dist)], predTime, "");
+            else classifierFoldRes.addPrediction(classVal, dist, indexOfMax(dist), predTime, "");
+        }    
+
+        long foldBuildTime = System.nanoTime() - t1;
+
+        classifierFoldRes.setBuildTime(foldBuildTime);
+        classifierFoldRes.turnOnZeroTimingsErrors();
+        classifierFoldRes.finaliseResults();
+        if(!REGRESSION_HACK) classifierFoldRes.findAllStatsOnce();
+        return classifierFoldRes;
+    }
+    
+    /**
+     * Puts the predictions of the given folds back in the order of the instances in the dataset, 
+     * leaving out the instances of any folds not given
+     */
+    private ClassifierResults concatenateFolds(ClassifierResults[] foldResults, Instances dataset, String classifierName) throws Exception {
+        //these will store dists and preds for instance AS THEY ARE ORDERED IN THE DATASET GIVEN
+        //as opposed to instances in the order that they are predicted, after having been split into the k folds.
+        double[][] distsForInsts = new double[dataset.numInstances()][];
+        double[] predsForInsts = new double[dataset.numInstances()];
+        long[] predTimes = new long[dataset.numInstances()];
+        long totalBuildTime = 0;
+        int numPredicted = 0;
+        
+        for (int fold = 0; fold < foldResults.length; fold++) {
+            for (int i = 0; i < foldResults[fold].numInstances(); i++) {
+                int instIndex = getOriginalInstIndex(fold, i);
+                distsForInsts[instIndex] = foldResults[fold].getProbabilityDistribution(i);
+                predsForInsts[instIndex] = foldResults[fold].getPredClassValue(i);
+                predTimes[instIndex] = foldResults[fold].getPredictionTime(i);
             }
-            results[c].turnOnZeroTimingsErrors();
-            
-            results[c].finaliseResults(trueClassVals);
+            totalBuildTime += foldResults[fold].getBuildTime();
+            numPredicted += foldResults[fold].numInstances();
         }
+        
+        ClassifierResults results = new ClassifierResults(dataset.numClasses());
+        results.setTimeUnit(TimeUnit.NANOSECONDS);
+        results.setClassifierName(classifierName);
+        results.setDatasetName(dataset.relationName());
+        results.setFoldID(seed);
+        results.setSplit("train"); //todo revisit, or leave with the assumption that calling method will set this to test when needed
 
+        results.turnOffZeroTimingsErrors();
+        results.setBuildTime(totalBuildTime);
+        double[] trueClassVals = new double[numPredicted];
+        int count = 0;
+        for (int i = 0; i < dataset.numInstances(); i++) {
+            if (distsForInsts[i] == null)
+                continue;
+            results.addPrediction(distsForInsts[i], predsForInsts[i], predTimes[i], "");
+            trueClassVals[count++] = dataset.instance(i).classValue();
+        }
+        results.turnOnZeroTimingsErrors();
+
+        results.finaliseResults(trueClassVals);
         return results;
     }
     
@@ -324,9 +457,41 @@ public class CrossValidationEvaluator extends SamplingEvaluator {
     
     public static void main(String[] args) throws Exception {
 //        buildFoldsTest(); 
+//        parallelTest();
         classifierCloningTest();
     }
     
+    /**
+     * Checks that evaluating on several threads gives the same predictions as sequentially, with and 
+     * without cloneClassifiers, and that without it the classifiers passed end up trained on the last fold 
+     */
+    public static void parallelTest() throws Exception {
+        String dataLoc = "src/main/java/experiments/data/tsc/";
+        String dset = "ItalyPowerDemand";
+        Instances train = DatasetLoading.loadDataNullable(dataLoc + dset + "/" + dset + "_TRAIN");
+        String[] classifierNames = { "C45", "NN", "Logistic" };
+        
+        for (boolean cloneClassifiers : new boolean[] { false, true }) {
+            ClassifierResults[][] results = new ClassifierResults[2][];
+            Classifier[][] classifiers = new Classifier[2][classifierNames.length];
+            for (int mode = 0; mode < 2; mode++) {
+                for (int c = 0; c < classifierNames.length; c++)
+                    classifiers[mode][c] = ClassifierLists.setClassifierClassic(classifierNames[c], 0);
+                
+                CrossValidationEvaluator cv = new CrossValidationEvaluator(0, false, false, cloneClassifiers, false);
+                cv.setThreadAllowance(mode == 0 ? 1 : 4);
+                results[mode] = cv.crossValidateWithStats(classifiers[mode], train);
+            }
+            
+            for (int c = 0; c < classifierNames.length; c++) {
+                boolean samePreds = Arrays.equals(results[0][c].getPredClassValsAsArray(), results[1][c].getPredClassValsAsArray());
+                boolean sameDists = Arrays.deepEquals(results[0][c].getProbabilityDistributionsAsArray(), results[1][c].getProbabilityDistributionsAsArray());
+                boolean sameLastFold = cloneClassifiers || Arrays.equals(classifiers[0][c].distributionForInstance(train.instance(0)), classifiers[1][c].distributionForInstance(train.instance(0)));
+                System.out.println("cloneClassifiers=" + cloneClassifiers + " " + classifierNames[c] + " same predictions: " + samePreds + ", same distributions: " + sameDists + ", same classifier after: " + sameLastFold);
+            }
+        }
+    }
+    
     public static void classifierCloningTest() throws Exception { 
         String resLoc = "C:/Temp/crossvalidatortests/";
         String dataLoc = "C:/TSC Problems/";
@@ -105,4 +105,10 @@ public abstract class Evaluator {
     }
     
     public abstract ClassifierResults evaluate(Classifier classifier, Instances dataset) throws Exception;
+    
+    /**
+     * A new evaluator with the same settings as this one, but none of its state (e.g folds 
+     * built or results stored), such that the two can evaluate classifiers concurrently
+     */
+    public abstract Evaluator cloneEvaluator();
 }
@@ -68,4 +68,9 @@ public class SingleTestSetEvaluator extends Evaluator {
         return res;
     }
 
+    @Override
+    public Evaluator cloneEvaluator() {
+        return new SingleTestSetEvaluator(seed, cloneData, setClassMissing);
+    }
+
 }
@@ -100,6 +100,14 @@ public class StratifiedResamplesEvaluator extends SamplingEvaluator {
         return res;
     }
     
+    @Override
+    public Evaluator cloneEvaluator() {
+        StratifiedResamplesEvaluator ev = new StratifiedResamplesEvaluator(seed, cloneData, setClassMissing, cloneClassifiers, maintainClassifiers);
+        ev.setNumFolds(numFolds);
+        ev.setPropInstancesInTrain(propInstancesInTrain);
+        return ev;
+    }
+    
     public ClassifierResults stratifiedResampleWithStats(Classifier classifier, Instances dataset) throws Exception {
         return stratifiedResampleWithStats(new Classifier[] { classifier }, dataset)[0];
     }
@@ -15,12 +15,16 @@
 package evaluation.storage;
 
 import fileIO.OutFile;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Scanner;
@@ -121,7 +125,6 @@ import utilities.InstanceTools;
  * TODOS: 
  *      - Move metric/scores/stats into their own packge, and rename consistently to scores OR metrics. 
  *      - Rename finaliseResults to finalisePredictions, and add in the extra validation
- *      - Consult with group and implement writeCompactResultsTo...(...) as wanted 
  *      - Maybe break down the object into different parts to reduce the get/set bloat. This 
  *           is a very large and needlessly complex object. Predictions object, ExpInfo (line1) object, etcetc
  * 
@@ -155,9 +158,11 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         METRICS, 
         
         /**
-         * To be defined more precisely at later date. Intended use would be a classifiers' internal 
-         * storage, perhaps for checkpointing etc if full writing/reading would simply take up too much space 
-         * and IO compute overhead. Goastler to define
+         * Writes/loads the first 3 lines, and only the true class, predicted class and distribution 
+         * of each prediction on the remaining numInstances lines, without prediction times or descriptions. 
+         * 
+         * Usable in evaluations and post-processed ensembles that do not need prediction times, where full 
+         * writing/reading would simply take up too much space and IO compute overhead
          */
         COMPACT 
     };
@@ -241,12 +246,19 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     private long errorEstimateTime = -1;
     
 //REMAINDER OF THE FILE - 1 prediction per line
-    //raw performance data. currently just four parallel arrays
-    private ArrayList<Double> trueClassValues;
-    private ArrayList<Double> predClassValues;
-    private ArrayList<double[]> predDistributions;
-    private ArrayList<Long> predTimes;
+    //raw performance data. currently just four parallel arrays, grown as predictions are added. The first
+    //numPredictions entries of each are in use, except for the true class values, which may instead be
+    //supplied in one go by finaliseResults(double[]) and so keep their own count. The distributions are
+    //stored flat, distLength values per prediction, with predictions added without one marked in missingDists
+    private double[] trueClassValues;
+    private int numTrueClassValues;
+    private double[] predClassValues;
+    private double[] predDistributions;
+    private int distLength;
+    private BitSet missingDists;
+    private long[] predTimes;
     private ArrayList<String> predDescriptions;
+    private int numPredictions;
     
     //inferred/supplied dataset meta info
     private int numClasses; 
@@ -347,7 +359,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     public static final Function<ClassifierResults, Double> NegMAA = (ClassifierResults cr) -> {
         double MAA = 0;
         for (int i = 0; i < cr.numInstances; i++){
-            MAA += Math.abs(cr.trueClassValues.get(i) - cr.predClassValues.get(i));
+            MAA += Math.abs(cr.trueClassValues[i] - cr.predClassValues[i]);
         }
         return -(MAA/cr.numInstances);
     };
@@ -408,11 +420,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * to infer the number of classes, some may be missing.
      */
     public ClassifierResults() {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
-        predDistributions = new ArrayList<>();
-        predTimes = new ArrayList<>();
-        predDescriptions = new ArrayList<>();
+        initPredictionStorage();
         
         finalised = false;
     }
@@ -428,11 +436,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * to infer the number of classes, some may be missing.
      */
     public ClassifierResults(int numClasses) {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
-        predDistributions = new ArrayList<>();
-        predTimes = new ArrayList<>();
-        predDescriptions = new ArrayList<>();
+        initPredictionStorage();
         
         this.numClasses = numClasses;
         finalised = false; 
@@ -454,11 +458,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * All other arguments are required in full, however
      */
     public ClassifierResults(double[] trueClassVals, double[] predictions, double[][] distributions, long[] predTimes, String[] descriptions) throws Exception {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
-        predDistributions = new ArrayList<>();
-        this.predTimes = new ArrayList<>();
-        predDescriptions = new ArrayList<>();
+        initPredictionStorage();
 
         addAllPredictions(trueClassVals, predictions, distributions, predTimes, descriptions);    
         finaliseResults();
@@ -537,10 +537,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         this.numClasses = numClasses; 
     }
     private void inferNumClasses() {
-        if (predDistributions.isEmpty())
-            this.numClasses = 0;
-        else
-            this.numClasses = predDistributions.get(0).length;
+        this.numClasses = distLength;
     }
     
     public int numInstances() { 
@@ -550,7 +547,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     }
     
     private void inferNumInstances() {
-        this.numInstances = predClassValues.size();
+        this.numInstances = numPredictions;
     }
     
     
@@ -726,15 +723,15 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         return acc<0 ? false: true; 
     }
     private void calculateAcc() {
-        if (trueClassValues == null || trueClassValues.isEmpty() || trueClassValues.get(0) == -1) {
+        if (trueClassValues == null || numTrueClassValues == 0 || trueClassValues[0] == -1) {
             System.out.println("**getAcc():calculateAcc() no true class values supplied yet, cannot calculate accuracy");
             return;
         }
         
-        int size = predClassValues.size();
+        int size = numPredictions;
         double correct = .0;
         for (int i = 0; i < size; i++) {
-            if (predClassValues.get(i).equals(trueClassValues.get(i)))
+            if (predClassValues[i] == trueClassValues[i])
                 correct++;
         }
         
@@ -876,32 +873,82 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * method finaliseResults(double[] trueClassVals)
      */
     public void addPrediction(double[] dist, double predictedClass, long predictionTime, String description) throws Exception {
-        predDistributions.add(dist);
-        predClassValues.add(predictedClass);
+        if (errorOnTimingOfZero && predictionTime < 1)
+            throw new Exception("Prediction time passed has invalid value, " + predictionTime + ". If greater resolution is needed, "
+                    + "use nano seconds (e.g System.nanoTime()) and set the TimeUnit of the classifierResults object to nanoseconds.\n\n"
+                    + "If you are using nanoseconds but STILL getting this error, read the javadoc for and use turnOffZeroTimingsErrors() "
+                    + "for this call");  
+        
+        if (numPredictions == predClassValues.length) {
+            int capacity = grownCapacity(numPredictions);
+            predClassValues = Arrays.copyOf(predClassValues, capacity);
+            predTimes = Arrays.copyOf(predTimes, capacity);
+            if (distLength > 0)
+                predDistributions = Arrays.copyOf(predDistributions, capacity * distLength);
+        }
+        
+        storeDistribution(numPredictions, dist);
+        predClassValues[numPredictions] = predictedClass;
+        predTimes[numPredictions] = predictionTime;
         
         if (description == null)
             predDescriptions.add("");
         else 
             predDescriptions.add(description);
         
+        numPredictions++;
         
-        if (errorOnTimingOfZero && predictionTime < 1)
-            throw new Exception("Prediction time passed has invalid value, " + predictionTime + ". If greater resolution is needed, "
-                    + "use nano seconds (e.g System.nanoTime()) and set the TimeUnit of the classifierResults object to nanoseconds.\n\n"
-                    + "If you are using nanoseconds but STILL getting this error, read the javadoc for and use turnOffZeroTimingsErrors() "
-                    + "for this call");  
-        else {
-            predTimes.add(predictionTime);
-
-            if (testTime == -1)
-                testTime = predictionTime;
-            else 
-                testTime += predictionTime;
-        }
+        if (testTime == -1)
+            testTime = predictionTime;
+        else 
+            testTime += predictionTime;
         
         numInstances++;
     }
     
+    /**
+     * Copies dist into the flat distribution storage as the distribution of prediction i, the 
+     * length of the first distribution stored fixing the length of all of them
+     */
+    private void storeDistribution(int i, double[] dist) throws Exception {
+        if (dist == null) {
+            missingDists.set(i);
+            return;
+        }
+        
+        if (distLength == 0) {
+            distLength = dist.length;
+            predDistributions = new double[predClassValues.length * distLength];
+        }
+        else if (dist.length != distLength)
+            throw new Exception("Distribution of length " + dist.length + " passed, however the distributions "
+                    + "already stored are of length " + distLength);
+        
+        System.arraycopy(dist, 0, predDistributions, i * distLength, distLength);
+    }
+    
+    private void addTrueClassValue(double trueClassVal) {
+        if (numTrueClassValues == trueClassValues.length)
+            trueClassValues = Arrays.copyOf(trueClassValues, grownCapacity(numTrueClassValues));
+        trueClassValues[numTrueClassValues++] = trueClassVal;
+    }
+    
+    private static int grownCapacity(int size) {
+        return Math.max(16, size * 2);
+    }
+    
+    private void initPredictionStorage() {
+        trueClassValues = new double[0];
+        numTrueClassValues = 0;
+        predClassValues = new double[0];
+        predDistributions = new double[0];
+        distLength = 0;
+        missingDists = new BitSet();
+        predTimes = new long[0];
+        predDescriptions = new ArrayList<>();
+        numPredictions = 0;
+    }
+    
     /**
      * Will update the internal prediction info using the values passed. User must pass the predicted class 
      * so that they may resolve ties how they want (e.g first, randomly, take modal class, etc). 
@@ -913,7 +960,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      */
     public void addPrediction(double trueClassVal, double[] dist, double predictedClass, long predictionTime, String description) throws Exception {        
         addPrediction(dist,predictedClass,predictionTime,description);
-        trueClassValues.add(trueClassVal);
+        addTrueClassValue(trueClassVal);
     }
     
 
@@ -980,13 +1027,12 @@ public class ClassifierResults implements DebugPrinting, Serializable{
             return;
         }
         
-        if (testClassVals.length != predClassValues.size())
+        if (testClassVals.length != numPredictions)
             throw new Exception("finaliseTestResults(double[] testClassVals): Number of predictions "
                     + "made and number of true class values passed do not match");
         
-        trueClassValues = new ArrayList<>();
-        for(double d:testClassVals)
-            trueClassValues.add(d);
+        trueClassValues = Arrays.copyOf(testClassVals, testClassVals.length);
+        numTrueClassValues = testClassVals.length;
         
         finaliseResults();
     }
@@ -1013,25 +1059,23 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         
         //todo extra verification 
         
-        if (predDistributions == null || predClassValues == null ||
-                predDistributions.isEmpty() || predClassValues.isEmpty())
+        if (predDistributions == null || predClassValues == null || numPredictions == 0)
             throw new Exception("finaliseTestResults(): no test predictions stored for this module");
         
         double correct = .0;
-        for (int inst = 0; inst < predClassValues.size(); inst++)
-            if (trueClassValues.get(inst).equals(predClassValues.get(inst)))
+        for (int inst = 0; inst < numPredictions; inst++)
+            if (trueClassValues[inst] == predClassValues[inst])
                 ++correct;
         
-        acc = correct/trueClassValues.size();
+        acc = correct/numTrueClassValues;
         
         finalised = true;
     }
     
     public boolean hasProbabilityDistributionInformation() { 
         return predDistributions != null && 
-                !predDistributions.isEmpty() && 
-                predDistributions.size() == predClassValues.size() && 
-                predDistributions.get(0) != null;
+                numPredictions > 0 && 
+                !missingDists.get(0);
     }
     
     /**
@@ -1068,14 +1112,13 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         
         if (this.numClasses <= 0) 
             //ayyyy java8 being used for something
-            numClasses = (int) trueClassValues.stream().distinct().count();
+            numClasses = (int) Arrays.stream(trueClassValues, 0, numTrueClassValues).distinct().count();
         
-        predDistributions = new ArrayList<>(predClassValues.size());
-        for (double d : predClassValues) {
-            double[] dist = new double[numClasses];
-            dist[(int)d] = 1;
-            predDistributions.add(dist);
-        }
+        distLength = numClasses;
+        predDistributions = new double[predClassValues.length * numClasses];
+        for (int i = 0; i < numPredictions; i++)
+            predDistributions[i * numClasses + (int)predClassValues[i]] = 1;
+        missingDists.clear();
         
         return true;
     }   
@@ -1086,74 +1129,86 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     * 
     *     getAsList, getAsArray, and getSingleElement of the four lists describing predictions
     * 
+    *     The lists and arrays returned are copies, changes to them are not reflected in this object
+    * 
     */
     
     /**
      * 
      */
     public ArrayList<Double> getTrueClassVals() {
-        return trueClassValues;
+        ArrayList<Double> d=new ArrayList<>(numTrueClassValues);
+        for(int i=0;i<numTrueClassValues;i++)
+            d.add(trueClassValues[i]);
+        return d;
     }
     
     public double[] getTrueClassValsAsArray(){
-        double[] d=new double[trueClassValues.size()];
-        int i=0;
-        for(double x:trueClassValues)
-            d[i++]=x;
-        return d;
+        return Arrays.copyOf(trueClassValues, numTrueClassValues);
     }
     
     public double getTrueClassValue(int index){
-        return trueClassValues.get(index);
+        checkIndex(index, numTrueClassValues);
+        return trueClassValues[index];
     }
     
     
     public ArrayList<Double> getPredClassVals(){
-        return predClassValues;
+        ArrayList<Double> d=new ArrayList<>(numPredictions);
+        for(int i=0;i<numPredictions;i++)
+            d.add(predClassValues[i]);
+        return d;
     }
     
     public double[] getPredClassValsAsArray(){
-        double[] d=new double[predClassValues.size()];
-        int i=0;
-        for(double x:predClassValues)
-            d[i++]=x;
-        return d;
+        return Arrays.copyOf(predClassValues, numPredictions);
     }
     
     public double getPredClassValue(int index){
-        return predClassValues.get(index);
+        checkIndex(index, numPredictions);
+        return predClassValues[index];
     }
     
 
     public ArrayList<double[]> getProbabilityDistributions() { 
-        return predDistributions;
+        ArrayList<double[]> d=new ArrayList<>(numPredictions);
+        for(int i=0;i<numPredictions;i++)
+            d.add(getProbabilityDistribution(i));
+        return d;
     }
     
     public double[][] getProbabilityDistributionsAsArray() { 
-        return predDistributions.toArray(new double[][] {});
+        double[][] d=new double[numPredictions][];
+        for(int i=0;i<numPredictions;i++)
+            d[i]=getProbabilityDistribution(i);
+        return d;
     }
     
+    /**
+     * @return a copy of the distribution of the i'th prediction, or null if there is no such 
+     * prediction or it was stored without a distribution
+     */
     public double[] getProbabilityDistribution(int i){
-       if(i<predDistributions.size())
-            return predDistributions.get(i);
+       if(i<numPredictions && !missingDists.get(i))
+            return Arrays.copyOfRange(predDistributions, i*distLength, (i+1)*distLength);
        return null;
     }
     
     
     public ArrayList<Long> getPredictionTimes() {
-        return predTimes;
+        ArrayList<Long> l=new ArrayList<>(numPredictions);
+        for(int i=0;i<numPredictions;i++)
+            l.add(predTimes[i]);
+        return l;
     }
     
     public long[] getPredictionTimesAsArray() {
-        long[] l=new long[predTimes.size()];
-        int i=0;
-        for(long x:predTimes)
-            l[i++]=x;
-        return l;
+        return Arrays.copyOf(predTimes, numPredictions);
     }
     
     public long getPredictionTime(int index) {
-        return predTimes.get(index);
+        checkIndex(index, numPredictions);
+        return predTimes[index];
     }
     
     public long getPredictionTimeInNanos(int index) { 
@@ -1182,6 +1237,18 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         trueClassValues = null;
         predTimes = null;
         predDescriptions = null;
+        missingDists = null;
+        numTrueClassValues = 0;
+        numPredictions = 0;
+        distLength = 0;
+    }
+    
+    /**
+     * The arrays have spare capacity past the values in use, so would not throw on their own
+     */
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
     }
         
         
@@ -1205,22 +1272,30 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     public static boolean printDistMissingWarning = true;
     /**
      * Reads and STORES the prediction in this classifierresults object
-     * returns true if the prediction described by this string was correct (i.e. truclass==predclass) 
-     * 
+     * returns true if the prediction described by this string was correct (i.e. truclass==predclass)
+     *
      * INCREMENTS NUMINSTANCES
-     * 
-     * If numClasses is still less than 0, WILL set numclasses if distribution info is present. 
-     * 
+     *
+     * If numClasses is still less than 0, WILL set numclasses if distribution info is present.
+     *
      * [true],[pred], ,[dist[0]],...,[dist[c]], ,[predTime], ,[description until end of line, may have commas in it]
+     *
+     * The fields are found by scanning for commas rather than with split(","), and numbers parsed
+     * straight from the line. As with split(","), trailing empty fields are ignored.
      */
-    private boolean instancePredictionFromString(String predLine) throws Exception { 
-        String[] split=predLine.split(",");
+    private boolean instancePredictionFromString(String predLine) throws Exception {
+        final int lineEnd = endIgnoringTrailingCommas(predLine);
 
         //collect actual/predicted class
-        double trueClassVal=Double.valueOf(split[0].trim());
-        double predClassVal=Double.valueOf(split[1].trim());
-        
-        if(split.length<3) { //no probabilities, no timing. VERY old files will not have them
+        int start = 0;
+        int end = fieldEnd(predLine, start, lineEnd);
+        double trueClassVal = parseDoubleField(predLine, start, end);
+        start = end + 1;
+        end = fieldEnd(predLine, start, lineEnd);
+        double predClassVal = parseDoubleField(predLine, start, end);
+        start = end + 1;
+
+        if(start > lineEnd) { //no probabilities, no timing. VERY old files will not have them
             if (printDistMissingWarning && firstTimeDistMissing) {
                 System.out.println("*********");
                 System.out.println("");
@@ -1232,78 +1307,177 @@ public class ClassifierResults implements DebugPrinting, Serializable{
 
                 firstTimeDistMissing = false;
             }
-            
+
             addPrediction(trueClassVal, null, predClassVal, -1, "");
             return trueClassVal==predClassVal;
         }
-        //else 
-        //collect probabilities
-        final int distStartInd = 3; //actual, predicted, space, distStart
-        double[] dist = null;
+        //else
+        //skip the empty space, collect probabilities
+        start = fieldEnd(predLine, start, lineEnd) + 1;
         if (numClasses < 2) {
-            List<Double> distL = new ArrayList<>();
-            for(int i = distStartInd; i < split.length; i++) {
-                if (split[i].equals(""))
-                    break; //we're at the empty-space-separator between probs and timing 
-                else 
-                    distL.add(Double.valueOf(split[i].trim()));
-            }
-                  
-            numClasses = distL.size();
+            //count the values up to the empty-space-separator between probs and timing
+            int count = 0;
+            for (int s = start; s <= lineEnd; s = fieldEnd(predLine, s, lineEnd) + 1, count++)
+                if (s == lineEnd || predLine.charAt(s) == ',')
+                    break;
+
+            numClasses = count;
             assert(numClasses >= 2);
-            
-            dist = new double[numClasses];
-            for (int i = 0; i < numClasses; i++)
-                dist[i] = distL.get(i);
         }
-        else {
-            //we know how many classes there should be, use this as implicit
-            //file verification
-            dist = new double[numClasses];
-            for (int i = 0; i < numClasses; i++) {
-                //now need to offset by 3.
-                dist[i] = Double.valueOf(split[i+distStartInd].trim());
-            }
+        //else we know how many classes there should be, use this as implicit
+        //file verification
+        double[] dist = new double[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            if (start > lineEnd)
+                throw new ArrayIndexOutOfBoundsException("Expected " + numClasses + " probabilities in prediction line: " + predLine);
+            end = fieldEnd(predLine, start, lineEnd);
+            dist[i] = parseDoubleField(predLine, start, end);
+            start = end + 1;
         }
-        
-        //collect timings
+
+        //collect timings, after the empty space
         long predTime = -1;
-        final int timingInd = distStartInd + (numClasses-1) + 1 + 1; //actual, predicted, space, dist, space, timing
-        if (split.length > timingInd)
-            predTime = Long.parseLong(split[timingInd].trim());
-        
-        //collect description
-        String description = "";
-        final int descriptionInd = timingInd + 1 + 1; //actual, predicted, space, dist, space, timing, space, description
-        if (split.length > descriptionInd) {
-            description = split[descriptionInd];
-            
-            //no reason currently why the description passed cannot have commas in it, 
-            //might be a natural way to separate it in to different parts.
-            //description reall just fills up the remainder of the line.
-            for (int i = descriptionInd+1; i < split.length; i++)
-                description += "," + split[i];
+        if (start <= lineEnd)
+            start = fieldEnd(predLine, start, lineEnd) + 1;
+        if (start <= lineEnd) {
+            end = fieldEnd(predLine, start, lineEnd);
+            predTime = Long.parseLong(predLine.substring(start, end).trim());
+            start = end + 1;
         }
-            
-        
+
+        //collect description, after the empty space
+        //no reason currently why the description passed cannot have commas in it,
+        //might be a natural way to separate it in to different parts.
+        //description reall just fills up the remainder of the line.
+        String description = "";
+        if (start <= lineEnd)
+            start = fieldEnd(predLine, start, lineEnd) + 1;
+        if (start <= lineEnd)
+            description = predLine.substring(start, lineEnd);
+
         addPrediction(trueClassVal, dist, predClassVal, predTime, description);
         return trueClassVal==predClassVal;
     }
-    
-    private void instancePredictionsFromScanner(Scanner in) throws Exception { 
+
+    /**
+     * Reads and STORES the prediction in a COMPACT file line, returning true if it was correct.
+     *
+     * [true],[pred],[dist[0]],...,[dist[c]]
+     *
+     * Prediction times and descriptions are not stored in COMPACT files, and are set to -1 and "".
+     * numClasses is set from the first line if not already known.
+     */
+    private boolean compactPredictionFromString(String predLine) throws Exception {
+        final int lineEnd = endIgnoringTrailingCommas(predLine);
+
+        int start = 0;
+        int end = fieldEnd(predLine, start, lineEnd);
+        double trueClassVal = parseDoubleField(predLine, start, end);
+        start = end + 1;
+        end = fieldEnd(predLine, start, lineEnd);
+        double predClassVal = parseDoubleField(predLine, start, end);
+        start = end + 1;
+
+        if (start > lineEnd) { //written without distributions
+            addPrediction(trueClassVal, null, predClassVal, -1, "");
+            return trueClassVal==predClassVal;
+        }
+
+        if (numClasses < 2) {
+            int count = 0;
+            for (int s = start; s <= lineEnd; s = fieldEnd(predLine, s, lineEnd) + 1)
+                count++;
+            numClasses = count;
+        }
+
+        double[] dist = new double[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            if (start > lineEnd)
+                throw new ArrayIndexOutOfBoundsException("Expected " + numClasses + " probabilities in prediction line: " + predLine);
+            end = fieldEnd(predLine, start, lineEnd);
+            dist[i] = parseDoubleField(predLine, start, end);
+            start = end + 1;
+        }
+
+        addPrediction(trueClassVal, dist, predClassVal, -1, "");
+        return trueClassVal==predClassVal;
+    }
+
+    private void instancePredictionsFromReader(BufferedReader in, boolean compact) throws Exception {
         double correct = 0;
-        while (in.hasNext()) {
-            String line = in.nextLine();
+        String line;
+        while ((line = in.readLine()) != null) {
             //may be trailing empty lines at the end of the file
-            if (line == null || line.equals(""))
+            if (line.equals(""))
                 break;
-            
-            if (instancePredictionFromString(line))
+
+            if (compact ? compactPredictionFromString(line) : instancePredictionFromString(line))
                 correct++;
         }
 
         acc = correct / numInstances;
     }
+
+    /**
+     * The length of the line without any trailing commas, which split(",") would
+     * have dropped as trailing empty strings
+     */
+    private static int endIgnoringTrailingCommas(String line) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ',')
+            end--;
+        return end;
+    }
+
+    /**
+     * The index of the comma ending the field starting at start, or lineEnd if it is the last field
+     */
+    private static int fieldEnd(String line, int start, int lineEnd) {
+        for (int i = start; i < lineEnd; i++)
+            if (line.charAt(i) == ',')
+                return i;
+        return lineEnd;
+    }
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+
+    /**
+     * Parses line[start,end) as a double, without making a substring for the plain decimals
+     * that results files are made of. A decimal with at most 15 digits and no exponent is
+     * exactly its digits as a long divided by a power of ten, both of which are exact doubles,
+     * so the one division is correctly rounded and gives the same value as Double.parseDouble.
+     * Anything else is passed to Double.parseDouble.
+     */
+    private static double parseDoubleField(String line, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+'))
+            negative = line.charAt(i++) == '-';
+
+        long digits = 0;
+        int numDigits = 0, fractionDigits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = digits * 10 + (c - '0');
+                if (++numDigits > 15)
+                    break;
+                if (point)
+                    fractionDigits++;
+            }
+            else if (c == '.' && !point)
+                point = true;
+            else
+                break;
+        }
+
+        if (i < end || numDigits == 0)
+            return Double.parseDouble(line.substring(start, end).trim());
+
+        double value = digits / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
     
     /**
      * [true],[pred], ,[dist[0]],...,[dist[c]], ,[predTime], ,[description until end of line, may have commas in it]
@@ -1311,17 +1485,17 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     private String instancePredictionToString(int i) { 
         StringBuilder sb = new StringBuilder();
         
-        sb.append(trueClassValues.get(i).intValue()).append(",");
-        sb.append(predClassValues.get(i).intValue());
+        sb.append((int)trueClassValues[i]).append(",");
+        sb.append((int)predClassValues[i]);
         
         //probs
         sb.append(","); //<empty space>
-        double[] probs=predDistributions.get(i);
-        for(double d:probs)
-            sb.append(",").append(GenericTools.RESULTS_DECIMAL_FORMAT.format(d));
+        if (!missingDists.get(i))
+            for(int c=i*distLength;c<(i+1)*distLength;c++)
+                sb.append(",").append(GenericTools.RESULTS_DECIMAL_FORMAT.format(predDistributions[c]));
         
         //timing 
-        sb.append(",,").append(predTimes.get(i)); //<empty space>, timing
+        sb.append(",,").append(predTimes[i]); //<empty space>, timing
         
         //description 
         sb.append(",,").append(predDescriptions.get(i)); //<empty space>, description
@@ -1333,10 +1507,10 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         
         //todo extra verification 
         
-        if (trueClassValues == null || trueClassValues.size() == 0 || trueClassValues.get(0) == -1)
+        if (trueClassValues == null || numTrueClassValues == 0 || trueClassValues[0] == -1)
             throw new Exception("No true class value stored, call finaliseResults(double[] trueClassVal)");
         
-        if(numInstances()>0 &&(predDistributions.size()==trueClassValues.size()&& predDistributions.size()==predClassValues.size())){
+        if(numInstances()>0 && numTrueClassValues==numPredictions){
             StringBuilder sb=new StringBuilder("");
             
             for(int i=0;i<numInstances();i++){
@@ -1385,22 +1559,38 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         }
     }
     
+    /**
+     * Writes the first three meta-data lines of the file as normal, followed by one line per prediction 
+     * of only the class values and distribution, [true],[pred],[dist[0]],...,[dist[c]]. Prediction 
+     * times and descriptions are not written.
+     */
     public String writeCompactResultsToString() throws Exception {         
         finaliseResults();
         fileType = FileType.COMPACT;
         
         StringBuilder st = new StringBuilder();
+        st.append(generateFirstLine()).append("\n");
+        st.append(generateSecondLine()).append("\n");
+        st.append(generateThirdLine()).append("\n");
         
-        throw new UnsupportedOperationException("COMPACT file writing not yet supported ");
+        for (int i = 0; i < numInstances(); i++) {
+            st.append((int)trueClassValues[i]).append(",").append((int)predClassValues[i]);
+            if (!missingDists.get(i))
+                for (int c = i * distLength; c < (i + 1) * distLength; c++)
+                    st.append(",").append(GenericTools.RESULTS_DECIMAL_FORMAT.format(predDistributions[c]));
+            
+            if (i < numInstances() - 1)
+                st.append("\n");
+        }
         
-//        return st.toString();
+        return st.toString();
     }
    
     public void writeCompactResultsToFile(String path) throws Exception {
         OutFile out = null;
         try {
             out = new OutFile(path);
-            out.writeString(writeFullResultsToString());
+            out.writeString(writeCompactResultsToString());
         } catch (Exception e) { 
              throw new Exception("Error writing results file.\n"
                      + "Outfile most likely didnt open successfully, probably directory doesnt exist yet.\n" 
@@ -1579,11 +1769,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     
     public void loadResultsFromFile(String path) throws FileNotFoundException, Exception {
         //init
-        trueClassValues = new ArrayList<>();
-        predClassValues = new ArrayList<>();
-        predDistributions = new ArrayList<>();
-        predTimes = new ArrayList<>();
-        predDescriptions = new ArrayList<>();
+        initPredictionStorage();
         numInstances = 0;
         acc = -1;
         buildTime = -1;
@@ -1595,18 +1781,18 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         if (!(f.exists() && f.length() > 0)) 
             throw new FileNotFoundException("File " + path + " NOT FOUND");
 
-        Scanner inf = new Scanner(f);
+        BufferedReader inf = new BufferedReader(new FileReader(f), 1 << 16);
 
         //parse meta infos
-        parseFirstLine(inf.nextLine());
-        parseSecondLine(inf.nextLine());
-        double reportedTestAcc = parseThirdLine(inf.nextLine());
+        parseFirstLine(nextLine(inf));
+        parseSecondLine(nextLine(inf));
+        double reportedTestAcc = parseThirdLine(nextLine(inf));
 
         //fileType was read in from first line.
         switch (fileType) {
             case PREDICTIONS: {
                 //have all meta info, start reading predictions or metrics
-                instancePredictionsFromScanner(inf);
+                instancePredictionsFromReader(inf, false);
 
                 //acts as a basic form of verification, does the acc reported on line 3 align with 
                 //the acc calculated while reading predictions
@@ -1616,7 +1802,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
                             + "by more than eps (" + eps + "). File = " + path + ". numinstances = " + numInstances + ". numClasses = " + numClasses);
                 }
                 
-                if (predDistributions == null || predDistributions.isEmpty() || predDistributions.get(0) == null) {
+                if (!hasProbabilityDistributionInformation()) {
                     if (printDistMissingWarning)
                         System.out.println("Probabiltiy distributions missing from file: " + path);
                 }
@@ -1624,15 +1810,33 @@ public class ClassifierResults implements DebugPrinting, Serializable{
                 break;
             }
             case METRICS:
-                allPerformanceMetricsFromScanner(inf);
+                allPerformanceMetricsFromScanner(new Scanner(inf));
+                break;
+            case COMPACT: {
+                //no prediction times to add to the test time written on line 3
+                long writtenTestTime = testTime;
+                instancePredictionsFromReader(inf, true);
+                testTime = writtenTestTime;
+                
+                double eps = 1.e-8;
+                if (Math.abs(reportedTestAcc - acc) > eps) {
+                    throw new ArithmeticException("Calculated accuracy (" + acc + ") differs from written accuracy (" + reportedTestAcc + ") "
+                            + "by more than eps (" + eps + "). File = " + path + ". numinstances = " + numInstances + ". numClasses = " + numClasses);
+                }
                 break;
-            case COMPACT:
-                throw new UnsupportedOperationException("COMPACT file reading not yet supported");
+            }
         }
         
         finalised = true;
         inf.close();
     }
+    
+    private static String nextLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null)
+            throw new NoSuchElementException("No line found");
+        return line;
+    }
    
     
     
@@ -1672,8 +1876,8 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         confusionMatrix=buildConfusionMatrix();
 
         countPerClass=new double[confusionMatrix.length];
-        for(int i=0;i<trueClassValues.size();i++)
-            countPerClass[trueClassValues.get(i).intValue()]++;
+        for(int i=0;i<numTrueClassValues;i++)
+            countPerClass[(int)trueClassValues[i]]++;
 
         if (acc < 0)
             calculateAcc();
@@ -1683,7 +1887,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         f1=findF1(confusionMatrix); //also handles spec/sens/prec/recall in the process of finding f1
 
         //need probabilities. very old files that have been read in may not have them.
-        if (predDistributions != null && !predDistributions.isEmpty() && predDistributions.get(0) != null ) {
+        if (hasProbabilityDistributionInformation()) {
             nll=findNLL();
             meanAUROC=findMeanAUROC();
         }
@@ -1719,9 +1923,9 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     */
     private double[][] buildConfusionMatrix() {
         double[][] matrix = new double[numClasses][numClasses];
-        for (int i = 0; i < predClassValues.size(); ++i){
-            double actual=trueClassValues.get(i);
-            double predicted=predClassValues.get(i);
+        for (int i = 0; i < numPredictions; ++i){
+            double actual=trueClassValues[i];
+            double predicted=predClassValues[i];
             ++matrix[(int)actual][(int)predicted];
         }
         return matrix;
@@ -1733,16 +1937,16 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      */
     public double findNLL(){
         double nll=0;
-        for(int i=0;i<trueClassValues.size();i++){
-            double[] dist=getProbabilityDistribution(i);
-            int trueClass = trueClassValues.get(i).intValue();
+        for(int i=0;i<numTrueClassValues;i++){
+            int trueClass = (int)trueClassValues[i];
+            double p = predDistributions[i*distLength + trueClass];
             
-            if(dist[trueClass]==0)
+            if(p==0)
                 nll+=NLL_PENALTY;
             else
-                nll+=Math.log(dist[trueClass])/Math.log(2);//Log 2
+                nll+=Math.log(p)/Math.log(2);//Log 2
         }
-        return -nll/trueClassValues.size();
+        return -nll/numTrueClassValues;
     }
            
     public double findMeanAUROC(){
@@ -1754,7 +1958,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
                 a=findAUROC(1);
  */       }
         else{
-            double[] classDist = InstanceTools.findClassDistributions(trueClassValues, numClasses);
+            double[] classDist = InstanceTools.findClassDistributions(getTrueClassValsAsArray(), numClasses);
             for(int i=0;i<numClasses;i++){
                 a+=findAUROC(i) * classDist[i];
             }
@@ -1891,14 +2095,14 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * Makes copy of pred times to easily maintain original ordering
      */
     protected long findMedianPredTime() {
-        List<Long> copy = new ArrayList<>(predTimes);
-        Collections.sort(copy);
+        long[] copy = getPredictionTimesAsArray();
+        Arrays.sort(copy);
         
-        int mid = copy.size()/2;
-        if (copy.size() % 2 == 0)
-            return (copy.get(mid) + copy.get(mid-1)) / 2;
+        int mid = copy.length/2;
+        if (copy.length % 2 == 0)
+            return (copy[mid] + copy[mid-1]) / 2;
         else 
-            return copy.get(mid);
+            return copy[mid];
     }
     
     protected double findAUROC(int c){
@@ -1919,12 +2123,12 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         ArrayList<Pair> p=new ArrayList<>();
         double nosPositive=0,nosNegative;
         for(int i=0;i<numInstances;i++){
-            Pair temp=new Pair(predDistributions.get(i)[c],trueClassValues.get(i));
-            if(c==trueClassValues.get(i))
+            Pair temp=new Pair(predDistributions[i*distLength + c],trueClassValues[i]);
+            if(c==trueClassValues[i])
                 nosPositive++;
             p.add(temp);
         }
-        nosNegative=trueClassValues.size()-nosPositive;
+        nosNegative=numTrueClassValues-nosPositive;
         Collections.sort(p);
         
         /* http://www.cs.waikato.ac.nz/~remco/roc.pdf
@@ -18,9 +18,12 @@ import experiments.data.DatasetLists;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import timeseriesweka.classifiers.MultiThreadable;
 import utilities.DebugPrinting;
 import utilities.ErrorReport;
+import utilities.ParallelUtils;
 
 /**
  * Essentially a loader for many results over a given set of classifiers, datasets, folds, and splits
@@ -49,7 +52,7 @@ import utilities.ErrorReport;
  * 
  * @author James Large (james.large@uea.ac.uk)
  */
-public class ClassifierResultsCollection implements DebugPrinting {
+public class ClassifierResultsCollection implements DebugPrinting, MultiThreadable {
     
     /**
      * ClassifierResults[split][classifier][dataset][fold]
@@ -107,6 +110,17 @@ public class ClassifierResultsCollection implements DebugPrinting {
      */
     private boolean ignoreMissingDistributions = false;
     
+    /**
+     * The number of files read at once during load(). Each file is read, its stats found and 
+     * (if cleanResults) its predictions dropped in one task, so the predictions of at most 
+     * numThreads files are held in memory at a time
+     * 
+     * Defaults to 1
+     */
+    private int numThreads = 1;
+    
+    private AtomicBoolean ignoringDistsFirstTime;
+    
     public ClassifierResultsCollection() {
         
     }
@@ -138,6 +152,8 @@ public class ClassifierResultsCollection implements DebugPrinting {
         this.cleanResults = other.cleanResults;
         this.allowMissingResults = other.allowMissingResults;
         this.ignoreMissingDistributions = other.ignoreMissingDistributions;
+        
+        this.numThreads = other.numThreads;
     }
     
     /**
@@ -309,6 +325,16 @@ public class ClassifierResultsCollection implements DebugPrinting {
         this.ignoreMissingDistributions = ignoreMissingDistributions;
     }
     
+    /**
+     * if numThreads > 1, load() will read that many files at once 
+     * 
+     * defaults to 1
+     */
+    @Override
+    public void setThreadAllowance(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+    
     public int getNumDatasets() {
         return numDatasets;
     }
@@ -487,7 +513,13 @@ public class ClassifierResultsCollection implements DebugPrinting {
         //train files may be produced via TrainAccuracyEstimate, older code
         //while test files likely by experiments, but still might be a very old file
         //so having separate checks for each.
-        boolean ignoringDistsFirstTime = true;
+        ignoringDistsFirstTime = new AtomicBoolean(true);
+        
+        //if loading concurrently, all files are read first, then the exception thrown 
+        //for each (if any) is handled below as if it were read in place
+        Exception[][][][] loadErrors = null;
+        if (numThreads > 1)
+            loadErrors = loadConcurrently();
         
         for (int c = 0; c < numClassifiers; c++) {
             String classifierStorage = classifierNamesInStorage[c];
@@ -513,18 +545,10 @@ public class ClassifierResultsCollection implements DebugPrinting {
 
                             String fileName = buildFileName(baseReadPath, classifierStorage, datasetStorage, split, fold); 
                             try {
-                                allResults[s][c][d][f] = new ClassifierResults(fileName);
-                                if (ignoreMissingDistributions) {
-                                    boolean wasMissing = allResults[s][c][d][f].populateMissingDists();
-                                    if (wasMissing && ignoringDistsFirstTime) {
-                                        System.out.println("---------Probability distributions missing, but ignored: " 
-                                                + classifierStorage + " - " + datasetStorage + " - " + f + " - train");
-                                        ignoringDistsFirstTime = false;
-                                    }
-                                }
-                                allResults[s][c][d][f].findAllStatsOnce();
-                                if (cleanResults)
-                                    allResults[s][c][d][f].cleanPredictionInfo();
+                                if (loadErrors == null)
+                                    loadResults(s, c, d, f);
+                                else if (loadErrors[s][c][d][f] != null)
+                                    throw loadErrors[s][c][d][f];
                             } catch (FileNotFoundException ex) {
                                 if (allowMissingResults) {
                                     allResults[s][c][d][f] = null;
@@ -560,6 +584,49 @@ public class ClassifierResultsCollection implements DebugPrinting {
         return allResults;
     }
     
+    /**
+     * Reads the results file for [split][classifier][dataset][fold] into allResults, and finds its stats 
+     */
+    private void loadResults(int s, int c, int d, int f) throws Exception {
+        String fileName = buildFileName(baseReadPath, classifierNamesInStorage[c], datasetNamesInStorage[d], splits[s], folds[f]); 
+        ClassifierResults res = new ClassifierResults(fileName);
+        if (ignoreMissingDistributions) {
+            boolean wasMissing = res.populateMissingDists();
+            if (wasMissing && ignoringDistsFirstTime.compareAndSet(true, false)) {
+                System.out.println("---------Probability distributions missing, but ignored: " 
+                        + classifierNamesInStorage[c] + " - " + datasetNamesInStorage[d] + " - " + f + " - train");
+            }
+        }
+        res.findAllStatsOnce();
+        if (cleanResults)
+            res.cleanPredictionInfo();
+        allResults[s][c][d][f] = res;
+    }
+    
+    /**
+     * Reads every file on numThreads workers, each taking the next unread file in turn. 
+     * 
+     * @return the exception thrown reading each file, or null where it was read successfully
+     */
+    private Exception[][][][] loadConcurrently() throws Exception {
+        Exception[][][][] loadErrors = new Exception[numSplits][numClassifiers][numDatasets][numFolds];
+        
+        final int numFiles = numSplits * numClassifiers * numDatasets * numFolds;
+        ParallelUtils.forEach(numThreads, numFiles, (i) -> {
+            int s = i % numSplits;
+            int f = (i / numSplits) % numFolds;
+            int d = (i / numSplits / numFolds) % numDatasets;
+            int c = i / numSplits / numFolds / numDatasets;
+            try {
+                loadResults(s, c, d, f);
+            } catch (Exception e) {
+                loadErrors[s][c][d][f] = e;
+            }
+        });
+        
+        return loadErrors;
+    }
+    
     
     
     /**
@@ -22,28 +22,44 @@ import evaluation.tuning.searchers.ParameterSearcher;
 import experiments.data.DatasetLoading;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import utilities.ClassifierTools;
 import utilities.FileHandlingTools;
 import utilities.InstanceTools;
+import utilities.ParallelUtils;
 import weka_uea.classifiers.SaveEachParameter;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.functions.SMO;
 import weka.classifiers.functions.supportVector.PolyKernel;
 import weka.core.Instances;
 import timeseriesweka.classifiers.Checkpointable;
+import timeseriesweka.classifiers.MultiThreadable;
 import timeseriesweka.classifiers.TrainTimeContractable;
 
 /**
+ * Evaluates the parameter sets given by the searcher with the evaluator, and returns the best
+ * 
+ * By default the sets are evaluated one after another. With a thread allowance greater than one 
+ * they are evaluated concurrently on a pool of that many workers, each evaluation working on its 
+ * own copy of the classifier (via AbstractClassifier.makeCopy(...)) and of the evaluator. With 
+ * successive halving on (CrossValidationEvaluator only), the sets are raced over the cv folds 
+ * and the poor ones dropped before they have been evaluated on every fold. In either case the 
+ * results are considered in searcher order once evaluated, so ties resolve as they would 
+ * sequentially.
  *
  * @author James Large (james.large@uea.ac.uk)
  */
 public class Tuner 
-        implements SaveEachParameter,Checkpointable, TrainTimeContractable {
+        implements SaveEachParameter,Checkpointable, TrainTimeContractable, MultiThreadable {
     
     //Main 3 design choices.
     private ParameterSearcher searcher = new GridSearcher();
@@ -69,8 +85,22 @@ public class Tuner
     long contractTimeNanos; //TrainTimeContractClassifier  //note, leaving in nanos for max fidelity, max val of long = 2^64-1 = 586 years in nanoseconds
     boolean contracting = false; //TrainTimeContractClassifier
     
+    int numThreads = 1; //MultiThreadable
+    
     ////////// end interface variables
     
+    /**
+     * If true, the evaluator must be a CrossValidationEvaluator, and the parameter sets are raced over 
+     * its folds: every set is evaluated on the first few folds, the best 1/halvingRate of them (and any 
+     * tied with the last of those) go on to the next few folds, and so on, until the sets left have been 
+     * evaluated on every fold. The number of folds evaluated grows by a factor of halvingRate each round. 
+     * 
+     * Much less time is spent on poor sets, at the risk of dropping one that would have come good on 
+     * the later folds. Can't be used while saving each parameter set, as most are never fully evaluated
+     */
+    private boolean successiveHalving = false;
+    private int halvingRate = 3;
+    
     private boolean includeMarkersInParaLine = true;
     
     /**
@@ -188,6 +218,22 @@ public class Tuner
         this.evaluator = evaluator;
     }
 
+    public boolean getSuccessiveHalving() {
+        return successiveHalving;
+    }
+
+    public void setSuccessiveHalving(boolean successiveHalving) {
+        this.successiveHalving = successiveHalving;
+    }
+
+    public int getHalvingRate() {
+        return halvingRate;
+    }
+
+    public void setHalvingRate(int halvingRate) {
+        this.halvingRate = halvingRate;
+    }
+    
     public Function<ClassifierResults, Double> getEvalMetric() {
         return evalMetric;
     }
@@ -218,25 +264,35 @@ public class Tuner
     }
     
     public ClassifierResults evaluateParameterSet(AbstractClassifier baseClassifier, Instances trainSet, ParameterSet parameterSet) throws Exception { 
+        return evaluateParameterSet(cloneClassifierIfNeeded(baseClassifier), evaluator, trainSet, parameterSet);
+    }
+    
+    private ClassifierResults evaluateParameterSet(AbstractClassifier classifier, Evaluator evaluator, Instances trainSet, ParameterSet parameterSet) throws Exception { 
         Instances data = cloneDataIfNeeded(trainSet);
-        AbstractClassifier classifier = cloneClassifierIfNeeded(baseClassifier); 
             
         String[] options = parameterSet.toOptionsList();
         classifier.setOptions(options);
 
         ClassifierResults results = evaluator.evaluate(classifier, data);
+        setTunerInfo(results, parameterSet);
+        
+        return results;
+    }
+    
+    private void setTunerInfo(ClassifierResults results, ParameterSet parameterSet) {
         results.setClassifierName("TunedClassifier:"+classifierName);
         results.setDatasetName(datasetName);
         results.setFoldID(seed);
         results.setSplit("train");
         results.setParas(parameterSet.toClassifierResultsParaLine(includeMarkersInParaLine));
-        
-        return results;
     }
     
     public ParameterResults tune(AbstractClassifier baseClassifier, Instances trainSet, ParameterSpace parameterSpace) throws Exception {
         //System.out.println("Evaluating para space: " + parameterSpace);
         
+        if (numThreads > 1 || successiveHalving)
+            return tuneConcurrently(baseClassifier, trainSet, parameterSpace);
+        
         //for contracting
         long startTime = System.nanoTime();
         long maxParaEvalTime = 0;
@@ -286,7 +342,10 @@ public class Tuner
             //System.out.println("Score: " + String.format("%5f", score) + "\tParas: " + pset);
         }
         
-        
+        return findBest(parameterSpace, tiesBestSoFar);
+    }
+    
+    private ParameterResults findBest(ParameterSpace parameterSpace, List<ParameterResults> tiesBestSoFar) throws Exception {
         if (saveParameters) {
             // if we're contracting, (but also saving parasets)
             // we might not have had time to eval ALL the psets, justfind the best so far
@@ -307,6 +366,189 @@ public class Tuner
         return bestParaSetAndResults;
     }
     
+    /**
+     * As tune(...), but evaluating the parameter sets on numThreads workers and/or by successive halving. 
+     * The results are stored in searcher order once all are in, so the ties found, and hence the 
+     * set chosen by resolveTies, are the same as sequentially for the same sets evaluated
+     */
+    private ParameterResults tuneConcurrently(AbstractClassifier baseClassifier, Instances trainSet, ParameterSpace parameterSpace) throws Exception {
+        long startTime = System.nanoTime();
+        
+        classifierName = baseClassifier.getClass().getSimpleName();
+        datasetName = trainSet.relationName();
+        
+        searcher.setParameterSpace(parameterSpace);
+        List<ParameterSet> psets = new ArrayList<>();
+        Iterator<ParameterSet> iter = searcher.iterator();
+        while (iter.hasNext())
+            psets.add(iter.next());
+        
+        ClassifierResults[] results;
+        if (successiveHalving) {
+            if (!(evaluator instanceof CrossValidationEvaluator))
+                throw new Exception("Successive halving needs a CrossValidationEvaluator to race the parameter sets over its folds, evaluator is a " + evaluator.getClass().getSimpleName());
+            if (saveParameters)
+                throw new Exception("Successive halving can't be used while saving each parameter set, as most are never fully evaluated");
+            if (halvingRate < 2)
+                throw new Exception("Halving rate must be at least 2, was " + halvingRate);
+            results = raceParameterSets(baseClassifier, trainSet, psets, startTime);
+        }
+        else 
+            results = evaluateParameterSets(baseClassifier, trainSet, psets, startTime);
+        
+        List<ParameterResults> tiesBestSoFar = new ArrayList<>();
+        for (int parameterSetID = 0; parameterSetID < psets.size(); parameterSetID++)
+            if (results[parameterSetID] != null)
+                storeParaResult(psets.get(parameterSetID), results[parameterSetID], tiesBestSoFar);
+        
+        return findBest(parameterSpace, tiesBestSoFar);
+    }
+    
+    /**
+     * Evaluates each parameter set in full. If contracting, a worker only starts on another set if the 
+     * longest evaluation so far would still finish within the contract, so every evaluation in flight 
+     * is expected to finish in time, as sequentially
+     * 
+     * @return the results of each set, indexed as psets, null where not evaluated or saved to file instead
+     */
+    private ClassifierResults[] evaluateParameterSets(AbstractClassifier baseClassifier, Instances trainSet, List<ParameterSet> psets, long startTime) throws Exception {
+        ClassifierResults[] results = new ClassifierResults[psets.size()];
+        AtomicLong maxParaEvalTime = new AtomicLong(0);
+        AtomicBoolean outOfTime = new AtomicBoolean(false);
+        
+        ParallelUtils.forEach(numThreads, psets.size(), (parameterSetID) -> {
+            if (outOfTime.get())
+                return;
+            if (saveParameters && parametersAlreadyEvaluated(parameterSetID))
+                return;
+            if (contracting && maxParaEvalTime.get() > 0 && !canWeEvaluateAnotherParaSet(maxParaEvalTime.get(), System.nanoTime() - startTime)) {
+                outOfTime.set(true);
+                return;
+            }
+            
+            long thisParaStartTime = System.nanoTime();
+            AbstractClassifier classifier = (AbstractClassifier)AbstractClassifier.makeCopy(baseClassifier);
+            ClassifierResults res = evaluateParameterSet(classifier, evaluator.cloneEvaluator(), trainSet, psets.get(parameterSetID));
+            
+            if (saveParameters)
+                saveParaResults(parameterSetID, res);
+            else 
+                results[parameterSetID] = res;
+            
+            long thisParaTime = System.nanoTime() - thisParaStartTime;
+            maxParaEvalTime.accumulateAndGet(thisParaTime, Math::max);
+        });
+        
+        return results;
+    }
+    
+    /**
+     * Successive halving over the cv folds, see successiveHalving. The rounds end on 1, halvingRate, 
+     * halvingRate^2, ..., numFolds folds (scaled to fit numFolds), each round carrying on from the 
+     * folds of the last, so no fold is evaluated twice for a set. 
+     * 
+     * If contracting, a set is only started on its next folds if the longest time taken for a single 
+     * fold so far, times the number of folds, would still finish within the contract. If the contract 
+     * runs out part way through, the sets that have been evaluated on the most folds are returned, 
+     * with results over those folds only
+     * 
+     * @return the results of each set still in the race at the end, indexed as psets, else null
+     */
+    private ClassifierResults[] raceParameterSets(AbstractClassifier baseClassifier, Instances trainSet, List<ParameterSet> psets, long startTime) throws Exception {
+        int numSets = psets.size();
+        int numFolds = Math.min(((CrossValidationEvaluator)evaluator).getNumFolds(), trainSet.numInstances());
+        
+        int numRounds = 1;
+        while (Math.pow(halvingRate, numRounds) <= numFolds)
+            numRounds++;
+        
+        ClassifierResults[][] foldResults = new ClassifierResults[numSets][numFolds];
+        ClassifierResults[] results = new ClassifierResults[numSets];
+        int[] numFoldsDone = new int[numSets];
+        AtomicLong maxFoldEvalTime = new AtomicLong(0);
+        AtomicBoolean outOfTime = new AtomicBoolean(false);
+        
+        List<Integer> racing = new ArrayList<>();
+        for (int parameterSetID = 0; parameterSetID < numSets; parameterSetID++)
+            racing.add(parameterSetID);
+        
+        int foldsDone = 0;
+        //one pool for all the rounds, rather than one per round
+        ExecutorService pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+        try {
+            for (int round = 0; round < numRounds && !outOfTime.get(); round++) {
+                int endFold = (int)Math.max(1, Math.round(numFolds / Math.pow(halvingRate, numRounds - 1 - round)));
+                if (endFold <= foldsDone)
+                    continue;
+            
+                final int startFold = foldsDone;
+                final List<Integer> thisRound = racing;
+                ParallelUtils.forEach(pool, numThreads, thisRound.size(), (index) -> {
+                    if (outOfTime.get())
+                        return;
+                    if (contracting && maxFoldEvalTime.get() > 0 && !canWeEvaluateAnotherParaSet(maxFoldEvalTime.get() * (endFold - startFold), System.nanoTime() - startTime)) {
+                        outOfTime.set(true);
+                        return;
+                    }
+                
+                    int parameterSetID = thisRound.get(index);
+                    long thisParaStartTime = System.nanoTime();
+                
+                    AbstractClassifier classifier = (AbstractClassifier)AbstractClassifier.makeCopy(baseClassifier);
+                    classifier.setOptions(psets.get(parameterSetID).toOptionsList());
+                    CrossValidationEvaluator cv = (CrossValidationEvaluator)evaluator.cloneEvaluator();
+                    Instances data = cloneDataIfNeeded(trainSet);
+                
+                    ClassifierResults[] res = cv.crossValidateFolds(classifier, data, startFold, endFold);
+                    System.arraycopy(res, 0, foldResults[parameterSetID], startFold, res.length);
+                    results[parameterSetID] = cv.combineFoldResults(Arrays.copyOf(foldResults[parameterSetID], endFold), data);
+                    setTunerInfo(results[parameterSetID], psets.get(parameterSetID));
+                    numFoldsDone[parameterSetID] = endFold;
+                
+                    long thisFoldTime = (System.nanoTime() - thisParaStartTime) / (endFold - startFold);
+                    maxFoldEvalTime.accumulateAndGet(thisFoldTime, Math::max);
+                });
+            
+                if (outOfTime.get() || endFold == numFolds)
+                    break;
+                foldsDone = endFold;
+                racing = keepBestOfRound(thisRound, results);
+            }
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+        
+        //only compare sets over the same number of folds, the most reached
+        int mostFoldsDone = 0;
+        for (int parameterSetID = 0; parameterSetID < numSets; parameterSetID++)
+            mostFoldsDone = Math.max(mostFoldsDone, numFoldsDone[parameterSetID]);
+        for (int parameterSetID = 0; parameterSetID < numSets; parameterSetID++)
+            if (numFoldsDone[parameterSetID] != mostFoldsDone)
+                results[parameterSetID] = null;
+        
+        return results;
+    }
+    
+    /**
+     * @return the best ceil(1/halvingRate) of the sets raced, and any tied with the last of those, 
+     * in searcher order 
+     */
+    private List<Integer> keepBestOfRound(List<Integer> raced, ClassifierResults[] results) {
+        Integer[] ranked = raced.toArray(new Integer[raced.size()]);
+        //stable, so ties stay in searcher order
+        Arrays.sort(ranked, (a, b) -> Double.compare(evalMetric.apply(results[b]), evalMetric.apply(results[a])));
+        
+        int numToKeep = (raced.size() + halvingRate - 1) / halvingRate;
+        double cutOffScore = evalMetric.apply(results[ranked[numToKeep - 1]]);
+        while (numToKeep < ranked.length && evalMetric.apply(results[ranked[numToKeep]]) == cutOffScore)
+            numToKeep++;
+        
+        List<Integer> kept = new ArrayList<>(Arrays.asList(ranked).subList(0, numToKeep));
+        kept.sort(null);
+        return kept;
+    }
+    
     private boolean canWeEvaluateAnotherParaSet(long maxParaEvalTime, long totalTimeSoFar) {
         return contractTimeNanos - totalTimeSoFar > maxParaEvalTime;
     }
@@ -480,6 +722,11 @@ public class Tuner
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override //MultiThreadable
+    public void setThreadAllowance(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     @Override //TrainTimeContractClassifier
     public void setTrainTimeLimit(TimeUnit time, long amount) {
         contracting = true;
@@ -0,0 +1,375 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package experiments;
+
+import experiments.Experiments.ExperimentalArguments;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utilities.ParallelUtils;
+
+/**
+ * Runs a list of experiments over a number of threads, for use in place of
+ * submitting each ExperimentalArguments to an executor in list order.
+ *
+ * 1) Jobs already recorded as done (or failed) in the manifest are dropped, so a
+ *          run that was killed resumes where it stopped
+ * 2) The remaining jobs are ordered by their expected cost, largest first, so that
+ *          the big jobs are not left to run on their own at the end. The cost of a job
+ *          is the mean build time found in any existing test/train fold files for the
+ *          same classifier and dataset, else the size of the dataset files times the
+ *          median build time per byte seen for that classifier (or for all classifiers),
+ *          else just the size of the dataset files
+ * 3) Each thread takes the next most expensive job. If a memory budget is known for the job,
+ *          from the memory recorded in existing results or from memoryPerJobMB, that much
+ *          of the JVM's max memory is reserved while the job runs
+ * 4) Each finished job is appended to the manifest, and the throughput and estimated
+ *          time remaining are logged
+ *
+ * The manifest is a plain text file of lines "DONE|FAILED [classifier,dataset,fold] seconds".
+ * Lines are only ever appended, and the last line for a job is the one that counts.
+ * Experiments with forceEvaluation set are always run, and by default so are those recorded as FAILED.
+ */
+public class ExperimentScheduler {
+
+    private final static Logger LOGGER = Logger.getLogger(ExperimentScheduler.class.getName());
+
+    public static final String DEFAULT_MANIFEST_NAME = "experimentManifest.txt";
+
+    private static final String DONE = "DONE";
+    private static final String FAILED = "FAILED";
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private int numThreads = 1;
+    private long memoryPerJobMB = 0;
+    private boolean retryFailed = true;
+
+    private PrintWriter manifest;
+    private Semaphore memory;
+    private int memoryPermits;
+
+    public ExperimentScheduler() {
+
+    }
+
+    public ExperimentScheduler(int numThreads) {
+        setNumThreads(numThreads);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public long getMemoryPerJobMB() {
+        return memoryPerJobMB;
+    }
+
+    /**
+     * @param memoryPerJobMB the memory to reserve for a job that has no memory recorded
+     * in previous results, 0 (default) to reserve none
+     */
+    public void setMemoryPerJobMB(long memoryPerJobMB) {
+        this.memoryPerJobMB = memoryPerJobMB;
+    }
+
+    public boolean getRetryFailed() {
+        return retryFailed;
+    }
+
+    /**
+     * @param retryFailed if true (default), jobs recorded as failed in the manifest are run again,
+     * as a job with no results file always was. Otherwise only jobs with no entry are run
+     */
+    public void setRetryFailed(boolean retryFailed) {
+        this.retryFailed = retryFailed;
+    }
+
+    /**
+     * Runs the given experiments, writing the manifest to the default location within
+     * the results path of the first experiment
+     */
+    public void runExperiments(List<ExperimentalArguments> exps) throws Exception {
+        if (exps.isEmpty())
+            return;
+        runExperiments(exps, exps.get(0).resultsWriteLocation + DEFAULT_MANIFEST_NAME);
+    }
+
+    /**
+     * Runs the given experiments, skipping those already recorded in the manifest at
+     * manifestPath and recording each experiment there as it finishes. Returns once
+     * all have finished. Experiments that throw are logged and recorded as failed,
+     * and do not stop the others.
+     */
+    public void runExperiments(List<ExperimentalArguments> exps, String manifestPath) throws Exception {
+        Map<String, String> recorded = readManifest(manifestPath);
+
+        List<Job> jobs = new ArrayList<>(exps.size());
+        for (ExperimentalArguments exp : exps) {
+            String key = exp.toShortString();
+            String status = recorded.get(key);
+            if (!exp.forceEvaluation && (DONE.equals(status) || (FAILED.equals(status) && !retryFailed)))
+                continue;
+            jobs.add(new Job(exp, key));
+        }
+
+        int skipped = exps.size() - jobs.size();
+        if (skipped > 0)
+            LOGGER.log(Level.INFO, skipped + " of " + exps.size() + " experiments already recorded in " + manifestPath + ", skipping them.");
+        if (jobs.isEmpty())
+            return;
+
+        estimateCosts(jobs);
+        //stable, so equal cost jobs keep their list order
+        Collections.sort(jobs, (a, b) -> Double.compare(b.cost, a.cost));
+
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        memoryPermits = maxMemory == Long.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, maxMemory / MEGABYTE);
+        memory = new Semaphore(memoryPermits, true);
+
+        File f = new File(manifestPath);
+        if (f.getParentFile() != null && !f.getParentFile().exists())
+            f.getParentFile().mkdirs();
+        manifest = new PrintWriter(new FileWriter(f, true));
+
+        try {
+            runJobs(jobs);
+        } finally {
+            manifest.close();
+            manifest = null;
+        }
+    }
+
+    private void runJobs(List<Job> jobs) throws Exception {
+        final Progress progress = new Progress(jobs);
+        ParallelUtils.forEach(numThreads, jobs.size(), (i) -> runJob(jobs.get(i), progress));
+    }
+
+    private void runJob(Job job, Progress progress) throws InterruptedException {
+        int permits = 0;
+        if (job.memoryMB > 0) {
+            permits = (int) Math.min(memoryPermits, job.memoryMB);
+            memory.acquire(permits);
+        }
+
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            Experiments.setupAndRunExperiment(job.exp);
+            succeeded = true;
+        } catch (Exception | OutOfMemoryError e) {
+            LOGGER.log(Level.WARNING, "Experiment " + job.key + " failed: " + e);
+        } finally {
+            memory.release(permits);
+        }
+        long time = System.nanoTime() - start;
+
+        synchronized (this) {
+            manifest.println((succeeded ? DONE : FAILED) + " " + job.key + " " + TimeUnit.NANOSECONDS.toSeconds(time));
+            manifest.flush();
+        }
+        progress.finished(job);
+    }
+
+    private static Map<String, String> readManifest(String manifestPath) throws IOException {
+        Map<String, String> recorded = new HashMap<>();
+        File f = new File(manifestPath);
+        if (!f.exists())
+            return recorded;
+
+        try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                //a partial last line from a killed run will not have both parts, and is ignored
+                String[] parts = line.trim().split(" ");
+                if (parts.length >= 2 && (parts[0].equals(DONE) || parts[0].equals(FAILED)))
+                    recorded.put(parts[1], parts[0]);
+            }
+        }
+        return recorded;
+    }
+
+    /**
+     * Sets the cost and memory of each job from the existing results and dataset sizes,
+     * as described in the class comment.
+     */
+    private void estimateCosts(List<Job> jobs) {
+        //existing results are per classifier/dataset, shared by all the folds of it
+        Map<String, double[]> previous = new HashMap<>();
+        Map<String, List<Double>> ratesPerClassifier = new HashMap<>();
+        List<Double> allRates = new ArrayList<>();
+
+        for (Job job : jobs) {
+            job.datasetBytes = datasetBytes(job.exp);
+
+            String resultsDir = job.exp.resultsWriteLocation + job.exp.classifierName + "/Predictions/" + job.exp.datasetName + "/";
+            double[] timeAndMemory = previous.get(resultsDir);
+            if (timeAndMemory == null) {
+                timeAndMemory = previousBuildTimeAndMemory(resultsDir);
+                previous.put(resultsDir, timeAndMemory);
+
+                if (timeAndMemory[0] > 0 && job.datasetBytes > 0) {
+                    double rate = timeAndMemory[0] / job.datasetBytes;
+                    ratesPerClassifier.computeIfAbsent(job.exp.classifierName, k -> new ArrayList<>()).add(rate);
+                    allRates.add(rate);
+                }
+            }
+
+            job.cost = timeAndMemory[0];
+            job.memoryMB = timeAndMemory[1] > 0 ? (long) Math.ceil(timeAndMemory[1] / MEGABYTE) : memoryPerJobMB;
+        }
+
+        double globalRate = allRates.isEmpty() ? 1 : median(allRates);
+        for (Job job : jobs) {
+            if (job.cost > 0)
+                continue;
+
+            List<Double> rates = ratesPerClassifier.get(job.exp.classifierName);
+            double rate = rates == null ? globalRate : median(rates);
+            job.cost = rate * job.datasetBytes;
+        }
+    }
+
+    /**
+     * Total size of the files in the dataset's directory, as a proxy for the work
+     * needed to build on it. 0 if the directory is not found.
+     */
+    private static long datasetBytes(ExperimentalArguments exp) {
+        File[] files = new File(exp.dataReadLocation + exp.datasetName).listFiles();
+        if (files == null)
+            return 0;
+
+        long bytes = 0;
+        for (File file : files)
+            if (file.isFile())
+                bytes += file.length();
+        return bytes;
+    }
+
+    /**
+     * Mean build time in nanoseconds and max memory in bytes recorded in the fold files
+     * in resultsDir, each 0 if none are found. Only the three meta info lines of each file are read.
+     */
+    private static double[] previousBuildTimeAndMemory(String resultsDir) {
+        double[] timeAndMemory = new double[2];
+        File[] files = new File(resultsDir).listFiles((dir, name) -> name.endsWith(".csv") && (name.startsWith("testFold") || name.startsWith("trainFold")));
+        if (files == null)
+            return timeAndMemory;
+
+        double totalTime = 0;
+        int numTimes = 0;
+        for (File file : files) {
+            try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                String[] first = in.readLine().split(",");
+                in.readLine();
+                String[] third = in.readLine().split(",");
+
+                //files without a time unit are older ones, with build times in milliseconds
+                TimeUnit unit = first.length > 4 ? TimeUnit.valueOf(first[4].trim()) : TimeUnit.MILLISECONDS;
+                if (third.length > 1) {
+                    long buildTime = Long.parseLong(third[1].trim());
+                    if (buildTime > 0) {
+                        totalTime += unit.toNanos(buildTime);
+                        numTimes++;
+                    }
+                }
+                if (third.length > 4)
+                    timeAndMemory[1] = Math.max(timeAndMemory[1], Long.parseLong(third[4].trim()));
+            } catch (Exception e) {
+                //malformed or partially written file, just not used for the estimate
+            }
+        }
+
+        if (numTimes > 0)
+            timeAndMemory[0] = totalTime / numTimes;
+        return timeAndMemory;
+    }
+
+    private static double median(List<Double> values) {
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int mid = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(mid) : (sorted.get(mid - 1) + sorted.get(mid)) / 2;
+    }
+
+    private static class Job {
+        final ExperimentalArguments exp;
+        final String key;
+        long datasetBytes;
+        double cost;
+        long memoryMB;
+
+        Job(ExperimentalArguments exp, String key) {
+            this.exp = exp;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Tracks the jobs finished, for the throughput and time remaining. The time
+     * remaining is the elapsed time scaled by the estimated cost still to run over the
+     * cost run so far, or by the number of jobs if no costs could be estimated.
+     */
+    private static class Progress {
+        final long start = System.nanoTime();
+        final int numJobs;
+        final double totalCost;
+        int numFinished = 0;
+        double finishedCost = 0;
+
+        Progress(List<Job> jobs) {
+            numJobs = jobs.size();
+            double cost = 0;
+            for (Job job : jobs)
+                cost += job.cost;
+            totalCost = cost;
+        }
+
+        synchronized void finished(Job job) {
+            numFinished++;
+            finishedCost += job.cost;
+
+            double elapsedSecs = (System.nanoTime() - start) / 1e9;
+            double remainingSecs;
+            if (finishedCost > 0)
+                remainingSecs = elapsedSecs * (totalCost - finishedCost) / finishedCost;
+            else
+                remainingSecs = elapsedSecs * (numJobs - numFinished) / numFinished;
+
+            LOGGER.log(Level.INFO, String.format("Finished %s, %d/%d experiments done, %.2f experiments/hour, ETA %s",
+                    job.key, numFinished, numJobs, numFinished / elapsedSecs * 3600, formatSeconds(remainingSecs)));
+        }
+
+        static String formatSeconds(double secs) {
+            long s = Math.round(secs);
+            return String.format("%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+        }
+    }
+}
@@ -28,10 +28,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import timeseriesweka.classifiers.MemoryContractable;
 import timeseriesweka.classifiers.ParameterSplittable;
 import evaluation.evaluators.CrossValidationEvaluator;
 import timeseriesweka.classifiers.SaveParameterInfo;
@@ -152,8 +151,8 @@ public class Experiments  {
         //todo expose the filetype enum in some way, currently just using an unconnected if statement, if e.g the order of the enum values changes in the classifierresults, which we have no knowledge 
         //of here, the ifs will call the wrong things. decide on the design of this 
         @Parameter(names={"-ff","--fileFormat"}, description = "(int) Specifies the format for the classifier results file to be written in, accepted values = { 0, 1, 2 }, default = 0. 0 writes the first 3 lines of meta information "
-                + "as well as the full prediction information, and requires the most disk space. 1 writes the first three lines and a list of the performance metrics calculated from the prediction info. 2 writes the first three lines only, and "
-                + "requires the least space. Use options other than 0 if generating too many files with too much prediction information for the disk space available, however be aware that there is of course a loss of information.")
+                + "as well as the full prediction information, and requires the most disk space. 1 writes the first three lines and a list of the performance metrics calculated from the prediction info. 2 writes the first three lines and the "
+                + "true class, predicted class and probabilities of each prediction, without prediction times or descriptions. Use options other than 0 if generating too many files with too much prediction information for the disk space available, however be aware that there is of course a loss of information.")
         public int classifierResultsFileFormat = 0;
 
         @Parameter(names={"-ctrs","--contractTrainSecs"}, description = "(long) Defines a time limit, in seconds, for the training of the classifier if it implements the TrainTimeContractClassifier interface. Defaults to 0, which sets "
@@ -187,6 +186,14 @@ public class Experiments  {
                 + " experiment running in the short term. Give one of 'cv' and 'hov' for cross validation and hold-out validation set respectively, and a number of folds (e.g. cv_10) or train set proportion (e.g. hov_0.7) respectively. Default is a 10 fold cv, i.e. cv_10.")
         public String trainEstimateMethod = "cv_10";
         
+        @Parameter(names={"-ml","--memoryLimitMB"}, description = "(long) Defines a memory limit, in megabytes, for the classifier if it implements the MemoryContractable interface. When running multiple experiments "
+                + "through setupAndRunMultipleExperimentsThreaded(...), this much memory is also reserved for each experiment that has no memory usage recorded in previous results. Defaults to 0, which sets no limit.")
+        public long memoryLimitMB = 0;
+        
+        @Parameter(names={"-rf","--retryFailed"}, arity=1, description = "(boolean) When running multiple experiments through setupAndRunMultipleExperimentsThreaded(...), whether experiments recorded as failed "
+                + "in the experiment manifest of a previous run are run again. Defaults to true. If false, only experiments with no record are run.")
+        public boolean retryFailed = true;
+        
         public ExperimentalArguments() {
             
         }
@@ -248,6 +255,9 @@ public class Experiments  {
                         exp.debug = this.debug;
                         exp.classifierResultsFileFormat = this.classifierResultsFileFormat;
                         exp.serialiseTrainedClassifier = this.serialiseTrainedClassifier;
+                        exp.forceEvaluation = this.forceEvaluation;
+                        exp.memoryLimitMB = this.memoryLimitMB;
+                        exp.retryFailed = this.retryFailed;
                         
                         exps.add(exp);
                     }
@@ -429,6 +439,8 @@ public class Experiments  {
         //moved to here before the first proper usage of classifiername, such that it can 
         //be updated first if need be
         Classifier classifier = ClassifierLists.setClassifier(expSettings);
+        if (expSettings.memoryLimitMB > 0 && classifier instanceof MemoryContractable)
+            ((MemoryContractable) classifier).setMemoryLimit(MemoryContractable.DataUnit.MEGABYTE, expSettings.memoryLimitMB);
         
         //Build/make the directory to write the train and/or testFold files to
         String fullWriteLocation = expSettings.resultsWriteLocation + expSettings.classifierName + "/Predictions/" + expSettings.datasetName + "/";
@@ -726,7 +738,15 @@ public class Experiments  {
             return -1; //the default in classifierresults, i.e no benchmark
         
         // else calc benchmark
-        
+        return findBenchmarkTime();
+    }
+    
+    /**
+     * The same benchmark as findBenchmarkTime(ExperimentalArguments), regardless of 
+     * exp.performTimingBenchmark. For classifiers that scale their own timing estimates 
+     * to the machine they are running on, e.g. ContractRotationForest
+     */
+    public static long findBenchmarkTime() {
         int arrSize = 10000;
         int repeats = 1000;
         long[] times = new long[repeats];
@@ -825,6 +845,9 @@ public class Experiments  {
      * Will run through all combinations of classifiers*datasets*folds provided, using the meta experimental info stored in the 
      * standardArgs. If numThreads > 0, will spawn that many threads. If numThreads == 0, will use as many threads as there are cores, 
      * else if numThreads == -1, will spawn as many threads as there are cores minus 1, to aid usability of the machine. 
+     * 
+     * The experiments are run through an ExperimentScheduler, largest expected cost first, with progress recorded 
+     * in [resultsPath]/experimentManifest.txt such that experiments finished by a previous (perhaps killed) call are skipped. 
      */
     public static void setupAndRunMultipleExperimentsThreaded(ExperimentalArguments standardArgs, String[] classifierNames, String[] datasetNames, int minFolds, int maxFolds, int numThreads) throws Exception{
         int numCores = Runtime.getRuntime().availableProcessors();        
@@ -835,15 +858,12 @@ public class Experiments  {
         
         System.out.println("# cores ="+numCores);
         System.out.println("# threads ="+numThreads);
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
         
         List<ExperimentalArguments> exps = standardArgs.generateExperiments(classifierNames, datasetNames, minFolds, maxFolds);
-        for (ExperimentalArguments exp : exps)
-            executor.execute(exp);
-        
-        executor.shutdown();
-        while (!executor.isTerminated()) {
-        }
+        ExperimentScheduler scheduler = new ExperimentScheduler(numThreads);
+        scheduler.setMemoryPerJobMB(standardArgs.memoryLimitMB);
+        scheduler.setRetryFailed(standardArgs.retryFailed);
+        scheduler.runExperiments(exps, standardArgs.resultsWriteLocation + ExperimentScheduler.DEFAULT_MANIFEST_NAME);
         System.out.println("Finished all threads");            
     }
 }
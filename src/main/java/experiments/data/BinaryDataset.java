@@ -0,0 +1,255 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package experiments.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A compact binary form of a dataset with numeric attributes and a nominal class,
+ * read through a memory mapping of the file instead of parsing text.
+ *
+ * The file is, big endian:
+ *      int magic, int version,
+ *      int header length, the ARFF header (relation and attributes) as UTF-8 bytes,
+ *      int numInstances, int numValues (attributes excluding the class), int classIndex,
+ *      zero padding to a multiple of 8 bytes,
+ *      numInstances * numValues doubles, the non-class values of each instance in turn,
+ *      numInstances ints, the index of each class value, -1 if missing
+ *
+ * Missing attribute values are kept as NaN, as Weka stores them. Instance weights,
+ * string, date and relational attributes and numeric classes are not supported,
+ * see canWrite(Instances).
+ *
+ * map(File) reads only the header; the values are read from the mapping as needed,
+ * and instances() materialises the Instances on its first call.
+ */
+public class BinaryDataset {
+
+    public static final String EXTENSION = ".tscb";
+
+    private static final int MAGIC = 0x54534342; //"TSCB"
+    private static final int VERSION = 1;
+
+    //a single mapping may be at most Integer.MAX_VALUE bytes, so larger value blocks are mapped in chunks of whole instances
+    private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE - 7;
+
+    private final Instances header;
+    private final int numInstances;
+    private final int numValues;
+    private final int classIndex;
+
+    private final int instancesPerChunk;
+    private final DoubleBuffer[] valueChunks;
+    private final IntBuffer classValues;
+
+    private Instances instances = null;
+
+    private BinaryDataset(Instances header, int numInstances, int numValues, int classIndex, int instancesPerChunk, DoubleBuffer[] valueChunks, IntBuffer classValues) {
+        this.header = header;
+        this.numInstances = numInstances;
+        this.numValues = numValues;
+        this.classIndex = classIndex;
+        this.instancesPerChunk = instancesPerChunk;
+        this.valueChunks = valueChunks;
+        this.classValues = classValues;
+    }
+
+    /**
+     * @return true if every attribute other than the class is numeric, the class is nominal,
+     * and every instance has weight 1
+     */
+    public static boolean canWrite(Instances data) {
+        if (data.classIndex() < 0 || !data.classAttribute().isNominal())
+            return false;
+        for (int a = 0; a < data.numAttributes(); a++)
+            if (a != data.classIndex() && !data.attribute(a).isNumeric())
+                return false;
+        for (Instance inst : data)
+            if (inst.weight() != 1.0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Writes data to target in the binary format.
+     *
+     * @throws IllegalArgumentException if the data cannot be written, see canWrite(Instances)
+     */
+    public static void write(Instances data, File target) throws IOException {
+        if (!canWrite(data))
+            throw new IllegalArgumentException("Dataset " + data.relationName() + " cannot be written in binary form, "
+                    + "all attributes other than a nominal class must be numeric and all instance weights 1");
+
+        byte[] headerBytes = new Instances(data, 0).toString().getBytes(StandardCharsets.UTF_8);
+        int numValues = data.numAttributes() - 1;
+        int classIndex = data.classIndex();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(headerBytes.length);
+            out.write(headerBytes);
+            out.writeInt(data.numInstances());
+            out.writeInt(numValues);
+            out.writeInt(classIndex);
+            for (int p = 0; p < paddingBytes(headerBytes.length); p++)
+                out.writeByte(0);
+
+            for (Instance inst : data)
+                for (int a = 0; a < data.numAttributes(); a++)
+                    if (a != classIndex)
+                        out.writeDouble(inst.value(a));
+
+            for (Instance inst : data)
+                out.writeInt(inst.classIsMissing() ? -1 : (int) inst.classValue());
+        }
+    }
+
+    /**
+     * Maps the binary dataset in source, reading only its header.
+     *
+     * @throws IOException if the file cannot be read or is not a binary dataset
+     */
+    public static BinaryDataset map(File source) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(source, "r"); FileChannel channel = file.getChannel()) {
+            if (file.length() < 12 || file.readInt() != MAGIC)
+                throw new IOException(source + " is not a binary dataset");
+            int version = file.readInt();
+            if (version != VERSION)
+                throw new IOException(source + " is binary dataset version " + version + ", expected " + VERSION);
+
+            byte[] headerBytes = new byte[file.readInt()];
+            file.readFully(headerBytes);
+            Instances header = new Instances(new StringReader(new String(headerBytes, StandardCharsets.UTF_8)));
+            int numInstances = file.readInt();
+            int numValues = file.readInt();
+            int classIndex = file.readInt();
+            header.setClassIndex(classIndex);
+
+            long valuesStart = valuesOffset(headerBytes.length);
+            long classesStart = valuesStart + (long) numInstances * numValues * Double.BYTES;
+            if (file.length() != classesStart + (long) numInstances * Integer.BYTES)
+                throw new IOException(source + " is incomplete, expected " + (classesStart + (long) numInstances * Integer.BYTES) + " bytes but found " + file.length());
+
+            int instancesPerChunk = numValues == 0 ? Math.max(1, numInstances) : (int) Math.min(Math.max(1, numInstances), MAX_CHUNK_BYTES / ((long) numValues * Double.BYTES));
+            int numChunks = numInstances == 0 ? 0 : (numInstances + instancesPerChunk - 1) / instancesPerChunk;
+            DoubleBuffer[] valueChunks = new DoubleBuffer[numChunks];
+            for (int c = 0; c < numChunks; c++) {
+                int chunkInstances = Math.min(instancesPerChunk, numInstances - c * instancesPerChunk);
+                long start = valuesStart + (long) c * instancesPerChunk * numValues * Double.BYTES;
+                valueChunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, (long) chunkInstances * numValues * Double.BYTES).asDoubleBuffer();
+            }
+            MappedByteBuffer classes = channel.map(FileChannel.MapMode.READ_ONLY, classesStart, (long) numInstances * Integer.BYTES);
+
+            //the mappings stay valid after the channel is closed
+            return new BinaryDataset(header, numInstances, numValues, classIndex, instancesPerChunk, valueChunks, classes.asIntBuffer());
+        }
+    }
+
+    /**
+     * Reads the ARFF file in source and writes it to target in binary form, returning the data read.
+     * The file is parsed directly, so it is not also written to the DatasetLoading binary cache.
+     */
+    public static Instances convert(File source, File target) throws IOException {
+        Instances data = DatasetLoading.parseArff(source);
+        write(data, target);
+        return data;
+    }
+
+    /**
+     * @return the relation and attributes of the dataset, without any instances
+     */
+    public Instances header() {
+        return new Instances(header, 0);
+    }
+
+    public int numInstances() {
+        return numInstances;
+    }
+
+    /**
+     * @return the number of attributes, excluding the class
+     */
+    public int numValues() {
+        return numValues;
+    }
+
+    /**
+     * Copies the non-class values of instance i, in attribute order, into values from position 0
+     */
+    public void values(int i, double[] values) {
+        DoubleBuffer chunk = valueChunks[i / instancesPerChunk].duplicate();
+        chunk.position((i % instancesPerChunk) * numValues);
+        chunk.get(values, 0, numValues);
+    }
+
+    /**
+     * @return the index of the class value of instance i, -1 if missing
+     */
+    public int classValue(int i) {
+        return classValues.get(i);
+    }
+
+    /**
+     * @return the dataset as Instances, with its class index set. These are built
+     * from the mapping on the first call and the same object returned after that.
+     */
+    public synchronized Instances instances() {
+        if (instances != null)
+            return instances;
+
+        Instances data = new Instances(header, numInstances);
+        double[] values = new double[numValues];
+        for (int i = 0; i < numInstances; i++) {
+            values(i, values);
+            double[] attValues = new double[numValues + 1];
+            System.arraycopy(values, 0, attValues, 0, classIndex);
+            System.arraycopy(values, classIndex, attValues, classIndex + 1, numValues - classIndex);
+            int classValue = classValue(i);
+            attValues[classIndex] = classValue < 0 ? Utils.missingValue() : classValue;
+
+            //add makes a shallow copy, sharing attValues
+            data.add(new DenseInstance(1.0, attValues));
+        }
+
+        instances = data;
+        return instances;
+    }
+
+    //magic, version and header length ints, the header, then the three dimension ints, padded to a multiple of 8
+    private static long valuesOffset(int headerLength) {
+        return 6L * Integer.BYTES + headerLength + paddingBytes(headerLength);
+    }
+
+    private static int paddingBytes(int headerLength) {
+        return (int) ((8 - (6L * Integer.BYTES + headerLength) % 8) % 8);
+    }
+}
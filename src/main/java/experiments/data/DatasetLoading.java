@@ -20,12 +20,17 @@ package experiments.data;
 import experiments.ClassifierLists;
 import experiments.Experiments;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import utilities.ClassifierTools;
 import utilities.InstanceTools;
 import utilities.multivariate_tools.MultivariateInstanceTools;
@@ -57,6 +62,12 @@ public class DatasetLoading {
     private static double proportionKeptForTraining = 0.5;
     
     private static boolean debug = false;
+    
+    /**
+     * Directory holding binary copies of the arff files loaded through loadDataThrowable(...), 
+     * see BinaryDataset. Off (null) by default, turn it on with setBinaryCachePath. 
+     */
+    private static String binaryCachePath = null;
 
     public static String getLeaveOneXOutAttributeID() {
         return LOXO_ATT_ID;
@@ -74,6 +85,21 @@ public class DatasetLoading {
         DatasetLoading.proportionKeptForTraining = proportionKeptForTraining;
     }
     
+    public static String getBinaryCachePath() {
+        return binaryCachePath;
+    }
+
+    /**
+     * Turns on the binary cache of loaded arff files, e.g. for experiments that load the same
+     * large datasets many times. Each load then checksums the arff file, and the first load of a file
+     * writes its copy to the directory. Use a directory of your own rather than a shared tmp.
+     * 
+     * @param binaryCachePath directory to keep binary copies of loaded arff files in, or null (the default) to always parse the arff
+     */
+    public static void setBinaryCachePath(String binaryCachePath) {
+        DatasetLoading.binaryCachePath = binaryCachePath;
+    }
+    
     
     
     public static void setDebug(boolean d) {
@@ -307,6 +333,68 @@ public class DatasetLoading {
      * @throws java.io.IOException if cannot find the file, or file is malformed
      */
     public static Instances loadDataThrowable(File targetFile) throws IOException {
+        if (binaryCachePath != null)
+            return loadThroughBinaryCache(targetFile);
+        return parseArff(targetFile);
+    }
+    
+    /**
+     * Returns the data in targetFile from its binary copy in the binaryCachePath, if there is one 
+     * for the current contents of the file. Otherwise parses the file and, if the data can be 
+     * stored in binary form, writes the copy for next time. Copies are named by the file name, 
+     * length and CRC32 checksum of the arff file, so an edited file gets a new copy. 
+     * 
+     * Problems with the cache itself are logged and the file parsed as normal.
+     */
+    private static Instances loadThroughBinaryCache(File targetFile) throws IOException {
+        String name = targetFile.getName();
+        if (name.toLowerCase().endsWith(".arff"))
+            name = name.substring(0, name.length() - 5);
+        File cached = new File(binaryCachePath, name + "_" + targetFile.length() + "_" + Long.toHexString(checksum(targetFile)) + BinaryDataset.EXTENSION);
+        
+        if (cached.exists()) {
+            try {
+                LOGGER.log(Level.FINE, "Loading " + targetFile + " from binary copy " + cached);
+                return BinaryDataset.map(cached).instances();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not read binary copy " + cached + " of " + targetFile + ", parsing the arff file instead. Exception: " + e);
+            }
+        }
+        
+        Instances inst = parseArff(targetFile);
+        if (BinaryDataset.canWrite(inst)) {
+            //written to a temp file and moved into place, so that a partial copy is never read by another thread or process
+            File temp = null;
+            try {
+                File dir = new File(binaryCachePath);
+                dir.mkdirs();
+                temp = File.createTempFile(name, ".tmp", dir);
+                BinaryDataset.write(inst, temp);
+                Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not write binary copy " + cached + " of " + targetFile + ". Exception: " + e);
+                if (temp != null)
+                    temp.delete();
+            }
+        }
+        return inst;
+    }
+    
+    private static long checksum(File targetFile) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(targetFile)) {
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+    
+    /**
+     * Parses the arff file itself, never through the binary cache, and sets the last attribute to be the class value
+     */
+    static Instances parseArff(File targetFile) throws IOException {
         FileReader reader = new FileReader(targetFile);
         Instances inst = new Instances(reader);
         inst.setClassIndex(inst.numAttributes() - 1);
@@ -27,7 +27,6 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import utilities.*;
 import utilities.samplers.*;
@@ -55,7 +54,7 @@ import static weka.core.Utils.sum;
  * Implementation based on the algorithm described in getTechnicalInformation()
  */
 public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAccuracyEstimator,
-        TechnicalInformationHandler, MultiThreadable {
+        TechnicalInformationHandler, MultiThreadable, BatchPredictor, TrainTimeContractable {
 
     private int seed = 0;
     private Random rand;
@@ -81,7 +80,13 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAcc
 
     private int numThreads = 1;
     private boolean multiThread = false;
-    private ExecutorService ex;
+    //one pool shared by every individual for the life of the ensemble, made on first use
+    private transient ExecutorService ex;
+    private String batchSize = "100";
+
+    //no more window sizes are searched once the contract is used, though each series gets at least one member.
+    //volatile so it can be changed while building, as HiveCote does when its other modules finish
+    private volatile long trainContractNanos = Long.MAX_VALUE;
 
     protected static final long serialVersionUID = 22554L;
 
@@ -150,6 +155,28 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAcc
         }
     }
 
+    @Override
+    public void setTrainTimeLimit(TimeUnit time, long amount) {
+        trainContractNanos = time.toNanos(amount);
+    }
+
+    private ExecutorService getExecutor() {
+        if (ex == null || ex.isShutdown()) {
+            ex = BOSSIndividual.newThreadPool(numThreads);
+        }
+        return ex;
+    }
+
+    @Override
+    public void setBatchSize(String size) {
+        batchSize = size;
+    }
+
+    @Override
+    public String getBatchSize() {
+        return batchSize;
+    }
+
     @Override
     public void writeTrainEstimatesToFile(String outputPathAndName){
         trainCVPath = outputPathAndName;
@@ -181,6 +208,7 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAcc
     @Override
     public void buildClassifier(final Instances data) throws Exception {
         trainResults.setBuildTime(System.nanoTime());
+        final long buildStart = System.nanoTime();
 
         // can classifier handle the data?
         getCapabilities().testWithFail(data);
@@ -247,6 +275,8 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAcc
 
         for (int n = 0; n < numSeries; n++) {
             currentSeries = n;
+            //copied once and shared by every window size and normalisation option
+            TimeSeriesDataset seriesData = new TimeSeriesDataset(series[n]);
             double maxAcc = -1.0;
 
             //the acc of the worst member to make it into the final ensemble as it stands
@@ -254,9 +284,12 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAcc
 
             for (boolean normalise : normOptions) {
                 for (int winSize = minWindow; winSize <= maxWindow; winSize += winInc) {
-                    BOSSIndividual boss = new BOSSIndividual(wordLengths[0], alphabetSize[0], winSize, normalise, multiThread, numThreads, ex);
+                    if (!classifiers[n].isEmpty() && System.nanoTime() - buildStart > trainContractNanos)
+                        break;
+
+                    BOSSIndividual boss = new BOSSIndividual(wordLengths[0], alphabetSize[0], winSize, normalise, multiThread, numThreads, multiThread ? getExecutor() : null);
                     boss.seed = seed;
-                    boss.buildClassifier(series[n]); //initial setup for this windowsize, with max word length
+                    boss.buildClassifier(seriesData); //initial setup for this windowsize, with max word length
 
                     BOSSIndividual bestClassifierForWinSize = null;
                     double bestAccForWinSize = -1.0;
@@ -348,17 +381,13 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAcc
         int requiredCorrect = (int)(lowestAcc*numInst);
 
         if (multiThread){
-            ex = Executors.newFixedThreadPool(numThreads);
-            ArrayList<BOSSIndividual.TrainNearestNeighbourThread> threads = new ArrayList<>(sum(numClassifiers));
+            ArrayList<BOSSIndividual.TrainNearestNeighbourThread> threads = new ArrayList<>(numInst);
 
             for (int i = 0; i < numInst; ++i) {
-                BOSSIndividual.TrainNearestNeighbourThread t = boss.new TrainNearestNeighbourThread(i);
-                threads.add(t);
-                ex.execute(t);
+                threads.add(boss.new TrainNearestNeighbourThread(i));
             }
 
-            ex.shutdown();
-            while (!ex.isTerminated());
+            BOSSIndividual.runAll(getExecutor(), threads);
 
             for (BOSSIndividual.TrainNearestNeighbourThread t: threads){
                 if (t.nn == series.get(t.testIndex).classValue()) {
@@ -512,19 +541,15 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAcc
         }
 
         if (multiThread){
-            ex = Executors.newFixedThreadPool(numThreads);
             ArrayList<BOSSIndividual.TestNearestNeighbourThread> threads = new ArrayList<>(sum(numClassifiers));
 
             for (int n = 0; n < numSeries; n++) {
                 for (BOSSIndividual classifier : classifiers[n]) {
-                    BOSSIndividual.TestNearestNeighbourThread t = classifier.new TestNearestNeighbourThread(instance, classifier.weight, n);
-                    threads.add(t);
-                    ex.execute(t);
+                    threads.add(classifier.new TestNearestNeighbourThread(series[n], classifier.weight, n));
                 }
             }
 
-            ex.shutdown();
-            while (!ex.isTerminated());
+            BOSSIndividual.runAll(getExecutor(), threads);
 
             for (BOSSIndividual.TestNearestNeighbourThread t: threads){
                 classHist[t.series][(int)t.nn] += t.weight;
@@ -552,6 +577,122 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements TrainAcc
         return distributions;
     }
 
+    /**
+     * Classifies a batch of test cases. Members that share a window size and normalisation also share
+     * the Fourier approximation of each test case, so it is found once per window size rather than once
+     * per member, and the members are scored in parallel on the ensemble's thread pool if multithreading.
+     * The distributions are the same as those from distributionForInstance.
+     */
+    @Override
+    public double[][] distributionsForInstances(Instances insts) throws Exception {
+        int numInsts = insts.numInstances();
+        int numClasses = insts.numClasses();
+
+        Instances[] series;
+
+        //Multivariate
+        if (isMultivariate) {
+            series = splitMultivariateInstances(insts);
+        }
+        //Univariate
+        else {
+            series = new Instances[1];
+            series[0] = insts;
+        }
+
+        //nearest neighbour class of each test case for each member, in ensemble order
+        double[][][] nns = new double[numSeries][][];
+        ArrayList<BatchTransformThread> threads = new ArrayList<>();
+
+        for (int n = 0; n < numSeries; n++) {
+            TimeSeriesDataset testData = new TimeSeriesDataset(series[n]);
+            nns[n] = new double[classifiers[n].size()][];
+
+            HashMap<String, BatchTransformThread> groups = new HashMap<>();
+            for (int i = 0; i < classifiers[n].size(); i++) {
+                BOSSIndividual classifier = classifiers[n].get(i);
+                nns[n][i] = new double[numInsts];
+
+                String key = classifier.getWindowSize() + "," + classifier.isNorm();
+                BatchTransformThread t = groups.get(key);
+                if (t == null) {
+                    t = new BatchTransformThread(testData);
+                    groups.put(key, t);
+                    threads.add(t);
+                }
+                t.add(classifier, nns[n][i]);
+            }
+        }
+
+        if (multiThread) {
+            BOSSIndividual.runAll(getExecutor(), threads);
+        }
+        else {
+            for (BatchTransformThread t : threads) {
+                t.run();
+            }
+        }
+
+        double[][] distributions = new double[numInsts][numClasses];
+
+        for (int j = 0; j < numInsts; j++) {
+            double[][] classHist = new double[numSeries][numClasses];
+
+            //get sum of all channels, votes from each are weighted the same.
+            double sum[] = new double[numSeries];
+
+            for (int n = 0; n < numSeries; n++) {
+                for (int i = 0; i < classifiers[n].size(); i++) {
+                    BOSSIndividual classifier = classifiers[n].get(i);
+                    classHist[n][(int) nns[n][i][j]] += classifier.weight;
+                    sum[n] += classifier.weight;
+                }
+            }
+
+            for (int n = 0; n < numSeries; n++){
+                if (sum[n] != 0)
+                    for (int i = 0; i < classHist[n].length; ++i)
+                        distributions[j][i] += (classHist[n][i] / sum[n]) / numSeries;
+            }
+        }
+
+        return distributions;
+    }
+
+    /**
+     * Classifies every test case with a group of members that have the same window size and normalisation,
+     * approximating each test case with the member of the longest word length.
+     */
+    private static class BatchTransformThread implements Runnable {
+        TimeSeriesDataset data;
+        ArrayList<BOSSIndividual> members = new ArrayList<>();
+        ArrayList<double[]> nns = new ArrayList<>();
+        BOSSIndividual longest;
+
+        BatchTransformThread(TimeSeriesDataset data) {
+            this.data = data;
+        }
+
+        void add(BOSSIndividual member, double[] nn) {
+            members.add(member);
+            nns.add(nn);
+            if (longest == null || member.getWordLength() > longest.getWordLength()) {
+                longest = member;
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int j = 0; j < data.numSeries(); j++) {
+                double[][] mfts = longest.transformWindows(data.getData(), data.offset(j), data.seriesLength());
+
+                for (int i = 0; i < members.size(); i++) {
+                    nns.get(i)[j] = members.get(i).classifyBag(members.get(i).createBagSingle(mfts));
+                }
+            }
+        }
+    }
+
     public static void main(String[] args) throws Exception{
         int fold = 0;
 
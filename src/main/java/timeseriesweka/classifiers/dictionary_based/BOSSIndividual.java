@@ -1,13 +1,27 @@
 package timeseriesweka.classifiers.dictionary_based;
 
+import com.carrotsearch.hppc.Containers;
+import com.carrotsearch.hppc.HashContainers;
+import com.carrotsearch.hppc.HashOrderMixing;
+import com.carrotsearch.hppc.HashOrderMixingStrategy;
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.carrotsearch.hppc.cursors.IntIntCursor;
+import utilities.TimeSeriesDataset;
 import weka.classifiers.AbstractClassifier;
 import weka.core.Instance;
 import weka.core.Instances;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * BOSS classifier to be used with known parameters, for boss with parameter search, use BOSSEnsemble.
@@ -48,7 +62,8 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
 
     protected boolean multiThread = false;
     protected int numThreads = 1;
-    protected ExecutorService ex;
+    //supplied by the ensemble so one pool is shared by every individual, if null one is made for each build
+    protected transient ExecutorService ex;
 
     protected int seed = 0;
     protected Random rand;
@@ -106,21 +121,85 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
         return Double.compare(this.accuracy, o.accuracy);
     }
 
-    public static class Bag extends HashMap<BitWord, Integer> {
+    /**
+     * Histogram of word counts, keyed by the packed BitWord.getWord() of each word. All words in a bag
+     * have the same length, so the packed word alone identifies it, and the words and counts are held
+     * in primitive arrays rather than as boxed map entries. A word missing from the bag has count 0.
+     */
+    public static class Bag extends IntIntHashMap implements Serializable {
         double classVal;
         protected static final long serialVersionUID = 22552L;
 
+        //fixed mixing, so bags iterate in the same order between runs and after being deserialised
+        private static final HashOrderMixingStrategy ORDER_MIXING = HashOrderMixing.constant(0);
+
         public Bag() {
-            super();
+            //hppc randomises iteration order by default, keep it the same between runs
+            super(Containers.DEFAULT_EXPECTED_ELEMENTS, HashContainers.DEFAULT_LOAD_FACTOR, ORDER_MIXING);
         }
 
         public Bag(int classValue) {
-            super();
+            this();
             classVal = classValue;
         }
 
         public double getClassVal() { return classVal; }
         public void setClassVal(double classVal) { this.classVal = classVal; }
+
+        /**
+         * BOSS distance from this bag to other, as in BOSSdistance. Reads the slots of the map directly
+         * rather than through its iterator.
+         */
+        public double distance(Bag other, double bestDist) {
+            double dist = 0.0;
+            int[] keys = this.keys;
+            int[] values = this.values;
+
+            for (int slot = 0; slot <= mask; ++slot) {
+                if (keys[slot] != 0) {
+                    int valA = values[slot];
+                    int valB = other.get(keys[slot]); //0 if absent
+                    dist += (valA-valB)*(valA-valB);
+
+                    if (dist > bestDist)
+                        return Double.MAX_VALUE;
+                }
+            }
+
+            //the word 0 is held apart from the other slots
+            if (hasEmptyKey) {
+                int valA = values[mask+1];
+                int valB = other.get(0);
+                dist += (valA-valB)*(valA-valB);
+
+                if (dist > bestDist)
+                    return Double.MAX_VALUE;
+            }
+
+            return dist;
+        }
+
+        //the hppc map is not serializable itself, so write the entries out
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(size());
+            for (IntIntCursor entry : this) {
+                out.writeInt(entry.key);
+                out.writeInt(entry.value);
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            //the map was made by its own no-arg constructor, with randomised order, so reallocate with fixed mixing
+            orderMixer = ORDER_MIXING;
+            release();
+            int size = in.readInt();
+            ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                put(in.readInt(), in.readInt());
+            }
+        }
     }
 
     public int getWindowSize() { return windowSize; }
@@ -229,6 +308,13 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
     }
 
     private double[][] performMFT(double[] series) {
+        return performMFT(series, 0, series.length);
+    }
+
+    /**
+     * MFT of the series stored in series[offset] to series[offset+length-1]
+     */
+    private double[][] performMFT(double[] series, int offset, int length) {
         // ignore DC value?
         int startOffset = norm ? 2 : 0;
         int l = wordLength;
@@ -241,10 +327,10 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
         }
 
         // means and stddev for each sliding window
-        int end = Math.max(1, series.length - windowSize + 1);
+        int end = Math.max(1, length - windowSize + 1);
         double[] means = new double[end];
         double[] stds = new double[end];
-        calcIncrementalMeanStddev(windowSize, series, means, stds);
+        calcIncrementalMeanStddev(windowSize, series, offset, length, means, stds);
         // holds the DFT of each sliding window
         double[][] transformed = new double[end][];
         double[] mftData = null;
@@ -253,7 +339,7 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
             // use the MFT
             if (t > 0) {
                 for (int k = 0; k < l; k += 2) {
-                    double real1 = (mftData[k] + series[t + windowSize - 1] - series[t - 1]);
+                    double real1 = (mftData[k] + series[offset + t + windowSize - 1] - series[offset + t - 1]);
                     double imag1 = (mftData[k + 1]);
                     double real = complexMulReal(real1, imag1, phis[k], phis[k + 1]);
                     double imag = complexMulImag(real1, imag1, phis[k], phis[k + 1]);
@@ -262,7 +348,8 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
                 }
             } // use the DFT for the first offset
             else {
-                mftData = Arrays.copyOf(series, windowSize);
+                mftData = new double[windowSize];
+                System.arraycopy(series, offset, mftData, 0, Math.min(windowSize, length));
                 mftData = DFTunnormed(mftData);
             }
             // normalization for lower bounding
@@ -271,23 +358,25 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
         return transformed;
     }
 
-    private void calcIncrementalMeanStddev(int windowLength, double[] series, double[] means, double[] stds) {
+    private void calcIncrementalMeanStddev(int windowLength, double[] series, int offset, int length, double[] means, double[] stds) {
         double sum = 0;
         double squareSum = 0;
         // it is faster to multiply than to divide
         double rWindowLength = 1.0 / (double) windowLength;
         double[] tsData = series;
-        for (int ww = 0; ww < windowLength; ww++) {
+        for (int ww = offset; ww < offset + windowLength; ww++) {
             sum += tsData[ww];
             squareSum += tsData[ww] * tsData[ww];
         }
         means[0] = sum * rWindowLength;
         double buf = squareSum * rWindowLength - means[0] * means[0];
         stds[0] = buf > 0 ? Math.sqrt(buf) : 0;
-        for (int w = 1, end = tsData.length - windowLength + 1; w < end; w++) {
-            sum += tsData[w + windowLength - 1] - tsData[w - 1];
+        for (int w = 1, end = length - windowLength + 1; w < end; w++) {
+            int first = offset + w - 1;
+            int last = offset + w + windowLength - 1;
+            sum += tsData[last] - tsData[first];
             means[w] = sum * rWindowLength;
-            squareSum += tsData[w + windowLength - 1] * tsData[w + windowLength - 1] - tsData[w - 1] * tsData[w - 1];
+            squareSum += tsData[last] * tsData[last] - tsData[first] * tsData[first];
             buf = squareSum * rWindowLength - means[w] * means[w];
             stds[w] = buf > 0 ? Math.sqrt(buf) : 0;
         }
@@ -310,26 +399,36 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
     }
 
     protected double[][] disjointWindows(double [] data) {
-        int amount = (int)Math.ceil(data.length/(double)windowSize);
+        return disjointWindows(data, 0, data.length);
+    }
+
+    /**
+     * Disjoint windows of the series stored in data[start] to data[start+length-1]
+     */
+    protected double[][] disjointWindows(double [] data, int start, int length) {
+        int amount = (int)Math.ceil(length/(double)windowSize);
         double[][] subSequences = new double[amount][windowSize];
 
         for (int win = 0; win < amount; ++win) {
-            int offset = Math.min(win*windowSize, data.length-windowSize);
+            int offset = Math.min(win*windowSize, length-windowSize);
 
             //copy the elements windowStart to windowStart+windowSize from data into
             //the subsequence matrix at position windowStart
-            System.arraycopy(data,offset,subSequences[win],0,windowSize);
+            System.arraycopy(data,start+offset,subSequences[win],0,windowSize);
         }
 
         return subSequences;
     }
 
     protected double[][] MCB(Instances data) {
-        double[][][] dfts = new double[data.numInstances()][][];
+        return MCB(new TimeSeriesDataset(data));
+    }
+
+    protected double[][] MCB(TimeSeriesDataset data) {
+        double[][][] dfts = new double[data.numSeries()][][];
 
-        int sample = 0;
-        for (Instance inst : data)
-            dfts[sample++] = performDFT(disjointWindows(toArrayNoClass(inst))); //approximation
+        for (int sample = 0; sample < dfts.length; ++sample)
+            dfts[sample] = performDFT(disjointWindows(data.getData(), data.offset(sample), data.seriesLength())); //approximation
 
         int numInsts = dfts.length;
         int numWindowsPerInst = dfts[0].length;
@@ -380,10 +479,7 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
             if (numerosityReduction && word.equals(lastWord))
                 continue;
 
-            Integer val = bag.get(word);
-            if (val == null)
-                val = 0;
-            bag.put(word, ++val);
+            bag.putOrAdd(word.getWord(), 1, 1);
 
             lastWord = word;
         }
@@ -431,6 +527,36 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
         return bag;
     }
 
+    /**
+     * Fourier approximation of every sliding window of the series stored in series[offset] to
+     * series[offset+length-1]. Each coefficient is found independently, so the approximation can be
+     * passed to createBagSingle of any individual with the same window size and normalisation and a
+     * word length no longer than this one's, which only reads the coefficients it needs.
+     */
+    public double[][] transformWindows(double[] series, int offset, int length) {
+        return performMFT(series, offset, length);
+    }
+
+    /**
+     * @return class value of the nearest neighbour of testBag among the train bags
+     */
+    public double classifyBag(Bag testBag) {
+        //1NN BOSS distance
+        double bestDist = Double.MAX_VALUE;
+        double nn = -1;
+
+        for (int i = 0; i < bags.size(); ++i) {
+            double dist = BOSSdistance(testBag, bags.get(i), bestDist);
+
+            if (dist < bestDist) {
+                bestDist = dist;
+                nn = bags.get(i).getClassVal();
+            }
+        }
+
+        return nn;
+    }
+
     /**
      * Shortens all bags in this BOSS instance (histograms) to the newWordLength, if wordlengths
      * are same, instance is UNCHANGED
@@ -474,10 +600,7 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
             if (numerosityReduction && word.equals(lastWord))
                 continue;
 
-            Integer val = bag.get(word);
-            if (val == null)
-                val = 0;
-            bag.put(word, ++val);
+            bag.putOrAdd(word.getWord(), 1, 1);
 
             lastWord = word;
         }
@@ -486,7 +609,14 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
     }
 
     protected BitWord[] createSFAwords(Instance inst) {
-        double[][] dfts = performMFT(toArrayNoClass(inst)); //approximation
+        return createSFAwords(performMFT(toArrayNoClass(inst))); //approximation
+    }
+
+    protected BitWord[] createSFAwords(TimeSeriesDataset data, int series) {
+        return createSFAwords(performMFT(data.getData(), data.offset(series), data.seriesLength())); //approximation
+    }
+
+    private BitWord[] createSFAwords(double[][] dfts) {
         BitWord[] words = new BitWord[dfts.length];
         for (int window = 0; window < dfts.length; ++window)
             words[window] = createWord(dfts[window]);//discretisation
@@ -499,36 +629,51 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
         if (data.classIndex() != data.numAttributes()-1)
             throw new Exception("BOSS_BuildClassifier: Class attribute not set as last attribute in dataset");
 
+        buildClassifier(new TimeSeriesDataset(data));
+    }
+
+    /**
+     * Builds from series that have already been copied out of their Instances, so that a
+     * dataset can be shared by every individual built on the same data.
+     */
+    public void buildClassifier(TimeSeriesDataset data) throws Exception {
         breakpoints = MCB(data); //breakpoints to be used for making sfa words for train AND test data
-        SFAwords = new BitWord[data.numInstances()][];
-        bags = new ArrayList<>(data.numInstances());
+        SFAwords = new BitWord[data.numSeries()][];
+        bags = new ArrayList<>(data.numSeries());
         rand = new Random(seed);
         numClasses = data.numClasses();
 
         if (multiThread){
-            ex = Executors.newFixedThreadPool(numThreads);
-            ArrayList<TransformThread> threads = new ArrayList<>(data.numInstances());
+            ArrayList<TransformThread> threads = new ArrayList<>(data.numSeries());
 
-            for (int inst = 0; inst < data.numInstances(); ++inst) {
-                TransformThread t = new TransformThread(inst, data.get(inst));
-                threads.add(t);
+            for (int inst = 0; inst < data.numSeries(); ++inst) {
+                threads.add(new TransformThread(inst, data));
                 bags.add(null);
-                ex.execute(t);
             }
 
-            ex.shutdown();
-            while (!ex.isTerminated());
+            if (ex == null) {
+                ExecutorService pool = newThreadPool(numThreads);
+                try {
+                    runAll(pool, threads);
+                }
+                finally {
+                    pool.shutdown();
+                }
+            }
+            else {
+                runAll(ex, threads);
+            }
 
             for (TransformThread t: threads){
                 bags.set(t.i, t.bag);
             }
         }
         else {
-            for (int inst = 0; inst < data.numInstances(); ++inst) {
-                SFAwords[inst] = createSFAwords(data.get(inst));
+            for (int inst = 0; inst < data.numSeries(); ++inst) {
+                SFAwords[inst] = createSFAwords(data, inst);
 
                 Bag bag = createBagFromWords(wordLength, SFAwords[inst]);
-                bag.setClassVal(data.get(inst).classValue());
+                bag.setClassVal(data.classValue(inst));
                 bags.add(bag);
             }
         }
@@ -546,41 +691,13 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
      * @return distance FROM instA TO instB, or Double.MAX_VALUE if it would be greater than bestDist
      */
     public double BOSSdistance(Bag instA, Bag instB, double bestDist) {
-        double dist = 0.0;
-
         //find dist only from values in instA
-        for (Map.Entry<BitWord, Integer> entry : instA.entrySet()) {
-            Integer valA = entry.getValue();
-            Integer valB = instB.get(entry.getKey());
-            if (valB == null)
-                valB = 0;
-            dist += (valA-valB)*(valA-valB);
-
-            if (dist > bestDist)
-                return Double.MAX_VALUE;
-        }
-
-        return dist;
+        return instA.distance(instB, bestDist);
     }
 
     @Override
     public double classifyInstance(Instance instance) throws Exception{
-        BOSSIndividual.Bag testBag = BOSSTransform(instance);
-
-        //1NN BOSS distance
-        double bestDist = Double.MAX_VALUE;
-        double nn = -1;
-
-        for (int i = 0; i < bags.size(); ++i) {
-            double dist = BOSSdistance(testBag, bags.get(i), bestDist);
-
-            if (dist < bestDist) {
-                bestDist = dist;
-                nn = bags.get(i).getClassVal();
-            }
-        }
-
-        return nn;
+        return classifyBag(BOSSTransform(instance));
     }
 
     /**
@@ -613,6 +730,46 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
         return nn;
     }
 
+    /**
+     * Pool for an ensemble to hold for as long as it is used and pass to its individuals. The threads
+     * are daemons and exit once idle, so it does not need to be shut down to release them.
+     */
+    public static ExecutorService newThreadPool(int numThreads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "BOSS");
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Runs every task on ex and waits for them all to finish, rethrowing the first failure.
+     */
+    public static void runAll(ExecutorService ex, List<? extends Runnable> tasks) throws Exception {
+        ArrayList<Future<?>> futures = new ArrayList<>(tasks.size());
+        for (Runnable t : tasks) {
+            futures.add(ex.submit(t));
+        }
+
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        }
+        catch (ExecutionException e) {
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            throw e;
+        }
+    }
+
     public class TestNearestNeighbourThread implements Runnable{
         Instance inst;
         double weight;
@@ -627,19 +784,7 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
 
         @Override
         public void run() {
-            BOSSIndividual.Bag testBag = BOSSTransform(inst);
-
-            //1NN BOSS distance
-            double bestDist = Double.MAX_VALUE;
-
-            for (int i = 0; i < bags.size(); ++i) {
-                double dist = BOSSdistance(testBag, bags.get(i), bestDist);
-
-                if (dist < bestDist) {
-                    bestDist = dist;
-                    nn = bags.get(i).getClassVal();
-                }
-            }
+            nn = classifyBag(BOSSTransform(inst));
         }
     }
 
@@ -674,20 +819,20 @@ public class BOSSIndividual extends AbstractClassifier implements Serializable,
 
     private class TransformThread implements Runnable{
         int i;
-        Instance inst;
+        TimeSeriesDataset data;
         BOSSIndividual.Bag bag;
 
-        public TransformThread(int i, Instance inst){
+        public TransformThread(int i, TimeSeriesDataset data){
             this.i = i;
-            this.inst = inst;
+            this.data = data;
         }
 
         @Override
         public void run() {
-            SFAwords[i] = createSFAwords(inst);
+            SFAwords[i] = createSFAwords(data, i);
 
             bag = createBagFromWords(wordLength, SFAwords[i]);
-            bag.setClassVal(inst.classValue());
+            bag.setClassVal(data.classValue(i));
         }
     }
 }
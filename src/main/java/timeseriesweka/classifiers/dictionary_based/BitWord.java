@@ -90,6 +90,15 @@ public class BitWord implements Comparable<BitWord>, Serializable {
     }
     
     
+    /**
+     * @param word letters already packed, as returned by getWord()
+     * @param length number of letters packed in word
+     */
+    public BitWord(int word, int length) {
+        this.word = word;
+        this.length = (byte)length;
+    }
+    
     public BitWord(int [] letters) throws Exception {
         setWord(letters);
     }
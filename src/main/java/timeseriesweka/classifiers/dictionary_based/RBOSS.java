@@ -27,7 +27,6 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import utilities.*;
 import utilities.samplers.*;
@@ -131,7 +130,8 @@ public class RBOSS extends AbstractClassifierWithTrainingInfo implements TrainAc
 
     private int numThreads = 1;
     private boolean multiThread = false;
-    private ExecutorService ex;
+    //one pool shared by every individual for the life of the ensemble, made on first use
+    private transient ExecutorService ex;
 
     protected static final long serialVersionUID = 22554L;
 
@@ -253,6 +253,14 @@ public class RBOSS extends AbstractClassifierWithTrainingInfo implements TrainAc
         }
     }
 
+    //Thread pool for the BOSSIndividual builds and nearest neighbour searches, made again if it has been shut down
+    private ExecutorService getExecutor() {
+        if (ex == null || ex.isShutdown()) {
+            ex = BOSSIndividual.newThreadPool(numThreads);
+        }
+        return ex;
+    }
+
     //Set the path where checkpointed versions will be stored
     @Override
     public void setSavePath(String path){
@@ -594,7 +602,7 @@ public class RBOSS extends AbstractClassifierWithTrainingInfo implements TrainAc
             double[] parameters = selectParameters();
             if (parameters == null) continue;
 
-            BOSSIndividual boss = new BOSSIndividual((int)parameters[0], (int)parameters[1], (int)parameters[2], parameters[3] == 1, multiThread, numThreads, ex);
+            BOSSIndividual boss = new BOSSIndividual((int)parameters[0], (int)parameters[1], (int)parameters[2], parameters[3] == 1, multiThread, numThreads, multiThread ? getExecutor() : null);
             Instances data = resampleData(series[currentSeries], boss);
             boss.cleanAfterBuild = true;
             boss.seed = seed;
@@ -676,7 +684,7 @@ public class RBOSS extends AbstractClassifierWithTrainingInfo implements TrainAc
             double[] parameters = selectParameters();
             if (parameters == null) continue;
 
-            BOSSIndividual boss = new BOSSIndividual((int)parameters[0], (int)parameters[1], (int)parameters[2], parameters[3] == 1, multiThread, numThreads, ex);
+            BOSSIndividual boss = new BOSSIndividual((int)parameters[0], (int)parameters[1], (int)parameters[2], parameters[3] == 1, multiThread, numThreads, multiThread ? getExecutor() : null);
             Instances data = resampleData(series[currentSeries], boss);
             boss.cleanAfterBuild = true;
             boss.seed = seed;
@@ -1018,17 +1026,13 @@ public class RBOSS extends AbstractClassifierWithTrainingInfo implements TrainAc
         int requiredCorrect = (int)(lowestAcc*numInst);
 
         if (multiThread){
-            ex = Executors.newFixedThreadPool(numThreads);
-            ArrayList<BOSSIndividual.TrainNearestNeighbourThread> threads = new ArrayList<>(sum(numClassifiers));
+            ArrayList<BOSSIndividual.TrainNearestNeighbourThread> threads = new ArrayList<>(numInst);
 
             for (int i = 0; i < numInst; ++i) {
-                BOSSIndividual.TrainNearestNeighbourThread t = boss.new TrainNearestNeighbourThread(indicies[i]);
-                threads.add(t);
-                ex.execute(t);
+                threads.add(boss.new TrainNearestNeighbourThread(indicies[i]));
             }
 
-            ex.shutdown();
-            while (!ex.isTerminated());
+            BOSSIndividual.runAll(getExecutor(), threads);
 
             for (BOSSIndividual.TrainNearestNeighbourThread t: threads){
                 if (t.nn == series.get(t.testIndex).classValue()) {
@@ -1192,19 +1196,15 @@ public class RBOSS extends AbstractClassifierWithTrainingInfo implements TrainAc
         }
 
         if (multiThread){
-            ex = Executors.newFixedThreadPool(numThreads);
             ArrayList<BOSSIndividual.TestNearestNeighbourThread> threads = new ArrayList<>(sum(numClassifiers));
 
             for (int n = 0; n < numSeries; n++) {
                 for (BOSSIndividual classifier : classifiers[n]) {
-                    BOSSIndividual.TestNearestNeighbourThread t = classifier.new TestNearestNeighbourThread(instance, classifier.weight, n);
-                    threads.add(t);
-                    ex.execute(t);
+                    threads.add(classifier.new TestNearestNeighbourThread(series[n], classifier.weight, n));
                 }
             }
 
-            ex.shutdown();
-            while (!ex.isTerminated());
+            BOSSIndividual.runAll(getExecutor(), threads);
 
             for (BOSSIndividual.TestNearestNeighbourThread t: threads){
                 classHist[t.series][(int)t.nn] += t.weight;
@@ -29,6 +29,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.carrotsearch.hppc.cursors.IntIntCursor;
 import timeseriesweka.classifiers.dictionary_based.BOSSIndividual;
 import utilities.InstanceTools;
 import timeseriesweka.classifiers.SaveParameterInfo;
@@ -37,7 +38,6 @@ import weka.classifiers.Classifier;
 import weka.core.TechnicalInformation;
 
 import java.util.HashSet;
-import java.util.Map.Entry;
 import java.util.Set;
 import timeseriesweka.classifiers.dictionary_based.BOSS;
 import timeseriesweka.classifiers.dictionary_based.BitWord;
@@ -677,6 +677,11 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
             classAttribute = boss.classAttribute;
         }
 
+        //attribute name of a packed word from one of this individual's bags
+        private String wordString(int word) {
+            return new BitWord(word, wordLength).toString();
+        }
+
         public Instances bagsToInstances() {
             //build attribute info, each bag may have different keys etc
             //need to build common vector of all keys found in all bags
@@ -686,8 +691,8 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
             FastVector<Attribute> attInfo = new FastVector<>();
             Set<String> wordsFound = new HashSet<>();
             for (Bag bag : bags) 
-                for (Entry<BitWord,Integer> entry : bag.entrySet()) 
-                    wordsFound.add(entry.getKey().toString());
+                for (IntIntCursor entry : bag) 
+                    wordsFound.add(wordString(entry.key));
             for (String word : wordsFound) 
                 attInfo.add(new Attribute(word));
 
@@ -705,8 +710,8 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
                 init[init.length-1] = bag.getClassVal();
 
                 bagInsts.add(new DenseInstance(1, init));
-                for (Entry<BitWord,Integer> entry : bag.entrySet())
-                    bagInsts.get(i).setValue(bagInsts.attribute(entry.getKey().toString()), entry.getValue());
+                for (IntIntCursor entry : bag)
+                    bagInsts.get(i).setValue(bagInsts.attribute(wordString(entry.key)), entry.value);
 
                 i++;
             }
@@ -788,10 +793,10 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
 
             //TEMPORARILY create it on the end of the train insts to easily copy over the attribute data.
             bagInsts.add(new DenseInstance(1, init));
-            for (Entry<BitWord,Integer> entry : testBag.entrySet()) {
-                Attribute att = bagInsts.attribute(entry.getKey().toString());
+            for (IntIntCursor entry : testBag) {
+                Attribute att = bagInsts.attribute(wordString(entry.key));
                 if (att != null)
-                    bagInsts.get(bagInsts.size()-1).setValue(att, entry.getValue());
+                    bagInsts.get(bagInsts.size()-1).setValue(att, entry.value);
             }
 
             Instance testInst = bagInsts.remove(bagInsts.size()-1);
@@ -810,10 +815,10 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
 
             //TEMPORARILY create it on the end of the train isnts to easily copy over the attribute data.
             bagInsts.add(new DenseInstance(1, init));
-            for (Entry<BitWord,Integer> entry : testBag.entrySet()) {
-                Attribute att = bagInsts.attribute(entry.getKey().toString());
+            for (IntIntCursor entry : testBag) {
+                Attribute att = bagInsts.attribute(wordString(entry.key));
                 if (att != null)
-                    bagInsts.get(bagInsts.numInstances()-1).setValue(att, entry.getValue());
+                    bagInsts.get(bagInsts.numInstances()-1).setValue(att, entry.value);
             }
             Instance testInst = bagInsts.remove(bagInsts.size()-1);
 
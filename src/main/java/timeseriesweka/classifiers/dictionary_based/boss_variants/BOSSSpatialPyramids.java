@@ -32,12 +32,15 @@ import utilities.InstanceTools;
 import timeseriesweka.classifiers.SaveParameterInfo;
 import weka.core.TechnicalInformation;
 
-import utilities.generic_storage.ComparablePair;
+import com.carrotsearch.hppc.Containers;
+import com.carrotsearch.hppc.HashContainers;
+import com.carrotsearch.hppc.HashOrderMixing;
+import com.carrotsearch.hppc.HashOrderMixingStrategy;
+import com.carrotsearch.hppc.LongDoubleHashMap;
+import com.carrotsearch.hppc.cursors.LongDoubleCursor;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map.Entry;
 import utilities.ClassifierTools;
 import timeseriesweka.classifiers.dictionary_based.BitWord;
 import weka.core.Capabilities;
@@ -723,21 +726,58 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
             bags = new ArrayList<>(boss.bags.size());
         }
 
-        //map of <word, level> => count
-        public static class SPBag extends HashMap<ComparablePair<BitWord, Integer>, Double> {
+        //map of <word, quadrant> => count, keyed by key(word, quadrant) in primitive arrays
+        public static class SPBag extends LongDoubleHashMap implements Serializable {
             double classVal;
 
+            //fixed mixing, so bags iterate in the same order between runs and after being deserialised
+            private static final HashOrderMixingStrategy ORDER_MIXING = HashOrderMixing.constant(0);
+
             public SPBag() {
-                super();
+                //hppc randomises iteration order by default, keep it the same between runs
+                super(Containers.DEFAULT_EXPECTED_ELEMENTS, HashContainers.DEFAULT_LOAD_FACTOR, ORDER_MIXING);
             }
 
             public SPBag(int classValue) {
-                super();
+                this();
                 classVal = classValue;
             }
 
             public double getClassVal() { return classVal; }
             public void setClassVal(double classVal) { this.classVal = classVal; }       
+
+            /**
+             * @return packed word and quadrant as a single key, all words in a bag have the same length 
+             */
+            public static long key(BitWord word, int quadrant) {
+                return ((long)quadrant << 32) | (word.getWord() & 0xFFFFFFFFL);
+            }
+
+            public static int quadrant(long key) {
+                return (int)(key >>> 32);
+            }
+
+            //the hppc map is not serializable itself, so write the entries out
+            private void writeObject(ObjectOutputStream out) throws IOException {
+                out.defaultWriteObject();
+                out.writeInt(size());
+                for (LongDoubleCursor entry : this) {
+                    out.writeLong(entry.key);
+                    out.writeDouble(entry.value);
+                }
+            }
+
+            private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+                in.defaultReadObject();
+                //the map was made by its own no-arg constructor, with randomised order, so reallocate with fixed mixing
+                orderMixer = ORDER_MIXING;
+                release();
+                int size = in.readInt();
+                ensureCapacity(size);
+                for (int i = 0; i < size; i++) {
+                    put(in.readLong(), in.readDouble());
+                }
+            }
         }
 
         public int getWindowSize() { return windowSize; }
@@ -1113,11 +1153,7 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
                 BitWord shortWord = new BitWord(word);
                 shortWord.shortenByFourierCoefficient();
 
-                Double val = newSPBag.get(shortWord);
-                if (val == null)
-                    val = 0.0;
-
-                newSPBag.put(new ComparablePair<BitWord, Integer>(shortWord, 0), val + 1.0);
+                newSPBag.putOrAdd(SPBag.key(shortWord, 0), 1.0, 1.0);
             }
 
             return newSPBag;
@@ -1181,9 +1217,9 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
         }
 
         protected void applyPyramidWeights(SPBag bag) {
-            for (Entry<ComparablePair<BitWord, Integer>, Double> ent : bag.entrySet()) {
+            for (LongDoubleCursor ent : bag) {
                 //find level that this quadrant is on
-                int quadrant = ent.getKey().var2;
+                int quadrant = SPBag.quadrant(ent.key);
                 int qEnd = 0; 
                 int level = 0; 
                 while (qEnd < quadrant) {
@@ -1191,8 +1227,8 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
                     qEnd+=numQuadrants;
                 }
 
-                double val = ent.getValue() * (Math.pow(levelWeighting, levels-level-1)); //weighting ^ (levels - level)
-                bag.put(ent.getKey(), val); 
+                double val = ent.value * (Math.pow(levelWeighting, levels-level-1)); //weighting ^ (levels - level)
+                bag.indexReplace(ent.index, val); 
             }
         }
 
@@ -1208,12 +1244,7 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
                 int pos = wInd + (windowSize/2); //use the middle of the window as its position
                 int quadrant = qStart + (pos/quadrantSize); 
 
-                ComparablePair<BitWord, Integer> key = new ComparablePair<>(word, quadrant);
-                Double val = bag.get(key);
-
-                if (val == null)
-                    val = 0.0;
-                bag.put(key, ++val);   
+                bag.putOrAdd(SPBag.key(word, quadrant), 1.0, 1.0);
 
                 qStart += numQuadrants;
             }
@@ -1257,11 +1288,9 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
             double dist = 0.0;
 
             //find dist only from values in instA
-            for (Entry<ComparablePair<BitWord, Integer>, Double> entry : instA.entrySet()) {
-                Double valA = entry.getValue();
-                Double valB = instB.get(entry.getKey());
-                if (valB == null)
-                    valB = 0.0;
+            for (LongDoubleCursor entry : instA) {
+                double valA = entry.value;
+                double valB = instB.get(entry.key); //0 if absent
                 dist += (valA-valB)*(valA-valB);
             }
 
@@ -1279,11 +1308,9 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
             double dist = 0.0;
 
             //find dist only from values in instA
-            for (Entry<ComparablePair<BitWord, Integer>, Double> entry : instA.entrySet()) {
-                Double valA = entry.getValue();
-                Double valB = instB.get(entry.getKey());
-                if (valB == null)
-                    valB = 0.0;
+            for (LongDoubleCursor entry : instA) {
+                double valA = entry.value;
+                double valB = instB.get(entry.key); //0 if absent
                 dist += (valA-valB)*(valA-valB);
 
                 if (dist > bestDist)
@@ -1301,12 +1328,14 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
 
             double sim = 0.0;
 
-            for (Entry<ComparablePair<BitWord, Integer>, Double> entry : instA.entrySet()) {
-                Double valA = entry.getValue();
-                Double valB = instB.get(entry.getKey());
-                if (valB == null)
+            for (LongDoubleCursor entry : instA) {
+                int index = instB.indexOf(entry.key);
+                if (index < 0)
                     continue;
 
+                double valA = entry.value;
+                double valB = instB.indexGet(index);
+
                 sim += Math.min(valA,valB);
             }
 
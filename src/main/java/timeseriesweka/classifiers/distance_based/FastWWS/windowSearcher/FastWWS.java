@@ -18,22 +18,33 @@
 package timeseriesweka.classifiers.distance_based.fast_dtw.windowSearcher;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
+import timeseriesweka.classifiers.MultiThreadable;
+import timeseriesweka.classifiers.distance_based.fast_dtw.items.DTWResult;
 import timeseriesweka.classifiers.distance_based.fast_dtw.items.LazyAssessNN;
+import timeseriesweka.classifiers.distance_based.fast_dtw.items.MonoDoubleItemSet;
 import timeseriesweka.classifiers.distance_based.fast_dtw.items.SequenceStatsCache;
 import timeseriesweka.classifiers.distance_based.fast_dtw.items.LazyAssessNN.RefineReturnType;
 import timeseriesweka.classifiers.distance_based.fast_dtw.sequences.SymbolicSequence;
+import timeseriesweka.classifiers.distance_based.fast_dtw.tools.Tools;
+import utilities.ParallelUtils;
 
 /**
  * Code for the paper "Efficient search of the best warping window for Dynamic Time Warping" published in SDM18
  * 
  * Search for the best warping window using Fast Warping Window Search (FastWWS)
  * 
+ * With a thread allowance above 1, the table of nearest neighbours is filled with the queries shared among 
+ * the threads, see initTableConcurrently()
+ * 
  * @author Chang Wei Tan, Francois Petitjean, Matthieu Herrmann, Germain Forestier, Geoff Webb
  *
  */
-public class FastWWS extends WindowSearcher {
+public class FastWWS extends WindowSearcher implements MultiThreadable {
 	// --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     // Internal types
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
@@ -104,7 +115,9 @@ public class FastWWS extends WindowSearcher {
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     private static final long serialVersionUID = 1536192551485201554L;
     private PotentialNN[][] nns;                                        // Our main structure
+    private int[][] nnIndices;                                          // Index of the NN per [Window Size][sequence], kept once the table is filled
     private boolean init;                                               // Have we initialize our structure?
+    private int numThreads = 1;                                         // Threads to fill the table with
     
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     // Constructor
@@ -125,6 +138,11 @@ public class FastWWS extends WindowSearcher {
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     // Methods
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    @Override
+    public void setThreadAllowance(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     public String doTime(long start){
         long duration = System.currentTimeMillis() - start;
         return "" + (duration / 1000) + " s " + (duration % 1000) + " ms";
@@ -160,6 +178,11 @@ public class FastWWS extends WindowSearcher {
             System.err.println("Set is to small: " + train.length + " sequence. At least 2 sequences needed.");
         }
 
+        if (numThreads > 1) {
+            initTableConcurrently();
+            return;
+        }
+
         System.out.println("Starting optimisation");
 
         //
@@ -283,10 +306,290 @@ public class FastWWS extends WindowSearcher {
             } // END for(int win=maxWindow; win>-1; --win)
         } // END for(int current=1; current < train.length; ++current)
 
+        // Only the index of each NN is needed from here on
+        nnIndices = new int[maxWindow + 1][train.length];
+        for (int win = 0; win < maxWindow + 1; ++win) {
+            for (int len = 0; len < train.length; ++len) {
+                nnIndices[win][len] = nns[win][len].index;
+            }
+        }
+        nns = null;
+
         System.out.println("done! (" + doTime (timeInit) + ")");
         this.init = true;        
     } // END initTable()
 
+    /**
+     * Filling our main structure with numThreads threads
+     * 
+     * The windows are taken in decreasing order as in initTable(), but at each window every query searches for its NN 
+     * among all the other sequences, so the queries can be shared among the threads. A query keeps its NN for as long 
+     * as the window stays valid for it, since every other distance can only grow as the window shrinks.
+     * 
+     * The envelopes for a window of the queries to be searched are computed in the cache before they are searched, 
+     * so the threads share the cache and only read from it. In place of a LazyAssessNN per pair, the lazy state is 
+     * a float per (query, candidate): a lower bound on their squared distance, rounded down, raised by LB Kim, 
+     * LB Keogh and DTW as they are found. A query visits its candidates by increasing bound and stops at the first 
+     * that cannot beat its best so far. Only the thread searching for a query writes its row, so no locking is needed.
+     * 
+     * A pair may be assessed from both sides, where initTable() assesses it once for both, and a DTW distance is not 
+     * kept beyond its bound, but stopping in bound order makes up for this. The NN found may differ from initTable()'s 
+     * where two candidates are at exactly the same distance.
+     */
+    protected void initTableConcurrently() {
+        System.out.println("Starting optimisation on " + numThreads + " threads");
+        long timeInit = System.currentTimeMillis();
+
+        final int n = train.length;
+        final SequenceStatsCache cache = new SequenceStatsCache(train, maxWindow);
+        final double[][] values = new double[n][];
+        for (int i = 0; i < n; ++i) {
+            values[i] = new double[train[i].getNbTuples()];
+            for (int t = 0; t < values[i].length; ++t) {
+                values[i][t] = ((MonoDoubleItemSet) train[i].sequence[t]).value;
+            }
+        }
+
+        final float[][] lowerBounds = new float[n][n];
+        final int[] nn = new int[n];                                     // Current NN of each query
+        final int[] validity = new int[n];                               // Smallest window the current NN is valid for
+        Arrays.fill(nn, -1);
+        Arrays.fill(validity, Integer.MAX_VALUE);
+        nnIndices = new int[maxWindow + 1][n];
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            forEachConcurrently(pool, n, () -> query -> {
+                for (int c = 0; c < n; ++c) {
+                    if (c != query) {
+                        lowerBounds[query][c] = roundDown(lbKim(cache, values, query, c));
+                    }
+                }
+            });
+            System.out.println("Initialisation done ("+doTime(timeInit)+")");
+
+            for (int win = maxWindow; win > -1; --win) {
+                final int w = win;
+                // Computes both envelopes of the queries to search at this window, the cache is only read from after
+                final boolean[] searching = new boolean[n];
+                for (int i = 0; i < n; ++i) {
+                    searching[i] = validity[i] > w;
+                }
+                forEachConcurrently(pool, n, () -> i -> {
+                    if (searching[i]) {
+                        cache.getLE(i, w);
+                    }
+                });
+                forEachConcurrently(pool, n, () -> {
+                    long[] order = new long[n];
+                    double[][] costs = new double[2][maxLength];
+                    int[][] windows = new int[2][maxLength];
+                    return query -> {
+                        if (validity[query] <= w) {
+                            nnIndices[w][query] = nn[query];
+                            return;
+                        }
+                        float[] lbs = lowerBounds[query];
+                        double best = Double.POSITIVE_INFINITY;
+                        int bestIndex = -1, bestR = Integer.MAX_VALUE;
+
+                        // The NN at the larger window is likely still close, so start from its distance at this one
+                        if (nn[query] >= 0) {
+                            bestIndex = nn[query];
+                            DTWResult res = dtw(values, query, bestIndex, w, costs, windows);
+                            best = res.distance * res.distance;
+                            bestR = res.r;
+                            lbs[bestIndex] = roundDown(best);
+                        }
+
+                        int k = 0;
+                        for (int c = 0; c < n; ++c) {
+                            if (c != query && c != bestIndex) {
+                                // bounds are never negative, so their bits sort as they do
+                                order[k++] = ((long) Float.floatToIntBits(lbs[c]) << 32) | c;
+                            }
+                        }
+                        Arrays.sort(order, 0, k);
+
+                        for (int o = 0; o < k; ++o) {
+                            int c = (int) order[o];
+                            if (lbs[c] >= best) {
+                                break;
+                            }
+                            double lb = lbKeogh(cache, values, query, c, searching[c], w, best);
+                            if (lb > lbs[c]) {
+                                lbs[c] = roundDown(lb);
+                            }
+                            if (lb >= best) {
+                                continue;
+                            }
+                            DTWResult res = dtw(values, query, c, w, costs, windows);
+                            double d = res.distance * res.distance;
+                            lbs[c] = roundDown(d);
+                            if (d < best) {
+                                best = d;
+                                bestIndex = c;
+                                bestR = res.r;
+                            }
+                        }
+
+                        nn[query] = bestIndex;
+                        validity[query] = bestR;
+                        nnIndices[w][query] = bestIndex;
+                    };
+                });
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.println("done! (" + doTime (timeInit) + ")");
+        this.init = true;
+    } // END initTableConcurrently()
+
+    /**
+     * Calls the worker from workers.get() on each index 0..n-1, with each of numThreads threads getting its own worker
+     */
+    private void forEachConcurrently(ForkJoinPool pool, int n, Supplier<ParallelUtils.IndexTask> workers) {
+        try {
+            ParallelUtils.forEach(pool, numThreads, n, workers);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The largest float that is not above d, so that it is still a lower bound
+     */
+    private static float roundDown(double d) {
+        float f = (float) d;
+        return f > d ? Math.nextDown(f) : f;
+    }
+
+    /**
+     * LB Kim of sequences a and b, as in LazyAssessNN
+     */
+    private static double lbKim(SequenceStatsCache cache, double[][] values, int a, int b) {
+        double[] va = values[a], vb = values[b];
+        double diffFirsts = va[0] - vb[0];
+        double diffLasts = va[va.length - 1] - vb[vb.length - 1];
+        double minDist = diffFirsts * diffFirsts + diffLasts * diffLasts;
+        if (!cache.isMinFirst(a) && !cache.isMinFirst(b) && !cache.isMinLast(a) && !cache.isMinLast(b)) {
+            double diffMin = cache.getMin(a) - cache.getMin(b);
+            minDist += diffMin * diffMin;
+        }
+        if (!cache.isMaxFirst(a) && !cache.isMaxFirst(b) && !cache.isMaxLast(a) && !cache.isMaxLast(b)) {
+            double diffMax = cache.getMax(a) - cache.getMax(b);
+            minDist += diffMax * diffMax;
+        }
+        return minDist;
+    }
+
+    /**
+     * LB Keogh(a,b) at window w, or the larger of that and LB Keogh(b,a) if b's envelope is in the cache too,
+     * stopping as soon as either reaches scoreToBeat
+     */
+    private static double lbKeogh(SequenceStatsCache cache, double[][] values, int a, int b, boolean bothWays, int w, double scoreToBeat) {
+        double ab = lbKeoghOneWay(cache, values, a, b, w, scoreToBeat);
+        if (ab >= scoreToBeat || !bothWays) {
+            return ab;
+        }
+        return Math.max(ab, lbKeoghOneWay(cache, values, b, a, w, scoreToBeat));
+    }
+
+    // Distance of reference from the envelope of query, visiting the reference's largest values first
+    private static double lbKeoghOneWay(SequenceStatsCache cache, double[][] values, int query, int reference, int w, double scoreToBeat) {
+        double[] LEQ = cache.getLE(query, w);
+        double[] UEQ = cache.getUE(query, w);
+        double[] r = values[reference];
+        double minDist = 0.0;
+        for (int n = 0; n < r.length && minDist < scoreToBeat; ++n) {
+            int index = cache.getIndexNthHighestVal(reference, n);
+            double c = r[index];
+            if (c < LEQ[index]) {
+                double diff = LEQ[index] - c;
+                minDist += diff * diff;
+            } else if (UEQ[index] < c) {
+                double diff = UEQ[index] - c;
+                minDist += diff * diff;
+            }
+        }
+        return minDist;
+    }
+
+    /**
+     * DTW with window w and its window validity, as SymbolicSequence.DTWExtResults with the lower index first as in 
+     * LazyAssessNN, but keeping two rows of the cost and validity matrices in the buffers given rather than in 
+     * SymbolicSequence's shared static matrices, so that threads can compute distances at the same time
+     */
+    private static DTWResult dtw(double[][] values, int a, int b, int w, double[][] costs, int[][] windows) {
+        final double[] s = values[Math.min(a, b)];
+        final double[] t = values[Math.max(a, b)];
+        final int tailleS = s.length;
+        final int tailleT = t.length;
+        double[] prevCost = costs[1], cost = costs[0];
+        int[] prevWin = windows[1], win = windows[0];
+        int i, j;
+        double res = 0.0;
+
+        cost[0] = (s[0] - t[0]) * (s[0] - t[0]);
+        win[0] = 0;
+        for (j = 1; j < Math.min(tailleT, 1 + w); j++) {
+            cost[j] = cost[j - 1] + (t[j] - s[0]) * (t[j] - s[0]);
+            win[j] = j;
+        }
+        if (j < tailleT) {
+            cost[j] = Double.POSITIVE_INFINITY;
+        }
+
+        for (i = 1; i < tailleS; i++) {
+            double[] tmpCost = prevCost; prevCost = cost; cost = tmpCost;
+            int[] tmpWin = prevWin; prevWin = win; win = tmpWin;
+
+            int jStart = Math.max(1, i - w);
+            int jStop = Math.min(tailleT, i + w + 1);
+            if (i < 1 + w) {
+                cost[0] = prevCost[0] + (s[i] - t[0]) * (s[i] - t[0]);
+                win[0] = i;
+            }
+            int indexInftyLeft = i - w - 1;
+            if (indexInftyLeft >= 0) {
+                cost[indexInftyLeft] = Double.POSITIVE_INFINITY;
+            }
+            for (j = jStart; j < jStop; j++) {
+                int absIJ = Math.abs(i - j);
+                switch (Tools.ArgMin3(prevCost[j - 1], cost[j - 1], prevCost[j])) {
+                case 0: // DIAGONALE
+                    res = prevCost[j - 1];
+                    win[j] = Math.max(absIJ, prevWin[j - 1]);
+                    break;
+                case 1: // GAUCHE
+                    res = cost[j - 1];
+                    win[j] = Math.max(absIJ, win[j - 1]);
+                    break;
+                default: // HAUT
+                    res = prevCost[j];
+                    win[j] = Math.max(absIJ, prevWin[j]);
+                    break;
+                }
+                cost[j] = res + (s[i] - t[j]) * (s[i] - t[j]);
+            }
+            if (j < tailleT) {
+                cost[j] = Double.POSITIVE_INFINITY;
+            }
+        }
+
+        DTWResult resExt = new DTWResult();
+        resExt.distance = Math.sqrt(cost[tailleT - 1]);
+        resExt.r = win[tailleT - 1];
+        return resExt;
+    }
+
     @Override
     protected double evalSolution(int warpingWindow) {
         // Will only be called once
@@ -298,7 +601,7 @@ public class FastWWS extends WindowSearcher {
         int nErrors = 0;
 
         for (int i = 0; i < train.length; i++) {
-            if (!classMap[nns[warpingWindow][i].index].equals(classMap[i])) {
+            if (!classMap[nnIndices[warpingWindow][i]].equals(classMap[i])) {
                 nErrors++;
             }
         }
@@ -14,6 +14,7 @@
  */
 package timeseriesweka.classifiers.distance_based.elastic_ensemble;
 
+import java.util.Arrays;
 import experiments.data.DatasetLoading;
 import utilities.ClassifierTools;
 import weka_uea.classifiers.kNN;
@@ -21,6 +22,8 @@ import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
 import timeseriesweka.elastic_distance_measures.DTW;
+import timeseriesweka.elastic_distance_measures.DTWKernel;
+import utilities.TimeSeriesDataset;
 
 /**
  *
@@ -89,13 +92,7 @@ public class DTW1NN extends Efficient1NN {
             
     
     final public int getWindowSize(int n){
-        int w=(int)(r*n);   //Rounded down.
-                //No Warp, windowSize=1
-        if(w<1) w=1;
-                //Full Warp : windowSize=n, otherwise scale between		
-        else if(w<n)    
-                w++;
-        return w;	
+        return DTWKernel.windowSize(r, n);
     }
     
     
@@ -120,73 +117,285 @@ public class DTW1NN extends Efficient1NN {
             return temp.distance(first, second,cutoff);
         }        
         
-        double minDist;
-        boolean tooBig;
-
         int n = first.numAttributes()-1;
-        int m = second.numAttributes()-1;
         /*  Parameter 0<=r<=1. 0 == no warp, 1 == full warp 
          generalised for variable window size
          * */
         int windowSize = getWindowSize(n);
-//Extra memory than required, could limit to windowsize,
-//        but avoids having to recreate during CV 
-//for varying window sizes        
-        double[][] matrixD = new double[n][m];
+        // banded two row DTW with per-thread scratch, nothing is allocated per call
+        return DTWKernel.distance(first, second, windowSize, cutoff);
+    }
+    
+    /**
+     * Reads the training series in place from the contiguous train data.
+     */
+    @Override
+    protected double distance(Instance query, double[] queryValues, int referenceIndex, double cutoff){
+        TimeSeriesDataset reference = getTrainData();
+        if(queryValues==null || reference==null){
+            return super.distance(query, queryValues, referenceIndex, cutoff);
+        }
+        int n = queryValues.length;
+        return DTWKernel.distance(queryValues, 0, n, reference.getData(), reference.offset(referenceIndex), reference.seriesLength(), getWindowSize(n), cutoff);
+    }
+    
+    
+    
+    
+    /**
+     * LB_Kim, LB_Keogh then LB_Improved (Lemire, 2009), all for the window 
+     * implied by the current r. The envelopes of the reference series are 
+     * built once per window and shared by every query.
+     */
+    @Override
+    protected LowerBound[] createLowerBounds(){
+        LbKeogh keogh = new LbKeogh();
+        return new LowerBound[]{new LbKim(), keogh, new LbImproved(keogh)};
+    }
+    
+    /**
+     * Every warping path includes the first and the last pair of points.
+     */
+    private class LbKim extends LowerBound{
+        @Override
+        protected double lowerBound(double[] query, int referenceIndex, double cutoff){
+            double[] candidate = reference[referenceIndex];
+            int last = query.length-1;
+            double diff = query[0]-candidate[0];
+            double lb = diff*diff;
+            if(last > 0){
+                diff = query[last]-candidate[last];
+                lb += diff*diff;
+            }
+            return lb;
+        }
+    }
+    
+    /**
+     * Squared distance from the query to the envelope of the reference series. 
+     * The last value computed for the current query is kept for LbImproved.
+     */
+    private class LbKeogh extends LowerBound{
+        private transient double[][] lower;
+        private transient double[][] upper;
+        private transient int radius;
+        private transient int lastIndex = -1;
+        private transient double lastBound;
         
-        /*
-         //Set boundary elements to max. 
-         */
-        int start, end;
-        for (int i = 0; i < n; i++) {
-            start = windowSize < i ? i - windowSize : 0;
-            end = i + windowSize + 1 < m ? i + windowSize + 1 : m;
-            for (int j = start; j < end; j++) {
-                matrixD[i][j] = Double.MAX_VALUE;
+        @Override
+        protected void setReference(double[][] reference){
+            super.setReference(reference);
+            int length = reference.length==0 ? 0 : reference[0].length;
+            radius = getWindowSize(length)-1;
+            lower = new double[reference.length][length];
+            upper = new double[reference.length][length];
+            int[] maxQueue = new int[length];
+            int[] minQueue = new int[length];
+            for(int i = 0; i < reference.length; i++){
+                envelope(reference[i], length, radius, lower[i], upper[i], maxQueue, minQueue);
             }
         }
-        matrixD[0][0] = (first.value(0) - second.value(0)) * (first.value(0) - second.value(0));
-//a is the longer series. 
-//Base cases for warping 0 to all with max interval	r	
-//Warp first.value(0] onto all second.value(1]...second.value(r+1]
-        for (int j = 1; j < windowSize && j < m; j++) {
-            matrixD[0][j] = matrixD[0][j - 1] + (first.value(0) - second.value(j)) * (first.value(0) - second.value(j));
+        
+        @Override
+        protected void setQuery(double[] query){
+            lastIndex = -1;
         }
 
-//	Warp second.value(0] onto all first.value(1]...first.value(r+1]
-        for (int i = 1; i < windowSize && i < n; i++) {
-            matrixD[i][0] = matrixD[i - 1][0] + (first.value(i) - second.value(0)) * (first.value(i) - second.value(0));
+        @Override
+        protected double lowerBound(double[] query, int referenceIndex, double cutoff){
+            lastBound = keogh(query, lower[referenceIndex], upper[referenceIndex], cutoff);
+            lastIndex = referenceIndex;
+            return lastBound;
+        }
+    }
+    
+    /**
+     * LB_Keogh plus the distance from the reference series to the envelope of 
+     * the query's projection onto the reference envelope.
+     */
+    private class LbImproved extends LowerBound{
+        private final LbKeogh keogh;
+        private transient double[] projection;
+        private transient double[] projectionLower;
+        private transient double[] projectionUpper;
+        private transient int[] maxQueue;
+        private transient int[] minQueue;
+        
+        LbImproved(LbKeogh keogh){
+            this.keogh = keogh;
+        }
+        
+        @Override
+        protected void setQuery(double[] query){
+            if(projection==null || projection.length!=query.length){
+                projection = new double[query.length];
+                projectionLower = new double[query.length];
+                projectionUpper = new double[query.length];
+                maxQueue = new int[query.length];
+                minQueue = new int[query.length];
+            }
         }
-//Warp the rest,
-        for (int i = 1; i < n; i++) {
-            tooBig = true;
-            start = windowSize < i ? i - windowSize + 1 : 1;
-            end = i + windowSize < m ? i + windowSize : m;
-            for (int j = start; j < end; j++) {
-                minDist = matrixD[i][j - 1];
-                if (matrixD[i - 1][j] < minDist) {
-                    minDist = matrixD[i - 1][j];
+        
+        @Override
+        protected double lowerBound(double[] query, int referenceIndex, double cutoff){
+            double lb;
+            if(keogh.lastIndex==referenceIndex){
+                lb = keogh.lastBound;
+            }else{
+                lb = keogh(query, keogh.lower[referenceIndex], keogh.upper[referenceIndex], cutoff);
+            }
+            if(lb > cutoff){
+                return lb;
+            }
+            double[] lower = keogh.lower[referenceIndex];
+            double[] upper = keogh.upper[referenceIndex];
+            for(int i = 0; i < query.length; i++){
+                if(query[i] > upper[i]){
+                    projection[i] = upper[i];
+                }else if(query[i] < lower[i]){
+                    projection[i] = lower[i];
+                }else{
+                    projection[i] = query[i];
                 }
-                if (matrixD[i - 1][j - 1] < minDist) {
-                    minDist = matrixD[i - 1][j - 1];
+            }
+            envelope(projection, projection.length, keogh.radius, projectionLower, projectionUpper, maxQueue, minQueue);
+            return lb+keogh(reference[referenceIndex], projectionLower, projectionUpper, cutoff-lb);
+        }
+    }
+    
+    /**
+     * Evaluates all 100 windows together, one training instance at a time and 
+     * widest window first (after FastWWS, Tan et al., 2019). DTW can only grow 
+     * as the window shrinks, so the exact distance to a neighbour is reused for 
+     * every smaller window its warping path still fits in, and is a lower bound 
+     * below that. Neighbours that were abandoned keep the cutoff they were 
+     * abandoned at as a lower bound, as do those pruned by LB_Keogh against 
+     * the query envelope, which only tightens as the window shrinks. Gives the 
+     * same predictions as calling loocvAccAndPreds for each paramId.
+     */
+    @Override
+    protected double[][] sweepLoocvAccAndPreds(Instances train) throws Exception{
+        if(!this.allowLoocv || train.numInstances()==0 || train.classIndex()!=train.numAttributes()-1){
+            return null;
+        }
+        final int numInstances = train.numInstances();
+        final int length = train.numAttributes()-1;
+        final int numClasses = train.numClasses();
+        final double[][] series = new double[numInstances][length];
+        final int[] classes = new int[numInstances];
+        Instance ins;
+        for(int i = 0; i < numInstances; i++){
+            ins = train.instance(i);
+            for(int j = 0; j < length; j++){
+                series[i][j] = ins.value(j);
+            }
+            classes[i] = (int)ins.classValue();
+        }
+        // same r as setParamsFromParamId
+        final int[] windows = new int[100];
+        for(int paramId = 0; paramId < windows.length; paramId++){
+            windows[paramId] = DTWKernel.windowSize((double)paramId/100, length);
+        }
+        
+        final double[][] preds = new double[windows.length][numInstances];
+        forEachRow(numInstances, row -> sweepLoocvRow(series, classes, numClasses, windows, row, preds));
+        
+        double[][] allAccAndPreds = new double[windows.length][numInstances+1];
+        int correct;
+        for(int paramId = 0; paramId < windows.length; paramId++){
+            correct = 0;
+            for(int i = 0; i < numInstances; i++){
+                allAccAndPreds[paramId][i+1] = preds[paramId][i];
+                if(preds[paramId][i]==classes[i]){
+                    correct++;
+                }
+            }
+            allAccAndPreds[paramId][0] = (double)correct/numInstances;
+        }
+        return allAccAndPreds;
+    }
+    
+    /**
+     * Fills preds[paramId][row] for every paramId, mirroring the search in 
+     * classifyInstance so that ties and early abandons resolve the same way.
+     */
+    private static void sweepLoocvRow(double[][] series, int[] classes, int numClasses, int[] windows, int row, double[][] preds){
+        int numInstances = series.length;
+        int length = series[row].length;
+        double[] query = series[row];
+        // exact[t] is the distance for every window >= validFrom[t]
+        double[] exact = new double[numInstances];
+        int[] validFrom = new int[numInstances];
+        Arrays.fill(validFrom, Integer.MAX_VALUE);
+        double[] lowerBound = new double[numInstances];
+        int[] deviation = new int[1];
+        int[] classCounts = new int[numClasses];
+        double[] lower = new double[length];
+        double[] upper = new double[length];
+        int[] maxQueue = new int[length];
+        int[] minQueue = new int[length];
+        
+        double bsfDistance, thisDist;
+        double pred = -1;
+        int lastWindow = -1;
+        for(int paramId = windows.length-1; paramId >= 0; paramId--){
+            int window = windows[paramId];
+            if(window==lastWindow){
+                preds[paramId][row] = pred;
+                continue;
+            }
+            lastWindow = window;
+            LowerBound.envelope(query, length, window-1, lower, upper, maxQueue, minQueue);
+            bsfDistance = Double.MAX_VALUE;
+            Arrays.fill(classCounts, 0);
+            for(int t = 0; t < numInstances; t++){
+                if(t==row){
+                    continue;
                 }
-                matrixD[i][j] = minDist + (first.value(i) - second.value(j)) * (first.value(i) - second.value(j));
-                if (tooBig && matrixD[i][j] < cutoff) {
-                    tooBig = false;
+                if(window >= validFrom[t]){
+                    thisDist = exact[t];
+                    if(thisDist==bsfDistance){
+                        // the full search may abandon on an exact tie, so repeat it
+                        thisDist = DTWKernel.distance(query, length, series[t], length, window, bsfDistance);
+                    }
+                }else if(lowerBound[t] > bsfDistance){
+                    continue;
+                }else if((thisDist = LowerBound.keogh(series[t], lower, upper, bsfDistance)) > bsfDistance){
+                    lowerBound[t] = thisDist;
+                    continue;
+                }else{
+                    thisDist = DTWKernel.distance(query, length, series[t], length, window, bsfDistance, deviation);
+                    if(thisDist==Double.MAX_VALUE){
+                        if(bsfDistance > lowerBound[t]){
+                            lowerBound[t] = bsfDistance;
+                        }
+                    }else{
+                        exact[t] = thisDist;
+                        validFrom[t] = deviation[0]+1;
+                        lowerBound[t] = thisDist;
+                    }
+                }
+                if(thisDist < bsfDistance){
+                    bsfDistance = thisDist;
+                    Arrays.fill(classCounts, 0);
+                    classCounts[classes[t]]++;
+                }else if(thisDist==bsfDistance){
+                    classCounts[classes[t]]++;
                 }
             }
-            //Early abandon
-            if (tooBig) {
-                return Double.MAX_VALUE;
+            
+            pred = -1;
+            int bsfCount = -1;
+            for(int c = 0; c < numClasses; c++){
+                if(classCounts[c] > bsfCount){
+                    bsfCount = classCounts[c];
+                    pred = c;
+                }
             }
+            preds[paramId][row] = pred;
         }
-//Find the minimum distance at the end points, within the warping window. 
-        return matrixD[n-1][m-1];
     }
     
-    
-    
-    
     @Override
     public double[] distributionForInstance(Instance instance) throws Exception {
        double[] res=new double[instance.numClasses()];
@@ -19,6 +19,7 @@ import java.util.PriorityQueue;
 import static utilities.GenericTools.indexOfMax;
 import utilities.generic_storage.Pair;
 import weka.core.Instance;
+import weka.core.Instances;
 
 /**
  * Extension of DTW1NN to allow different values of k, originally written 
@@ -69,6 +70,27 @@ public class DTWKNN extends DTW1NN {
         return indexOfMax(distributionForInstance(instance));
     }
 
+    /**
+     * The default loocv search is 1-NN, so fall back to building on a copy of 
+     * the data with the instance removed.
+     */
+    @Override
+    protected double classifyLoocvInstance(Instances train, int index) throws Exception {
+        Instances trainLoocv = new Instances(train);
+        Instance testLoocv = trainLoocv.remove(index);
+        this.buildClassifier(trainLoocv);
+        return this.classifyInstance(testLoocv);
+    }
+
+    /**
+     * The window sweep in DTW1NN is a 1-NN search, so evaluate each window 
+     * separately instead.
+     */
+    @Override
+    protected double[][] sweepLoocvAccAndPreds(Instances train) throws Exception {
+        return null;
+    }
+
     @Override
     public double[] distributionForInstance(Instance testInst) throws Exception {
         //the pair is <distance, classvalue> 
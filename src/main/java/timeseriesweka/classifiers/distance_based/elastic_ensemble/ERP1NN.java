@@ -23,6 +23,7 @@ import weka.core.Instance;
 import weka.core.Instances;
 import timeseriesweka.elastic_distance_measures.DTW;
 import timeseriesweka.elastic_distance_measures.ERPDistance;
+import utilities.TimeSeriesDataset;
 //import efficient_standalone_classifiers.Eff
 /**
  *  adjusted April '16
@@ -73,8 +74,45 @@ public class ERP1NN extends Efficient1NN{
             return new ERPDistance(this.g, this.bandSize).distance(first, second, cutoff);
         }
 
-        int m = first.numAttributes() - 1;
-        int n = second.numAttributes() - 1;
+        return distance(TimeSeriesDataset.values(first), TimeSeriesDataset.values(second), this.g, this.bandSize, Double.POSITIVE_INFINITY, null);
+    }
+
+    /**
+     * Reads the training series in place rather than copying both series per call.
+     */
+    @Override
+    protected double distance(Instance query, double[] queryValues, int referenceIndex, double cutoff){
+        double[][] reference = getTrainSeries();
+        if(queryValues==null || reference==null){
+            return super.distance(query, queryValues, referenceIndex, cutoff);
+        }
+        return distance(queryValues, reference[referenceIndex], this.g, this.bandSize, Double.POSITIVE_INFINITY, null);
+    }
+    
+    /**
+     * ERP with gap value g and a band of ceil(m*bandSize) around the diagonal, 
+     * where m is the length of first.
+     * 
+     * Where a deletion and an insertion tie below the match, the match is 
+     * taken, so a cell can exceed the minimum over its paths. If minimal is 
+     * not null, minimal[0] is set to false when that happens, and otherwise 
+     * left alone; if it never happens the distance is the minimum over all 
+     * paths in the band, which can only fall as the band widens.
+     * 
+     * Every cell is at least the cell it was reached from, so the distance is 
+     * at least the smallest cell of any row, and the search is abandoned once 
+     * that is above abandonAbove.
+     * 
+     * @param first
+     * @param second
+     * @param g
+     * @param bandSize
+     * @param abandonAbove Double.POSITIVE_INFINITY to always compute the distance
+     * @param minimal may be null
+     * @return the distance, or Double.MAX_VALUE if it is above abandonAbove
+     */
+    public static double distance(double[] first, double[] second, double g, double bandSize, double abandonAbove, boolean[] minimal){
+        int m = first.length;
         
         
         // Current and previous columns of the matrix
@@ -89,6 +127,7 @@ public class ERP1NN extends Efficient1NN{
         // g parameter for local usage
         double gValue = g;
 
+        double rowMin;
         for (int i = 0; i < m; i++) {
             // Swap current and prev arrays. We'll just overwrite the new curr.
             {
@@ -104,22 +143,23 @@ public class ERP1NN extends Efficient1NN{
             if (r > (m-1)) {
                 r = (m-1);
             }
+            rowMin = Double.POSITIVE_INFINITY;
 
             for (int j = l; j <= r; j++) {
                 if (Math.abs(i - j) <= band) {
                     // compute squared distance of feature vectors
-                    double val1 = first.value(i);
+                    double val1 = first[i];
                     double val2 = gValue;
                     double diff = (val1 - val2);
                     final double d1 = Math.sqrt(diff * diff);
 
                     val1 = gValue;
-                    val2 = second.value(j);
+                    val2 = second[j];
                     diff = (val1 - val2);
                     final double d2 = Math.sqrt(diff * diff);
 
-                    val1 = first.value(i);
-                    val2 = second.value(j);
+                    val1 = first[i];
+                    val2 = second[j];
                     diff = (val1 - val2);
                     final double d12 = Math.sqrt(diff * diff);
 
@@ -139,21 +179,97 @@ public class ERP1NN extends Efficient1NN{
                         } else {
                             // match
                             cost = prev[j - 1] + dist12;
+                            if (minimal != null && (curr[j - 1] + dist2) == (prev[j] + dist1) && (curr[j - 1] + dist2) < cost) {
+                                // del and ins tie below the match, so this cell is not the minimum
+                                minimal[0] = false;
+                            }
                         }
                     } else {
                         cost = 0;
                     }
 
                     curr[j] = cost;
+                    if (cost < rowMin) {
+                        rowMin = cost;
+                    }
                     // steps[i][j] = step;
                 } else {
                     curr[j] = Double.POSITIVE_INFINITY; // outside band
                 }
             }
+            if (Math.sqrt(rowMin) > abandonAbove) {
+                return Double.MAX_VALUE;
+            }
         }
 
         return Math.sqrt(curr[m-1]);
     }
+    
+    /**
+     * For each g the options are taken from the widest band down, each bounded 
+     * by the next wider band, and options with the same whole band as the one 
+     * before reuse its predictions. Distances from computations where the band 
+     * minimum was not taken are not used as bounds. Unlike distance(Instance, 
+     * Instance, double), the sweep abandons distances that must be above the 
+     * cutoff.
+     */
+    @Override
+    protected MonotoneParameterSweep createParameterSweep(Instances train){
+        // same values as setParamsFromParamId
+        double stdv = ERPDistance.stdv_p(train);
+        final double[] sweepWindowSizes = ERPDistance.getInclusive10(0, 0.25);
+        final double[] sweepGValues = ERPDistance.getInclusive10(0.2*stdv, stdv);
+        int length = train.numAttributes()-1;
+        final int[] bands = new int[sweepWindowSizes.length];
+        for(int w = 0; w < bands.length; w++){
+            bands[w] = (int) Math.ceil(length * sweepWindowSizes[w]);
+        }
+        
+        return new MonotoneParameterSweep(train, sweepGValues.length*sweepWindowSizes.length){
+            @Override
+            protected int[] order(){
+                int[] order = new int[numParams];
+                int o = 0;
+                for(int gId = 0; gId < sweepGValues.length; gId++){
+                    for(int w = sweepWindowSizes.length-1; w >= 0; w--){
+                        order[o++] = gId*10+w;
+                    }
+                }
+                return order;
+            }
+            
+            @Override
+            protected int[] boundedBy(int paramId){
+                int w = paramId%10;
+                if(w==sweepWindowSizes.length-1 || bands[w+1] < bands[w]){
+                    return new int[0];
+                }
+                return new int[]{paramId+1};
+            }
+            
+            @Override
+            protected int sameAs(int paramId){
+                int w = paramId%10;
+                if(w < sweepWindowSizes.length-1 && bands[w+1]==bands[w]){
+                    return paramId+1;
+                }
+                return -1;
+            }
+            
+            @Override
+            protected double distance(double[] query, double[] reference, int paramId, double cutoff, double[] bound){
+                // a distance above the cutoff has no effect on the search, so may be abandoned
+                boolean[] minimal = {true};
+                double distance = ERP1NN.distance(query, reference, sweepGValues[paramId/10], sweepWindowSizes[paramId%10], cutoff, minimal);
+                if(!minimal[0]){
+                    bound[0] = 0;
+                }else if(distance==Double.MAX_VALUE){
+                    bound[0] = cutoff;
+                }
+                return distance;
+            }
+        };
+    }
 
     @Override
     public Capabilities getCapabilities() {
@@ -17,14 +17,21 @@ package timeseriesweka.classifiers.distance_based.elastic_ensemble;
 import java.io.File;
 import java.io.FileWriter;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
 import evaluation.storage.ClassifierResults;
 import experiments.data.DatasetLoading;
 import utilities.ClassifierTools;
 import utilities.InstanceTools;
+import utilities.ParallelUtils;
+import utilities.TimeSeriesDataset;
+import timeseriesweka.classifiers.MultiThreadable;
 import timeseriesweka.classifiers.SaveParameterInfo;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -40,9 +47,24 @@ import weka.core.Instances;
  * channels would calculate the DTW distance separately for each channel, and 
  * sum the 10 distances together. 
  * 
+ * If given a thread allowance greater than 1, the univariate loocv evaluates 
+ * the 100 parameter options concurrently on a fork-join pool, each worker 
+ * thread using its own copy of the classifier. The selected parameter is 
+ * always the same as the sequential run, as ties are resolved in paramId 
+ * order after all options have been evaluated. Measures that can evaluate 
+ * all options together (see sweepLoocvAccAndPreds and 
+ * MonotoneParameterSweep) do so instead, sharing the query rows between the 
+ * threads.
+ * 
+ * Measures with a valid lower bound supply a LowerBoundCascade through 
+ * createLowerBounds(). The cascade is applied before every full distance call 
+ * in classifyInstance, distributionForInstance and loocv, and only prunes 
+ * candidates that are strictly worse than the best so far, so predictions are 
+ * unchanged. Prune rates are available from getLowerBoundReport().
+ * 
  * @author Jason Lines (j.lines@uea.ac.uk)
  */
-public abstract class Efficient1NN extends AbstractClassifier implements SaveParameterInfo{
+public abstract class Efficient1NN extends AbstractClassifier implements SaveParameterInfo, MultiThreadable{
     
     protected Instances train;
     protected Instances[] trainGroup;
@@ -57,6 +79,15 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
     private int resampleId;
     private ClassifierResults res =new ClassifierResults();
     
+    private int numThreads = 1;
+    
+    private boolean useLowerBounds = true;
+    private LowerBoundCascade lowerBounds = null;
+    
+    private transient TimeSeriesDataset trainData = null;
+    private transient double[][] trainSeries = null;
+    private transient Instances trainSeriesSource = null;
+    
     /**
      * Abstract method to calculates the distance between two Instance objects
      * @param first 
@@ -66,6 +97,62 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
      */
     public abstract double distance(Instance first, Instance second, double cutOffValue);
     
+    /**
+     * Distance from a query to an instance of this.train, used by the 1-NN 
+     * search. The default calls distance(Instance, Instance, double); measures 
+     * that work on arrays can override it to read the training series in 
+     * place from getTrainData().
+     * 
+     * @param query
+     * @param queryValues the values of query without its class value, or null 
+     * if the class attribute is not last
+     * @param referenceIndex index of the reference instance in this.train
+     * @param cutOffValue a best-so-far value to allow early abandons
+     * @return the distance, or Double.MAX_VALUE on early abandon
+     */
+    protected double distance(Instance query, double[] queryValues, int referenceIndex, double cutOffValue){
+        return distance(query, this.train.instance(referenceIndex), cutOffValue);
+    }
+    
+    /**
+     * @return this.train as a contiguous TimeSeriesDataset, built on first use 
+     * after each buildClassifier, or null if the class attribute is not last 
+     * or the data is not univariate
+     */
+    protected TimeSeriesDataset getTrainData(){
+        if(trainData!=null && trainData.getSource()==this.train && trainData.numSeries()==this.train.numInstances()){
+            return trainData;
+        }
+        if(this.train==null || this.train.classIndex()!=this.train.numAttributes()-1 || this.train.checkForAttributeType(Attribute.RELATIONAL)){
+            return null;
+        }
+        trainData = new TimeSeriesDataset(this.train);
+        return trainData;
+    }
+    
+    /**
+     * @return the series of this.train without class values, one array per 
+     * instance, copied on first use after each buildClassifier, or null as 
+     * getTrainData(). For measures whose kernels take whole arrays, so the 
+     * 1-NN search does not copy a reference series per distance call
+     */
+    protected double[][] getTrainSeries(){
+        if(trainSeries!=null && trainSeriesSource==this.train && trainSeries.length==this.train.numInstances()){
+            return trainSeries;
+        }
+        TimeSeriesDataset data = getTrainData();
+        if(data==null){
+            return null;
+        }
+        double[][] series = new double[data.numSeries()][data.seriesLength()];
+        for(int i = 0; i < series.length; i++){
+            data.copyRow(i, series[i]);
+        }
+        trainSeries = series;
+        trainSeriesSource = this.train;
+        return trainSeries;
+    }
+    
     /**
      * Multi-dimensional equivalent of the univariate distance method. Iterates 
      * through channels calculating distances independently using the same param
@@ -113,17 +200,101 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         this.trainGroup = trainGroup;
     }
     
+    /**
+     * The lower bounds that are valid for this measure, cheapest first. The 
+     * default is no bounds, so every candidate gets a full distance call.
+     * 
+     * @return 
+     */
+    protected LowerBound[] createLowerBounds(){
+        return new LowerBound[0];
+    }
+    
+    public void setUseLowerBounds(boolean useLowerBounds){
+        this.useLowerBounds = useLowerBounds;
+    }
+    
+    /**
+     * @return the cascade used by this classifier, or null if the measure has 
+     * no lower bounds or they are switched off
+     */
+    public LowerBoundCascade getLowerBoundCascade(){
+        return lowerBounds;
+    }
+    
+    /**
+     * @return calls and prunes per bound since the last reset, as csv lines
+     */
+    public String getLowerBoundReport(){
+        if(lowerBounds==null){
+            return "no lower bounds";
+        }
+        return lowerBounds.getPruneReport();
+    }
+    
+    /**
+     * Readies the cascade for a search of this.train with the given query.
+     * 
+     * @param query
+     * @return the cascade, or null if there is nothing to prune with
+     */
+    private LowerBoundCascade prepareLowerBounds(Instance query){
+        if(!useLowerBounds){
+            return null;
+        }
+        if(lowerBounds==null){
+            LowerBound[] bounds = createLowerBounds();
+            if(bounds.length==0){
+                useLowerBounds = false;
+                return null;
+            }
+            lowerBounds = new LowerBoundCascade(bounds);
+        }
+        if(query.classIndex()!=query.numAttributes()-1 || this.train.classIndex()!=this.train.numAttributes()-1){
+            return null;
+        }
+        lowerBounds.setReference(this.train, getParamInformationString());
+        lowerBounds.setQuery(query);
+        return lowerBounds;
+    }
+    
     @Override
     public double classifyInstance(Instance instance) throws Exception {
+        return classifyInstance(instance, -1);
+    }
+    
+    /**
+     * The query copied once per search, so distance calls don't go through 
+     * Instance.value()
+     */
+    private static double[] queryValues(Instance query){
+        if(query.classIndex()!=query.numAttributes()-1){
+            return null;
+        }
+        return TimeSeriesDataset.values(query);
+    }
+    
+    /**
+     * 1-NN classification against this.train, ignoring the reference instance 
+     * at skipIndex (-1 to use them all).
+     */
+    private double classifyInstance(Instance instance, int skipIndex) throws Exception {
         
         double bsfDistance = Double.MAX_VALUE;
         // for tie splitting
         int[] classCounts = new int[this.train.numClasses()];
         
         double thisDist;
+        Instance i;
+        LowerBoundCascade cascade = prepareLowerBounds(instance);
+        double[] queryValues = queryValues(instance);
                 
-        for(Instance i:this.train){
-            thisDist = distance(instance, i, bsfDistance); 
+        for(int t = 0; t < this.train.numInstances(); t++){
+            if(t==skipIndex || (cascade!=null && cascade.prune(t, bsfDistance))){
+                continue;
+            }
+            i = this.train.instance(t);
+            thisDist = distance(instance, queryValues, t, bsfDistance); 
             if(thisDist < bsfDistance){
                 bsfDistance = thisDist;
                 classCounts = new int[train.numClasses()];
@@ -145,6 +316,22 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         return bsfClass;
     }
     
+    /**
+     * Prediction for train.instance(index) from a classifier built on train 
+     * without that instance. By default this is a 1-NN search of train that 
+     * skips index, which gives the same prediction as building on a copy with 
+     * the instance removed but shares the lower bound envelopes between rows. 
+     * Subclasses that change how classifyInstance works should override this.
+     * 
+     * @param train the full training data, which this classifier has been built on
+     * @param index the instance to leave out
+     * @return
+     * @throws Exception 
+     */
+    protected double classifyLoocvInstance(Instances train, int index) throws Exception{
+        return classifyInstance(train.instance(index), index);
+    }
+    
     public double classifyInstanceMultivariate(Instance[] instance) throws Exception {
     
         if(this.trainGroup==null){
@@ -195,9 +382,16 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         
         double thisDist;
         int sumOfBest = 0;
+        Instance i;
+        LowerBoundCascade cascade = prepareLowerBounds(instance);
+        double[] queryValues = queryValues(instance);
                 
-        for(Instance i:this.train){
-            thisDist = distance(instance, i, bsfDistance); 
+        for(int t = 0; t < this.train.numInstances(); t++){
+            if(cascade!=null && cascade.prune(t, bsfDistance)){
+                continue;
+            }
+            i = this.train.instance(t);
+            thisDist = distance(instance, queryValues, t, bsfDistance); 
             if(thisDist < bsfDistance){
                 bsfDistance = thisDist;
                 classCounts = new int[train.numClasses()];
@@ -217,6 +411,11 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         return classDistributions;
     }
     
+    @Override
+    public void setThreadAllowance(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+    
     public void setClassifierIdentifier(String classifierIdentifier){
         this.classifierIdentifier = classifierIdentifier;
     }
@@ -336,10 +535,22 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         double bsfAcc = -1;
         int bsfParamId = -1;
         double[] bsfaccAndPreds = null;
+        
+        double[][] allAccAndPreds = null;
+        if(this.allowLoocv && !this.individualCvParamFileWriting){
+            allAccAndPreds = sweepLoocvAccAndPreds(train);
+        }
+        if(allAccAndPreds==null && this.numThreads > 1 && this.allowLoocv){
+            allAccAndPreds = parallelLoocvAccAndPreds(train);
+        }
 
         for(int paramId = 0; paramId < 100; paramId++){
 //            System.out.print(paramId+" ");
-            accAndPreds = loocvAccAndPreds(train,paramId);
+            if(allAccAndPreds!=null){
+                accAndPreds = allAccAndPreds[paramId];
+            }else{
+                accAndPreds = loocvAccAndPreds(train,paramId);
+            }
 //            System.out.println(this.allowLoocv);
 //            System.out.println(accAndPreds[0]);
             if(accAndPreds[0]>bsfAcc){
@@ -456,6 +667,106 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         return bsfaccAndPreds;
     }
     
+    /**
+     * Hook for measures that can evaluate all 100 parameter options together 
+     * more cheaply than one at a time, e.g. by reusing nearest neighbours 
+     * across neighbouring options. Implementations must return exactly what 
+     * loocvAccAndPreds would for each paramId.
+     * 
+     * The default runs the MonotoneParameterSweep from 
+     * createParameterSweep, if the measure has one.
+     * 
+     * @param train
+     * @return the output of loocvAccAndPreds for each paramId, indexed by 
+     * paramId, or null to evaluate the options one at a time
+     * @throws Exception 
+     */
+    protected double[][] sweepLoocvAccAndPreds(Instances train) throws Exception{
+        if(!this.allowLoocv || !MonotoneParameterSweep.canSweep(train)){
+            return null;
+        }
+        MonotoneParameterSweep sweep = createParameterSweep(train);
+        if(sweep==null){
+            return null;
+        }
+        return sweep.run(this);
+    }
+    
+    /**
+     * Measures whose distance only moves one way as their parameters change 
+     * can return a sweep over their 100 options, used by the default 
+     * sweepLoocvAccAndPreds. The default is none.
+     * 
+     * @param train univariate training data with the class attribute last
+     * @return the sweep, or null to evaluate the options one at a time
+     */
+    protected MonotoneParameterSweep createParameterSweep(Instances train){
+        return null;
+    }
+    
+    /**
+     * Runs task for rows 0 to numRows-1. If a thread allowance has been set 
+     * the rows are shared between that many workers, so tasks must only write 
+     * to state owned by their row.
+     * 
+     * @param numRows
+     * @param task
+     * @throws Exception 
+     */
+    protected void forEachRow(final int numRows, final ParallelUtils.IndexTask task) throws Exception{
+        ParallelUtils.forEach(numThreads, numRows, task);
+    }
+    
+    /**
+     * Evaluates all 100 parameter options on a pool of numThreads workers. Each
+     * worker holds its own copy of this classifier (made without the training
+     * data) and takes the next unevaluated paramId until none remain, so the
+     * results are independent of scheduling.
+     * 
+     * @param train
+     * @return the output of loocvAccAndPreds for each paramId, indexed by paramId
+     * @throws Exception 
+     */
+    private double[][] parallelLoocvAccAndPreds(final Instances train) throws Exception{
+        final double[][] allAccAndPreds = new double[100][];
+        int numWorkers = Math.min(numThreads, allAccAndPreds.length);
+        
+        List<Efficient1NN> copies = new ArrayList<>(numWorkers);
+        Instances thisTrain = this.train;
+        Instances[] thisTrainGroup = this.trainGroup;
+        this.train = null;
+        this.trainGroup = null;
+        try{
+            for(int w = 0; w < numWorkers; w++){
+                Efficient1NN copy = (Efficient1NN)AbstractClassifier.makeCopy(this);
+                copy.setThreadAllowance(1);
+                if(copy.lowerBounds!=null){
+                    copy.lowerBounds.resetCounts();
+                }
+                copies.add(copy);
+            }
+        }finally{
+            this.train = thisTrain;
+            this.trainGroup = thisTrainGroup;
+        }
+        
+        Iterator<Efficient1NN> unassigned = copies.iterator();
+        ParallelUtils.forEach(numWorkers, allAccAndPreds.length, () -> {
+            Efficient1NN copy = unassigned.next();
+            return (paramId) -> allAccAndPreds[paramId] = copy.loocvAccAndPreds(train, paramId);
+        });
+        
+        for(Efficient1NN copy : copies){
+            if(copy.lowerBounds!=null){
+                if(this.lowerBounds==null){
+                    this.lowerBounds = new LowerBoundCascade(createLowerBounds());
+                }
+                this.lowerBounds.addCounts(copy.lowerBounds);
+            }
+        }
+        return allAccAndPreds;
+    }
+    
     public double[] loocvAccAndPreds(Instances train, int paramId) throws Exception{
         if(this.allowLoocv){
             this.setParamsFromParamId(train, paramId);
@@ -474,19 +785,14 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         
         // else we already know what the params are, so don't need to set
         
-        Instances trainLoocv;
-        Instance testLoocv;
-        
         int correct = 0;
         double pred, actual;
         
         double[] accAndPreds = new double[train.numInstances()+1];
+        this.buildClassifier(train);
         for(int i = 0; i < train.numInstances(); i++){
-            trainLoocv = new Instances(train);
-            testLoocv = trainLoocv.remove(i);
-            actual = testLoocv.classValue();
-            this.buildClassifier(trainLoocv);
-            pred = this.classifyInstance(testLoocv);
+            actual = train.instance(i).classValue();
+            pred = this.classifyLoocvInstance(train, i);
             if(pred==actual){
                 correct++;
             }
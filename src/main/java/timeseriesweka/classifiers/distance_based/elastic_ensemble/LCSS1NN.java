@@ -22,6 +22,7 @@ import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
 import timeseriesweka.elastic_distance_measures.LCSSDistance;
+import utilities.TimeSeriesDataset;
 
 /**
  * checked April l16
@@ -68,15 +69,40 @@ public class LCSS1NN extends Efficient1NN{
         // simple check - if its last, ignore it. If it's not last, copy the instances, remove that attribue, and then call again 
         //  edit: can't do a simple copy with Instance objs by the looks of things. Fail-safe: fall back to the original measure
         
-        int m, n;
-        if(first.classIndex()==first.numAttributes()-1 && second.classIndex()==second.numAttributes()-1){
-            m = first.numAttributes()-1;
-            n = second.numAttributes()-1;
-        }else{            
+        if(first.classIndex()!=first.numAttributes()-1 || second.classIndex()!=second.numAttributes()-1){
             // default case, use the original MSM class (horrible efficiency, but just in as a fail safe for edge-cases) 
             System.err.println("Warning: class designed to use problems with class index as last attribute. Defaulting to original MSM distance");
             return new LCSSDistance(this.delta, this.epsilon).distance(first, second);
         }
+        return distance(TimeSeriesDataset.values(first), TimeSeriesDataset.values(second), this.delta, this.epsilon);
+    }
+
+    /**
+     * Reads the training series in place rather than copying both series per call.
+     */
+    @Override
+    protected double distance(Instance query, double[] queryValues, int referenceIndex, double cutoff){
+        double[][] reference = getTrainSeries();
+        if(queryValues==null || reference==null){
+            return super.distance(query, queryValues, referenceIndex, cutoff);
+        }
+        return distance(queryValues, reference[referenceIndex], this.delta, this.epsilon);
+    }
+    
+    /**
+     * LCSS distance, one minus the proportion of first matched, where points 
+     * match if they are within epsilon and at most delta apart in time. The 
+     * number matched can only grow with delta and with epsilon.
+     * 
+     * @param first
+     * @param second
+     * @param delta
+     * @param epsilon
+     * @return 
+     */
+    public static double distance(double[] first, double[] second, int delta, double epsilon){
+        int m = first.length;
+        int n = second.length;
         
         int[][] lcss = new int[m+1][n+1];
 
@@ -86,7 +112,7 @@ public class LCSS1NN extends Efficient1NN{
                     j = -1;
                 }else if(j >= n){
                     j = i+delta;
-                }else if(second.value(j)+this.epsilon >= first.value(i) && second.value(j)-epsilon <=first.value(i)){
+                }else if(second[j]+epsilon >= first[i] && second[j]-epsilon <=first[i]){
                     lcss[i+1][j+1] = lcss[i][j]+1;
                 }else if(lcss[i][j+1] > lcss[i+1][j]){
                     lcss[i+1][j+1] = lcss[i][j+1];
@@ -107,6 +133,62 @@ public class LCSS1NN extends Efficient1NN{
         return 1-((double)max/m);
         
     }
+    
+    /**
+     * The options are taken from the largest delta and epsilon down, each 
+     * bounded by the options with the next larger delta and the next larger 
+     * epsilon. Options with the same whole delta as the one above reuse its 
+     * predictions.
+     */
+    @Override
+    protected MonotoneParameterSweep createParameterSweep(Instances train){
+        // same values as setParamsFromParamId
+        double stdTrain = LCSSDistance.stdv_p(train);
+        double stdFloor = stdTrain*0.2;
+        final double[] sweepEpsilons = LCSSDistance.getInclusive10(stdFloor, stdTrain);
+        final int[] sweepDeltas = LCSSDistance.getInclusive10(0, (train.numAttributes()-1)/4);
+        
+        return new MonotoneParameterSweep(train, sweepDeltas.length*sweepEpsilons.length){
+            @Override
+            protected int[] order(){
+                int[] order = new int[numParams];
+                for(int o = 0; o < numParams; o++){
+                    order[o] = numParams-1-o;
+                }
+                return order;
+            }
+            
+            @Override
+            protected int[] boundedBy(int paramId){
+                int d = paramId/10;
+                int e = paramId%10;
+                boolean byEpsilon = e < sweepEpsilons.length-1 && sweepEpsilons[e+1] >= sweepEpsilons[e];
+                boolean byDelta = d < sweepDeltas.length-1 && sweepDeltas[d+1] >= sweepDeltas[d];
+                if(byEpsilon && byDelta){
+                    return new int[]{paramId+1, paramId+10};
+                }else if(byEpsilon){
+                    return new int[]{paramId+1};
+                }else if(byDelta){
+                    return new int[]{paramId+10};
+                }
+                return new int[0];
+            }
+            
+            @Override
+            protected int sameAs(int paramId){
+                int d = paramId/10;
+                if(d < sweepDeltas.length-1 && sweepDeltas[d+1]==sweepDeltas[d]){
+                    return paramId+10;
+                }
+                return -1;
+            }
+            
+            @Override
+            protected double distance(double[] query, double[] reference, int paramId, double cutoff, double[] bound){
+                return LCSS1NN.distance(query, reference, sweepDeltas[paramId/10], sweepEpsilons[paramId%10]);
+            }
+        };
+    }
 
 
     @Override
@@ -196,6 +278,47 @@ public class LCSS1NN extends Efficient1NN{
         return this.distance(first, second);
     }
 
+    /**
+     * A query point can only be matched if it is within epsilon of the delta 
+     * envelope of the reference series, so the number of such points bounds 
+     * the LCSS from above.
+     */
+    @Override
+    protected LowerBound[] createLowerBounds(){
+        return new LowerBound[]{new LbEnvelope()};
+    }
+    
+    private class LbEnvelope extends LowerBound{
+        private transient double[][] lower;
+        private transient double[][] upper;
+        
+        @Override
+        protected void setReference(double[][] reference){
+            super.setReference(reference);
+            int length = reference.length==0 ? 0 : reference[0].length;
+            lower = new double[reference.length][length];
+            upper = new double[reference.length][length];
+            int[] maxQueue = new int[length];
+            int[] minQueue = new int[length];
+            for(int i = 0; i < reference.length; i++){
+                envelope(reference[i], length, delta, lower[i], upper[i], maxQueue, minQueue);
+            }
+        }
+        
+        @Override
+        protected double lowerBound(double[] query, int referenceIndex, double cutoff){
+            double[] l = lower[referenceIndex];
+            double[] u = upper[referenceIndex];
+            int matchable = 0;
+            for(int i = 0; i < query.length; i++){
+                if(u[i]+epsilon >= query[i] && l[i]-epsilon <= query[i]){
+                    matchable++;
+                }
+            }
+            return 1-((double)matchable/query.length);
+        }
+    }
+    
     @Override
     public void setParamsFromParamId(Instances train, int paramId) {
         // more efficient to only calculate these when the training data has been changed, so could call in build classifier
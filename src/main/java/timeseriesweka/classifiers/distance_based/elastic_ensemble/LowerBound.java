@@ -0,0 +1,142 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers.distance_based.elastic_ensemble;
+
+import java.io.Serializable;
+
+/**
+ * A lower bound on the distance of an Efficient1NN measure, used as one stage
+ * of a LowerBoundCascade. Implementations are normally inner classes of the
+ * measure so they can read its current parameters.
+ *
+ * The cascade calls setReference whenever the reference (training) series or
+ * the measure's parameters change, so any per-series state such as envelopes
+ * should be built there and reused across queries. setQuery is called once
+ * per query before any calls to lowerBound.
+ *
+ * A bound must never exceed distance(query, reference[referenceIndex], cutoff)
+ * for any cutoff, otherwise the 1-NN search is no longer exact.
+ */
+public abstract class LowerBound implements Serializable {
+
+    protected transient double[][] reference;
+
+    long numCalls = 0;
+    long numPruned = 0;
+
+    /**
+     * (Re)builds any state for the reference series under the measure's
+     * current parameters. Overriding methods should call super.
+     *
+     * @param reference reference series without class values, all of equal length
+     */
+    protected void setReference(double[][] reference){
+        this.reference = reference;
+    }
+
+    /**
+     * Prepares any per-query state, e.g. the query envelope.
+     *
+     * @param query the query series without its class value
+     */
+    protected void setQuery(double[] query){}
+
+    /**
+     * @param query the query series without its class value
+     * @param referenceIndex index of the reference series
+     * @param cutoff the best-so-far distance; the bound may return as soon as
+     * its partial value exceeds this
+     * @return a lower bound on the distance between query and the reference series
+     */
+    protected abstract double lowerBound(double[] query, int referenceIndex, double cutoff);
+
+    public String getName(){
+        return getClass().getSimpleName();
+    }
+
+    public long getNumCalls(){
+        return numCalls;
+    }
+
+    public long getNumPruned(){
+        return numPruned;
+    }
+
+    /**
+     * Computes the upper and lower envelope of the first n values of s, i.e.
+     * the max/min of s[i-r]...s[i+r] for each i, in O(n) with two monotonic
+     * queues (Lemire, 2009).
+     *
+     * @param s series
+     * @param n number of values of s to use
+     * @param r radius of the envelope
+     * @param lower output, at least n long
+     * @param upper output, at least n long
+     * @param maxQueue working memory, at least n long
+     * @param minQueue working memory, at least n long
+     */
+    public static void envelope(double[] s, int n, int r, double[] lower, double[] upper, int[] maxQueue, int[] minQueue){
+        int maxHead = 0, maxTail = 0, minHead = 0, minTail = 0;
+        int next = 0;
+        int hi, lo;
+        for(int i = 0; i < n; i++){
+            hi = i+r < n-1 ? i+r : n-1;
+            while(next <= hi){
+                while(maxTail > maxHead && s[maxQueue[maxTail-1]] <= s[next]){
+                    maxTail--;
+                }
+                maxQueue[maxTail++] = next;
+                while(minTail > minHead && s[minQueue[minTail-1]] >= s[next]){
+                    minTail--;
+                }
+                minQueue[minTail++] = next;
+                next++;
+            }
+            lo = i-r;
+            while(maxQueue[maxHead] < lo){
+                maxHead++;
+            }
+            while(minQueue[minHead] < lo){
+                minHead++;
+            }
+            upper[i] = s[maxQueue[maxHead]];
+            lower[i] = s[minQueue[minHead]];
+        }
+    }
+
+    /**
+     * Squared distance from each value of s to the band [lower, upper], summed,
+     * abandoning once the sum is above cutoff.
+     *
+     * @return the sum, or a partial sum greater than cutoff
+     */
+    public static double keogh(double[] s, double[] lower, double[] upper, double cutoff){
+        double sum = 0;
+        double diff;
+        for(int i = 0; i < s.length; i++){
+            if(s[i] > upper[i]){
+                diff = s[i]-upper[i];
+                sum += diff*diff;
+            }else if(s[i] < lower[i]){
+                diff = lower[i]-s[i];
+                sum += diff*diff;
+            }
+            if(sum > cutoff){
+                return sum;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers.distance_based.elastic_ensemble;
+
+import java.io.Serializable;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Applies a sequence of LowerBounds, cheapest first, to decide whether a
+ * reference series can be skipped in a 1-NN search. A candidate is pruned as
+ * soon as one bound is strictly greater than the best-so-far distance, so ties
+ * with the best-so-far are still passed to the full distance and the search
+ * gives the same result as without the cascade.
+ *
+ * The reference series are copied out of the Instances once and the bounds'
+ * envelopes are only rebuilt when the reference set or the measure's
+ * parameter string changes, so repeated queries (e.g. in loocv) share them.
+ */
+public class LowerBoundCascade implements Serializable {
+
+    private final LowerBound[] bounds;
+
+    private transient Instances referenceData;
+    private int referenceSize = -1;
+    private String referenceParams;
+    private transient double[][] reference;
+    private transient double[] query;
+    private transient boolean queryUsable;
+
+    private long numCandidates = 0;
+
+    public LowerBoundCascade(LowerBound[] bounds){
+        this.bounds = bounds;
+    }
+
+    /**
+     * Sets the reference series, rebuilding envelopes only if the data or the
+     * parameters have changed since the last call.
+     *
+     * @param data reference instances, class value last
+     * @param params the measure's current parameter string
+     */
+    public void setReference(Instances data, String params){
+        if(data==referenceData && data.numInstances()==referenceSize && params.equals(referenceParams)){
+            return;
+        }
+        int length = data.numAttributes()-1;
+        if(reference==null || data!=referenceData || data.numInstances()!=referenceSize){
+            reference = new double[data.numInstances()][length];
+            for(int i = 0; i < reference.length; i++){
+                Instance ins = data.instance(i);
+                for(int j = 0; j < length; j++){
+                    reference[i][j] = ins.value(j);
+                }
+            }
+        }
+        for(LowerBound bound : bounds){
+            bound.setReference(reference);
+        }
+        referenceData = data;
+        referenceSize = data.numInstances();
+        referenceParams = params;
+    }
+
+    /**
+     * Sets the query for the following calls to prune. Queries whose length
+     * differs from the reference series are never pruned.
+     *
+     * @param ins query instance, class value last
+     */
+    public void setQuery(Instance ins){
+        int length = ins.numAttributes()-1;
+        queryUsable = reference.length > 0 && reference[0].length==length;
+        if(!queryUsable){
+            return;
+        }
+        if(query==null || query.length!=length){
+            query = new double[length];
+        }
+        for(int j = 0; j < length; j++){
+            query[j] = ins.value(j);
+        }
+        for(LowerBound bound : bounds){
+            bound.setQuery(query);
+        }
+    }
+
+    /**
+     * @param referenceIndex index of the candidate in the reference set
+     * @param bsfDistance best-so-far distance
+     * @return true if some bound shows the candidate cannot be at or below
+     * bsfDistance
+     */
+    public boolean prune(int referenceIndex, double bsfDistance){
+        if(!queryUsable){
+            return false;
+        }
+        numCandidates++;
+        for(LowerBound bound : bounds){
+            bound.numCalls++;
+            if(bound.lowerBound(query, referenceIndex, bsfDistance) > bsfDistance){
+                bound.numPruned++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getNumCandidates(){
+        return numCandidates;
+    }
+
+    public long getNumPruned(){
+        long pruned = 0;
+        for(LowerBound bound : bounds){
+            pruned += bound.numPruned;
+        }
+        return pruned;
+    }
+
+    /**
+     * @return proportion of candidates for which the full distance was not
+     * needed, or 0 if none have been seen
+     */
+    public double getPruneRate(){
+        return numCandidates==0 ? 0 : (double)getNumPruned()/numCandidates;
+    }
+
+    /**
+     * Adds the counts of another cascade over the same bounds, e.g. from a
+     * copy of the classifier used by a worker thread.
+     *
+     * @param other
+     */
+    public void addCounts(LowerBoundCascade other){
+        numCandidates += other.numCandidates;
+        for(int b = 0; b < bounds.length && b < other.bounds.length; b++){
+            bounds[b].numCalls += other.bounds[b].numCalls;
+            bounds[b].numPruned += other.bounds[b].numPruned;
+        }
+    }
+
+    public void resetCounts(){
+        numCandidates = 0;
+        for(LowerBound bound : bounds){
+            bound.numCalls = 0;
+            bound.numPruned = 0;
+        }
+    }
+
+    /**
+     * @return one line per bound with the number and proportion of all
+     * candidates it pruned, followed by the overall prune rate
+     */
+    public String getPruneReport(){
+        StringBuilder sb = new StringBuilder();
+        for(LowerBound bound : bounds){
+            sb.append(bound.getName()).append(",calls,").append(bound.numCalls);
+            sb.append(",pruned,").append(bound.numPruned);
+            sb.append(",rate,").append(numCandidates==0 ? 0 : (double)bound.numPruned/numCandidates);
+            sb.append("\n");
+        }
+        sb.append("total,candidates,").append(numCandidates);
+        sb.append(",pruned,").append(getNumPruned());
+        sb.append(",rate,").append(getPruneRate());
+        return sb.toString();
+    }
+}
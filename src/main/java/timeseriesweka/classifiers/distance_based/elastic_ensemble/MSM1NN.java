@@ -22,6 +22,7 @@ import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
 import timeseriesweka.elastic_distance_measures.MSMDistance;
+import utilities.TimeSeriesDataset;
 
 /**
  * checked April '16
@@ -159,56 +160,239 @@ public class MSM1NN extends Efficient1NN{
         // Not particularly efficient in the latter case, but a reasonable assumption to make here since all of the UCR/UEA problems
         // match that format. 
         
-        int m, n;
-        if(first.classIndex()==first.numAttributes()-1 && second.classIndex()==second.numAttributes()-1){
-            m = first.numAttributes()-1;
-            n = second.numAttributes()-1;
-        }else{            
+        if(first.classIndex()!=first.numAttributes()-1 || second.classIndex()!=second.numAttributes()-1){
             // default case, use the original MSM class (horrible efficiency, but just in as a fail safe for edge-cases) 
             System.err.println("Warning: class designed to use problems with class index as last attribute. Defaulting to original MSM distance");
-            MSMDistance msm = new MSMDistance(this.c);
             return new MSMDistance(this.c).distance(first, second);
         }
+        return distance(TimeSeriesDataset.values(first), TimeSeriesDataset.values(second), this.c, cutOffValue);
+    }
 
-        double[][] cost = new double[m][n];
+    /**
+     * Reads the training series in place rather than copying both series per call.
+     */
+    @Override
+    protected double distance(Instance query, double[] queryValues, int referenceIndex, double cutoff){
+        double[][] reference = getTrainSeries();
+        if(queryValues==null || reference==null){
+            return super.distance(query, queryValues, referenceIndex, cutoff);
+        }
+        return distance(queryValues, reference[referenceIndex], this.c, cutoff);
+    }
+    
+    /**
+     * MSM with cost c on two rolling rows of the cost matrix. Cells that reach 
+     * cutOffValue are set to Double.MAX_VALUE, and the search is abandoned 
+     * when every cell of a row after the first column has.
+     * 
+     * @param first
+     * @param second
+     * @param c
+     * @param cutOffValue
+     * @return the distance, or Double.MAX_VALUE on early abandon
+     */
+    public static double distance(double[] first, double[] second, double c, double cutOffValue){
+        int m = first.length;
+        int n = second.length;
+        double[] prev = new double[n];
+        double[] curr = new double[n];
+        double[] temp;
 
         // Initialization
-        cost[0][0] = Math.abs(first.value(0) - second.value(0));
-        for (int i = 1; i < m; i++) {
-            cost[i][0] = cost[i - 1][0] + calcualteCost(first.value(i), first.value(i-1), second.value(0));
-        }
-        for (int i = 1; i < n; i++) {
-            cost[0][i] = cost[0][i - 1] + calcualteCost(second.value(i), first.value(0), second.value(i-1));
+        prev[0] = Math.abs(first[0] - second[0]);
+        for (int j = 1; j < n; j++) {
+            prev[j] = prev[j - 1] + cost(second[j], first[0], second[j-1], c);
         }
 
         // Main Loop
         double min;
         for (int i = 1; i < m; i++) {
+            curr[0] = prev[0] + cost(first[i], first[i-1], second[0], c);
             min = cutOffValue;
             for (int j = 1; j < n; j++) {
                 double d1, d2, d3;
-                d1 = cost[i - 1][j - 1] + Math.abs(first.value(i) - second.value(j));
-                d2 = cost[i - 1][j] + calcualteCost(first.value(i), first.value(i-1), second.value(j));
-                d3 = cost[i][j - 1] + calcualteCost(second.value(j), first.value(i), second.value(j-1));
-                cost[i][j] = Math.min(d1, Math.min(d2, d3));
+                d1 = prev[j - 1] + Math.abs(first[i] - second[j]);
+                d2 = prev[j] + cost(first[i], first[i-1], second[j], c);
+                d3 = curr[j - 1] + cost(second[j], first[i], second[j-1], c);
+                curr[j] = Math.min(d1, Math.min(d2, d3));
                 
-                if(cost[i][j] >=cutOffValue){
-                    cost[i][j] = Double.MAX_VALUE;
+                if(curr[j] >=cutOffValue){
+                    curr[j] = Double.MAX_VALUE;
                 }
                 
-                if(cost[i][j] < min){
-                    min = cost[i][j];
+                if(curr[j] < min){
+                    min = curr[j];
                 }
             }
             if(min >= cutOffValue){
                 return Double.MAX_VALUE;
             }
+            temp = prev;
+            prev = curr;
+            curr = temp;
         }
         // Output
-        return cost[m - 1][n - 1];
+        return prev[n - 1];
+    }
+    
+    /**
+     * Every cell of the cost matrix is at least cost[0][0], the absolute 
+     * difference of the first points.
+     */
+    @Override
+    protected LowerBound[] createLowerBounds(){
+        return new LowerBound[]{new LbFirstPoint()};
+    }
+    
+    private class LbFirstPoint extends LowerBound{
+        @Override
+        protected double lowerBound(double[] query, int referenceIndex, double cutoff){
+            return Math.abs(query[0]-reference[referenceIndex][0]);
+        }
+    }
+    
+    /**
+     * Every split and merge costs at least c, so MSM can only grow as c rises. 
+     * The options are taken in paramId order, each bounded by the one before 
+     * if its c is no larger. Raising c to c' at most scales a distance by 
+     * c'/c, so the best so far for the next option is about cutoff*c'/c, and 
+     * distances are computed up to that limit to pass on a bound that can 
+     * prune it.
+     */
+    @Override
+    protected MonotoneParameterSweep createParameterSweep(Instances train){
+        return new MonotoneParameterSweep(train, msmParams.length){
+            @Override
+            protected int[] boundedBy(int paramId){
+                if(paramId==0 || msmParams[paramId-1] > msmParams[paramId]){
+                    return new int[0];
+                }
+                return new int[]{paramId-1};
+            }
+            
+            @Override
+            protected double distance(double[] query, double[] reference, int paramId, double cutoff, double[] bound){
+                double limit = cutoff;
+                if(paramId+1 < msmParams.length && msmParams[paramId+1] > msmParams[paramId]){
+                    limit = Math.min(Double.MAX_VALUE, cutoff*msmParams[paramId+1]/msmParams[paramId]);
+                }
+                return sweepDistance(query, reference, msmParams[paramId], cutoff, limit, bound);
+            }
+        };
+    }
+    
+    /**
+     * Gives the same result as distance(first, second, c, cutOffValue), but 
+     * only computes the cells of the cost matrix that are no more than limit, 
+     * which is at least cutOffValue (after PrunedDTW, Silva and Batista, 
+     * 2016). The abandon in distance() skips the first column, so it does not 
+     * show the distance reached cutOffValue; here the cells above limit are 
+     * left out of every row, the first column included, and the search only 
+     * stops when a whole row is, so the distance is then known to be above 
+     * limit.
+     * 
+     * @param bound bound[0] is set to the distance if it is no more than 
+     * limit, and to a lower bound on it above limit if it is not
+     */
+    private static double sweepDistance(double[] first, double[] second, double c, double cutOffValue, double limit, double[] bound){
+        int m = first.length;
+        int n = second.length;
+        if(m==1){
+            // a single row is never abandoned
+            bound[0] = distance(first, second, c, cutOffValue);
+            return bound[0];
+        }
+        double[] prev = new double[n];
+        double[] curr = new double[n];
+        double[] temp;
+
+        // cells above limit are Double.POSITIVE_INFINITY, and only columns lo to hi of the previous row are set
+        prev[0] = Math.abs(first[0] - second[0]);
+        if(prev[0] > limit){
+            bound[0] = prev[0];
+            return Double.MAX_VALUE;
+        }
+        int lo = 0, hi = 0;
+        double cell;
+        for (int j = 1; j < n; j++) {
+            cell = prev[j - 1] + cost(second[j], first[0], second[j-1], c);
+            if(cell > limit){
+                break;
+            }
+            prev[j] = cell;
+            hi = j;
+        }
+
+        boolean abandoned = false;
+        int nextLo, nextHi, j;
+        double rowMin;
+        for (int i = 1; i < m; i++) {
+            nextLo = -1;
+            nextHi = -1;
+            rowMin = Double.POSITIVE_INFINITY;
+            if(lo==0){
+                cell = prev[0] + cost(first[i], first[i-1], second[0], c);
+                if(cell > limit){
+                    curr[0] = Double.POSITIVE_INFINITY;
+                }else{
+                    curr[0] = cell;
+                    nextLo = 0;
+                    nextHi = 0;
+                }
+                j = 1;
+            }else{
+                curr[lo - 1] = Double.POSITIVE_INFINITY;
+                j = lo;
+            }
+            for (; j < n; j++) {
+                double d1, d2, d3;
+                d1 = j - 1 >= lo && j - 1 <= hi ? prev[j - 1] + Math.abs(first[i] - second[j]) : Double.POSITIVE_INFINITY;
+                d2 = j <= hi ? prev[j] + cost(first[i], first[i-1], second[j], c) : Double.POSITIVE_INFINITY;
+                d3 = curr[j - 1] + cost(second[j], first[i], second[j-1], c);
+                cell = Math.min(d1, Math.min(d2, d3));
+                if(cell > limit){
+                    curr[j] = Double.POSITIVE_INFINITY;
+                    if(j > hi){
+                        // nothing further along the row can be reached
+                        break;
+                    }
+                }else{
+                    curr[j] = cell;
+                    if(nextLo < 0){
+                        nextLo = j;
+                    }
+                    nextHi = j;
+                    if(cell < rowMin){
+                        rowMin = cell;
+                    }
+                }
+            }
+            if(rowMin >= cutOffValue){
+                abandoned = true;
+            }
+            if(nextLo < 0){
+                bound[0] = limit;
+                return Double.MAX_VALUE;
+            }
+            lo = nextLo;
+            hi = nextHi;
+            temp = prev;
+            prev = curr;
+            curr = temp;
+        }
+        if(hi < n - 1 || prev[n - 1] > limit){
+            bound[0] = limit;
+            return Double.MAX_VALUE;
+        }
+        bound[0] = prev[n - 1];
+        return abandoned || prev[n - 1] >= cutOffValue ? Double.MAX_VALUE : prev[n - 1];
     }
     
     public double calcualteCost(double new_point, double x, double y) {
+        return cost(new_point, x, y, c);
+    }
+    
+    private static double cost(double new_point, double x, double y, double c) {
 
         double dist = 0;
 
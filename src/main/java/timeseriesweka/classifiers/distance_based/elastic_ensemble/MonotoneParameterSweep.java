@@ -0,0 +1,303 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers.distance_based.elastic_ensemble;
+
+import java.io.File;
+import java.util.Arrays;
+import experiments.data.DatasetLoading;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Evaluates every parameter option of an Efficient1NN measure by leave-one-out
+ * 1-NN together, one training instance at a time, generalising the window
+ * sweep in DTW1NN (after FastWWS, Tan et al., 2019) to measures whose distance
+ * only moves one way as a parameter changes. ERP can only grow as its band
+ * narrows, LCSS as its band narrows or epsilon shrinks, MSM as its cost rises
+ * and TWE as either of its penalties rise.
+ *
+ * The options are visited in the order given by order(). A distance found for
+ * one option, passed through transfer(), is a lower bound for each option that
+ * lists it in boundedBy(), so a neighbour that must be further away than the
+ * best so far is skipped without a distance call. A neighbour that is skipped
+ * keeps the bound it was skipped with, which is passed on in the same way.
+ * Options that sameAs() shows to give the same distances as an earlier one
+ * reuse its predictions.
+ *
+ * The search for each option mirrors Efficient1NN.classifyInstance: the
+ * neighbours are visited in the same order, the same distance is called with
+ * the same cutoff unless the bound is strictly above it, and ties are split
+ * the same way, so the predictions are the same as calling loocvAccAndPreds
+ * for each paramId. The abandon tests of MSM and WDTW skip the first column,
+ * so an abandoned distance is not always at least the cutoff; their sweeps
+ * use kernels that give the same results while only computing the cells
+ * below a limit, and pass on that limit as the bound when they stop.
+ *
+ * Implementations are normally inner classes of the measure, built by its
+ * createParameterSweep(Instances).
+ */
+public abstract class MonotoneParameterSweep {
+
+    protected final int numParams;
+    protected final double[][] series;
+    protected final int[] classes;
+    protected final int numClasses;
+
+    /**
+     * @param train training data with the class attribute last
+     * @param numParams the number of parameter options, paramIds 0 to numParams-1
+     */
+    protected MonotoneParameterSweep(Instances train, int numParams){
+        this.numParams = numParams;
+        this.numClasses = train.numClasses();
+        int numInstances = train.numInstances();
+        int length = train.numAttributes()-1;
+        this.series = new double[numInstances][length];
+        this.classes = new int[numInstances];
+        Instance ins;
+        for(int i = 0; i < numInstances; i++){
+            ins = train.instance(i);
+            for(int j = 0; j < length; j++){
+                series[i][j] = ins.value(j);
+            }
+            classes[i] = (int)ins.classValue();
+        }
+    }
+
+    /**
+     * @return every paramId once, in the order they are evaluated. The 
+     * default is paramId order.
+     */
+    protected int[] order(){
+        int[] order = new int[numParams];
+        for(int paramId = 0; paramId < numParams; paramId++){
+            order[paramId] = paramId;
+        }
+        return order;
+    }
+
+    /**
+     * @param paramId
+     * @return the paramIds, all earlier in order(), whose distances bound the
+     * distance for paramId from below once passed through transfer()
+     */
+    protected abstract int[] boundedBy(int paramId);
+
+    /**
+     * Maps a lower bound on the distance for paramId from to a lower bound on
+     * the distance for paramId to. Must not decrease as bound increases. The
+     * default is the bound itself, for distances that can only grow from one
+     * option to the next.
+     *
+     * @param from
+     * @param to
+     * @param bound
+     * @return
+     */
+    protected double transfer(int from, int to, double bound){
+        return bound;
+    }
+
+    /**
+     * @param paramId
+     * @return an earlier paramId in order() that gives the same distance as
+     * paramId for every pair of series, or -1 if there is none
+     */
+    protected int sameAs(int paramId){
+        return -1;
+    }
+
+    /**
+     * The distance of the measure set to paramId, which must be exactly what
+     * its distance(Instance, Instance, double) gives. Called concurrently, so
+     * must not change any shared state.
+     *
+     * @param query
+     * @param reference
+     * @param paramId
+     * @param cutoff a best-so-far value to allow early abandons
+     * @param bound NaN on entry. Set bound[0] to a lower bound on the distance 
+     * when the value returned cannot be passed on as one: on early abandon, or 
+     * e.g. when ties were broken in a way the bounds do not allow for. Left as 
+     * NaN, the value returned is passed on, unless it was abandoned.
+     * @return the distance, or Double.MAX_VALUE on early abandon
+     */
+    protected abstract double distance(double[] query, double[] reference, int paramId, double cutoff, double[] bound);
+
+    /**
+     * Runs the sweep, sharing the query rows between the threads allowed to
+     * owner.
+     *
+     * @param owner the classifier being tuned
+     * @return the output of loocvAccAndPreds for each paramId, indexed by paramId
+     * @throws Exception
+     */
+    public double[][] run(Efficient1NN owner) throws Exception{
+        final int[] order = order();
+        final int[][] bounders = new int[numParams][];
+        final int[] sames = new int[numParams];
+        int[] position = new int[numParams];
+        Arrays.fill(position, -1);
+        for(int o = 0; o < order.length; o++){
+            position[order[o]] = o;
+        }
+        for(int paramId = 0; paramId < numParams; paramId++){
+            if(position[paramId] < 0){
+                throw new IllegalStateException("paramId "+paramId+" is missing from the sweep order");
+            }
+            bounders[paramId] = boundedBy(paramId);
+            for(int from : bounders[paramId]){
+                if(position[from] >= position[paramId]){
+                    throw new IllegalStateException("paramId "+paramId+" is bounded by "+from+", which is not evaluated before it");
+                }
+            }
+            sames[paramId] = sameAs(paramId);
+            if(sames[paramId] >= 0 && position[sames[paramId]] >= position[paramId]){
+                throw new IllegalStateException("paramId "+paramId+" is the same as "+sames[paramId]+", which is not evaluated before it");
+            }
+        }
+
+        final int numInstances = series.length;
+        final double[][] preds = new double[numParams][numInstances];
+        owner.forEachRow(numInstances, row -> sweepRow(row, order, bounders, sames, preds));
+
+        double[][] allAccAndPreds = new double[numParams][numInstances+1];
+        int correct;
+        for(int paramId = 0; paramId < numParams; paramId++){
+            correct = 0;
+            for(int i = 0; i < numInstances; i++){
+                allAccAndPreds[paramId][i+1] = preds[paramId][i];
+                if(preds[paramId][i]==classes[i]){
+                    correct++;
+                }
+            }
+            allAccAndPreds[paramId][0] = (double)correct/numInstances;
+        }
+        return allAccAndPreds;
+    }
+
+    /**
+     * Fills preds[paramId][row] for every paramId.
+     */
+    private void sweepRow(int row, int[] order, int[][] bounders, int[] sames, double[][] preds){
+        int numInstances = series.length;
+        double[] query = series[row];
+        // bounds[paramId][t] is a lower bound on the distance to t for paramId, exact if it was computed
+        double[][] bounds = new double[numParams][];
+        double[] found = new double[1];
+        int[] classCounts = new int[numClasses];
+
+        double bsfDistance, thisDist, bound, transferred;
+        for(int paramId : order){
+            if(sames[paramId] >= 0){
+                preds[paramId][row] = preds[sames[paramId]][row];
+                bounds[paramId] = bounds[sames[paramId]];
+                continue;
+            }
+            int[] from = bounders[paramId];
+            double[] known = new double[numInstances];
+            bsfDistance = Double.MAX_VALUE;
+            Arrays.fill(classCounts, 0);
+            for(int t = 0; t < numInstances; t++){
+                if(t==row){
+                    continue;
+                }
+                bound = 0;
+                for(int f : from){
+                    transferred = transfer(f, paramId, bounds[f][t]);
+                    if(transferred > bound){
+                        bound = transferred;
+                    }
+                }
+                if(bound > bsfDistance){
+                    known[t] = bound;
+                    continue;
+                }
+                found[0] = Double.NaN;
+                thisDist = distance(query, series[t], paramId, bsfDistance, found);
+                if(!Double.isNaN(found[0])){
+                    known[t] = Math.max(bound, found[0]);
+                }else if(thisDist!=Double.MAX_VALUE){
+                    known[t] = thisDist;
+                }else{
+                    known[t] = bound;
+                }
+                if(thisDist < bsfDistance){
+                    bsfDistance = thisDist;
+                    Arrays.fill(classCounts, 0);
+                    classCounts[classes[t]]++;
+                }else if(thisDist==bsfDistance){
+                    classCounts[classes[t]]++;
+                }
+            }
+            bounds[paramId] = known;
+
+            double pred = -1;
+            int bsfCount = -1;
+            for(int c = 0; c < numClasses; c++){
+                if(classCounts[c] > bsfCount){
+                    bsfCount = classCounts[c];
+                    pred = c;
+                }
+            }
+            preds[paramId][row] = pred;
+        }
+    }
+
+    /**
+     * @param train
+     * @return true if a sweep can be built for train: univariate, with the
+     * class attribute last and at least one instance
+     */
+    public static boolean canSweep(Instances train){
+        return train.numInstances() > 0 && train.classIndex()==train.numAttributes()-1 && !train.checkForAttributeType(Attribute.RELATIONAL);
+    }
+
+    /**
+     * Times the sweep against evaluating the 100 options one at a time with
+     * loocvAccAndPreds for each swept measure, and checks they agree.
+     *
+     * @param args the directory of problems, each in its own folder as
+     * name/name_TRAIN.arff, then the problem names. Defaults to the problems
+     * bundled in experiments/data/tsc.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception{
+        String problemDir = args.length > 0 ? args[0] : "src/main/java/experiments/data/tsc/";
+        String[] problems = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[]{"ItalyPowerDemand", "Beef"};
+
+        for(String problem : problems){
+            Instances train = DatasetLoading.loadDataNullable(problemDir+File.separator+problem+File.separator+problem+"_TRAIN");
+            Efficient1NN[] measures = {new WDTW1NN(), new ERP1NN(), new LCSS1NN(), new MSM1NN(), new TWE1NN()};
+            for(Efficient1NN measure : measures){
+                long start = System.nanoTime();
+                double[][] swept = measure.sweepLoocvAccAndPreds(train);
+                long sweepTime = System.nanoTime()-start;
+
+                start = System.nanoTime();
+                boolean same = swept!=null;
+                for(int paramId = 0; paramId < 100; paramId++){
+                    double[] accAndPreds = measure.loocvAccAndPreds(train, paramId);
+                    same = same && Arrays.equals(accAndPreds, swept[paramId]);
+                }
+                long bruteTime = System.nanoTime()-start;
+
+                System.out.println(problem+","+measure.getClassifierIdentifier()+",sweep "+sweepTime/1000000+"ms,one at a time "+bruteTime/1000000+"ms,speedup "
+                        +String.format("%.2f", (double)bruteTime/sweepTime)+(same ? ",same predictions" : ",PREDICTIONS DIFFER"));
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
 import timeseriesweka.elastic_distance_measures.TWEDistance;
+import utilities.TimeSeriesDataset;
 //import efficient_standalone_classifiers.Eff
 /**
  * written April '16 - looks good
@@ -85,8 +86,35 @@ public class TWE1NN extends Efficient1NN{
             return new TWEDistance(nu, lambda).distance(first, second, cutoff);
         }
 
-        int m = first.numAttributes() - 1;
-        int n = second.numAttributes() - 1;
+        return distance(TimeSeriesDataset.values(first), TimeSeriesDataset.values(second), this.nu, this.lambda);
+    }
+
+    /**
+     * Reads the training series in place rather than copying both series per call.
+     */
+    @Override
+    protected double distance(Instance query, double[] queryValues, int referenceIndex, double cutoff){
+        double[][] reference = getTrainSeries();
+        if(queryValues==null || reference==null){
+            return super.distance(query, queryValues, referenceIndex, cutoff);
+        }
+        return distance(queryValues, reference[referenceIndex], this.nu, this.lambda);
+    }
+    
+    /**
+     * TWE with stiffness nu and deletion penalty lambda. Every cost in the 
+     * matrix is a sum of non-negative terms, none of which fall as nu or 
+     * lambda rise.
+     * 
+     * @param first
+     * @param second
+     * @param nu
+     * @param lambda
+     * @return 
+     */
+    public static double distance(double[] first, double[] second, double nu, double lambda){
+        int m = first.length;
+        int n = second.length;
 
         int dim = 1;
         double dist, disti1, distj1;
@@ -111,10 +139,10 @@ public class TWE1NN extends Efficient1NN{
         int i, j, k;
 //Copy over values
         for (i = 0; i < m; i++) {
-            ta[i][0] = first.value(i);
+            ta[i][0] = first[i];
         }
         for (i = 0; i < n; i++) {
-            tb[i][0] = second.value(i);
+            tb[i][0] = second[i];
         }
 
         /* allocations in c
@@ -218,6 +246,37 @@ public class TWE1NN extends Efficient1NN{
         dist = D[r][c];
         return dist;
     }
+    
+    /**
+     * The options are taken in paramId order, so nu and lambda only rise, each 
+     * bounded by the options with the next smaller nu and the next smaller 
+     * lambda.
+     */
+    @Override
+    protected MonotoneParameterSweep createParameterSweep(Instances train){
+        return new MonotoneParameterSweep(train, twe_nuParams.length*twe_lamdaParams.length){
+            @Override
+            protected int[] boundedBy(int paramId){
+                int nuId = paramId/10;
+                int lambdaId = paramId%10;
+                boolean byLambda = lambdaId > 0 && twe_lamdaParams[lambdaId-1] <= twe_lamdaParams[lambdaId];
+                boolean byNu = nuId > 0 && twe_nuParams[nuId-1] <= twe_nuParams[nuId];
+                if(byLambda && byNu){
+                    return new int[]{paramId-1, paramId-10};
+                }else if(byLambda){
+                    return new int[]{paramId-1};
+                }else if(byNu){
+                    return new int[]{paramId-10};
+                }
+                return new int[0];
+            }
+            
+            @Override
+            protected double distance(double[] query, double[] reference, int paramId, double cutoff, double[] bound){
+                return TWE1NN.distance(query, reference, twe_nuParams[paramId/10], twe_lamdaParams[paramId%10]);
+            }
+        };
+    }
 
     @Override
     public Capabilities getCapabilities() {
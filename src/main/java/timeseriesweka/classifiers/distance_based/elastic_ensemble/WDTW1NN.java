@@ -21,7 +21,7 @@ import weka_uea.classifiers.kNN;
 import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
-import timeseriesweka.elastic_distance_measures.DTW;
+import timeseriesweka.elastic_distance_measures.DTWKernel;
 import timeseriesweka.elastic_distance_measures.WeightedDTW;
 //import efficient_standalone_classifiers.Eff
 /**
@@ -36,6 +36,9 @@ public class WDTW1NN extends Efficient1NN{
     private static final double WEIGHT_MAX = 1;
     private boolean refreshWeights = true;
     
+    // per-thread cost rows for sweepDistance, grown to the longest series seen, as in DTWKernel
+    private static final ThreadLocal<double[][]> SWEEP_ROWS = ThreadLocal.withInitial(() -> new double[2][0]);
+    
     public WDTW1NN(double g){
         this.g = g;
         this.classifierIdentifier = "WDTW_1NN";
@@ -57,6 +60,115 @@ public class WDTW1NN extends Efficient1NN{
         refreshWeights = false;
     }
     
+    /**
+     * A weighted LB_Kim and a weighted bound on the distance of each query 
+     * point to the [min, max] range of the reference series. WDTW has a full 
+     * window, so this range is what LB_Keogh's envelope would be, and it is 
+     * kept as a single pair of values rather than an envelope per point.
+     */
+    @Override
+    protected LowerBound[] createLowerBounds(){
+        return new LowerBound[]{new LbKim(), new LbMinMax()};
+    }
+    
+    /**
+     * Smallest weight of the vector used for series of this length; the 
+     * weights are logistic in |i-j| so this is normally the first one.
+     */
+    private double minWeight(int seriesLength){
+        double halfLength = (double)seriesLength/2;
+        double min = Double.MAX_VALUE;
+        double weight;
+        for(int i = 0; i < seriesLength; i++){
+            weight = WEIGHT_MAX/(1+Math.exp(-g*(i-halfLength)));
+            if(weight < min){
+                min = weight;
+            }
+        }
+        return min;
+    }
+    
+    /**
+     * The first and last pairs of points are always aligned, both with the 
+     * weight for |i-j| = 0.
+     */
+    private class LbKim extends LowerBound{
+        private transient double weight;
+        
+        @Override
+        protected void setReference(double[][] reference){
+            super.setReference(reference);
+            int length = reference.length==0 ? 0 : reference[0].length;
+            weight = WEIGHT_MAX/(1+Math.exp(-g*(0-(double)length/2)));
+        }
+        
+        @Override
+        protected double lowerBound(double[] query, int referenceIndex, double cutoff){
+            double[] candidate = reference[referenceIndex];
+            int last = query.length-1;
+            double diff = query[0]-candidate[0];
+            double lb = diff*diff;
+            if(last > 0){
+                diff = query[last]-candidate[last];
+                lb += diff*diff;
+            }
+            return weight*lb;
+        }
+    }
+    
+    /**
+     * Each query point is aligned with at least one reference point, at a cost 
+     * of at least the smallest weight times its squared distance to the 
+     * reference series' [min, max] range.
+     */
+    private class LbMinMax extends LowerBound{
+        private transient double[] mins;
+        private transient double[] maxs;
+        private transient double weight;
+        
+        @Override
+        protected void setReference(double[][] reference){
+            super.setReference(reference);
+            int length = reference.length==0 ? 0 : reference[0].length;
+            weight = minWeight(length);
+            mins = new double[reference.length];
+            maxs = new double[reference.length];
+            for(int i = 0; i < reference.length; i++){
+                mins[i] = Double.MAX_VALUE;
+                maxs[i] = -Double.MAX_VALUE;
+                for(double value : reference[i]){
+                    if(value < mins[i]){
+                        mins[i] = value;
+                    }
+                    if(value > maxs[i]){
+                        maxs[i] = value;
+                    }
+                }
+            }
+        }
+        
+        @Override
+        protected double lowerBound(double[] query, int referenceIndex, double cutoff){
+            double min = mins[referenceIndex];
+            double max = maxs[referenceIndex];
+            double sum = 0;
+            double diff;
+            for(int i = 0; i < query.length; i++){
+                if(query[i] > max){
+                    diff = query[i]-max;
+                    sum += diff*diff;
+                }else if(query[i] < min){
+                    diff = min-query[i];
+                    sum += diff*diff;
+                }
+                if(weight*sum > cutoff){
+                    break;
+                }
+            }
+            return weight*sum;
+        }
+    }
+    
     public final double distance(Instance first, Instance second, double cutoff){
         
         // base case - we're assuming class val is last. If this is true, this method is fine,
@@ -66,59 +178,194 @@ public class WDTW1NN extends Efficient1NN{
         }        
         
         int m = first.numAttributes()-1;
-        int n = second.numAttributes()-1;
         
         if(this.refreshWeights){
             this.initWeights(m);
         }
 
-
-        //create empty array
-        double[][] distances = new double[m][n];
-        
-        //first value
-        distances[0][0] = this.weightVector[0]*(first.value(0)-second.value(0))*(first.value(0)-second.value(0));
-        
-        //early abandon if first values is larger than cut off
-        if(distances[0][0] > cutoff){
-            return Double.MAX_VALUE;
-        }
-        
-        //top row
-        for(int i=1;i<n;i++){
-            distances[0][i] = distances[0][i-1]+this.weightVector[i]*(first.value(0)-second.value(i))*(first.value(0)-second.value(i)); //edited by Jay
+        // full window weighted DTW on two rolling rows, see DTWKernel
+        return DTWKernel.weightedDistance(first, second, this.weightVector, cutoff);
+    }
+    
+    /**
+     * WDTW is not monotone in g, but every cost on a warping path scales by 
+     * w'(|i-j|)/w(|i-j|) when the weights change from w to w', so the smallest 
+     * such ratio times the old distance bounds the new one. The weights only 
+     * fall with g for |i-j| above half the length, where the ratio stays close 
+     * to 1, so the options are taken from the largest g down, each bounded by 
+     * the one before. The ratio is shaded by a relative 1e-9 so that rounding 
+     * in the two sums cannot make the bound overtake the distance.
+     */
+    @Override
+    protected MonotoneParameterSweep createParameterSweep(Instances train){
+        final int length = train.numAttributes()-1;
+        final double[][] weights = new double[100][length];
+        double halfLength = (double)length/2;
+        for(int paramId = 0; paramId < weights.length; paramId++){
+            // same g and weights as setParamsFromParamId and initWeights
+            double g = (double)paramId/100;
+            for(int i = 0; i < length; i++){
+                weights[paramId][i] = WEIGHT_MAX/(1+Math.exp(-g*(i-halfLength)));
+            }
         }
-
-        //first column
-        for(int i=1;i<m;i++){
-            distances[i][0] = distances[i-1][0]+this.weightVector[i]*(first.value(i)-second.value(0))*(first.value(i)-second.value(0)); //edited by Jay
+        // ratios[paramId] scales a distance for paramId+1 to a bound for paramId
+        final double[] ratios = new double[weights.length];
+        for(int paramId = 0; paramId < weights.length-1; paramId++){
+            double ratio = Double.MAX_VALUE;
+            for(int i = 0; i < length; i++){
+                // weights that underflow to 0 add nothing to the old distance
+                if(weights[paramId+1][i] > 0){
+                    ratio = Math.min(ratio, weights[paramId][i]/weights[paramId+1][i]);
+                }
+            }
+            ratios[paramId] = ratio==Double.MAX_VALUE ? 0 : ratio*(1-1e-9);
         }
         
-        //warp rest
-        double minDistance;
-        for(int i = 1; i<m; i++){
-            boolean overflow = true;
+        return new MonotoneParameterSweep(train, weights.length){
+            @Override
+            protected int[] order(){
+                int[] order = new int[numParams];
+                for(int o = 0; o < numParams; o++){
+                    order[o] = numParams-1-o;
+                }
+                return order;
+            }
             
-            for(int j = 1; j<n; j++){
-                //calculate distances
-                minDistance = Math.min(distances[i][j-1], Math.min(distances[i-1][j], distances[i-1][j-1]));
-                distances[i][j] = minDistance+this.weightVector[Math.abs(i-j)] *(first.value(i)-second.value(j))*(first.value(i)-second.value(j)); 
-                
-                if(overflow && distances[i][j] < cutoff){
-                    overflow = false; // because there's evidence that the path can continue
+            @Override
+            protected int[] boundedBy(int paramId){
+                if(paramId==numParams-1){
+                    return new int[0];
                 }
+                return new int[]{paramId+1};
             }
             
-            //early abandon
+            @Override
+            protected double transfer(int from, int to, double bound){
+                return bound*ratios[to];
+            }
+            
+            @Override
+            protected double distance(double[] query, double[] reference, int paramId, double cutoff, double[] bound){
+                double limit = cutoff;
+                if(paramId > 0 && ratios[paramId-1] > 0){
+                    limit = Math.max(cutoff, Math.min(Double.MAX_VALUE, cutoff/ratios[paramId-1]));
+                }
+                return sweepDistance(query, reference, weights[paramId], cutoff, limit, bound);
+            }
+        };
+    }
+    
+
+    /**
+     * Gives the same result as DTWKernel.weightedDistance(a, b, weights, 
+     * cutoff) for the sweep, but only computes the cells of the cost matrix 
+     * that are no more than limit, which is at least cutoff (after PrunedDTW, 
+     * Silva and Batista, 2016). The abandon in weightedDistance skips the 
+     * first column, so it does not show the distance reached cutoff; here the 
+     * cells above limit are left out of every row, the first column included, 
+     * and the search only stops when a whole row is, so the distance is then 
+     * known to be above limit. A distance above limit that weightedDistance 
+     * would return is returned as Double.MAX_VALUE, which is no nearer than 
+     * cutoff either.
+     * 
+     * @param bound bound[0] is set to the distance if it is no more than 
+     * limit, and to a lower bound on it above limit if it is not
+     */
+    private static double sweepDistance(double[] a, double[] b, double[] weights, double cutoff, double limit, double[] bound){
+        int n = a.length;
+        int m = b.length;
+        double[][] rows = SWEEP_ROWS.get();
+        if(rows[0].length < m){
+            rows[0] = new double[m];
+            rows[1] = new double[m];
+        }
+        // cells not written for this call are never read, so the rows need no clearing
+        double[] prev = rows[0];
+        double[] curr = rows[1];
+        double[] temp;
+        double minDist, diff, cell;
+
+        // cells above limit are Double.POSITIVE_INFINITY, and only columns lo to hi of the previous row are set
+        diff = a[0]-b[0];
+        prev[0] = weights[0]*diff*diff;
+        if(prev[0] > limit){
+            bound[0] = prev[0];
+            return Double.MAX_VALUE;
+        }
+        boolean abandoned = prev[0] > cutoff;
+        int lo = 0, hi = 0;
+        for(int j = 1; j < m; j++){
+            diff = a[0]-b[j];
+            cell = prev[j-1]+weights[j]*diff*diff;
+            if(cell > limit){
+                break;
+            }
+            prev[j] = cell;
+            hi = j;
+        }
+
+        int nextLo, nextHi, j;
+        boolean overflow;
+        for(int i = 1; i < n; i++){
+            nextLo = -1;
+            nextHi = -1;
+            overflow = true;
+            if(lo==0){
+                diff = a[i]-b[0];
+                cell = prev[0]+weights[i]*diff*diff;
+                if(cell > limit){
+                    curr[0] = Double.POSITIVE_INFINITY;
+                }else{
+                    curr[0] = cell;
+                    nextLo = 0;
+                    nextHi = 0;
+                }
+                j = 1;
+            }else{
+                curr[lo-1] = Double.POSITIVE_INFINITY;
+                j = lo;
+            }
+            for(; j < m; j++){
+                minDist = Math.min(curr[j-1], Math.min(j <= hi ? prev[j] : Double.POSITIVE_INFINITY, j-1 >= lo && j-1 <= hi ? prev[j-1] : Double.POSITIVE_INFINITY));
+                diff = a[i]-b[j];
+                cell = minDist+weights[i > j ? i-j : j-i]*diff*diff;
+                if(cell > limit){
+                    curr[j] = Double.POSITIVE_INFINITY;
+                    if(j > hi){
+                        // nothing further along the row can be reached
+                        break;
+                    }
+                }else{
+                    curr[j] = cell;
+                    if(nextLo < 0){
+                        nextLo = j;
+                    }
+                    nextHi = j;
+                    if(cell < cutoff){
+                        overflow = false;
+                    }
+                }
+            }
             if(overflow){
+                abandoned = true;
+            }
+            if(nextLo < 0){
+                bound[0] = limit;
                 return Double.MAX_VALUE;
             }
+            lo = nextLo;
+            hi = nextHi;
+            temp = prev;
+            prev = curr;
+            curr = temp;
         }
-        return distances[m-1][n-1];
-        
-        
+        if(hi < m-1 || prev[m-1] > limit){
+            bound[0] = limit;
+            return Double.MAX_VALUE;
+        }
+        bound[0] = prev[m-1];
+        return abandoned ? Double.MAX_VALUE : prev[m-1];
     }
-    
 
     @Override
     public Capabilities getCapabilities() {
@@ -15,9 +15,13 @@ package timeseriesweka.classifiers.frequency_based;
  */
 import experiments.data.DatasetLoading;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import timeseriesweka.classifiers.AbstractClassifierWithTrainingInfo;
 import timeseriesweka.classifiers.SaveParameterInfo;
+import timeseriesweka.classifiers.TrainTimeContractable;
 import utilities.ClassifierTools;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
@@ -28,6 +32,7 @@ import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.TechnicalInformation;
 import timeseriesweka.filters.ACF;
+import timeseriesweka.filters.FFTPlan;
 import timeseriesweka.filters.PowerSpectrum;
 import timeseriesweka.filters.ACF_PACF;
 import timeseriesweka.filters.ARMA;
@@ -39,6 +44,7 @@ import weka.core.Utils;
 import weka.filters.Filter;
 import weka.filters.SimpleFilter;
 import timeseriesweka.classifiers.SubSampleTrainer;
+import utilities.TimeSeriesDataset;
 
 /**
  * Development code for RISE
@@ -94,7 +100,7 @@ import timeseriesweka.classifiers.SubSampleTrainer;
  **/
 
 
-public class RISE extends AbstractClassifierWithTrainingInfo implements SaveParameterInfo, SubSampleTrainer, Randomizable,TechnicalInformationHandler{
+public class RISE extends AbstractClassifierWithTrainingInfo implements SaveParameterInfo, SubSampleTrainer, Randomizable,TechnicalInformationHandler,TrainTimeContractable{
     /** Default to a random tree */
     private Classifier baseClassifierTemplate=new RandomTree();
     /** Ensemble base classifiers */    
@@ -121,6 +127,9 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
     //Really should try bagging this!    
     private boolean subSample=false;
     private double sampleProp=1;
+    /** Train time contract in nanoseconds. No more trees are started once it is used, though the first is 
+     * always built. Volatile so it can be changed while building, as HiveCote does when its other modules finish */
+    private volatile long trainContractNanos=Long.MAX_VALUE;
     public RISE(){
         filters=new SimpleFilter[3];
         ACF acf= new ACF();
@@ -211,6 +220,12 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
      * Holders for the headers of each transform. 
      */    
     Instances[] testHolders;
+    /** If every filter is an ACF, PACF or PowerSpectrum, the features are 
+     * found straight from the interval values by findFeatures rather than
+     * through the filters, and these are the headers of the transformed data
+     * for each tree, shared between trees with the same interval length */
+    private boolean directFeatures;
+    private Instances[] featureHeaders;
     public void setSeed(int s){
         rand=new Random();
         this.seed=seed;
@@ -288,6 +303,7 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
         endPoints =new int[numBaseClassifiers];
 //      TO DO  trainResults.setTimeUnit(TimeUnit.NANOSECONDS);
         long start=System.currentTimeMillis();
+        long startNanos=System.nanoTime();
         //Option to sub sample for training        
          if(subSample){
             data=subSample(data,sampleProp,seed);
@@ -295,10 +311,19 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
         }
          
         //Initialise the memory 
+        TimeSeriesDataset series=new TimeSeriesDataset(data);
+        double[] seriesData=series.getData();
         baseClassifiers=new Classifier[numBaseClassifiers];
-        testHolders=new Instances[numBaseClassifiers];
+        directFeatures=canFindFeaturesDirectly();
+        testHolders=directFeatures?null:new Instances[numBaseClassifiers];
+        featureHeaders=directFeatures?new Instances[numBaseClassifiers]:null;
+        HashMap<Integer,Instances> headers=new HashMap<>();
         //Select random intervals for each tree
         for(int i=0;i<numBaseClassifiers;i++){
+            if(i>0 && System.nanoTime()-startNanos>trainContractNanos){
+                keepFirstClassifiers(i);
+                break;
+            }
             //Do whole series for first classifier            
             if(i==0){
                 startPoints[i]=0;
@@ -317,37 +342,55 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
                     endPoints[i]+=startPoints[i];
                 }
             }
-            //Set up train instances prior to trainsform.
             int numFeatures=endPoints[i]-startPoints[i]+1;
-            String name;
-            ArrayList<Attribute> atts=new ArrayList();
-            for(int j=0;j<numFeatures;j++){
-                    name = "F"+j;
-                    atts.add(new Attribute(name));
+            Instances newTrain;
+            if(directFeatures){
+                featureHeaders[i]=headers.get(numFeatures);
+                if(featureHeaders[i]==null){
+                    featureHeaders[i]=featureHeader(numFeatures,data.classAttribute());
+                    headers.put(numFeatures,featureHeaders[i]);
+                }
+                newTrain=new Instances(featureHeaders[i],data.numInstances());
+                int numAtts=newTrain.numAttributes();
+                for(int j=0;j<data.numInstances();j++){
+                    double[] vals=new double[numAtts];
+                    findFeatures(seriesData,series.offset(j)+startPoints[i],numFeatures,vals);
+                    vals[numAtts-1]=data.instance(j).classValue();
+                    newTrain.add(new DenseInstance(1.0,vals));
+                }
             }
-            //Get the class values as a fast vector			
-            Attribute target =data.attribute(data.classIndex());
-            ArrayList<String> vals=new ArrayList<>(target.numValues());
-            for(int j=0;j<target.numValues();j++)
-                    vals.add(target.value(j));
-            atts.add(new Attribute(data.attribute(data.classIndex()).name(),vals));
-            //create blank instances with the correct class value                
-            Instances result = new Instances("Tree",atts,data.numInstances());
-            result.setClassIndex(result.numAttributes()-1);
-            for(int j=0;j<data.numInstances();j++){
+            else{
+                //Set up train instances prior to trainsform.
+                String name;
+                ArrayList<Attribute> atts=new ArrayList();
+                for(int j=0;j<numFeatures;j++){
+                        name = "F"+j;
+                        atts.add(new Attribute(name));
+                }
+                //Get the class values as a fast vector			
+                Attribute target =data.attribute(data.classIndex());
+                ArrayList<String> vals=new ArrayList<>(target.numValues());
+                for(int j=0;j<target.numValues();j++)
+                        vals.add(target.value(j));
+                atts.add(new Attribute(data.attribute(data.classIndex()).name(),vals));
+                //create blank instances with the correct class value                
+                Instances result = new Instances("Tree",atts,data.numInstances());
+                result.setClassIndex(result.numAttributes()-1);
+                for(int j=0;j<data.numInstances();j++){
+                    DenseInstance in=new DenseInstance(result.numAttributes());
+                    int offset=series.offset(j)+startPoints[i];
+                    for(int k=0;k<numFeatures;k++)
+                        in.setValue(k,seriesData[offset+k]);
+                //Set interval features                
+                    in.setValue(result.numAttributes()-1,data.instance(j).classValue());
+                    result.add(in);
+                }
+                testHolders[i] =new Instances(result,0);       
                 DenseInstance in=new DenseInstance(result.numAttributes());
-                double[] v=data.instance(j).toDoubleArray();
-                for(int k=0;k<numFeatures;k++)
-                    in.setValue(k,v[startPoints[i]+k]);
-            //Set interval features                
-                in.setValue(result.numAttributes()-1,data.instance(j).classValue());
-                result.add(in);
+                testHolders[i].add(in);
+                //Perform the transform
+                newTrain=filterData(result);
             }
-            testHolders[i] =new Instances(result,0);       
-            DenseInstance in=new DenseInstance(result.numAttributes());
-            testHolders[i].add(in);
-            //Perform the transform
-            Instances newTrain=filterData(result);
 
 //Build Classifier: Defaults to a RandomTree, but WHY ALL THE ATTS?
             if(baseClassifierTemplate instanceof RandomTree){
@@ -363,6 +406,20 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
         }
         trainResults.setBuildTime(System.currentTimeMillis()-start);
     }
+    /** Drops all but the first numBuilt base classifiers and their intervals, for when the contract runs out */
+    private void keepFirstClassifiers(int numBuilt){
+        baseClassifiers=Arrays.copyOf(baseClassifiers,numBuilt);
+        startPoints=Arrays.copyOf(startPoints,numBuilt);
+        endPoints=Arrays.copyOf(endPoints,numBuilt);
+        if(testHolders!=null)
+            testHolders=Arrays.copyOf(testHolders,numBuilt);
+        if(featureHeaders!=null)
+            featureHeaders=Arrays.copyOf(featureHeaders,numBuilt);
+    }
+    @Override
+    public void setTrainTimeLimit(TimeUnit time, long amount) {
+        trainContractNanos=time.toNanos(amount);
+    }
     private Instances filterData(Instances result) throws Exception{
             int maxLag=(result.numAttributes()-1)/4;
             if(maxLag>ACF.DEFAULT_MAXLAG)
@@ -388,11 +445,175 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
             combo.setClassIndex(combo.numAttributes()-1);
             return combo;
     }
+    /**
+     * The ACF, PACF and power spectrum features only need the values of the 
+     * interval, so can be found without building Instances and running the 
+     * filters. filterData keeps the single filter case, which merges the 
+     * filter output with itself, and any other filter.
+     */
+    private boolean canFindFeaturesDirectly(){
+        if(filters.length<2)
+            return false;
+        for(SimpleFilter f:filters){
+            Class<?> c=f.getClass();
+            if(c!=ACF.class && c!=PACF.class && c!=PowerSpectrum.class)
+                return false;
+        }
+        return true;
+    }
+    /**
+     * Number of ACF and PACF terms for an interval. filterData passes the lag 
+     * as "L" rather than "-L", so the filters use their default lag, reduced 
+     * to leave off the four end terms. 
+     */
+    private static int maxLag(int length){
+        int maxLag=ACF.DEFAULT_MAXLAG;
+        if(maxLag>length-4)
+            maxLag=length-4;
+        if(maxLag<0)
+            maxLag=length;
+        return maxLag;
+    }
+    /**
+     * Header for the transformed data of an interval, as filterData would 
+     * produce it
+     */
+    private Instances featureHeader(int length, Attribute target){
+        int maxLag=maxLag(length);
+        ArrayList<Attribute> atts=new ArrayList<>();
+        for(SimpleFilter f:filters){
+            if(f instanceof PowerSpectrum){
+                for(int k=0;k<length/2;k++)
+                    atts.add(new Attribute("PowerSpectrum_"+k));
+            }
+            else if(f instanceof PACF){
+                for(int k=0;k<maxLag;k++)
+                    atts.add(new Attribute("PACF_"+k));
+            }
+            else{
+                for(int k=1;k<=maxLag;k++)
+                    atts.add(new Attribute("ACF_"+k));
+            }
+        }
+        ArrayList<String> vals=new ArrayList<>(target.numValues());
+        for(int j=0;j<target.numValues();j++)
+            vals.add(target.value(j));
+        atts.add(new Attribute(target.name(),vals));
+        Instances header=new Instances("Tree",atts,0);
+        header.setClassIndex(header.numAttributes()-1);
+        return header;
+    }
+    /**
+     * Finds the features of data[offset] to data[offset+length-1] into the 
+     * start of features, with the same values as filterData. The autocorrelations are
+     * found once and used for both the ACF and the PACF.
+     */
+    private void findFeatures(double[] data, int offset, int length, double[] features){
+        int maxLag=maxLag(length);
+        //PACF works from the autocorrelations as ACF.fitAutoCorrelations(d,maxLag)
+        //finds them, the ACF filter treats zero variances differently
+        double[] autos=new double[maxLag];
+        double[] acf=new double[maxLag];
+        for(int i=1;i<=maxLag;i++){
+            double s1,s2,ss1,ss2,v1,v2,a=0;
+            s1=s2=ss1=ss2=0;
+            for(int j=offset;j<offset+length-i;j++){
+                s1+=data[j];
+                ss1+=data[j]*data[j];
+                s2+=data[j+i];
+                ss2+=data[j+i]*data[j+i];
+            }
+            s1/=length-i;
+            s2/=length-i;
+            for(int j=offset;j<offset+length-i;j++)
+                a+=(data[j]-s1)*(data[j+i]-s2);
+            a/=(length-i);
+            v1=ss1/(length-i)-s1*s1;
+            v2=ss2/(length-i)-s2*s2;
+            if(v1!=0 && v2!=0){
+                a/=Math.sqrt(v1)*Math.sqrt(v2);
+                acf[i-1]=a;
+            }
+            else if(v1==0 && v2==0)
+                acf[i-1]=1;
+            else
+                acf[i-1]=0;
+            autos[i-1]=a;
+            if(acf[i-1]<-1.0 || acf[i-1]>1 || Double.isNaN(acf[i-1]))
+                acf[i-1]=0;
+        }
+        double[] ps=null;
+        int count=0;
+        for(SimpleFilter f:filters){
+            if(f instanceof PowerSpectrum){
+                if(ps==null){
+                    ps=new double[length/2];
+                    FFTPlan.forLength(length).powerSpectrum(data,offset,ps,length/2);
+                }
+                System.arraycopy(ps,0,features,count,length/2);
+                count+=length/2;
+            }
+            else if(f instanceof PACF){
+                partials(autos,features,count);
+                count+=maxLag;
+            }
+            else{
+                System.arraycopy(acf,0,features,count,maxLag);
+                count+=maxLag;
+            }
+        }
+    }
+    /**
+     * The Durbin-Levinson recursions of PACF.formPartials, keeping only the 
+     * last column, with the diagonal written to out from position pos
+     */
+    private static void partials(double[] acf, double[] out, int pos){
+        int p=acf.length;
+        if(p==0)
+            return;
+        double[] phi=new double[p];
+        double[] prev=new double[p];
+        double numerator,denominator;
+        phi[0]=acf[0];
+        out[pos]=acf[0];
+        for(int k=1;k<p;k++){
+            double[] t=prev;
+            prev=phi;
+            phi=t;
+            numerator=acf[k];
+            for(int i=0;i<k;i++)
+                numerator-=prev[i]*acf[k-1-i];
+            denominator=1;
+            for(int i=0;i<k;i++)
+                denominator-=prev[k-1-i]*acf[k-1-i];
+            phi[k]=denominator!=0?numerator/denominator:0;
+            for(int i=0;i<k;i++)
+                phi[i]=prev[i]-phi[k]*prev[k-1-i];
+            out[pos+k]=phi[k];
+        }
+        for(int k=0;k<p;k++)
+            if(Double.isNaN(out[pos+k]) || Double.isInfinite(out[pos+k]))
+                out[pos+k]=0;
+    }
     @Override
     public double[] distributionForInstance(Instance ins) throws Exception {
         double[] votes=new double[ins.numClasses()];
 ////Build instance
         double[] series=ins.toDoubleArray();
+        if(directFeatures){
+            for(int i=0;i<baseClassifiers.length;i++){
+                double[] vals=new double[featureHeaders[i].numAttributes()];
+                findFeatures(series,startPoints[i],endPoints[i]-startPoints[i]+1,vals);
+                vals[vals.length-1]=Utils.missingValue();
+                DenseInstance in=new DenseInstance(1.0,vals);
+                in.setDataset(featureHeaders[i]);
+                int c=(int)baseClassifiers[i].classifyInstance(in);
+                votes[c]++;
+            }
+            for(int i=0;i<votes.length;i++)
+                votes[i]/=baseClassifiers.length;
+            return votes;
+        }
         for(int i=0;i<baseClassifiers.length;i++){
             int numFeatures=endPoints[i]-startPoints[i]+1;
         //extract the interval
@@ -28,10 +28,12 @@ import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
 import timeseriesweka.classifiers.AbstractClassifierWithTrainingInfo;
+import timeseriesweka.classifiers.MultiThreadable;
 
 import timeseriesweka.filters.shapelet_transforms.ShapeletTransform;
 import timeseriesweka.classifiers.TrainAccuracyEstimator;
 import utilities.ClassifierTools;
+import utilities.ParallelUtils;
 import weka.classifiers.Classifier;
 import weka_uea.classifiers.ensembles.CAWPE;
 import weka.core.Instance;
@@ -70,12 +72,16 @@ DEVELOPMENT NOTES for any users added by ajb on 23/7/18:
 * hc.setTrainTimeLimit(long) //breaking aarons interface, soz
 * to remove any limits, call
 * hc.setContract(false)
+* The contract is shared among the modules that are TrainTimeContractable, and shared again among those still
+* running or to start whenever a module starts or finishes, see apportionContract. Of the default modules, RISE, BOSS
+* and TSF are contracted, and pick up a changed contract while they are building.
+* 4. Modules can be built concurrently, one per thread, with hc.setThreadAllowance(int)
 *
 * 
 * To review: whole file writing thing. 
 
 */
-public class HiveCote extends AbstractClassifierWithTrainingInfo implements TrainTimeContractable,TechnicalInformationHandler{
+public class HiveCote extends AbstractClassifierWithTrainingInfo implements TrainTimeContractable,TechnicalInformationHandler,MultiThreadable{
 
 
     private ArrayList<Classifier> classifiers;
@@ -94,6 +100,14 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Trai
     private boolean contractTime=true;
     private static int MAXCONTRACTHOURS=7*24;
     private int contractHours=MAXCONTRACTHOURS;  //Default to maximum 7 days run time
+    private long trainContractNanos=TimeUnit.HOURS.toNanos(MAXCONTRACTHOURS);
+    
+    private int numThreads = 1;
+    
+    //progress of the modules during buildClassifier, for apportionContract
+    private boolean[] moduleStarted;
+    private long[] moduleStartTimes;
+    private boolean[] moduleFinished;
     
     public HiveCote(){
         this.setDefaultEnsembles();
@@ -123,10 +137,20 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Trai
     public void setContract(boolean b){
         contractTime=b;
         contractHours=MAXCONTRACTHOURS;
+        trainContractNanos=TimeUnit.HOURS.toNanos(contractHours);
     }
     public void setContract(int hours){
         contractTime=true;
         contractHours=hours;
+        trainContractNanos=TimeUnit.HOURS.toNanos(contractHours);
+    }
+    
+    /**
+     * if numThreads > 1, modules are built concurrently on up to numThreads threads, one module per thread
+     */
+    @Override
+    public void setThreadAllowance(int numThreads){
+        this.numThreads = Math.max(1, numThreads);
     }
     
     
@@ -179,41 +203,33 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Trai
             System.out.println(names.get(i));
         }
         
-        double ensembleAcc;
-        String outputFilePathAndName;
-        
+        //modules that cannot be contracted are started first, so those that can are given whatever time is left
+        ArrayList<Integer> order = new ArrayList<>();
         for(int i = 0; i < classifiers.size(); i++){
-            
-            
-// if classifier is an implementation of TrainAccuracyEstimator, no need to cv for ensemble accuracy as it can self-report
-// e.g. of the default modules, EE, CAWPE, and BOSS should all have this functionality (group a); RISE and TSF do not currently (group b) so must manualy cv
-            if(classifiers.get(i) instanceof TrainAccuracyEstimator){
-                optionalOutputLine("training (group a): "+this.names.get(i));
-                classifiers.get(i).buildClassifier(train);
-                modules[i] = new ConstituentHiveEnsemble(this.names.get(i), this.classifiers.get(i), ((TrainAccuracyEstimator) classifiers.get(i)).getTrainAcc());
-                
-                if(this.fileWriting){    
-                    outputFilePathAndName = fileOutputDir+names.get(i)+"/Predictions/"+this.fileOutputDataset+"/trainFold"+this.fileOutputResampleId+".csv";    
-                    genericCvResultsFileWriter(outputFilePathAndName, train, ((TrainAccuracyEstimator)(modules[i].classifier)).getTrainPreds(), this.fileOutputDataset, modules[i].classifierName, ((TrainAccuracyEstimator)(modules[i].classifier)).getParameters(), modules[i].ensembleCvAcc);
-                }
-                
-                
-            // else we must do a manual cross validation to get the module's encapsulated cv acc
-            // note this isn't optimal; would be better to change constituent ensembles to self-record cv acc during training, rather than cv-ing and then building
-            // however, this is effectively a wrapper so we can add any classifier to the collective without worrying about implementation support
-            }else{
-                optionalOutputLine("crossval (group b): "+this.names.get(i));
-                ensembleAcc = crossValidateWithFileWriting(classifiers.get(i), train, maxCvFolds,this.names.get(i));
-                optionalOutputLine("training (group b): "+this.names.get(i));
-
-                classifiers.get(i).buildClassifier(train);                
-                modules[i] = new ConstituentHiveEnsemble(this.names.get(i), this.classifiers.get(i), ensembleAcc);
-                
-                
-                
+            if(!contractTime || !(classifiers.get(i) instanceof TrainTimeContractable)){
+                order.add(i);
+            }
+        }
+        for(int i = 0; i < classifiers.size(); i++){
+            if(!order.contains(i)){
+                order.add(i);
+            }
+        }
+        long deadline = System.nanoTime()+trainContractNanos;
+        moduleStarted = new boolean[classifiers.size()];
+        moduleStartTimes = new long[classifiers.size()];
+        moduleFinished = new boolean[classifiers.size()];
+
+        if(numThreads > 1 && classifiers.size() > 1){
+            buildModulesConcurrently(train, order, deadline);
+        }else{
+            for(int o = 0; o < order.size(); o++){
+                int i = order.get(o);
+                startModule(i, train, deadline, 1);
+                buildModule(i, train);
+                finishModule(i, train, deadline, 1);
             }
-            optionalOutputLine("done "+modules[i].classifierName);
-        }        
+        }
 
         if(verbose){
             printModuleCvAccs();
@@ -232,6 +248,113 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Trai
 //        }
         trainResults.setBuildTime(System.currentTimeMillis()-startTime);
     }
+
+    /**
+     * Builds the modules on numThreads workers, each taking the next module in order when it is free. Each
+     * module is given its own copy of the train data, since some modules alter the data they are given.
+     */
+    private void buildModulesConcurrently(Instances train, ArrayList<Integer> order, long deadline) throws Exception{
+        int numWorkers = Math.min(numThreads, order.size());
+        ParallelUtils.forEach(numWorkers, order.size(), (o) -> {
+            int i = order.get(o);
+            startModule(i, train, deadline, numWorkers);
+            buildModule(i, new Instances(train));
+            finishModule(i, train, deadline, numWorkers);
+        });
+    }
+
+    private synchronized void startModule(int i, Instances train, long deadline, int numWorkers){
+        moduleStarted[i] = true;
+        moduleStartTimes[i] = System.nanoTime();
+        apportionContract(train, deadline, numWorkers);
+    }
+
+    private synchronized void finishModule(int i, Instances train, long deadline, int numWorkers){
+        moduleFinished[i] = true;
+        apportionContract(train, deadline, numWorkers);
+    }
+
+    /**
+     * If contracting, shares the time left before the deadline among the modules not yet finished and (re)sets the
+     * contract of each running module that is TrainTimeContractable. Called whenever a module starts or finishes, so
+     * the time that a module finishing early does not use goes to the modules still running as well as to those yet
+     * to start. With numRemaining modules running or still to start on numWorkers threads, each thread must build
+     * about ceil(numRemaining/numWorkers) of them in the time left, so a running module is contracted the time it
+     * has had so far plus that fraction of the time left. Modules cross validated here are built once per fold and
+     * once on all the data, and each build gets an equal part of the module's contract. A module that only reads its
+     * contract as a build starts picks up a change at its next build.
+     */
+    private void apportionContract(Instances train, long deadline, int numWorkers){
+        if(!contractTime){
+            return;
+        }
+
+        int numRemaining = 0;
+        for(int i = 0; i < classifiers.size(); i++){
+            if(!moduleFinished[i]){
+                numRemaining++;
+            }
+        }
+        if(numRemaining == 0){
+            return;
+        }
+
+        long now = System.nanoTime();
+        long share = (deadline-now)/((numRemaining+numWorkers-1)/numWorkers);
+        for(int i = 0; i < classifiers.size(); i++){
+            Classifier classifier = classifiers.get(i);
+            if(!moduleStarted[i] || moduleFinished[i] || !(classifier instanceof TrainTimeContractable)){
+                continue;
+            }
+
+            int numBuilds = 1;
+            if(!(classifier instanceof TrainAccuracyEstimator)){
+                int numFolds = maxCvFolds;
+                if(numFolds <= 1 || numFolds > train.numInstances()){
+                    numFolds = train.numInstances();
+                }
+                numBuilds += numFolds;
+            }
+
+            long contract = Math.max(1, (now-moduleStartTimes[i]+share)/numBuilds);
+            optionalOutputLine("contract for "+names.get(i)+": "+contract+" nanoseconds per build, "+numBuilds+" build(s)");
+            ((TrainTimeContractable) classifier).setTrainTimeLimit(TimeUnit.NANOSECONDS, contract);
+        }
+    }
+
+    private void buildModule(int i, Instances train) throws Exception{
+        double ensembleAcc;
+        String outputFilePathAndName;
+
+// if classifier is an implementation of TrainAccuracyEstimator, no need to cv for ensemble accuracy as it can self-report
+// e.g. of the default modules, EE, CAWPE, and BOSS should all have this functionality (group a); RISE and TSF do not currently (group b) so must manualy cv
+        if(classifiers.get(i) instanceof TrainAccuracyEstimator){
+            optionalOutputLine("training (group a): "+this.names.get(i));
+            classifiers.get(i).buildClassifier(train);
+            modules[i] = new ConstituentHiveEnsemble(this.names.get(i), this.classifiers.get(i), ((TrainAccuracyEstimator) classifiers.get(i)).getTrainAcc());
+            
+            if(this.fileWriting){    
+                outputFilePathAndName = fileOutputDir+names.get(i)+"/Predictions/"+this.fileOutputDataset+"/trainFold"+this.fileOutputResampleId+".csv";    
+                genericCvResultsFileWriter(outputFilePathAndName, train, ((TrainAccuracyEstimator)(modules[i].classifier)).getTrainPreds(), this.fileOutputDataset, modules[i].classifierName, ((TrainAccuracyEstimator)(modules[i].classifier)).getParameters(), modules[i].ensembleCvAcc);
+            }
+            
+            
+        // else we must do a manual cross validation to get the module's encapsulated cv acc
+        // note this isn't optimal; would be better to change constituent ensembles to self-record cv acc during training, rather than cv-ing and then building
+        // however, this is effectively a wrapper so we can add any classifier to the collective without worrying about implementation support
+        }else{
+            optionalOutputLine("crossval (group b): "+this.names.get(i));
+            ensembleAcc = crossValidateWithFileWriting(classifiers.get(i), train, maxCvFolds,this.names.get(i));
+            optionalOutputLine("training (group b): "+this.names.get(i));
+
+            classifiers.get(i).buildClassifier(train);                
+            modules[i] = new ConstituentHiveEnsemble(this.names.get(i), this.classifiers.get(i), ensembleAcc);
+            
+            
+            
+        }
+        optionalOutputLine("done "+modules[i].classifierName);
+    }
     
 
     
@@ -615,27 +738,15 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Trai
 
     }
 
+    /**
+     * Sets the contract for the whole build. Rather than splitting it up front, each TrainTimeContractable 
+     * module is given its share of the time still left when it starts, and again as other modules start and 
+     * finish, see apportionContract, so time not used by modules that finish early goes to those that are contractable
+     */
     @Override
     public void setTrainTimeLimit(TimeUnit time, long amount) {
-//Split the time up equally if contracted, if not we have no control    
         contractTime=true;
-        long used=0;
-        for(Classifier c:classifiers){
-            if(c instanceof TrainTimeContractable)
-                ((TrainTimeContractable) c).setTrainTimeLimit(time, amount/classifiers.size());
-            used+=amount/classifiers.size();    
-        }
-        long remaining = amount-used;
-//Give any extra to first contracted, 
-//for no real reason othe than simplicity and to avoid hidden randomization.       
-        if(remaining>0){
-            for(Classifier c:classifiers){
-                if(c instanceof TrainTimeContractable){
-                    ((TrainTimeContractable) c).setTrainTimeLimit(time, amount/classifiers.size()+remaining);
-                    break;
-                }
-            }
-        }
+        trainContractNanos=time.toNanos(amount);
     }
 
 
@@ -16,6 +16,7 @@ package timeseriesweka.classifiers.interval_based;
 
 import fileIO.OutFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import utilities.ClassifierTools;
 import evaluation.evaluators.CrossValidationEvaluator;
@@ -32,15 +33,20 @@ import java.io.File;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import timeseriesweka.classifiers.AbstractClassifierWithTrainingInfo;
+import timeseriesweka.classifiers.MultiThreadable;
 import timeseriesweka.classifiers.SaveParameterInfo;
 import weka.classifiers.Classifier;
 import weka.classifiers.meta.Bagging;
 import weka.core.Capabilities;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities.Capability;
 import weka.core.Randomizable;
 import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
 import timeseriesweka.classifiers.TrainAccuracyEstimator;
+import timeseriesweka.classifiers.TrainTimeContractable;
+import utilities.ParallelUtils;
+import utilities.TimeSeriesDataset;
 
 /** 
   <!-- globalinfo-start -->
@@ -109,7 +115,8 @@ import timeseriesweka.classifiers.TrainAccuracyEstimator;
 **/ 
 
 public class TSF extends AbstractClassifierWithTrainingInfo 
-        implements SaveParameterInfo, TrainAccuracyEstimator, Randomizable,TechnicalInformationHandler{
+        implements SaveParameterInfo, TrainAccuracyEstimator, Randomizable,TechnicalInformationHandler,
+        MultiThreadable, BatchPredictor, TrainTimeContractable{
 //Static defaults
     
     private final static int DEFAULT_NUM_CLASSIFIERS=500;
@@ -132,7 +139,7 @@ public class TSF extends AbstractClassifierWithTrainingInfo
      ends  at  intervals[i][j][1] */
     private int[][][] intervals;
     
-    /**Holding variable for test classification in order to retain the header info*/     
+    /**Header of the transformed data, shared by the instances test cases are transformed into*/     
     private Instances testHolder;
 
     /**Can seed for reproducibility*/
@@ -157,6 +164,16 @@ public class TSF extends AbstractClassifierWithTrainingInfo
     private int[] oobCounts;
     private double[][] trainDistributions;
     
+ /** Trees are built, out of bag estimates found and batches of test cases 
+  * scored on up to numThreads threads */   
+    private int numThreads=1;
+    private String batchSize="100";
+    
+ /** Train time contract in nanoseconds. No more trees are started once it is 
+  * used, though the first is always built. Volatile so it can be changed while 
+  * building, as HiveCote does when its other modules finish */   
+    private volatile long trainContractNanos=Long.MAX_VALUE;
+    
     public TSF(){
         rand=new Random();
     }
@@ -405,8 +422,6 @@ public class TSF extends AbstractClassifierWithTrainingInfo
         }
         
         testHolder =new Instances(result,0);       
-        DenseInstance in=new DenseInstance(result.numAttributes());
-        testHolder.add(in);
 //Need to hard code this because log(m)+1 is sig worse than sqrt(m) is worse than using all!
         if(base instanceof RandomTree){
             ((RandomTree) base).setKValue(result.numAttributes()-1);
@@ -419,17 +434,22 @@ public class TSF extends AbstractClassifierWithTrainingInfo
            oobCounts=new int[data.numInstances()];
         }
         
+        //prefix sums of all series, found once so each interval's features are O(1) for every tree
+        IntervalSums sums=new IntervalSums(new TimeSeriesDataset(data));
         /** For each base classifier 
          *      generate random intervals
          *      do the transfrorms
          *      build the classifier
+         * The intervals (and the seeds for bagging) are all drawn from rand
+         * first, so the trees can then be built in any order, on any number
+         * of threads, and come out the same.
          * */
         intervals =new int[numClassifiers][][];
+        if(data.numAttributes()-1<minIntervalLength)
+             minIntervalLength=data.numAttributes()-1;
         for(int i=0;i<numClassifiers;i++){
         //1. Select random intervals for tree i
             intervals[i]=new int[numIntervals][2];  //Start and end
-            if(data.numAttributes()-1<minIntervalLength)
-                 minIntervalLength=data.numAttributes()-1;
             for(int j=0;j<numIntervals;j++){
                intervals[i][j][0]=rand.nextInt(data.numAttributes()-1-minIntervalLength);       //Start point
                int length=rand.nextInt(data.numAttributes()-1-intervals[i][j][0]);//Min length 3
@@ -437,41 +457,78 @@ public class TSF extends AbstractClassifierWithTrainingInfo
                    length=minIntervalLength;
                intervals[i][j][1]=intervals[i][j][0]+length;
             }
-        //2. Generate and store attributes            
-            for(int j=0;j<numIntervals;j++){
-                //For each instance
-                for(int k=0;k<data.numInstances();k++){
-                    //extract the interval
-                    double[] series=data.instance(k).toDoubleArray();
-                    FeatureSet f= new FeatureSet();
-                    f.setFeatures(series, intervals[i][j][0], intervals[i][j][1]);
-                    result.instance(k).setValue(j*3, f.mean);
-                    result.instance(k).setValue(j*3+1, f.stDev);
-                    result.instance(k).setValue(j*3+2, f.slope);
+        }
+        final long[] bagSeeds=new long[numClassifiers];
+        if(bagging){
+            for(int i=0;i<numClassifiers;i++)
+                bagSeeds[i]=rand.nextLong();
+        }
+        //2. Generate and store attributes, and 3. build each tree, in a copy of the 
+        //transformed data per worker
+        ParallelUtils.forEach(numThreads,numClassifiers,()->{
+            Instances features=new Instances(result);
+            FeatureSet f=new FeatureSet();
+            return (i)->{
+                if(i>0 && System.nanoTime()-t1>trainContractNanos)
+                    return;
+                for(int j=0;j<numIntervals;j++){
+                    //For each instance
+                    for(int k=0;k<features.numInstances();k++){
+                        //find the interval features
+                        f.setFeatures(sums, k, intervals[i][j][0], intervals[i][j][1]);
+                        features.instance(k).setValue(j*3, f.mean);
+                        features.instance(k).setValue(j*3+1, f.stDev);
+                        features.instance(k).setValue(j*3+2, f.slope);
+                    }
                 }
+            //3. Create and build tree using all the features. Feature selection
+                Classifier tree=AbstractClassifier.makeCopy(base); 
+                if(setSeed && tree instanceof Randomizable)
+                    ((Randomizable)tree).setSeed(seed*(i+1));
+                if(bagging){
+                    inBag[i] = new boolean[features.numInstances()];
+                    Instances bagData = features.resampleWithWeights(new Random(bagSeeds[i]), inBag[i]);
+                    tree.buildClassifier(bagData);
+                }
+                else
+                    tree.buildClassifier(features);
+                trees[i]=tree;
+            };
+        });
+        //Drop the trees not started within the contract, keeping the rest in order
+        int numBuilt=0;
+        for(int i=0;i<numClassifiers;i++){
+            if(trees[i]!=null){
+                trees[numBuilt]=trees[i];
+                intervals[numBuilt]=intervals[i];
+                if(bagging)
+                    inBag[numBuilt]=inBag[i];
+                numBuilt++;
             }
-        //3. Create and build tree using all the features. Feature selection
-            trees[i]=AbstractClassifier.makeCopy(base); 
-            if(setSeed && trees[i] instanceof Randomizable)
-                ((Randomizable)trees[i]).setSeed(seed*(i+1));
-            if(bagging){
-                inBag[i] = new boolean[result.numInstances()];
-                Instances bagData = result.resampleWithWeights(rand, inBag[i]);
-                trees[i].buildClassifier(bagData);
-                if(trainAccuracyEst){
-                    for(int j=0;j<result.numInstances();j++){
+        }
+        if(numBuilt<numClassifiers){
+            trees=Arrays.copyOf(trees,numBuilt);
+            intervals=Arrays.copyOf(intervals,numBuilt);
+            if(bagging)
+                inBag=Arrays.copyOf(inBag,numBuilt);
+        }
+        //Out of bag estimate, each case is scored by the trees it was left out of in tree order
+        if(bagging && trainAccuracyEst){
+            ParallelUtils.forEach(numThreads,data.numInstances(),()->{
+                Instance holder=newHolder();
+                FeatureSet f=new FeatureSet();
+                return (j)->{
+                    for(int i=0;i<trees.length;i++){
                         if(inBag[i][j])
                             continue;
-                        double[] newProbs = trees[i].distributionForInstance(result.instance(j));
+                        setFeatures(f, sums, j, i, holder);
+                        double[] newProbs = trees[i].distributionForInstance(holder);
                         oobCounts[j]++;
                         for(int k=0;k<newProbs.length;k++)
                             trainDistributions[j][k]+=newProbs[k];
-                        
                     }
-                }
-            }
-            else
-                trees[i].buildClassifier(result);
+                };
+            });
         }
         
         long t2=System.nanoTime();
@@ -544,22 +601,17 @@ public class TSF extends AbstractClassifierWithTrainingInfo
     @Override
     public double[] distributionForInstance(Instance ins) throws Exception {
         double[] d=new double[ins.numClasses()];
-        //Build transformed instance
-        double[] series=ins.toDoubleArray();
+        //Build transformed instance, the prefix sums of the series are shared by all trees
+        IntervalSums sums=new IntervalSums(TimeSeriesDataset.values(ins),1,ins.numAttributes()-1);
+        FeatureSet f= new FeatureSet();
+        Instance holder=newHolder();
         for(int i=0;i<trees.length;i++){
-            for(int j=0;j<numIntervals;j++){
-                //extract all intervals
-                FeatureSet f= new FeatureSet();
-                f.setFeatures(series, intervals[i][j][0], intervals[i][j][1]);
-                testHolder.instance(0).setValue(j*3, f.mean);
-                testHolder.instance(0).setValue(j*3+1, f.stDev);
-                testHolder.instance(0).setValue(j*3+2, f.slope);
-            }
+            setFeatures(f, sums, 0, i, holder);
             if(voteEnsemble){
-                int c=(int)trees[i].classifyInstance(testHolder.instance(0));
+                int c=(int)trees[i].classifyInstance(holder);
                 d[c]++;
             }else{
-                double[] temp=trees[i].distributionForInstance(testHolder.instance(0));
+                double[] temp=trees[i].distributionForInstance(holder);
                 for(int j=0;j<temp.length;j++)
                     d[j]+=temp[j];
             }
@@ -571,6 +623,63 @@ public class TSF extends AbstractClassifierWithTrainingInfo
             d[i]=d[i]/sum;
         return d;
     }
+/**
+ * Scores the test cases on up to numThreads threads, each case gets the same
+ * distribution as from distributionForInstance
+ * @param insts test cases
+ * @return distribution for each case
+ * @throws Exception 
+ */    
+    @Override
+    public double[][] distributionsForInstances(Instances insts) throws Exception {
+        final double[][] d=new double[insts.numInstances()][];
+        ParallelUtils.forEach(numThreads,insts.numInstances(),(i)->{
+            d[i]=distributionForInstance(insts.instance(i));
+        });
+        return d;
+    }
+    
+    @Override
+    public void setBatchSize(String size) {
+        batchSize=size;
+    }
+
+    @Override
+    public String getBatchSize() {
+        return batchSize;
+    }
+    
+    @Override
+    public void setThreadAllowance(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+    
+    @Override
+    public void setTrainTimeLimit(TimeUnit time, long amount) {
+        trainContractNanos = time.toNanos(amount);
+    }
+    
+/** 
+ * @return empty instance with the header of the transformed data, for one 
+ * thread to score with 
+ */    
+    private Instance newHolder(){
+        Instance holder=new DenseInstance(testHolder.numAttributes());
+        holder.setDataset(testHolder);
+        return holder;
+    }
+    
+/** Sets the features of series row over the intervals of tree i in holder */
+    private void setFeatures(FeatureSet f, IntervalSums sums, int row, int i, Instance holder){
+        for(int j=0;j<numIntervals;j++){
+            //extract all intervals
+            f.setFeatures(sums, row, intervals[i][j][0], intervals[i][j][1]);
+            holder.setValue(j*3, f.mean);
+            holder.setValue(j*3+1, f.stDev);
+            holder.setValue(j*3+2, f.slope);
+        }
+    }
+
 /**
  * What about  
  * @param ins
@@ -653,6 +762,7 @@ public class TSF extends AbstractClassifierWithTrainingInfo
     public static class FeatureSet{
         public static boolean findSkew=false;
         public static boolean findKurtosis=false;
+        private static final double ROUNDING_ERROR=1e-14;
         double mean;
         double stDev;
         double slope;
@@ -707,6 +817,50 @@ public class TSF extends AbstractClassifierWithTrainingInfo
             }
             
         }
+        /**
+         * Same features as setFeatures(double[],int,int) on series row from
+         * start to end inclusive, but in O(1) from the prefix sums. Skew and
+         * kurtosis still need a pass over the interval.
+         */
+        public void setFeatures(IntervalSums sums, int row, int start, int end){
+            int offset=row*sums.seriesLength;
+            if(findSkew||findKurtosis){
+                setFeatures(sums.data, offset+start, offset+end);
+                return;
+            }
+            if(sums.runStart[offset+end]<=start){   //Flat line, every value equal
+                mean=sums.data[offset+start];
+                stDev=0;
+                slope=0;
+                return;
+            }
+            int length=end-start+1;
+            int base=row*(sums.seriesLength+1);
+            //sums of the values less the first value of the series, variance and slope don't change with the shift
+            double sumY=sums.sums[base+end+1]-sums.sums[base+start];
+            double sumYY=sums.sqSums[base+end+1]-sums.sqSums[base+start];
+            double sumXY=sums.indexSums[base+end+1]-sums.indexSums[base+start]-start*sumY;
+            //size of the terms cancelled to find sumXY, its rounding error is relative to this
+            double scale=Math.abs(sums.indexSums[base+end+1])+Math.abs(sums.indexSums[base+start])
+                    +start*(Math.abs(sums.sums[base+end+1])+Math.abs(sums.sums[base+start]));
+            double sumX=length*(length-1)/2.0;
+            double sumXX=(length-1)*length*(2.0*length-1)/6.0;
+            mean=sums.shift[row]+sumY/length;
+            stDev=sumYY-(sumY*sumY)/length;
+            slope=(sumXY-(sumX*sumY)/length);
+            double denom=sumXX-(sumX*sumX)/length;
+            //the difference of prefix sums is not exactly zero where the walk was, so a slope 
+            //within rounding error of zero is zero
+            if(denom!=0&&Math.abs(slope)>ROUNDING_ERROR*scale)
+                slope/=denom;
+            else
+                slope=0;
+            stDev/=length;
+            if(stDev==0)    //Flat line
+                slope=0;
+            if(slope==0)
+                stDev=0;
+        }
         public void setFeatures(double[] data){
             setFeatures(data,0,data.length-1);
         }
@@ -716,6 +870,57 @@ public class TSF extends AbstractClassifierWithTrainingInfo
         }
     } 
     
+/**
+ * Prefix sums of equal length series, laid out as TimeSeriesDataset lays out 
+ * the series, used by FeatureSet to find the mean, variance and slope of any
+ * interval without walking it. For series i position t holds the sums of
+ * the first t values, their squares and each value times its index. The 
+ * first value of each series is taken off before summing, which keeps the 
+ * sums small for series far from zero, and runStart is the start of the run 
+ * of equal values each position is in, so flat intervals are found exactly.
+ */
+    public static class IntervalSums{
+        final double[] data;
+        final int seriesLength;
+        final double[] shift;
+        final double[] sums;
+        final double[] sqSums;
+        final double[] indexSums;
+        final int[] runStart;
+
+        public IntervalSums(TimeSeriesDataset series){
+            this(series.getData(),series.numSeries(),series.seriesLength());
+        }
+/**
+ * @param data series i is data[i*seriesLength] to data[(i+1)*seriesLength-1], 
+ * it is read but not copied so must not be changed
+ */        
+        public IntervalSums(double[] data, int numSeries, int seriesLength){
+            this.data=data;
+            this.seriesLength=seriesLength;
+            shift=new double[numSeries];
+            sums=new double[numSeries*(seriesLength+1)];
+            sqSums=new double[sums.length];
+            indexSums=new double[sums.length];
+            runStart=new int[numSeries*seriesLength];
+            for(int i=0;i<numSeries;i++){
+                int offset=i*seriesLength;
+                int base=i*(seriesLength+1);
+                shift[i]=seriesLength>0?data[offset]:0;
+                for(int t=0;t<seriesLength;t++){
+                    double y=data[offset+t]-shift[i];
+                    sums[base+t+1]=sums[base+t]+y;
+                    sqSums[base+t+1]=sqSums[base+t]+y*y;
+                    indexSums[base+t+1]=indexSums[base+t]+t*y;
+                    if(t>0&&data[offset+t]==data[offset+t-1])
+                        runStart[offset+t]=runStart[offset+t-1];
+                    else
+                        runStart[offset+t]=t;
+                }
+            }
+        }
+    }
+    
     public static void main(String[] arg) throws Exception{
 // Basic correctness tests, including setting paras through 
         String dataLocation="C:\\Users\\ajb\\Dropbox\\TSC Problems\\";
@@ -34,6 +34,7 @@ import timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDista
 import timeseriesweka.filters.shapelet_transforms.quality_measures.ShapeletQuality;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearch;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearch.SearchType;
+import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearchFactory;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearchOptions;
 import weka_uea.classifiers.ensembles.voting.MajorityConfidence;
 import weka_uea.classifiers.ensembles.weightings.TrainAcc;
@@ -44,6 +45,7 @@ import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
 import timeseriesweka.classifiers.AbstractClassifierWithTrainingInfo;
+import timeseriesweka.classifiers.MultiThreadable;
 import timeseriesweka.classifiers.SaveParameterInfo;
 import timeseriesweka.classifiers.TrainAccuracyEstimator;
 
@@ -67,7 +69,7 @@ import weka_uea.classifiers.ensembles.ContractRotationForest;
  * If can be contracted to a maximum run time for shapelets, and can be configured for a different 
  * 
  */
-public class ShapeletTransformClassifier  extends AbstractClassifierWithTrainingInfo implements SaveParameterInfo, TrainTimeContractable {
+public class ShapeletTransformClassifier  extends AbstractClassifierWithTrainingInfo implements SaveParameterInfo, TrainTimeContractable, MultiThreadable {
 //Basic pipeline is transform, then build classifier on transformed space
     private ShapeletTransform transform;
 //Transformed shapelets header info stored here
@@ -90,6 +92,7 @@ public class ShapeletTransformClassifier  extends AbstractClassifierWithTraining
     private long seed = 0;
     private boolean setSeed=false;
     private long timeLimit = Long.MAX_VALUE;
+    private int numThreads = 1;
     private String checkpointFullPath=""; //location to check point 
     private boolean checkpoint=false;
     private boolean saveShapelets=false;
@@ -210,6 +213,12 @@ public class ShapeletTransformClassifier  extends AbstractClassifierWithTraining
         numShapelets = numS;
     }
     
+    //the transform searches numThreads series at once, so searches that many more shapelets in a contract.
+    @Override
+    public void setThreadAllowance(int numThreads){
+        this.numThreads = Math.max(1, numThreads);
+    }
+    
     @Override
     public void buildClassifier(Instances data) throws Exception {
     // can classifier handle the data?
@@ -430,6 +439,9 @@ public class ShapeletTransformClassifier  extends AbstractClassifierWithTraining
         
 //how much time do we have vs. how long our algorithm will take.
         BigInteger opCountTarget = new BigInteger(Long.toString(time / nanoToOp));
+        //a thread safe search gets through numThreads times the operations in the time.
+        if(numThreads > 1 && new ShapeletSearchFactory(new ShapeletSearchOptions.Builder().setSearchType(searchType).build()).getShapeletSearch().isThreadSafe())
+            opCountTarget = opCountTarget.multiply(BigInteger.valueOf(numThreads));
         BigInteger opCount = ShapeletTransformTimingUtilities.calculateOps(n, m, 1, 1);
         if(opCount.compareTo(opCountTarget) == 1){
             BigDecimal oct = new BigDecimal(opCountTarget);
@@ -461,6 +473,7 @@ public class ShapeletTransformClassifier  extends AbstractClassifierWithTraining
         if(preferShortShapelets)
             transform.setShapeletComparator(new Shapelet.ShortOrder());
         transform.setNumberOfShapelets((int)numShapeletsInTransform);
+        transform.setThreadAllowance(numThreads);
         return transform.process(train);
     }
     
@@ -520,6 +533,7 @@ public class ShapeletTransformClassifier  extends AbstractClassifierWithTraining
         seed =st.seed;
         setSeed=st.setSeed;
         timeLimit =st.timeLimit;
+        numThreads =st.numThreads;
 
         
     }
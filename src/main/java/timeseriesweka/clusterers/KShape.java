@@ -12,8 +12,7 @@ import java.util.Random;
 
 import weka.core.Instance;
 import weka.core.Instances;
-import timeseriesweka.filters.FFT;
-import timeseriesweka.filters.FFT.Complex;
+import timeseriesweka.filters.FFTPlan;
 import static timeseriesweka.filters.FFT.MathsPower2;
 import utilities.ClassifierTools;
 
@@ -262,7 +261,7 @@ public class KShape extends AbstractTimeSeriesClusterer {
         public double dist;
         public Instance yShift;
         
-        private FFT fft;
+        private FFTPlan fft;
     
         public SBD(Instance first, Instance second, boolean calcShift){
             calculateDistance(first, second, calcShift);
@@ -272,19 +271,25 @@ public class KShape extends AbstractTimeSeriesClusterer {
             int oldLength = first.numAttributes();
             int oldLengthY = second.numAttributes();
 
-            int length = paddedLength(2*oldLength-1);
+            //at least 2 so the real transform has an even length.
+            int length = Math.max(2, paddedLength(2*oldLength-1));
             
-            fft = new FFT();
+            fft = FFTPlan.forLength(length);
                     
-            Complex[] firstC = fft(first, oldLength, length);
-            Complex[] secondC = fft(second, oldLengthY, length);
+            double[] firstC = fft(first, oldLength, length);
+            double[] secondC = fft(second, oldLengthY, length);
             
-            for (int i = 0; i < length; i++){
-                secondC[i].conjugate();
-                firstC[i].multiply(secondC[i]);
+            //multiply by the conjugate of the second spectrum, both are packed as FFTPlan.realForward leaves them.
+            firstC[0] *= secondC[0];
+            firstC[1] *= secondC[1];
+            for (int i = 2; i < length; i += 2){
+                double re = firstC[i]*secondC[i] + firstC[i+1]*secondC[i+1];
+                double im = firstC[i+1]*secondC[i] - firstC[i]*secondC[i+1];
+                firstC[i] = re;
+                firstC[i+1] = im;
             }
             
-            fft.inverseFFT(firstC, length);
+            fft.realInverse(firstC, true);
             
             double firstNorm = sumSquare(first);
             double secondNorm = sumSquare(second);
@@ -294,11 +299,11 @@ public class KShape extends AbstractTimeSeriesClusterer {
             int idx = 0;
             
             for (int i = length-oldLength+1; i < length; i++){
-                ncc[idx++] = firstC[i].getReal()/norm;
+                ncc[idx++] = firstC[i]/norm;
             }
             
             for (int i = 0; i < oldLength; i++){
-                ncc[idx++] = firstC[i].getReal()/norm;
+                ncc[idx++] = firstC[i]/norm;
             }
             
             double maxValue = 0;
@@ -353,20 +358,16 @@ public class KShape extends AbstractTimeSeriesClusterer {
             return length;
         }
         
-        public Complex[] fft(Instance inst, int oldLength, int length){
-            Complex[] complex = new Complex[length];
+        public double[] fft(Instance inst, int oldLength, int length){
+            double[] series = new double[length];
             
             for (int i = 0; i < oldLength; i++){
-                complex[i] = new Complex(inst.value(i), 0);
+                series[i] = inst.value(i);
             }
             
-            while(oldLength < length){
-                complex[oldLength++] = new Complex(0,0);
-            }
-            
-            fft.fft(complex, length);
+            fft.realForward(series);
             
-            return complex;
+            return series;
         }
         
         private double sumSquare(Instance inst){
@@ -0,0 +1,566 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.elastic_distance_measures;
+
+import weka.core.Instance;
+
+/**
+ * Allocation free DTW kernels shared by the DTW distance functions and the
+ * elastic ensemble 1-NN classifiers.
+ *
+ * The banded kernels only store the cells inside the Sakoe-Chiba window, two
+ * rows of 2*windowSize+1 doubles, so memory is O(window) rather than O(n*m).
+ * Rows and copies of Instance values live in a per-thread scratch buffer that
+ * grows to the largest series seen, so after the first call nothing is
+ * allocated on the hot path.
+ *
+ * The window semantics are those of the original full matrix code: cell (i,j)
+ * is reachable iff |i-j| < windowSize, cells outside the window are
+ * Double.MAX_VALUE and a row in which no cell is below the cutoff abandons
+ * with Double.MAX_VALUE.
+ */
+public final class DTWKernel {
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private DTWKernel(){}
+
+    /**
+     * Per-thread working memory. Arrays are only ever grown.
+     */
+    private static final class Scratch {
+        double[] prev = new double[0];
+        double[] curr = new double[0];
+        double[] first = new double[0];
+        double[] second = new double[0];
+        int[] prevDeviation = new int[0];
+        int[] currDeviation = new int[0];
+
+        void ensureRows(int length){
+            if(prev.length < length){
+                prev = new double[length];
+                curr = new double[length];
+            }
+        }
+
+        void ensureDeviationRows(int length){
+            if(prevDeviation.length < length){
+                prevDeviation = new int[length];
+                currDeviation = new int[length];
+            }
+        }
+
+        void ensureSeries(int n, int m){
+            if(first.length < n){
+                first = new double[n];
+            }
+            if(second.length < m){
+                second = new double[m];
+            }
+        }
+    }
+
+    /**
+     * Window size used throughout the elastic measures: r*n rounded down, plus
+     * one for partial warps, with a minimum of 1 (no warping).
+     *
+     * @param r warping window as a proportion of the series length, 0<=r<=1
+     * @param n series length
+     * @return the number of cells either side of the diagonal (inclusive) that
+     * may be visited
+     */
+    public static int windowSize(double r, int n){
+        int w=(int)(r*n);   //Rounded down.
+                //No Warp, windowSize=1
+        if(w<1) w=1;
+                //Full Warp : windowSize=n, otherwise scale between
+        else if(w<n)
+                w++;
+        return w;
+    }
+
+    /**
+     * Banded DTW between two series stored as arrays.
+     *
+     * @param a first series
+     * @param b second series
+     * @param windowSize cell (i,j) is only visited when |i-j| < windowSize
+     * @param cutoff early abandon threshold
+     * @return squared DTW distance, or Double.MAX_VALUE on early abandon
+     */
+    public static double distance(double[] a, double[] b, int windowSize, double cutoff){
+        return distance(a, a.length, b, b.length, windowSize, cutoff);
+    }
+
+    /**
+     * Banded DTW between two univariate instances whose class value, if any,
+     * is the last attribute. Values are copied into thread-local buffers
+     * rather than through toDoubleArray().
+     *
+     * @param first first instance
+     * @param second second instance
+     * @param windowSize cell (i,j) is only visited when |i-j| < windowSize
+     * @param cutoff early abandon threshold
+     * @return squared DTW distance, or Double.MAX_VALUE on early abandon
+     */
+    public static double distance(Instance first, Instance second, int windowSize, double cutoff){
+        Scratch s = SCRATCH.get();
+        int n = seriesLength(first);
+        int m = seriesLength(second);
+        s.ensureSeries(n, m);
+        copySeries(first, s.first, n);
+        copySeries(second, s.second, m);
+        return distance(s.first, n, s.second, m, windowSize, cutoff);
+    }
+
+    /**
+     * Banded DTW over the first n values of a and the first m values of b.
+     */
+    public static double distance(double[] a, int n, double[] b, int m, int windowSize, double cutoff){
+        return distance(a, 0, n, b, 0, m, windowSize, cutoff);
+    }
+
+    /**
+     * Banded DTW between a[aOffset]...a[aOffset+n-1] and b[bOffset]...b[bOffset+m-1],
+     * e.g. two rows of a TimeSeriesDataset read in place.
+     */
+    public static double distance(double[] a, int aOffset, int n, double[] b, int bOffset, int m, int windowSize, double cutoff){
+        if(windowSize < 1){
+            windowSize = 1;
+        }
+        // a window wider than both series is a full warp, no point storing more
+        int w = Math.min(windowSize, Math.max(n, m));
+        int width = 2*w+1;
+        Scratch s = SCRATCH.get();
+        s.ensureRows(width);
+        double[] prev = s.prev;
+        double[] curr = s.curr;
+        double[] temp;
+
+        // cell (i,j) is held at index j-i+w; indices 0 and 2w are always
+        // outside the window and act as sentinels
+        for(int k = 0; k < width; k++){
+            prev[k] = Double.MAX_VALUE;
+            curr[k] = Double.MAX_VALUE;
+        }
+
+        double minDist, diff;
+        boolean tooBig;
+        int start, end;
+
+        // first row: warp a[0] onto b[0]...b[w-1]
+        end = w < m ? w : m;
+        double ai = a[aOffset];
+        diff = ai-b[bOffset];
+        prev[w] = diff*diff;
+        for(int j = 1; j < end; j++){
+            diff = ai-b[bOffset+j];
+            prev[j+w] = prev[j-1+w]+diff*diff;
+        }
+
+        for(int i = 1; i < n; i++){
+            tooBig = true;
+            start = i-w+1 > 0 ? i-w+1 : 0;
+            end = i+w < m ? i+w : m;
+            int offset = w-i;
+            ai = a[aOffset+i];
+            // cells of this row not overwritten below must read as unreachable
+            for(int k = 1; k < width-1; k++){
+                curr[k] = Double.MAX_VALUE;
+            }
+            for(int j = start; j < end; j++){
+                int k = j+offset;
+                // left is curr[k-1], up is prev[k+1], diagonal is prev[k]
+                minDist = prev[k];
+                if(prev[k+1] < minDist){
+                    minDist = prev[k+1];
+                }
+                if(curr[k-1] < minDist){
+                    minDist = curr[k-1];
+                }
+                diff = ai-b[bOffset+j];
+                curr[k] = minDist+diff*diff;
+                if(tooBig && curr[k] < cutoff){
+                    tooBig = false;
+                }
+            }
+            //Early abandon
+            if(tooBig){
+                return Double.MAX_VALUE;
+            }
+            temp = prev;
+            prev = curr;
+            curr = temp;
+        }
+
+        int k = (m-1)-(n-1)+w;
+        if(k < 1 || k > width-2){
+            return Double.MAX_VALUE;
+        }
+        return prev[k];
+    }
+
+    /**
+     * Banded DTW that also reports the largest |i-j| on an optimal warping
+     * path. The same path is feasible for any window larger than that
+     * deviation, so for every windowSize' with deviation < windowSize' <=
+     * windowSize the DTW distance is unchanged, and for smaller windows the
+     * distance returned here is a lower bound. The distance is identical to
+     * distance(a, n, b, m, windowSize, cutoff).
+     *
+     * @param pathDeviation output, pathDeviation[0] is set to the deviation of
+     * the path when the distance is not abandoned
+     * @return squared DTW distance, or Double.MAX_VALUE on early abandon
+     */
+    public static double distance(double[] a, int n, double[] b, int m, int windowSize, double cutoff, int[] pathDeviation){
+        if(windowSize < 1){
+            windowSize = 1;
+        }
+        int w = Math.min(windowSize, Math.max(n, m));
+        int width = 2*w+1;
+        Scratch s = SCRATCH.get();
+        s.ensureRows(width);
+        s.ensureDeviationRows(width);
+        double[] prev = s.prev;
+        double[] curr = s.curr;
+        int[] prevDev = s.prevDeviation;
+        int[] currDev = s.currDeviation;
+        double[] temp;
+        int[] tempDev;
+
+        for(int k = 0; k < width; k++){
+            prev[k] = Double.MAX_VALUE;
+            curr[k] = Double.MAX_VALUE;
+        }
+
+        double minDist, diff;
+        int minDev, dev;
+        boolean tooBig;
+        int start, end;
+
+        end = w < m ? w : m;
+        diff = a[0]-b[0];
+        prev[w] = diff*diff;
+        prevDev[w] = 0;
+        for(int j = 1; j < end; j++){
+            diff = a[0]-b[j];
+            prev[j+w] = prev[j-1+w]+diff*diff;
+            prevDev[j+w] = j;
+        }
+
+        for(int i = 1; i < n; i++){
+            tooBig = true;
+            start = i-w+1 > 0 ? i-w+1 : 0;
+            end = i+w < m ? i+w : m;
+            int offset = w-i;
+            for(int k = 1; k < width-1; k++){
+                curr[k] = Double.MAX_VALUE;
+            }
+            for(int j = start; j < end; j++){
+                int k = j+offset;
+                // same minimum as distance(), ties go to the smaller deviation
+                minDist = prev[k];
+                minDev = prevDev[k];
+                if(prev[k+1] < minDist || (prev[k+1]==minDist && prevDev[k+1] < minDev)){
+                    minDist = prev[k+1];
+                    minDev = prevDev[k+1];
+                }
+                if(curr[k-1] < minDist || (curr[k-1]==minDist && currDev[k-1] < minDev)){
+                    minDist = curr[k-1];
+                    minDev = currDev[k-1];
+                }
+                diff = a[i]-b[j];
+                curr[k] = minDist+diff*diff;
+                dev = i > j ? i-j : j-i;
+                currDev[k] = dev > minDev ? dev : minDev;
+                if(tooBig && curr[k] < cutoff){
+                    tooBig = false;
+                }
+            }
+            if(tooBig){
+                return Double.MAX_VALUE;
+            }
+            temp = prev;
+            prev = curr;
+            curr = temp;
+            tempDev = prevDev;
+            prevDev = currDev;
+            currDev = tempDev;
+        }
+
+        int k = (m-1)-(n-1)+w;
+        if(k < 1 || k > width-2){
+            return Double.MAX_VALUE;
+        }
+        pathDeviation[0] = prevDev[k];
+        return prev[k];
+    }
+
+    /**
+     * Full window weighted DTW (Jeong et al.), where the cost of aligning a[i]
+     * with b[j] is scaled by weights[|i-j|]. Uses two rows of length m.
+     *
+     * @param first first instance, class value last
+     * @param second second instance, class value last
+     * @param weights weight vector, at least as long as the longer series
+     * @param cutoff early abandon threshold
+     * @return weighted DTW distance, or Double.MAX_VALUE on early abandon
+     */
+    public static double weightedDistance(Instance first, Instance second, double[] weights, double cutoff){
+        Scratch s = SCRATCH.get();
+        int n = seriesLength(first);
+        int m = seriesLength(second);
+        s.ensureSeries(n, m);
+        copySeries(first, s.first, n);
+        copySeries(second, s.second, m);
+        return weightedDistance(s.first, n, s.second, m, weights, cutoff);
+    }
+
+    /**
+     * Full window weighted DTW over the first n values of a and the first m
+     * values of b.
+     */
+    public static double weightedDistance(double[] a, int n, double[] b, int m, double[] weights, double cutoff){
+        Scratch s = SCRATCH.get();
+        s.ensureRows(m);
+        double[] prev = s.prev;
+        double[] curr = s.curr;
+        double[] temp;
+        double minDist, diff;
+        boolean overflow;
+
+        diff = a[0]-b[0];
+        prev[0] = weights[0]*diff*diff;
+        //early abandon if first values is larger than cut off
+        if(prev[0] > cutoff){
+            return Double.MAX_VALUE;
+        }
+        //top row
+        for(int j = 1; j < m; j++){
+            diff = a[0]-b[j];
+            prev[j] = prev[j-1]+weights[j]*diff*diff;
+        }
+
+        for(int i = 1; i < n; i++){
+            overflow = true;
+            //first column
+            diff = a[i]-b[0];
+            curr[0] = prev[0]+weights[i]*diff*diff;
+            for(int j = 1; j < m; j++){
+                minDist = Math.min(curr[j-1], Math.min(prev[j], prev[j-1]));
+                diff = a[i]-b[j];
+                curr[j] = minDist+weights[i > j ? i-j : j-i]*diff*diff;
+                if(overflow && curr[j] < cutoff){
+                    overflow = false; // because there's evidence that the path can continue
+                }
+            }
+            //early abandon
+            if(overflow){
+                return Double.MAX_VALUE;
+            }
+            temp = prev;
+            prev = curr;
+            curr = temp;
+        }
+        return prev[m-1];
+    }
+
+    /**
+     * Banded dependent multivariate DTW. a[i] and b[j] hold the values of
+     * every channel at time points i and j, and the cost of aligning them is
+     * the squared Euclidean distance between the two channel vectors.
+     *
+     * @param a first series, indexed [time][channel]
+     * @param b second series, indexed [time][channel]
+     * @param windowSize cell (i,j) is only visited when |i-j| < windowSize
+     * @param cutoff early abandon threshold
+     * @return squared DTW_D distance, or Double.MAX_VALUE on early abandon
+     */
+    public static double distance(double[][] a, double[][] b, int windowSize, double cutoff){
+        int n = a.length;
+        int m = b.length;
+        if(windowSize < 1){
+            windowSize = 1;
+        }
+        int w = Math.min(windowSize, Math.max(n, m));
+        int width = 2*w+1;
+        Scratch s = SCRATCH.get();
+        s.ensureRows(width);
+        double[] prev = s.prev;
+        double[] curr = s.curr;
+        double[] temp;
+
+        for(int k = 0; k < width; k++){
+            prev[k] = Double.MAX_VALUE;
+            curr[k] = Double.MAX_VALUE;
+        }
+
+        double minDist;
+        boolean tooBig;
+        int start, end;
+
+        end = w < m ? w : m;
+        prev[w] = sqMultiDist(a[0], b[0]);
+        for(int j = 1; j < end; j++){
+            prev[j+w] = prev[j-1+w]+sqMultiDist(a[0], b[j]);
+        }
+
+        for(int i = 1; i < n; i++){
+            tooBig = true;
+            start = i-w+1 > 0 ? i-w+1 : 0;
+            end = i+w < m ? i+w : m;
+            int offset = w-i;
+            for(int k = 1; k < width-1; k++){
+                curr[k] = Double.MAX_VALUE;
+            }
+            for(int j = start; j < end; j++){
+                int k = j+offset;
+                minDist = prev[k];
+                if(prev[k+1] < minDist){
+                    minDist = prev[k+1];
+                }
+                if(curr[k-1] < minDist){
+                    minDist = curr[k-1];
+                }
+                curr[k] = minDist+sqMultiDist(a[i], b[j]);
+                if(tooBig && curr[k] < cutoff){
+                    tooBig = false;
+                }
+            }
+            if(tooBig){
+                return Double.MAX_VALUE;
+            }
+            temp = prev;
+            prev = curr;
+            curr = temp;
+        }
+
+        int k = (m-1)-(n-1)+w;
+        if(k < 1 || k > width-2){
+            return Double.MAX_VALUE;
+        }
+        return prev[k];
+    }
+
+    /**
+     * Fills the full banded cost matrix for a and b. This is only intended for
+     * warping path recovery (e.g. DTW_DistanceBasic.findMaxWindow), the
+     * distance methods above never build it.
+     *
+     * @param a first series
+     * @param b second series
+     * @param windowSize cell (i,j) is only visited when |i-j| < windowSize
+     * @return an a.length by b.length matrix with Double.MAX_VALUE outside
+     * the window
+     */
+    public static double[][] costMatrix(double[] a, double[] b, int windowSize){
+        int n = a.length;
+        int m = b.length;
+        double[][] matrixD = new double[n][m];
+        double minDist;
+        for(int i = 0; i < n; i++){
+            for(int j = 0; j < m; j++){
+                matrixD[i][j] = Double.MAX_VALUE;
+            }
+        }
+        matrixD[0][0] = (a[0]-b[0])*(a[0]-b[0]);
+        for(int j = 1; j < windowSize && j < m; j++){
+            matrixD[0][j] = matrixD[0][j-1]+(a[0]-b[j])*(a[0]-b[j]);
+        }
+        for(int i = 1; i < windowSize && i < n; i++){
+            matrixD[i][0] = matrixD[i-1][0]+(a[i]-b[0])*(a[i]-b[0]);
+        }
+        for(int i = 1; i < n; i++){
+            for(int j = 1; j < m; j++){
+                if(i < j+windowSize && j < i+windowSize){
+                    minDist = matrixD[i][j-1];
+                    if(matrixD[i-1][j] < minDist){
+                        minDist = matrixD[i-1][j];
+                    }
+                    if(matrixD[i-1][j-1] < minDist){
+                        minDist = matrixD[i-1][j-1];
+                    }
+                    matrixD[i][j] = minDist+(a[i]-b[j])*(a[i]-b[j]);
+                }
+            }
+        }
+        return matrixD;
+    }
+
+    /**
+     * Fills the full banded cost matrix for two multivariate series indexed
+     * [time][channel], as costMatrix(double[], double[], int) does for two
+     * univariate series.
+     *
+     * @param a first series
+     * @param b second series
+     * @param windowSize cell (i,j) is only visited when |i-j| < windowSize
+     * @return an a.length by b.length matrix with Double.MAX_VALUE outside
+     * the window
+     */
+    public static double[][] costMatrix(double[][] a, double[][] b, int windowSize){
+        int n = a.length;
+        int m = b.length;
+        double[][] matrixD = new double[n][m];
+        double minDist;
+        for(int i = 0; i < n; i++){
+            for(int j = 0; j < m; j++){
+                matrixD[i][j] = Double.MAX_VALUE;
+            }
+        }
+        matrixD[0][0] = sqMultiDist(a[0], b[0]);
+        for(int j = 1; j < windowSize && j < m; j++){
+            matrixD[0][j] = matrixD[0][j-1]+sqMultiDist(a[0], b[j]);
+        }
+        for(int i = 1; i < windowSize && i < n; i++){
+            matrixD[i][0] = matrixD[i-1][0]+sqMultiDist(a[i], b[0]);
+        }
+        for(int i = 1; i < n; i++){
+            for(int j = 1; j < m; j++){
+                if(i < j+windowSize && j < i+windowSize){
+                    minDist = matrixD[i][j-1];
+                    if(matrixD[i-1][j] < minDist){
+                        minDist = matrixD[i-1][j];
+                    }
+                    if(matrixD[i-1][j-1] < minDist){
+                        minDist = matrixD[i-1][j-1];
+                    }
+                    matrixD[i][j] = minDist+sqMultiDist(a[i], b[j]);
+                }
+            }
+        }
+        return matrixD;
+    }
+
+    private static double sqMultiDist(double[] a, double[] b){
+        double sum = 0;
+        double diff;
+        for(int c = 0; c < a.length; c++){
+            diff = a[c]-b[c];
+            sum += diff*diff;
+        }
+        return sum;
+    }
+
+    private static int seriesLength(Instance ins){
+        return ins.classIndex() < 0 ? ins.numAttributes() : ins.numAttributes()-1;
+    }
+
+    private static void copySeries(Instance ins, double[] dest, int length){
+        for(int i = 0; i < length; i++){
+            dest[i] = ins.value(i);
+        }
+    }
+}
@@ -20,6 +20,8 @@ public class DTW_DistanceBasic extends EuclideanDistance{
     protected int windowSize;
     protected double r=1;	//Warping window size percentage, between 0 and 1
     protected double[][] matrixD;
+    protected double[] lastA;
+    protected double[] lastB;
     protected int endX=0;
     protected int endY=0;
     public DTW_DistanceBasic(){
@@ -75,11 +77,10 @@ public class DTW_DistanceBasic extends EuclideanDistance{
 
     /* DTW Distance with early abandon: 
     * 
+    * Delegates to the banded two row kernel, so only O(window) memory is used.
+    * The full cost matrix is rebuilt on demand by findMaxWindow/printPath.
     */ 
     public double distance(double[] a,double[] b, double cutoff){
-        double minDist;
-        boolean tooBig=true;
-        
 // Set the longest series to a
         double[] temp;
         if(a.length<b.length){
@@ -87,79 +88,34 @@ public class DTW_DistanceBasic extends EuclideanDistance{
                 a=b;
                 b=temp;
         }
-        int n=a.length;
-        int m=b.length;
 /*  Parameter 0<=r<=1. 0 == no warp, 1 == full warp 
 generalised for variable window size
 * */
-        matrixD = new double[n][n];        
-        windowSize = getWindowSize(n);
-/*
-//Set all to max. This is necessary for the window but I dont need to do 
-        it all
-*/
-
-        for(int i=0;i<n;i++)
-            for(int j=0;j<m;j++)
-                matrixD[i][j]=Double.MAX_VALUE;
+        windowSize = getWindowSize(a.length);
+        lastA=a;
+        lastB=b;
+        matrixD=null;
+        return DTWKernel.distance(a,b,windowSize,cutoff);
+    }
 
-        
-        matrixD[0][0]=(a[0]-b[0])*(a[0]-b[0]);
-
-//Base cases for warping 0 to all with max interval	r	
-//Warp a[0] onto all b[1]...b[r+1]
-        for(int j=1;j<windowSize && j<n;j++)
-                matrixD[0][j]=matrixD[0][j-1]+(a[0]-b[j])*(a[0]-b[j]);
-
-//	Warp b[0] onto all a[1]...a[r+1]
-        for(int i=1;i<windowSize && i<n;i++)
-                matrixD[i][0]=matrixD[i-1][0]+(a[i]-b[0])*(a[i]-b[0]);
-//Warp the rest,
-        for (int i=1;i<n;i++){
-            tooBig=true;            
-            for (int j = 1;j<m;j++){
-//Find the min of matrixD[i][j-1],matrixD[i-1][j] and matrixD[i-1][j-1]
-                if (i < j + windowSize && j < i + windowSize) {
-                    minDist=matrixD[i][j-1];
-                    if(matrixD[i-1][j]<minDist)
-                            minDist=matrixD[i-1][j];
-                    if(matrixD[i-1][j-1]<minDist)
-                            minDist=matrixD[i-1][j-1];
-                    matrixD[i][j]=minDist+(a[i]-b[j])*(a[i]-b[j]);
-                    if(tooBig&&matrixD[i][j]<cutoff)
-                            tooBig=false;               
-                }
-            }
-            //Early abandon
-            if(tooBig){
-                return Double.MAX_VALUE;
-            }
-            
-        }			
-//Find the minimum distance at the end points, within the warping window. 
-        return matrixD[n-1][m-1];
+    /**
+     * Rebuilds the full cost matrix for the last pair of series passed to
+     * distance, for warping path recovery.
+     */
+    protected void fillMatrixD(){
+        if(matrixD==null && lastA!=null)
+            matrixD=DTWKernel.costMatrix(lastA,lastB,windowSize);
     }
 
     static public int findWindowSize(double rr,int n){
-        int w=(int)(rr*n);   //Rounded down.
-                //No Warp, windowSize=1
-        if(w<1) w=1;
-                //Full Warp : windowSize=n, otherwise scale between		
-        else if(w<n)    
-                w++;
-        return w;	
+        return DTWKernel.windowSize(rr,n);
     }    
      
     final public int getWindowSize(int n){
-        int w=(int)(r*n);   //Rounded down.
-                //No Warp, windowSize=1
-        if(w<1) w=1;
-                //Full Warp : windowSize=n, otherwise scale between		
-        else if(w<n)    
-                w++;
-        return w;	
+        return DTWKernel.windowSize(r,n);
     }
     final public int findMaxWindow(){
+        fillMatrixD();
         //Find Path backwards in pairs			
         int n=matrixD.length;
         int m=matrixD[0].length;
@@ -185,6 +141,7 @@ generalised for variable window size
         
     }
     void printPath(){
+        fillMatrixD();
         //Find Path backwards in pairs			
         int n=matrixD.length;
         int m=matrixD[0].length;
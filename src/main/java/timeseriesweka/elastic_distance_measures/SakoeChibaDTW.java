@@ -15,6 +15,11 @@ public class SakoeChibaDTW extends BasicDTW {
 
     private double bandPercent;
 
+    //the last pair passed to distance, for rebuilding the distances matrix on demand
+    private double[] lastFirst;
+    private double[] lastSecond;
+    private int lastBandSize;
+
     /**
      * Creates new Sakoe Chiba Distance metric
      * 
@@ -64,6 +69,9 @@ public class SakoeChibaDTW extends BasicDTW {
     /**
      * calculates the distance between two instances (been converted to arrays)
      * 
+     * Uses the banded kernel in DTWKernel, so the distances matrix inherited
+     * from BasicDTW is only rebuilt, for the last pair, when it is asked for.
+     * 
      * @param first instance 1 as array
      * @param second instance 2 as array
      * @param cutOffValue used for early abandon
@@ -73,59 +81,45 @@ public class SakoeChibaDTW extends BasicDTW {
     public double distance(double[] first, double[] second, double cutOffValue) {
 
         int bandSize = this.calculateBandSize(first.length);
+        this.lastFirst = first;
+        this.lastSecond = second;
+        this.lastBandSize = bandSize;
+        this.distances = null;
+        return DTWKernel.distance(first, second, bandSize, cutOffValue);
+    }
 
-        //create empty array
-        this.distances = new double[first.length][second.length];
-
-        //first value
-        this.distances[0][0] = (first[0] - second[0]) * (first[0] - second[0]);
+    /**
+     * Fills the distances matrix for the last pair passed to distance, with
+     * Double.MAX_VALUE outside the band.
+     */
+    private void fillDistances(){
+        if(this.distances == null && this.lastFirst != null){
+            this.distances = DTWKernel.costMatrix(this.lastFirst, this.lastSecond, this.lastBandSize);
+        }
+    }
 
+    @Override
+    public String printMinCostWarpPath(){
+        fillDistances();
+        return super.printMinCostWarpPath();
+    }
 
-        //top row
-        for (int i = 1; i < second.length; i++) {
-            if (i < bandSize) {
-                this.distances[0][i] = this.distances[0][i - 1] + ((first[0] - second[i]) * (first[0] - second[i]));
-            } else {
-                this.distances[0][i] = Double.MAX_VALUE;
-            }
-        }
+    @Override
+    public double[][] getDistanceArray(){
+        fillDistances();
+        return super.getDistanceArray();
+    }
 
-        //first column
-        for (int i = 1; i < first.length; i++) {
-            if (i < bandSize) {
-                this.distances[i][0] = this.distances[i - 1][0] + ((first[i] - second[0]) * (first[i] - second[0]));
-            } else {
-                this.distances[i][0] = Double.MAX_VALUE;
-            }
-        }
+    @Override
+    public void printDiagonalRoute(){
+        fillDistances();
+        super.printDiagonalRoute();
+    }
 
-        //warp rest
-        double minDistance;
-        
-        // edited by Jay (07/07/15) - cutoff wasn't being used, so added overFlow etc to use early abandon
-        
-        boolean overFlow;
-        for (int i = 1; i < first.length; i++) {
-            overFlow = true;
-            for (int j = 1; j < second.length; j++) {
-                //Checks if i and j are within the band window
-                if (i < j + bandSize && j < i + bandSize) {
-                    minDistance = Math.min(this.distances[i][j - 1], Math.min(this.distances[i - 1][j], this.distances[i - 1][j - 1]));
-                    //Assign distance
-                    this.distances[i][j] = minDistance + ((first[i] - second[j]) * (first[i] - second[j]));
-                } else {
-                    this.distances[i][j] = Double.MAX_VALUE;
-                }
-                if(overFlow && this.distances[i][j] < cutOffValue){
-                    overFlow=false;
-                }
-            }
-            if(overFlow){
-                return Double.MAX_VALUE;
-            }
-        }
-        
-        return this.distances[first.length - 1][second.length - 1];
+    @Override
+    public void printDistances(){
+        fillDistances();
+        super.printDistances();
     }
 
     /**
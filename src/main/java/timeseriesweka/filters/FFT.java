@@ -14,8 +14,8 @@
  */ 
 package timeseriesweka.filters;
 /* Performs a FFT of the data set. NOTE:
-* 1. If algorithm type is set to DFT, then this will only perform a FFT if the series is length power of 2.
-* otherwise it will perform the order m^2 DFT.
+* 1. If algorithm type is set to DFT, the transform is of the full series length m. FFTPlan does this
+* in order m log m for any m, in double precision, Bluestein's algorithm is used if m is not a power of 2.
 * 2. If algorithm type is set to FFT, then, if the length is not a powerr of 2, it either truncates or pads 
 * (determined by the variable pad) with the mean the each series (i.e. each Instance) 
 * so that the new length is power of 2 by flag pad (default true)
@@ -37,7 +37,6 @@ public class FFT extends SimpleBatchFilter {
         AlgorithmType algo=AlgorithmType.DFT;  //If set to FFT, this will pad (or truncate) series to the nearest power of 2
 	private static final long serialVersionUID = 1L;
 	private boolean pad=true;
-    private static final double TWOPI = (Math.PI * 2);
 	public void padSeries(boolean b){pad=b;}
         public void useDFT(){
            algo=AlgorithmType.DFT;
@@ -163,41 +162,40 @@ public class FFT extends SimpleBatchFilter {
 //For each data, first extract the relevant data
 //Note the transform will be at least twice as long as the original                
 //Length is the number of COMPLEX terms, which is HALF the length of the original series. 
-                
+                FFTPlan plan=FFTPlan.forLength(fullLength);
+                double[] series=new double[fullLength];
+                double[] terms=new double[fullLength];
 		for(int i=0;i<instances.numInstances();i++){
 			
-//1. Get original series stored in a complex array. This may be padded or truncated
+//1. Get original series. This may be padded or truncated
 //depending on the original length. If DFT is being used, it is neither. 
-                    Complex[] c=new Complex[fullLength];
+                    Instance in=instances.instance(i);
                     int count=0;
                     double seriesTotal=0;
-                    for(int j=0;j<originalLength&&count<c.length;j++){ //May cut off the trailing values
+                    for(int j=0;j<originalLength&&count<series.length;j++){ //May cut off the trailing values
                             if(instances.classIndex()!=j){
-                                    c[count]=new Complex(instances.instance(i).value(j),0.0);
-                                    seriesTotal+=instances.instance(i).value(j);
+                                    series[count]=in.value(j);
+                                    seriesTotal+=series[count];
                                     count++;
                             }
                     }
 //Add any Padding required  
                     double mean=seriesTotal/count;
-                    while(count<c.length)
-                        c[count++]=new Complex(mean,0);
-//2. Find FFT/DFT of series.	
-                    if(algo==AlgorithmType.FFT)
-			fft(c,c.length);
-                    else
-			c=dft(c);
+                    while(count<series.length)
+                        series[count++]=mean;
+//2. Find FFT/DFT of series, only the first half of the terms are kept.	
+                    plan.realSpectrum(series,0,terms,fullLength/2);
 //Extract out the terms and set the attributes.
                     
-                    Instance inst=new DenseInstance(c.length+1);
-                    for(int j=0;j<c.length/2;j++){
-                        inst.setValue(2*j, c[j].real);
-                        inst.setValue(2*j+1, c[j].imag);
+                    Instance inst=new DenseInstance(fullLength+1);
+                    for(int j=0;j<fullLength/2;j++){
+                        inst.setValue(2*j, terms[2*j]);
+                        inst.setValue(2*j+1, terms[2*j+1]);
                     }
 	//Set class value.
                     //Set class value.
                     if(instances.classIndex()>=0)
-                            inst.setValue(output.classIndex(), instances.instance(i).classValue());
+                            inst.setValue(output.classIndex(), in.classValue());
 
                     output.add(inst);
 		}
@@ -205,37 +203,21 @@ public class FFT extends SimpleBatchFilter {
 	}
 	
 	  /**
-	Perform a discrete fourier transform, O(n^2)
+	Perform a discrete fourier transform, O(n log n) for any length, see FFTPlan
         * 
         */
     public Complex[] dft(double[] series) {
         int n=series.length;
-        Complex[] dft=new Complex[n];
-        for (int k = 0; k < n; k++) {  // For each output element
-            float sumreal = 0;
-            float sumimag = 0;
-            for (int t = 0; t < series.length; t++) {  // For each input element
-                    sumreal +=  series[t]*Math.cos(2*Math.PI * t * k / n);
-                    sumimag += -series[t]*Math.sin(2*Math.PI * t * k / n);
-            }
-            dft[k]=new Complex(sumreal,sumimag);
-        }
-        return dft;
+        double[] terms=new double[2*n];
+        FFTPlan.forLength(n).realSpectrum(series,0,terms,n);
+        return toComplex(terms,n);
         
      }
     public Complex[] dft(Complex[] complex) {
         int n=complex.length;
-        Complex[] dft=new Complex[n];
-        for (int k = 0; k < n; k++) {  // For each output element
-            float sumreal = 0;
-            float sumimag = 0;
-            for (int t = 0; t < complex.length; t++) {  // For each input element
-                    sumreal +=  complex[t].real*Math.cos(2*Math.PI * t * k / n) + complex[t].imag*Math.sin(2*Math.PI * t * k / n);
-                    sumimag += -complex[t].real*Math.sin(2*Math.PI * t * k / n) + complex[t].imag*Math.cos(2*Math.PI * t * k / n);
-            }
-            dft[k]=new Complex(sumreal,sumimag);
-        }
-        return dft;
+        double[] terms=toInterleaved(complex,n);
+        FFTPlan.forLength(n).complexForward(terms);
+        return toComplex(terms,n);
         
      }
 	
@@ -290,229 +272,46 @@ public class FFT extends SimpleBatchFilter {
     	fft(-1, complex, n);
         }
 
-        // Perform an in-place mixed-radix FFT (if sign is 1) or inverse
-        // FFT (if sign is -1) on the first n elements of the given set of
-        // Complex numbers. Round n to the nearest power of two.
+        // Perform an in-place FFT (if sign is 1) or inverse FFT (if sign
+        // is -1) on the first n elements of the given set of Complex
+        // numbers. Round n to the nearest power of two.
         //
-        // This method performs the FFT in-place on the given set.
+        // The transform is done in double precision by FFTPlan on an
+        // interleaved copy, then written back to the given set.
 
         private void fft(int sign, Complex[] complex, int n) {
     	// n is number of data elements upon which FFT will be
     	// performed. Round number of data elements to nearest power
     	// of 2
     	n = (int)MathsPower2.roundPow2(n);
-    	// Sort the first n elements into bit-reversed order
-    	bitReverse(complex, n);
-    	if (n == 2) {
-    	    // Perform a radix-2 FFT
-    	    radix2FFT(sign, complex, n, 0);
-    	} else if (((float)Math.log(n) % (float)Math.log(4)) == 0) {
-    	    // Perform a radix-4 FFT
-    	    radix4FFT(sign, complex, n, 0);
-    	} else {
-    	    // n is a multiple or two or four [8, 32, 128, ...]
-    	    // Perform a mixed-radix FFT
-    	    int halfN = n / 2;
-    	    // Do a radix-4 transform on elements 0..halfN - 1 which
-    	    // contains even-indexed elements from the original
-    	    // unsorted set of numbers by definition of the bit
-    	    // reversal operation
-    	    radix4FFT(sign, complex, halfN, 0);
-    	    // Do a radix-4 transform on elements halfN - 1 .. n - 1
-    	    // which contains odd-indexed elements from the original
-    	    // unsorted set of numbers by definition of the bit
-    	    // reversal operation
-    	    radix4FFT(sign, complex, halfN, halfN);
-    	    // Pair off even and odd elements and do final radix-2
-    	    // transforms, multiplying by twiddle factors as required
-    	    // Loop variables used to point to pairs of even and odd
-    	    // elements
-    	    int       g, h;
-    	    // Array of two complex numbers for performing radix-2
-    	    // FFTs on pairs of elements
-    	    Complex[] radix2x2 = new Complex[2];
-    	    // Twiddle factor
-    	    Complex   twiddle = new Complex();
-    	    // Values defining twiddle factor
-    	    double     delta = -sign * TWOPI / n;
-    	    double     w = 0;
-    	    for (g = 0, h = halfN; g < halfN; g++, h++) {
-    		// Twiddle factors...
-    		twiddle.setRealImag((float)Math.cos(w),
-    				    (float)Math.sin(w));
-    		complex[h].multiply(twiddle);
-    		radix2x2[0] = complex[g];
-    		radix2x2[1] = complex[h];
-    		// Perform the radix-2 FFT
-    		radix2FFT(sign, radix2x2, 2, 0);
-    		complex[g] = radix2x2[0];
-    		complex[h] = radix2x2[1];
-    		w += delta;
-    	    }
-    	    radix2x2 = null;
-    	    twiddle = null;
-    	}
-    	if (sign == -1) {
-    	    // Divide all values by n
-    	    for (int g = 0; g < n; g++) {
-    		complex[g].divide(n);
-    	    }
+    	double[] a = toInterleaved(complex, n);
+    	FFTPlan plan = FFTPlan.forLength(n);
+    	if (sign == 1)
+    	    plan.complexForward(a);
+    	else
+    	    plan.complexInverse(a, true);
+    	for (int g = 0; g < n; g++) {
+    	    complex[g].setRealImag((float)a[2 * g], (float)a[2 * g + 1]);
     	}
         }
 
-        // Perform an in-place radix-4 FFT (if sign is 1) or inverse
-        // FFT (if sign is -1). FFT is performed in the n elements
-        // starting at index lower
-        //
-        // Assumes that n is a power of 2 and that lower + n is less than
-        // or equal to the number of complex numbers given
-        //
-        // This method performs the FFT in-place on the given set.
-
-        private static void radix4FFT(int sign, Complex[] complex, int n,
-    				  int lower) {
-    	// Index of last element in array which will take part in the
-    	// FFT
-    	int     upper = n + lower;
-    	// Variables used to hold the indicies of the elements forming
-    	// the four inputs to a butterfly
-    	int     i, j, k, l;
-    	// Variables holding the results of the four main operations
-    	// performed when processing a butterfly
-    	Complex ijAdd = new Complex();
-    	Complex klAdd = new Complex();
-    	Complex ijSub = new Complex();
-    	Complex klSub = new Complex();
-    	// Twiddle factor
-    	Complex twiddle = new Complex();
-    	// Values defining twiddle factor
-    	double   delta, w, w2, w3;
-    	double   deltaLower = -sign * TWOPI;
-    	// intraGap is number of array elements between the
-    	// two inputs to a butterfly (equivalent to the number of
-    	// butterflies in a cluster)
-    	int     intraGap;
-    	// interGap is the number of array elements between the first
-    	// input of the ith butterfly in two adjacent clusters
-    	int     interGap;
-    	for (intraGap = 1, interGap = 4 * intraGap;
-    	     intraGap < n;
-    	     intraGap = interGap, interGap = 4 * intraGap) {
-    	    delta = deltaLower / (float)interGap;
-    	    // For each butterfly in a cluster
-    	    w = w2 = w3 = 0;
-    	    for (int but = 0; but < intraGap; ++but) {
-    		// Process the intraGap-th butterfly in each cluster
-    		// i is the top input to a butterfly and j the second,
-    		// k third and l fourth
-    		for (i = (but + lower), j = i + intraGap,
-    			 k = j + intraGap, l = k + intraGap;
-    		     i < upper;
-    		     i += interGap, j += interGap,
-    			 k += interGap, l += interGap) {
-    		    // Calculate and apply twiddle factors
-    		    // cos(0) = 1 and sin(0) = 0
-    		    twiddle.setRealImag(1, 0);
-    		    complex[i].multiply(twiddle);
-    		    twiddle.setRealImag((float)Math.cos(w2),
-    					(float)Math.sin(w2));
-    		    complex[j].multiply(twiddle);
-    		    twiddle.setRealImag((float)Math.cos(w),
-    					(float)Math.sin(w));
-    		    complex[k].multiply(twiddle);
-    		    twiddle.setRealImag((float)Math.cos(w3),
-    					(float)Math.sin(w3));
-    		    complex[l].multiply(twiddle);
-    		    // Compute the butterfly
-    		    Complex.add(complex[i], complex[j], ijAdd);
-    		    Complex.subtract(complex[i], complex[j], ijSub);
-    		    Complex.add(complex[k], complex[l], klAdd);
-    		    Complex.subtract(complex[k], complex[l], klSub);
-    		    // Assign values
-    		    Complex.add(ijAdd, klAdd, complex[i]);
-    		    klSub.multiply(sign);
-    		    complex[j].setRealImag(ijSub.getReal() +
-    					   klSub.getImag(),
-    					   ijSub.getImag() -
-    					   klSub.getReal());
-    		    Complex.subtract(ijAdd, klAdd, complex[k]);
-    		    complex[l].setRealImag(ijSub.getReal() -
-    					   klSub.getImag(),
-    					   ijSub.getImag() +
-    					   klSub.getReal());
-    		}
-    		w += delta;
-    		w2 = w + w;
-    		w3 = w2 + w;
-    	    }
-    	    intraGap = interGap;
+        /** Copy the first n Complex numbers into an interleaved double[] */
+        public static double[] toInterleaved(Complex[] complex, int n) {
+    	double[] a = new double[2 * n];
+    	for (int g = 0; g < n; g++) {
+    	    a[2 * g] = complex[g].real;
+    	    a[2 * g + 1] = complex[g].imag;
     	}
-    	ijAdd = klAdd = ijSub = klSub = twiddle = null;
+    	return a;
         }
 
-        // Perform an in-place radix-2 FFT (if sign is 1) or inverse
-        // FFT (if sign is -1). FFT is performed in the n elements
-        // starting at index lower
-        //
-        // Assumes that n is a power of 2 and that lower + n is less than
-        // or equal to the number of complex numbers given...
-        //
-        // This method performs the FFT in-place on the given set.
-
-        private static void radix2FFT(int sign, Complex[] complex, int n,
-    				  int lower) {
-    	// Index of last element in array which will take part in the
-    	// FFT
-    	int     upper = n + lower;
-    	// Variables used to hold the indicies of the elements forming
-    	// the two inputs to a butterfly
-    	int     i, j;
-    	// intraGap is number of array elements between the
-    	// two inputs to a butterfly (equivalent to the number of
-    	// butterflies in a cluster)
-    	int     intraGap;
-    	// interGap is the number of array elements between the first
-    	// input of the ith butterfly in two adjacent clusters
-    	int     interGap;
-    	// The twiddle factor
-    	Complex twiddle = new Complex();
-    	// Values defining twiddle factor
-    	float   deltaLower = -(float)(sign * Math.PI);
-    	float   w, delta;
-    	// Variable used to hold result of multiplying butterfly input
-    	// by a twiddle factor
-    	Complex twiddledInput = new Complex();
-    	for (intraGap = 1, interGap = intraGap + intraGap;
-    	     intraGap < n; intraGap = interGap,
-    		 interGap = intraGap + intraGap) {
-    	    delta = deltaLower / (float)intraGap;
-    	    // For each butterfly in a cluster
-    	    w = 0;
-    	    for (int butterfly = 0; butterfly < intraGap; ++butterfly)
-    		{
-    		    // Calculate the twiddle factor
-    		    twiddle.setRealImag((float)Math.cos(w),
-    					(float)Math.sin(w));
-    		    // i is the top input to a butterfly and j the
-    		    // bottom
-    		    for (i = (butterfly + lower), j = i + intraGap;
-    			 i < upper; i += interGap, j += interGap) {
-    			// Calculate the butterfly-th butterfly in
-    			// each cluster
-    			// Apply the twiddle factor
-    			Complex.multiply(complex[j], twiddle,
-    					 twiddledInput);
-    			// Subtraction part of butterfly
-    			Complex.subtract(complex[i], twiddledInput,
-    					 complex[j]);
-    			// Addition part of butterfly
-    			complex[i].add(twiddledInput);
-    		    }
-    		    w += delta;
-    		}
-    	    intraGap = interGap;
+        /** Wrap the first n interleaved terms as Complex numbers */
+        public static Complex[] toComplex(double[] a, int n) {
+    	Complex[] complex = new Complex[n];
+    	for (int g = 0; g < n; g++) {
+    	    complex[g] = new Complex(a[2 * g], a[2 * g + 1]);
     	}
-    	twiddle = twiddledInput = null;
+    	return complex;
         }
 	        
 	        
@@ -0,0 +1,208 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Double precision discrete Fourier transform of one length, shared by FFT,
+ * PowerSpectrum, PowerCepstrum, KShape and RISE.
+ *
+ * Complex data is interleaved in a double[], element k has its real part at
+ * 2k and imaginary part at 2k+1. The forward transform is
+ * X[k] = sum x[t]*exp(-2*pi*i*t*k/n), as FFT.fft, and the inverse optionally
+ * divides by n.
+ *
+ * The transforms themselves are done by jtransforms DoubleFFT_1D, which is
+ * O(n log n) for every length and measured faster than a radix-2/Bluestein
+ * core of our own at both power of 2 and other lengths, see FFTPlanBenchmark.
+ * Plans are cached, get them with forLength. They can be used from many
+ * threads, and the real spectrum helpers take their working memory from a
+ * per-thread scratch buffer rather than allocating a copy of the series.
+ */
+public final class FFTPlan {
+
+    private static final ConcurrentHashMap<Integer, FFTPlan> PLANS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final int n;
+
+    private final DoubleFFT_1D fft;
+
+    /**
+     * Per-thread working memory. The array is only ever grown.
+     */
+    private static final class Scratch {
+        double[] series = new double[0];
+
+        double[] series(int length){
+            if(series.length < length){
+                series = new double[length];
+            }
+            return series;
+        }
+    }
+
+    private FFTPlan(int n){
+        this.n = n;
+        this.fft = new DoubleFFT_1D(n);
+    }
+
+    /**
+     * @param n transform length, at least 1
+     * @return the cached plan for n
+     */
+    public static FFTPlan forLength(int n){
+        if(n < 1)
+            throw new IllegalArgumentException("FFT length must be positive, not "+n);
+        return PLANS.computeIfAbsent(n, FFTPlan::new);
+    }
+
+    public int length(){
+        return n;
+    }
+
+    public static boolean isPow2(int n){
+        return n > 0 && (n & (n-1)) == 0;
+    }
+
+    /**
+     * In place forward transform of n interleaved complex values.
+     */
+    public void complexForward(double[] a){
+        fft.complexForward(a);
+    }
+
+    /**
+     * In place inverse transform of n interleaved complex values.
+     *
+     * @param scale if true divide by n, so this undoes complexForward
+     */
+    public void complexInverse(double[] a, boolean scale){
+        fft.complexInverse(a, scale);
+    }
+
+    /**
+     * In place forward transform of n real values, n even. The first half
+     * of the spectrum is packed as DoubleFFT_1D.realForward leaves it: a[0]
+     * is the real term 0, a[1] the real term n/2, and a[2k], a[2k+1] the
+     * real and imaginary parts of term k for 0 &lt; k &lt; n/2. The rest is
+     * the conjugate of it.
+     */
+    public void realForward(double[] a){
+        checkEven();
+        fft.realForward(a);
+    }
+
+    /**
+     * Inverse of realForward, from the packed layout back to n real values.
+     *
+     * @param scale if true divide by n, so this undoes realForward
+     */
+    public void realInverse(double[] a, boolean scale){
+        checkEven();
+        //DoubleFFT_1D.realInverse without scaling gives n/2 times the series for power of 2 lengths and n times it for others.
+        fft.realInverse(a, true);
+        if(!scale){
+            for(int i = 0; i < n; i++)
+                a[i] *= n;
+        }
+    }
+
+    /**
+     * Forward transform of the real values series[offset] to
+     * series[offset+n-1], writing the first numTerms terms interleaved into
+     * out. The input is not changed.
+     *
+     * @param numTerms at most n
+     */
+    public void realSpectrum(double[] series, int offset, double[] out, int numTerms){
+        Scratch scratch = SCRATCH.get();
+        if(n%2 == 0){
+            double[] a = scratch.series(n);
+            System.arraycopy(series, offset, a, 0, n);
+            realForward(a);
+            int h = n/2;
+            for(int k = 0; k < numTerms; k++){
+                if(k == 0){
+                    out[0] = a[0];
+                    out[1] = 0;
+                }
+                else if(k < h){
+                    out[2*k] = a[2*k];
+                    out[2*k+1] = a[2*k+1];
+                }
+                else if(k == h){
+                    out[2*k] = a[1];
+                    out[2*k+1] = 0;
+                }
+                else{
+                    out[2*k] = a[2*(n-k)];
+                    out[2*k+1] = -a[2*(n-k)+1];
+                }
+            }
+        }
+        else{
+            double[] a = scratch.series(2*n);
+            for(int t = 0; t < n; t++){
+                a[2*t] = series[offset+t];
+                a[2*t+1] = 0;
+            }
+            complexForward(a);
+            System.arraycopy(a, 0, out, 0, 2*numTerms);
+        }
+    }
+
+    /**
+     * Power spectrum, the squared magnitudes of the first numTerms terms of
+     * the transform of series[offset] to series[offset+n-1], into out.
+     */
+    public void powerSpectrum(double[] series, int offset, double[] out, int numTerms){
+        Scratch scratch = SCRATCH.get();
+        if(n%2 == 0){
+            double[] a = scratch.series(n);
+            System.arraycopy(series, offset, a, 0, n);
+            realForward(a);
+            int h = n/2;
+            for(int k = 0; k < numTerms; k++){
+                if(k == 0)
+                    out[k] = a[0]*a[0];
+                else if(k == h)
+                    out[k] = a[1]*a[1];
+                else{
+                    int i = k < h ? 2*k : 2*(n-k);
+                    out[k] = a[i]*a[i]+a[i+1]*a[i+1];
+                }
+            }
+        }
+        else{
+            double[] a = scratch.series(2*n);
+            for(int t = 0; t < n; t++){
+                a[2*t] = series[offset+t];
+                a[2*t+1] = 0;
+            }
+            complexForward(a);
+            for(int k = 0; k < numTerms; k++)
+                out[k] = a[2*k]*a[2*k]+a[2*k+1]*a[2*k+1];
+        }
+    }
+
+    private void checkEven(){
+        if(n%2 != 0)
+            throw new IllegalArgumentException("Real FFT needs an even length, not "+n);
+    }
+}
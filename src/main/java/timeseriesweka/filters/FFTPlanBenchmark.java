@@ -0,0 +1,116 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+import java.util.Random;
+
+/**
+ * Timing harness for FFTPlan, used to decide how it does its transforms. For
+ * each length it times, per call, a real forward transform with a reused
+ * jtransforms DoubleFFT_1D, the same through FFTPlan.realForward and
+ * FFTPlan.powerSpectrum, and for power of 2 lengths the recursive
+ * FFT.fft on FFT.Complex objects that FFTPlan replaced.
+ *
+ * Every timing is repeated for a number of rounds and only the last is
+ * printed, so the JIT has compiled everything by then. Run with the lengths
+ * as arguments, e.g. java timeseriesweka.filters.FFTPlanBenchmark 1000 4096
+ */
+public class FFTPlanBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    //keeps the results live so the transforms are not optimised away.
+    private static double sink = 0;
+
+    public static void main(String[] args){
+        int[] lengths = {64, 256, 1000, 1024, 4096};
+        if(args.length > 0){
+            lengths = new int[args.length];
+            for(int i = 0; i < args.length; i++)
+                lengths[i] = Integer.parseInt(args[i]);
+        }
+        Random r = new Random(0);
+        System.out.println("n,jtransforms,FFTPlan.realForward,FFTPlan.powerSpectrum,FFT.fft (microseconds per call)");
+        for(int n : lengths){
+            double[] series = new double[n];
+            for(int i = 0; i < n; i++)
+                series[i] = r.nextGaussian();
+            int reps = Math.max(200, 4000000/n);
+            double[] times = new double[4];
+            for(int round = 0; round < ROUNDS; round++){
+                times[0] = timeJTransforms(series, reps);
+                times[1] = timeRealForward(series, reps);
+                times[2] = timePowerSpectrum(series, reps);
+                times[3] = FFTPlan.isPow2(n) ? timeComplexObjects(series, Math.max(1, reps/4)) : Double.NaN;
+            }
+            System.out.printf("%d,%.2f,%.2f,%.2f,%.2f%n", n, times[0], times[1], times[2], times[3]);
+        }
+        if(sink == Double.MIN_VALUE)
+            System.out.println(sink);
+    }
+
+    private static double timeJTransforms(double[] series, int reps){
+        int n = series.length;
+        DoubleFFT_1D fft = new DoubleFFT_1D(n);
+        double[] a = new double[n];
+        long start = System.nanoTime();
+        for(int i = 0; i < reps; i++){
+            System.arraycopy(series, 0, a, 0, n);
+            fft.realForward(a);
+            sink += a[1];
+        }
+        return (System.nanoTime()-start)/1e3/reps;
+    }
+
+    private static double timeRealForward(double[] series, int reps){
+        int n = series.length;
+        if(n%2 != 0)
+            return Double.NaN;
+        double[] a = new double[n];
+        long start = System.nanoTime();
+        for(int i = 0; i < reps; i++){
+            System.arraycopy(series, 0, a, 0, n);
+            FFTPlan.forLength(n).realForward(a);
+            sink += a[1];
+        }
+        return (System.nanoTime()-start)/1e3/reps;
+    }
+
+    private static double timePowerSpectrum(double[] series, int reps){
+        int n = series.length;
+        double[] ps = new double[n/2];
+        long start = System.nanoTime();
+        for(int i = 0; i < reps; i++){
+            FFTPlan.forLength(n).powerSpectrum(series, 0, ps, ps.length);
+            sink += ps[0];
+        }
+        return (System.nanoTime()-start)/1e3/reps;
+    }
+
+    private static double timeComplexObjects(double[] series, int reps){
+        int n = series.length;
+        FFT fft = new FFT();
+        long start = System.nanoTime();
+        for(int i = 0; i < reps; i++){
+            FFT.Complex[] c = new FFT.Complex[n];
+            for(int j = 0; j < n; j++)
+                c[j] = new FFT.Complex(series[j], 0);
+            fft.fft(c, n);
+            sink += c[0].getReal();
+        }
+        return (System.nanoTime()-start)/1e3/reps;
+    }
+}
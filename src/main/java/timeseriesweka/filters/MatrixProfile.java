@@ -14,10 +14,14 @@
  */ 
 package timeseriesweka.filters;
 
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
 import experiments.data.DatasetLoading;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.ROUNDING_ERROR_CORRECTION;
 import utilities.ClassifierTools;
+import utilities.TimeSeriesDataset;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
@@ -36,23 +40,75 @@ import weka.filters.SimpleBatchFilter;
  *      - Implement 'stride' - not sure if this makes sense particularly, but we could allow it so the user can change the step between comparison subseries 
  *        that are evaluated when calculating the profile (e.g. not every 1 index, every 2, 3, ... etc.)
  * 
+ * The profile is found with one of three algorithms:
+ *      - NAIVE: z-normalises and compares every pair of windows, O(n^2*w) per series
+ *      - STOMP: (default) keeps the dot products of one window with every other and updates them in O(1) when moving to the next
+ *        window, with the window means and standard deviations found once, O(n^2) per series. The same profile as NAIVE, up to rounding
+ *      - SCRIMP_PLUS_PLUS: anytime version of STOMP. A sample of windows is profiled first (PreSCRIMP) and then the diagonals of the 
+ *        distance matrix are evaluated in a random order until the time limit is reached. With no time limit the result is exact.
+ * 
+ * By default each series is joined with itself, excluding trivial matches within 1.5 windows. If a join series is set with 
+ * setJoinSeries, each series is instead joined with it (an AB-join) with no exclusion zone, so the profile holds the distance from 
+ * each window of the series to its nearest window in the join series.
+ * 
  */
 public class MatrixProfile extends SimpleBatchFilter{
     
+    public enum ProfileAlgorithm {NAIVE, STOMP, SCRIMP_PLUS_PLUS};
+    
     private int windowSize = 3;
     private final int stride = 1; // to-do later (maybe!)
     private double[][] distances;
     private int[][] indices;
+    private ProfileAlgorithm algorithm = ProfileAlgorithm.STOMP;
+    private double[] joinSeries = null;
+    private long timeLimit = 0; // nanoseconds over all series, 0 is unlimited. Only used by SCRIMP_PLUS_PLUS
+    private int seed = 0;
     
     public MatrixProfile(int windowSize){
         this.windowSize = windowSize;
     }
-
-    @Override
-    public Instances process(Instances instances) throws Exception {
-        
-        int seriesLength = instances.numAttributes()-(instances.classIndex()>=0?1:0);
-        
+    
+    public MatrixProfile(int windowSize, ProfileAlgorithm algorithm){
+        this.windowSize = windowSize;
+        this.algorithm = algorithm;
+    }
+    
+    public void setProfileAlgorithm(ProfileAlgorithm algorithm){
+        this.algorithm = algorithm;
+    }
+    
+    public ProfileAlgorithm getProfileAlgorithm(){
+        return this.algorithm;
+    }
+    
+    /**
+     * @param joinSeries series to join every processed series with, or null to join each series with itself
+     */
+    public void setJoinSeries(double[] joinSeries){
+        this.joinSeries = joinSeries;
+    }
+    
+    /**
+     * @param joinSeries instance to join every processed series with, its class value is ignored
+     */
+    public void setJoinSeries(Instance joinSeries){
+        this.joinSeries = TimeSeriesDataset.values(joinSeries);
+    }
+    
+    /**
+     * Time limit for processing all instances with SCRIMP_PLUS_PLUS, shared equally between the series that remain. 
+     * Profiles that are cut short hold the best distances found so far, which are upper bounds on the exact values.
+     */
+    public void setTimeLimit(TimeUnit time, long amount){
+        this.timeLimit = TimeUnit.NANOSECONDS.convert(amount, time);
+    }
+    
+    public void setSeed(int seed){
+        this.seed = seed;
+    }
+    
+    private void checkWindowSize(int seriesLength) throws Exception{
         if(windowSize < 3){
             throw new Exception("Error: window must be at least 3. You have specified "+windowSize);
         }
@@ -61,31 +117,73 @@ public class MatrixProfile extends SimpleBatchFilter{
             throw new Exception("Error: window must be smaller than the number of attributes. Window length: "+windowSize+", series length: "+seriesLength);
         }
         
+        if(joinSeries != null){
+            // no trivial matches in an AB-join, so no exclusion zone to satisfy
+            if(windowSize > joinSeries.length){
+                throw new Exception("Error: window must be smaller than the join series. Window length: "+windowSize+", join series length: "+joinSeries.length);
+            }
+            return;
+        }
+        
         if(seriesLength/4 < windowSize){
             throw new Exception("Error: the series length must be at least 4 times larger than the window size to satisfy the exclusion zone criteria for trivial matches. These instances have a series length of "+seriesLength+"; the maximum window size is therefore "+(seriesLength/4)+" and you have specified "+windowSize);
         }
+    }
+    
+    // finds the profile of instance ins and stores it in distances[ins] and indices[ins]
+    private void profile(Instances instances, int ins, long startTime){
+        if(algorithm == ProfileAlgorithm.NAIVE && joinSeries == null){
+            SingleInstanceMatrixProfile mpIns = new SingleInstanceMatrixProfile(instances.get(ins),this.windowSize, this.stride);
+            distances[ins] = mpIns.distances;
+            indices[ins] = mpIns.indices;
+            return;
+        }
+        
+        double[] series = TimeSeriesDataset.values(instances.get(ins));
+        JoinMatrixProfile mpJoin = new JoinMatrixProfile(series, joinSeries, this.windowSize);
+        if(algorithm == ProfileAlgorithm.SCRIMP_PLUS_PLUS){
+            long seriesLimit = 0;
+            if(timeLimit > 0){
+                // share what is left of the limit between the remaining series, always allowing some time
+                seriesLimit = Math.max(1, (timeLimit-(System.nanoTime()-startTime))/(instances.numInstances()-ins));
+            }
+            mpJoin.scrimp(seriesLimit, new Random(seed+ins));
+        }
+        else if(algorithm == ProfileAlgorithm.NAIVE){
+            mpJoin.naive();
+        }
+        else{
+            mpJoin.stomp();
+        }
+        distances[ins] = mpJoin.distances;
+        indices[ins] = mpJoin.indices;
+    }
+
+    @Override
+    public Instances process(Instances instances) throws Exception {
+        
+        int seriesLength = instances.numAttributes()-(instances.classIndex()>=0?1:0);
+        
+        checkWindowSize(seriesLength);
         
-        SingleInstanceMatrixProfile mpIns;
         Instances transformed = this.determineOutputFormat(instances);
         Instance out;
         
         this.distances = new double[instances.numInstances()][];
         this.indices = new int[instances.numInstances()][];
+        long startTime = System.nanoTime();
         
         for(int ins = 0; ins < instances.numInstances(); ins++){
-            mpIns = new SingleInstanceMatrixProfile(instances.get(ins),this.windowSize, this.stride);
+            this.profile(instances, ins, startTime);
             out = new DenseInstance(transformed.numAttributes());
             
-            distances[ins] = mpIns.distances;
-            indices[ins] = mpIns.indices;
-            
-            for(int i = 0; i < mpIns.distances.length; i++){
-                out.setValue(i, mpIns.distances[i]);
+            for(int i = 0; i < distances[ins].length; i++){
+                out.setValue(i, distances[ins][i]);
                 
             }
             
             if(instances.classIndex() >=0){
-                out.setValue(mpIns.distances.length, instances.instance(ins).classValue());
+                out.setValue(distances[ins].length, instances.instance(ins).classValue());
             }
             transformed.add(out);
         }
@@ -104,19 +202,8 @@ public class MatrixProfile extends SimpleBatchFilter{
                 
         int seriesLength = instances.numAttributes()-(instances.classIndex()>=0?1:0);
         
-        if(windowSize < 3){
-            throw new Exception("Error: window must be at least 3. You have specified "+windowSize);
-        }
-        
-        if(windowSize > seriesLength){
-            throw new Exception("Error: window must be smaller than the number of attributes. Window length: "+windowSize+", series length: "+seriesLength);
-        }
-        
-        if(seriesLength/4 < windowSize){
-            throw new Exception("Error: the series length must be at least 4 times larger than the window size to satisfy the exclusion zone criteria for trivial matches. These instances have a series length of "+seriesLength+"; the maximum window size is therefore "+(seriesLength/4)+" and you have specified "+windowSize);
-        }
+        checkWindowSize(seriesLength);
         
-        SingleInstanceMatrixProfile mpIns;
         Instances outputDistances = this.determineOutputFormat(instances);
         Instances outputIndices = this.determineOutputFormat(instances);
         Instance outDist, outIdx;
@@ -128,23 +215,21 @@ public class MatrixProfile extends SimpleBatchFilter{
             outputIndices.renameAttribute(a, "idx_"+a);
         }
         outputIndices.setRelationName(outputIndices.relationName()+"_indices");
+        long startTime = System.nanoTime();
         
         for(int ins = 0; ins < instances.numInstances(); ins++){
-            mpIns = new SingleInstanceMatrixProfile(instances.get(ins),this.windowSize, this.stride);
+            this.profile(instances, ins, startTime);
             outDist = new DenseInstance(outputDistances.numAttributes());
             outIdx = new DenseInstance(outputIndices.numAttributes());
             
-            distances[ins] = mpIns.distances;
-            indices[ins] = mpIns.indices;
-            
-            for(int i = 0; i < mpIns.distances.length; i++){
-                outDist.setValue(i, mpIns.distances[i]);
-                outIdx.setValue(i, mpIns.indices[i]);
+            for(int i = 0; i < distances[ins].length; i++){
+                outDist.setValue(i, distances[ins][i]);
+                outIdx.setValue(i, indices[ins][i]);
             }
             
             if(instances.classIndex() >=0){
-                outDist.setValue(mpIns.distances.length, instances.instance(ins).classValue());
-                outIdx.setValue(mpIns.indices.length, instances.instance(ins).classValue());
+                outDist.setValue(distances[ins].length, instances.instance(ins).classValue());
+                outIdx.setValue(indices[ins].length, instances.instance(ins).classValue());
             }
             
             outputDistances.add(outDist);
@@ -242,6 +327,321 @@ public class MatrixProfile extends SimpleBatchFilter{
         }
     }
     
+    /**
+     * Profile of the windows of series a against those of series b, or against a itself with trivial matches excluded if b is null. 
+     * 
+     * The squared distance between z-normalised windows i and j is 2w(1-(QT-w*meanA*meanB)/(w*stdA*stdB)), where QT is their dot product, 
+     * so with the window means and standard deviations found once only the dot products are needed. These are updated in O(1) along each 
+     * diagonal of the distance matrix: QT(i+1,j+1) = QT(i,j) - a[i]*b[j] + a[i+w]*b[j+w]. The distances are the same as those from 
+     * zNormalise, where a window with a variance below ROUNDING_ERROR_CORRECTION normalises to all zeros.
+     */
+    private static class JoinMatrixProfile{
+        private final double[] a;
+        private final double[] b;
+        private final boolean selfJoin;
+        private final int windowSize;
+        private final int numA;
+        private final int numB;
+        private final double[] meanA, stdA, meanB, stdB;
+        private final double[] distances;
+        private final int[] indices;
+        
+        public JoinMatrixProfile(double[] a, double[] b, int windowSize){
+            this.selfJoin = b == null;
+            this.windowSize = windowSize;
+            
+            // shift each series to a zero mean, which the z-normalised distances do not depend on, so the dot products stay small
+            this.a = centre(a);
+            this.b = selfJoin ? this.a : centre(b);
+            this.numA = a.length-windowSize+1;
+            this.numB = this.b.length-windowSize+1;
+            
+            this.meanA = new double[numA];
+            this.stdA = new double[numA];
+            slidingStats(this.a, meanA, stdA);
+            if(selfJoin){
+                this.meanB = meanA;
+                this.stdB = stdA;
+            }else{
+                this.meanB = new double[numB];
+                this.stdB = new double[numB];
+                slidingStats(this.b, meanB, stdB);
+            }
+            
+            this.distances = new double[numA];
+            this.indices = new int[numA];
+            for(int i = 0; i < numA; i++){
+                distances[i] = Double.MAX_VALUE;
+                indices[i] = -1;
+            }
+        }
+        
+        private static double[] centre(double[] series){
+            double mean = 0;
+            for(int i = 0; i < series.length; i++){
+                mean += series[i];
+            }
+            mean /= series.length;
+            
+            double[] centred = new double[series.length];
+            for(int i = 0; i < series.length; i++){
+                centred[i] = series[i]-mean;
+            }
+            return centred;
+        }
+        
+        private void slidingStats(double[] series, double[] means, double[] stds){
+            double sum = 0, sumSq = 0;
+            for(int i = 0; i < windowSize; i++){
+                sum += series[i];
+                sumSq += series[i]*series[i];
+            }
+            
+            for(int i = 0; i < means.length; i++){
+                if(i > 0){
+                    sum += series[i+windowSize-1]-series[i-1];
+                    sumSq += series[i+windowSize-1]*series[i+windowSize-1]-series[i-1]*series[i-1];
+                }
+                means[i] = sum/windowSize;
+                double variance = sumSq/windowSize-means[i]*means[i];
+                
+                // if the variance is less than the error correction the window normalises to all zeros, as in zNormalise
+                stds[i] = (variance < ROUNDING_ERROR_CORRECTION) ? 0.0 : Math.sqrt(variance);
+            }
+        }
+        
+        private boolean isTrivialMatch(int i, int j){
+            // exclusion zone +/- windowSize*1.5 around the window, as in SingleInstanceMatrixProfile
+            return selfJoin && j >= i-windowSize*1.5 && j <= i+windowSize*1.5;
+        }
+        
+        private double distance(int i, int j, double dotProduct){
+            if(stdA[i] == 0.0 || stdB[j] == 0.0){
+                // an all zero window is distance 0 from another, and w from any other window as that has a sum of squares of w
+                return (stdA[i] == 0.0 && stdB[j] == 0.0) ? 0.0 : windowSize;
+            }
+            double dist = 2.0*(windowSize-(dotProduct-windowSize*meanA[i]*meanB[j])/(stdA[i]*stdB[j]));
+            return dist < 0 ? 0.0 : dist;
+        }
+        
+        private double dotProduct(int i, int j){
+            double dot = 0;
+            for(int k = 0; k < windowSize; k++){
+                dot += a[i+k]*b[j+k];
+            }
+            return dot;
+        }
+        
+        // updates the profile with the distance between window i of a and window j of b, and of j from i for a self join
+        private void update(int i, int j, double dist){
+            if(dist < distances[i]){
+                distances[i] = dist;
+                indices[i] = j;
+            }
+            if(selfJoin && dist < distances[j]){
+                distances[j] = dist;
+                indices[j] = i;
+            }
+        }
+        
+        /**
+         * Brute force join, comparing z-normalised copies of every pair of windows.
+         */
+        public void naive(){
+            for(int i = 0; i < numA; i++){
+                double[] query = zNormalise(a, i, windowSize, false);
+                for(int j = 0; j < numB; j++){
+                    if(isTrivialMatch(i, j)){
+                        continue;
+                    }
+                    double[] comparison = zNormalise(b, j, windowSize, false);
+                    double dist = 0;
+                    for(int k = 0; k < windowSize; k++){
+                        dist += (query[k]-comparison[k])*(query[k]-comparison[k]);
+                    }
+                    if(dist < distances[i]){
+                        distances[i] = dist;
+                        indices[i] = j;
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Exact profile, finding each row of the distance matrix from the dot products of the last. Ties go to the lowest index, as in 
+         * SingleInstanceMatrixProfile.
+         */
+        public void stomp(){
+            double[] dotProducts = new double[numB];
+            double[] firstColumn = new double[numA];
+            for(int j = 0; j < numB; j++){
+                dotProducts[j] = dotProduct(0, j);
+            }
+            for(int i = 0; i < numA; i++){
+                firstColumn[i] = selfJoin ? dotProducts[i] : dotProduct(i, 0);
+            }
+            
+            for(int i = 0; i < numA; i++){
+                if(i > 0){
+                    for(int j = numB-1; j > 0; j--){
+                        dotProducts[j] = dotProducts[j-1]-a[i-1]*b[j-1]+a[i+windowSize-1]*b[j+windowSize-1];
+                    }
+                    dotProducts[0] = firstColumn[i];
+                }
+                
+                double bsfDist = Double.MAX_VALUE;
+                int bsfIdx = -1;
+                for(int j = 0; j < numB; j++){
+                    if(isTrivialMatch(i, j)){
+                        continue;
+                    }
+                    double dist = distance(i, j, dotProducts[j]);
+                    if(dist < bsfDist){
+                        bsfDist = dist;
+                        bsfIdx = j;
+                    }
+                }
+                distances[i] = bsfDist;
+                indices[i] = bsfIdx;
+            }
+        }
+        
+        /**
+         * Anytime profile. PreSCRIMP finds the distances of every (windowSize/4)th window to all others with an FFT and refines the 
+         * neighbourhood of each best match along its diagonal, then SCRIMP evaluates whole diagonals in a random order. Stops once 
+         * timeLimit nanoseconds have passed, or runs to completion if it is 0.
+         */
+        public void scrimp(long timeLimit, Random rand){
+            long endTime = System.nanoTime()+timeLimit;
+            
+            if(preScrimp(timeLimit > 0 ? endTime : Long.MAX_VALUE, rand)){
+                return;
+            }
+            
+            // diagonal k holds the pairs (i, i+k). A self join only needs those above the exclusion zone, as update covers both halves
+            int minDiagonal = selfJoin ? (int)(windowSize*1.5)+1 : -(numA-1);
+            int numDiagonals = numB-minDiagonal;
+            if(numDiagonals <= 0){
+                return;
+            }
+            int[] diagonals = new int[numDiagonals];
+            for(int d = 0; d < numDiagonals; d++){
+                diagonals[d] = minDiagonal+d;
+            }
+            for(int d = numDiagonals-1; d > 0; d--){
+                int swap = rand.nextInt(d+1);
+                int temp = diagonals[d];
+                diagonals[d] = diagonals[swap];
+                diagonals[swap] = temp;
+            }
+            
+            for(int d = 0; d < numDiagonals; d++){
+                int k = diagonals[d];
+                int i = Math.max(0, -k);
+                int j = i+k;
+                double dot = dotProduct(i, j);
+                update(i, j, distance(i, j, dot));
+                
+                for(i++, j++; i < numA && j < numB; i++, j++){
+                    dot += a[i+windowSize-1]*b[j+windowSize-1]-a[i-1]*b[j-1];
+                    update(i, j, distance(i, j, dot));
+                }
+                
+                if(timeLimit > 0 && System.nanoTime() > endTime){
+                    return;
+                }
+            }
+        }
+        
+        // returns true if the time ran out
+        private boolean preScrimp(long endTime, Random rand){
+            int step = Math.max(1, windowSize/4);
+            int numSamples = (numA+step-1)/step;
+            int[] samples = new int[numSamples];
+            for(int s = 0; s < numSamples; s++){
+                samples[s] = s*step;
+            }
+            for(int s = numSamples-1; s > 0; s--){
+                int swap = rand.nextInt(s+1);
+                int temp = samples[s];
+                samples[s] = samples[swap];
+                samples[swap] = temp;
+            }
+            
+            // dot products of a window of a with every window of b are a convolution of b with the reversed window
+            int fftLength = Integer.highestOneBit(b.length);
+            if(fftLength < b.length){
+                fftLength <<= 1;
+            }
+            DoubleFFT_1D fft = new DoubleFFT_1D(fftLength);
+            double[] spectrum = new double[fftLength];
+            System.arraycopy(b, 0, spectrum, 0, b.length);
+            fft.realForward(spectrum);
+            double[] product = new double[fftLength];
+            
+            for(int s = 0; s < numSamples; s++){
+                int i = samples[s];
+                
+                for(int k = 0; k < fftLength; k++){
+                    product[k] = k < windowSize ? a[i+windowSize-1-k] : 0.0;
+                }
+                fft.realForward(product);
+                product[0] *= spectrum[0];
+                product[1] *= spectrum[1];
+                for(int k = 2; k < fftLength; k += 2){
+                    double real = product[k]*spectrum[k]-product[k+1]*spectrum[k+1];
+                    product[k+1] = product[k]*spectrum[k+1]+product[k+1]*spectrum[k];
+                    product[k] = real;
+                }
+                fft.realInverse(product, true);
+                
+                // the convolution at the last value of window j of b is its dot product with window i
+                double bsfDist = Double.MAX_VALUE;
+                int bsfIdx = -1;
+                for(int j = 0; j < numB; j++){
+                    if(isTrivialMatch(i, j)){
+                        continue;
+                    }
+                    double dist = distance(i, j, product[j+windowSize-1]);
+                    update(i, j, dist);
+                    if(dist < bsfDist){
+                        bsfDist = dist;
+                        bsfIdx = j;
+                    }
+                }
+                
+                // neighbouring windows of i are likely to match the neighbours of its best match
+                if(bsfIdx >= 0){
+                    refineDiagonal(i, bsfIdx, step);
+                }
+                
+                if(System.nanoTime() > endTime){
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private void refineDiagonal(int i, int j, int step){
+            double forward = dotProduct(i, j);
+            double backward = forward;
+            for(int q = 1; q < step; q++){
+                if(i+q < numA && j+q < numB){
+                    forward += a[i+q+windowSize-1]*b[j+q+windowSize-1]-a[i+q-1]*b[j+q-1];
+                    if(!isTrivialMatch(i+q, j+q)){
+                        update(i+q, j+q, distance(i+q, j+q, forward));
+                    }
+                }
+                if(i-q >= 0 && j-q >= 0){
+                    backward += a[i-q]*b[j-q]-a[i-q+windowSize]*b[j-q+windowSize];
+                    if(!isTrivialMatch(i-q, j-q)){
+                        update(i-q, j-q, distance(i-q, j-q, backward));
+                    }
+                }
+            }
+        }
+    }
+    
     
    
     // adapted from shapelet code to avoid copying subsequences - logic is equivilent. In the shapelet version the input is the subsequence as double[] (i.e. the shapelet). 
@@ -72,18 +72,23 @@ public class PowerCepstrum extends PowerSpectrum{
 //Take logs
                 logDataSet(output);
 //Take Inverse FFT of logged Spectrum.
+               int length=output.numAttributes();
+               if(output.classIndex()>=0)
+                   length--;
+               FFTPlan plan=FFTPlan.forLength(length);
+               double[] complex=new double[2*length];
                for(int i=0;i<output.numInstances();i++){
-//Get out values, store in a complex array   
+//Get out values, store in an interleaved complex array   
                    Instance next=output.instance(i);
-                   double[] ar=next.toDoubleArray();
-                   FFT.Complex[] complex=new FFT.Complex[ar.length-1];
-                   for(int j=0;j<ar.length-1;j++)
-                       complex[i]=new FFT.Complex(ar[i],0);
+                   for(int j=0;j<length;j++){
+                       complex[2*j]=next.value(j);
+                       complex[2*j+1]=0;
+                   }
 //Take inverse FFT
-                   inverseFFT(complex,complex.length);
+                   plan.complexInverse(complex,true);
 //Square the terms for the PowerCepstrum 
-                   for(int j=0;j<complex.length;j++)
-                       next.setValue(j,complex[i].real*complex[i].real+complex[i].imag*complex[i].imag);
+                   for(int j=0;j<length;j++)
+                       next.setValue(j,complex[2*j]*complex[2*j]+complex[2*j+1]*complex[2*j+1]);
                        
                } 
                 
@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
+import weka.core.Instance;
 import weka.core.Instances;
 /**
  *
@@ -39,7 +40,6 @@ public class BalancedClassShapeletTransform extends ShapeletTransform implements
      */
     @Override
     public ArrayList<Shapelet> findBestKShapeletsCache(Instances data){
-        ArrayList<Shapelet> seriesShapelets; // temp store of all shapelets for each time series
         //construct a map for our K-shapelets lists, on for each classVal.
         
         if(kShapeletsMap == null){
@@ -49,48 +49,10 @@ public class BalancedClassShapeletTransform extends ShapeletTransform implements
             }
         }
         
-        //found out how many we want in each sub list.
-        int proportion = numShapelets/kShapeletsMap.keySet().size();
-        
         //for all time series
         outputPrint("Processing data: ");
 
-        int dataSize = data.numInstances();
-        //for all possible time series.
-        while(casesSoFar < dataSize)
-        {
-            outputPrint("data : " + casesSoFar);
-            
-            //get the Shapelets list based on the classValue of our current time series.
-            kShapelets = kShapeletsMap.get(data.get(casesSoFar).classValue());
-
-            //we only want to pass in the worstKShapelet if we've found K shapelets. but we only care about this class values worst one.
-            //this is due to the way we represent each classes shapelets in the map.
-            
-            worstShapelet = kShapelets.size() == proportion ? kShapelets.get(kShapelets.size()-1) : null;
-
-            //set the series we're working with.
-            subseqDistance.setSeries(casesSoFar);
-            //set the clas value of the series we're working with.
-            classValue.setShapeletValue(data.get(casesSoFar));
-            
-            seriesShapelets = searchFunction.SearchForShapeletsInSeries(data.get(casesSoFar), this::checkCandidate);
-            
-            if(seriesShapelets != null){
-                Collections.sort(seriesShapelets, shapeletComparator);
-                if(isRemoveSelfSimilar())
-                    seriesShapelets = removeSelfSimilar(seriesShapelets);
-
-                kShapelets = combine(proportion, kShapelets, seriesShapelets);
-            }
-            
-            //re-update the list because it's changed now. 
-            kShapeletsMap.put(data.get(casesSoFar).classValue(), kShapelets);
-            
-            casesSoFar++;
-            
-            createSerialFile();
-        }
+        searchSeries(data);
 
         kShapelets = buildKShapeletsFromMap(kShapeletsMap);
         
@@ -105,6 +67,32 @@ public class BalancedClassShapeletTransform extends ShapeletTransform implements
         return kShapelets;
     }
        
+    @Override
+    protected Shapelet getWorstShapelet(Instance series){
+        //found out how many we want in each sub list.
+        int proportion = numShapelets/kShapeletsMap.keySet().size();
+        
+        //get the Shapelets list based on the classValue of our current time series.
+        ArrayList<Shapelet> classShapelets = kShapeletsMap.get(series.classValue());
+
+        //we only want to pass in the worstKShapelet if we've found K shapelets. but we only care about this class values worst one.
+        //this is due to the way we represent each classes shapelets in the map.
+        return classShapelets.size() == proportion ? classShapelets.get(classShapelets.size()-1) : null;
+    }
+    
+    @Override
+    protected void addSeriesShapelets(Instance series, ArrayList<Shapelet> seriesShapelets){
+        int proportion = numShapelets/kShapeletsMap.keySet().size();
+        ArrayList<Shapelet> classShapelets = kShapeletsMap.get(series.classValue());
+        
+        Collections.sort(seriesShapelets, shapeletComparator);
+        if(isRemoveSelfSimilar())
+            seriesShapelets = removeSelfSimilar(seriesShapelets);
+
+        //re-update the list because it's changed now. 
+        kShapeletsMap.put(series.classValue(), combine(proportion, classShapelets, seriesShapelets));
+    }
+       
     private ArrayList<Shapelet> buildKShapeletsFromMap(Map<Double, ArrayList<Shapelet>> kShapeletsMap)
     {
        ArrayList<Shapelet> kShapelets = new ArrayList<>();
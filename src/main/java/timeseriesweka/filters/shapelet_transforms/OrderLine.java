@@ -0,0 +1,195 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters.shapelet_transforms;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The <distance,classValue> pairs for calculating the quality of a shapelet, held
+ * in parallel primitive arrays rather than as a list of OrderLineObj. An orderline
+ * is cleared and refilled for each candidate, so once it has grown to the size of
+ * the data no more memory is allocated.
+ *
+ * sort() and insert(double, int) order the pairs by distance in the same way as
+ * Collections.sort and Collections.binarySearch did on a List of OrderLineObj:
+ * the sort is stable, and an insert among equal distances goes where a binary
+ * search first finds one.
+ */
+public final class OrderLine implements Serializable {
+
+    //below this many pairs, runs are sorted by insertion before merging
+    private static final int INSERTION_SORT_RUN = 16;
+
+    private double[] distances;
+    private int[] classVals;
+    private int size;
+
+    //scratch space for the merges in sort(), swapped with the arrays above
+    private double[] distanceBuffer;
+    private int[] classValBuffer;
+
+    public OrderLine() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the number of pairs to allocate space for, normally the number of instances
+     */
+    public OrderLine(int capacity) {
+        capacity = Math.max(1, capacity);
+        distances = new double[capacity];
+        classVals = new int[capacity];
+        distanceBuffer = new double[capacity];
+        classValBuffer = new int[capacity];
+    }
+
+    /**
+     * Removes all the pairs, keeping the space allocated for them
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getDistance(int i) {
+        return distances[i];
+    }
+
+    public int getClassVal(int i) {
+        return classVals[i];
+    }
+
+    public void setDistance(int i, double distance) {
+        distances[i] = distance;
+    }
+
+    /**
+     * Adds a pair to the end of the orderline
+     */
+    public void add(double distance, int classVal) {
+        ensureCapacity(size + 1);
+        distances[size] = distance;
+        classVals[size] = classVal;
+        size++;
+    }
+
+    /**
+     * Adds a pair to an orderline that is already sorted, keeping it sorted
+     */
+    public void insert(double distance, int classVal) {
+        ensureCapacity(size + 1);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (distances[mid] < distance) {
+                low = mid + 1;
+            } else if (distances[mid] == distance) {
+                low = mid;
+                break;
+            } else {
+                high = mid - 1;
+            }
+        }
+        System.arraycopy(distances, low, distances, low + 1, size - low);
+        System.arraycopy(classVals, low, classVals, low + 1, size - low);
+        distances[low] = distance;
+        classVals[low] = classVal;
+        size++;
+    }
+
+    /**
+     * Sorts the pairs by distance, keeping pairs with equal distances in the order they were added.
+     * Short runs are sorted by insertion and then merged bottom up through the scratch arrays.
+     */
+    public void sort() {
+        for (int lo = 0; lo < size; lo += INSERTION_SORT_RUN) {
+            insertionSort(lo, Math.min(lo + INSERTION_SORT_RUN, size));
+        }
+
+        double[] fromDistances = distances, toDistances = distanceBuffer, tempDistances;
+        int[] fromClassVals = classVals, toClassVals = classValBuffer, tempClassVals;
+        for (int width = INSERTION_SORT_RUN; width < size; width *= 2) {
+            for (int lo = 0; lo < size; lo += 2 * width) {
+                merge(fromDistances, fromClassVals, toDistances, toClassVals, lo, Math.min(lo + width, size), Math.min(lo + 2 * width, size));
+            }
+            tempDistances = fromDistances;
+            fromDistances = toDistances;
+            toDistances = tempDistances;
+            tempClassVals = fromClassVals;
+            fromClassVals = toClassVals;
+            toClassVals = tempClassVals;
+        }
+        distances = fromDistances;
+        classVals = fromClassVals;
+        distanceBuffer = toDistances;
+        classValBuffer = toClassVals;
+    }
+
+    private void insertionSort(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            double distance = distances[i];
+            int classVal = classVals[i];
+            int j = i;
+            while (j > from && distances[j - 1] > distance) {
+                distances[j] = distances[j - 1];
+                classVals[j] = classVals[j - 1];
+                j--;
+            }
+            distances[j] = distance;
+            classVals[j] = classVal;
+        }
+    }
+
+    //merges the sorted runs [lo,mid) and [mid,hi) of from into to, taking from the left run on ties
+    private static void merge(double[] fromDistances, int[] fromClassVals, double[] toDistances, int[] toClassVals, int lo, int mid, int hi) {
+        int left = lo, right = mid;
+        for (int k = lo; k < hi; k++) {
+            if (left < mid && (right >= hi || !(fromDistances[right] < fromDistances[left]))) {
+                toDistances[k] = fromDistances[left];
+                toClassVals[k] = fromClassVals[left++];
+            } else {
+                toDistances[k] = fromDistances[right];
+                toClassVals[k] = fromClassVals[right++];
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > distances.length) {
+            int newCapacity = Math.max(capacity, distances.length * 2);
+            distances = Arrays.copyOf(distances, newCapacity);
+            classVals = Arrays.copyOf(classVals, newCapacity);
+            distanceBuffer = new double[newCapacity];
+            classValBuffer = new int[newCapacity];
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(distances[i]).append(',').append(classVals[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -28,8 +28,6 @@ package timeseriesweka.filters.shapelet_transforms;
 
 import java.io.Serializable;
 import java.util.Comparator;
-import java.util.List;
-import utilities.class_counts.ClassCounts;
 import timeseriesweka.filters.shapelet_transforms.quality_measures.ShapeletQualityMeasure;
 
 /**
@@ -163,13 +161,12 @@ public class Shapelet implements Comparable<Shapelet>, Serializable
         this.hasContent = false;
     }
 
-    public void calculateQuality(List<OrderLineObj> orderline, ClassCounts classDistribution)
+    public void calculateQuality(OrderLine orderline, int[] classDistribution)
     {
-        qualityValue = qualityType.calculateQuality(orderline, classDistribution);
         this.qualityValue = this.qualityType.calculateQuality(orderline, classDistribution);
     }
     
-    public void calculateSeperationGap(List<OrderLineObj> orderline ){
+    public void calculateSeperationGap(OrderLine orderline ){
         this.separationGap = this.qualityType.calculateSeperationGap(orderline);
     }
 
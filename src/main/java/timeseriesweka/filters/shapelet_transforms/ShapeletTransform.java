@@ -34,11 +34,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import utilities.ClassifierTools;
+import utilities.ParallelUtils;
+import timeseriesweka.classifiers.MultiThreadable;
 import timeseriesweka.classifiers.SaveParameterInfo;
 import static timeseriesweka.filters.shapelet_transforms.ShapeletTransformTimingUtilities.nanoToOp;
 import utilities.class_counts.ClassCounts;
@@ -52,7 +56,10 @@ import timeseriesweka.filters.shapelet_transforms.quality_measures.ShapeletQuali
 import timeseriesweka.filters.shapelet_transforms.search_functions.FastShapeletSearch;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearch;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearchOptions;
+import timeseriesweka.filters.shapelet_transforms.distance_functions.BoundedCachedSubSeqDistance;
+import timeseriesweka.filters.shapelet_transforms.distance_functions.FFTSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.ImprovedOnlineSubSeqDistance;
+import timeseriesweka.filters.shapelet_transforms.distance_functions.MultivariateDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearchFactory;
 
@@ -79,7 +86,7 @@ import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearc
  *
  * @author Aaron Bostrom
  */
-public class ShapeletTransform extends SimpleBatchFilter implements SaveParameterInfo, Serializable{
+public class ShapeletTransform extends SimpleBatchFilter implements SaveParameterInfo, Serializable, MultiThreadable{
 
     //Variables for experiments
     protected static long subseqDistOpCount;
@@ -127,11 +134,26 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
     protected ArrayList<Shapelet> kShapelets;
     
     protected long count;
+    
+    protected int numThreads = 1;
+    
+    protected boolean useFFTTransform = false;
 
     public void setSubSeqDistance(SubSeqDistance ssd) {
         subseqDistance = ssd;
     }
     
+    /**
+     * @param b if true, the distances from the shapelets to univariate series 
+     * are found with an FFTSubSeqDistance when transforming, whatever distance 
+     * the search used. If false (default) the search distance is used, so the 
+     * transform is as the distance type configured; DistanceType.FFT uses the 
+     * FFTSubSeqDistance for both.
+     */
+    public void setUseFFTTransform(boolean b) {
+        useFFTTransform = b;
+    }
+    
     public long getCount() {
         return count;
     }
@@ -167,6 +189,18 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
     public SubSeqDistance getSubSequenceDistance(){
         return subseqDistance;
     }
+    
+    /**
+     * Searches up to numThreads series at once, if the search function is
+     * thread safe. Each thread has its own copy of the distance function. The
+     * shapelets found are the same as with one thread.
+     * 
+     * @param numThreads 
+     */
+    @Override
+    public void setThreadAllowance(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
         
 
     protected int candidatePruningStartPercentage;
@@ -370,7 +404,11 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
      * @param classDist
      * @return
      */
-    protected void initQualityBound(ClassCounts classDist) {
+    protected void initQualityBound(int[] classDist) {
+        initQualityBound(quality, classDist);
+    }
+    
+    private void initQualityBound(ShapeletQuality quality, int[] classDist) {
         if (!useCandidatePruning) return;
         quality.initQualityBound(classDist, candidatePruningStartPercentage);
     }
@@ -528,14 +566,31 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
         return dataset;
     }
 
+    /**
+     * The distance for finding the distances from the shapelets to the series
+     * in data. This is the search distance or, if turned on with 
+     * setUseFFTTransform, an FFTSubSeqDistance for univariate data. That uses 
+     * the FFT for shapelets long enough for it to pay off and finds the dot 
+     * products directly for shorter ones, and either way is quicker than the 
+     * search distances for every shapelet length. The distances are the same 
+     * up to rounding.
+     */
+    protected SubSeqDistance getTransformDistance(Instances data) {
+        if(!useFFTTransform || subseqDistance instanceof FFTSubSeqDistance 
+                || subseqDistance instanceof MultivariateDistance || data.checkForAttributeType(Attribute.RELATIONAL))
+            return subseqDistance;
+        return new FFTSubSeqDistance();
+    }
+
     //given a set of instances transform it by the internal shapelets.
     public Instances buildTansformedDataset(Instances data) {
         
         //Reorder the training data and reset the shapelet indexes
         Instances output = determineOutputFormat(data);
 
-        //init out data for transforming.
-        subseqDistance.init(inputData);
+        //init out data for transforming. this is the data we iterate over, so its series can be read in place.
+        SubSeqDistance transformDistance = getTransformDistance(data);
+        transformDistance.initTransform(data);
         //setup classsValue
         classValue.init(inputData);
 
@@ -552,10 +607,10 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
         double dist;
         for (int i = 0; i < size; i++) {
             s = shapelets.get(i);
-            subseqDistance.setShapelet(s);
+            transformDistance.setShapelet(s);
 
             for (int j = 0; j < dataSize; j++) {
-                dist = subseqDistance.calculate(data.instance(j), j);
+                dist = transformDistance.calculate(data.instance(j), j);
                 output.instance(j).setValue(i, dist);
             }
         }
@@ -577,19 +632,65 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
      * fitness (by infoGain, seperationGap then shortest length)
      */
     public ArrayList<Shapelet> findBestKShapeletsCache(Instances data) {
-        ArrayList<Shapelet> seriesShapelets;                                    // temp store of all shapelets for each time series
-
         //for all time series
         outputPrint("Processing data: ");
 
+        searchSeries(data);
+
+        this.numShapelets = kShapelets.size();
+
+        if (recordShapelets) 
+            recordShapelets(kShapelets, this.ouputFileLocation);
+        if (!supressOutput)
+            writeShapelets(kShapelets, new OutputStreamWriter(System.out));
+
+        return kShapelets;
+    }
+    
+    /**
+     * @param series
+     * @return the worst of the best shapelets a candidate from series has to
+     * beat, or null if there are fewer than numShapelets so far
+     */
+    protected Shapelet getWorstShapelet(Instance series) {
+        return kShapelets.size() == numShapelets ? kShapelets.get(numShapelets - 1) : null;
+    }
+    
+    /**
+     * Adds the shapelets found in series to the best so far.
+     * 
+     * @param series
+     * @param seriesShapelets 
+     */
+    protected void addSeriesShapelets(Instance series, ArrayList<Shapelet> seriesShapelets) {
+        Collections.sort(seriesShapelets, shapeletComparator);
+
+        if(isRemoveSelfSimilar())
+            seriesShapelets = removeSelfSimilar(seriesShapelets);
+        kShapelets = combine(numShapelets, kShapelets, seriesShapelets);
+    }
+    
+    /**
+     * Searches each series from casesSoFar onwards for shapelets, keeping the
+     * best with addSeriesShapelets.
+     * 
+     * @param data 
+     */
+    protected void searchSeries(Instances data) {
+        if(numThreads > 1 && searchFunction.isThreadSafe() && data.numInstances() - casesSoFar > 1){
+            searchSeriesInParallel(data);
+            return;
+        }
+        
+        ArrayList<Shapelet> seriesShapelets;                                    // temp store of all shapelets for each time series
         int dataSize = data.numInstances();
-      
+        
         //for all possible time series.
-        for(; casesSoFar < dataSize; casesSoFar++) {
+        while(casesSoFar < dataSize) {
             outputPrint("data : " + casesSoFar);
 
             //set the worst Shapelet so far, as long as the shapelet set is full.
-            worstShapelet = kShapelets.size() == numShapelets ? kShapelets.get(numShapelets - 1) : null;
+            worstShapelet = getWorstShapelet(data.get(casesSoFar));
 
             //set the series we're working with.
             subseqDistance.setSeries(casesSoFar);
@@ -599,24 +700,164 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
             seriesShapelets = searchFunction.SearchForShapeletsInSeries(data.get(casesSoFar), this::checkCandidate);
 
             if(seriesShapelets != null){
-                Collections.sort(seriesShapelets, shapeletComparator);
-                
-                if(isRemoveSelfSimilar())
-                    seriesShapelets = removeSelfSimilar(seriesShapelets);
-                kShapelets = combine(numShapelets, kShapelets, seriesShapelets);
+                addSeriesShapelets(data.get(casesSoFar), seriesShapelets);
             }
             
+            casesSoFar++;
+            
             createSerialFile();
         }
-
-        this.numShapelets = kShapelets.size();
-
-        if (recordShapelets) 
-            recordShapelets(kShapelets, this.ouputFileLocation);
-        if (!supressOutput)
-            writeShapelets(kShapelets, new OutputStreamWriter(System.out));
-
-        return kShapelets;
+    }
+    
+    /**
+     * Searches numThreads series at once. The series are still added in order,
+     * but a search starts before the series ahead of it are added, so it prunes
+     * against an older worst shapelet and keeps candidates that searching in
+     * order might have pruned. removeStaleShapelets drops these before adding,
+     * so the shapelets found are the same as searchSeries with one thread.
+     * 
+     * Each worker has its own CandidateChecker and takes the next series to
+     * search, then waits for the series before it to be added to add its own.
+     */
+    private void searchSeriesInParallel(Instances data) {
+        int firstSeries = casesSoFar;
+        ArrayList<CandidateChecker> checkers = new ArrayList<>();
+        //set if a worker fails, so the others stop rather than wait for its series.
+        boolean[] failed = {false};
+        try {
+            ParallelUtils.forEach(numThreads, data.numInstances() - firstSeries, () -> {
+                CandidateChecker checker = new CandidateChecker();
+                checkers.add(checker);
+                return (index) -> {
+                    try {
+                        SeriesSearch search;
+                        synchronized(this){
+                            if(failed[0])
+                                return;
+                            search = new SeriesSearch(firstSeries + index, data.get(firstSeries + index));
+                        }
+                        search.run(checker);
+                        
+                        synchronized(this){
+                            while(casesSoFar != search.seriesId && !failed[0])
+                                wait();
+                            if(failed[0])
+                                return;
+                            
+                            outputPrint("data : " + casesSoFar);
+                            if(search.shapelets != null){
+                                addSeriesShapelets(search.series, removeStaleShapelets(search, checker));
+                            }
+                            
+                            casesSoFar++;
+                            
+                            createSerialFile();
+                            notifyAll();
+                        }
+                    } catch (Exception | Error ex) {
+                        synchronized(this){
+                            failed[0] = true;
+                            notifyAll();
+                        }
+                        throw ex;
+                    }
+                };
+            });
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        
+        for(CandidateChecker checker : checkers){
+            subseqDistance.addCount(checker.distance.getCount());
+        }
+    }
+    
+    /**
+     * Removes the shapelets search kept because it pruned against an older
+     * worst shapelet. A shapelet ranked below the current worst can't be one
+     * of the best, nor remove one of them as self similar, so it is dropped.
+     * The few that rank above it are checked again against it.
+     */
+    private ArrayList<Shapelet> removeStaleShapelets(SeriesSearch search, CandidateChecker checker) {
+        Shapelet worst = getWorstShapelet(search.series);
+        if(worst == search.worst)
+            return search.shapelets;
+        
+        //the checker is still set to the series it searched, only the worst shapelet has changed.
+        checker.worst = worst;
+        ArrayList<Shapelet> seriesShapelets = new ArrayList<>();
+        for(Shapelet shapelet : search.shapelets){
+            if(shapeletComparator.compare(shapelet, worst) > 0)
+                continue;
+            
+            if(checker.process(search.dimensions.get(shapelet.dimension), shapelet.startPos, shapelet.length, shapelet.dimension) != null)
+                seriesShapelets.add(shapelet);
+        }
+        return seriesShapelets;
+    }
+    
+    //a search of one series on another thread.
+    private class SeriesSearch {
+        final int seriesId;
+        final Instance series;
+        final Shapelet worst;
+        //the series each dimension of a candidate was taken from.
+        final Map<Integer, Instance> dimensions = new HashMap<>();
+        ArrayList<Shapelet> shapelets;
+        
+        SeriesSearch(int seriesId, Instance series){
+            this.seriesId = seriesId;
+            this.series = series;
+            this.worst = getWorstShapelet(series);
+        }
+        
+        void run(CandidateChecker checker){
+            checker.setSeries(seriesId, series, worst);
+            shapelets = searchFunction.SearchForShapeletsInSeries(series, seriesId, (candidate, start, length, dimension) -> {
+                dimensions.put(dimension, candidate);
+                return checker.process(candidate, start, length, dimension);
+            });
+        }
+    }
+    
+    //checkCandidate with its own distance function, quality and class value so it can be used on another thread.
+    private class CandidateChecker implements ShapeletSearch.ProcessCandidate {
+        final SubSeqDistance distance;
+        final ShapeletQuality quality;
+        final NormalClassValue classValue;
+        int seriesId;
+        Shapelet worst;
+        
+        CandidateChecker(){
+            try {
+                classValue = (NormalClassValue) new SerializedObject(ShapeletTransform.this.classValue).getObject();
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+            //shares what subseqDistance precomputed in init, the state changed while searching is its own.
+            distance = subseqDistance.newThreadInstance(inputData);
+            if(distance instanceof BoundedCachedSubSeqDistance){
+                //the threads share the one memory budget.
+                BoundedCachedSubSeqDistance bounded = (BoundedCachedSubSeqDistance) distance;
+                bounded.setMaxCacheSize(bounded.getMaxCacheSize() / numThreads);
+            }
+            classValue.init(inputData);
+            quality = new ShapeletQuality(ShapeletTransform.this.quality.getChoice());
+        }
+        
+        void setSeries(int seriesId, Instance series, Shapelet worst){
+            this.seriesId = seriesId;
+            this.worst = worst;
+            distance.setSeries(seriesId);
+            classValue.setShapeletValue(series);
+        }
+        
+        @Override
+        public Shapelet process(Instance candidate, int start, int length, int dimension){
+            return checkCandidate(candidate, start, length, dimension, seriesId, worst, distance, quality, classValue);
+        }
     }
     
     public void createSerialFile()
@@ -813,8 +1054,13 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
     }
 
     protected Shapelet checkCandidate(Instance series, int start, int length, int dimension) {
+        return checkCandidate(series, start, length, dimension, casesSoFar, worstShapelet, subseqDistance, quality, classValue);
+    }
+    
+    private Shapelet checkCandidate(Instance series, int start, int length, int dimension, int seriesId, Shapelet worstShapelet,
+                                    SubSeqDistance subseqDistance, ShapeletQuality quality, NormalClassValue classValue) {
         //init qualityBound.        
-        initQualityBound(classValue.getClassDistributions());        
+        initQualityBound(quality, classValue.getClassCounts());        
         
         //Set bound of the bounding algorithm
         if (worstShapelet != null) {
@@ -826,7 +1072,8 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
 
         // create orderline by looping through data set and calculating the subsequence
         // distance from candidate to all data, inserting in order.
-        ArrayList<OrderLineObj> orderline = new ArrayList<>();
+        quality.initOrderLine();
+        OrderLine orderline = quality.getOrderLine();
 
         int dataSize = inputData.numInstances();
 
@@ -839,24 +1086,24 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
 
             double distance = 0.0;
             //don't compare the shapelet to the the time series it came from because we know it's 0.
-            if (i != casesSoFar) {
+            if (i != seriesId) {
                 distance = subseqDistance.calculate(inputData.instance(i), i);
             }
 
             //this could be binarised or normal. 
-            double classVal = classValue.getClassValue(inputData.instance(i));
+            int classVal = (int) classValue.getClassValue(inputData.instance(i));
 
             // without early abandon, it is faster to just add and sort at the end
-            orderline.add(new OrderLineObj(distance, classVal));
+            orderline.add(distance, classVal);
 
             //Update qualityBound - presumably each bounding method for different quality measures will have a different update procedure.
-            quality.updateOrderLine(orderline.get(orderline.size() - 1));
+            quality.updateOrderLine(distance, classVal);
         }
 
-        Shapelet shapelet = new Shapelet(subseqDistance.getCandidate(), dataSourceIDs[casesSoFar], start, quality.getQualityMeasure());
+        Shapelet shapelet = new Shapelet(subseqDistance.getCandidate(), dataSourceIDs[seriesId], start, quality.getQualityMeasure());
         
         //this class distribution could be binarised or normal.
-        shapelet.calculateQuality(orderline, classValue.getClassDistributions());
+        shapelet.calculateQuality(orderline, classValue.getClassCounts());
         shapelet.classValue = classValue.getShapeletValue(); //set classValue of shapelet. (interesing to know).
         shapelet.dimension = dimension;
         return shapelet;
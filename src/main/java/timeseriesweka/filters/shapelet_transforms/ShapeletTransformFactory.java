@@ -23,17 +23,21 @@ import timeseriesweka.filters.shapelet_transforms.class_value.NormalClassValue;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearch;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearchFactory;
 import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearchOptions;
+import timeseriesweka.filters.shapelet_transforms.distance_functions.BoundedCachedSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.CachedSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.DimensionDistance;
+import timeseriesweka.filters.shapelet_transforms.distance_functions.FFTSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.ImprovedOnlineSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.MultivariateDependentDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.MultivariateIndependentDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.OnlineCachedSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.OnlineSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType;
+import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.BOUNDED_CACHED;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.CACHED;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.DEPENDENT;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.DIMENSION;
+import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.FFT;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.IMP_ONLINE;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.INDEPENDENT;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.NORMAL;
@@ -56,6 +60,8 @@ public class ShapeletTransformFactory {
         dCons.put(IMP_ONLINE, ImprovedOnlineSubSeqDistance::new);
         dCons.put(CACHED, CachedSubSeqDistance::new);
         dCons.put(ONLINE_CACHED, OnlineCachedSubSeqDistance::new);
+        dCons.put(BOUNDED_CACHED, BoundedCachedSubSeqDistance::new);
+        dCons.put(FFT, FFTSubSeqDistance::new);
         dCons.put(DEPENDENT, MultivariateDependentDistance::new);
         dCons.put(INDEPENDENT, MultivariateIndependentDistance::new);
         dCons.put(DIMENSION, DimensionDistance::new);
@@ -117,7 +123,10 @@ public class ShapeletTransformFactory {
     }
     
     private SubSeqDistance createDistance(DistanceType dist){
-            return distanceFunctions.get(dist).get();
+            SubSeqDistance ssd = distanceFunctions.get(dist).get();
+            if(ssd instanceof BoundedCachedSubSeqDistance && options.getDistanceCacheSize() >= 0)
+                ((BoundedCachedSubSeqDistance)ssd).setMaxCacheSize(options.getDistanceCacheSize());
+            return ssd;
     }
     
     
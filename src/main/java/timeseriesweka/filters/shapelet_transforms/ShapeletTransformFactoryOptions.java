@@ -38,6 +38,7 @@ public class ShapeletTransformFactoryOptions {
     private final DistanceType distance;
     private final ShapeletQualityChoice qualityChoice;
     private final ShapeletSearchOptions searchOptions;
+    private final long distanceCacheSize;
     
     
     private ShapeletTransformFactoryOptions(Builder options){
@@ -51,6 +52,7 @@ public class ShapeletTransformFactoryOptions {
         searchOptions = options.searchOptions;
         roundRobin = options.roundRobin;
         candidatePruning = options.candidatePruning;
+        distanceCacheSize = options.distanceCacheSize;
     }
 
     public boolean isBalanceClasses() {
@@ -93,6 +95,14 @@ public class ShapeletTransformFactoryOptions {
         return qualityChoice;
     }
     
+    /**
+     * @return the memory limit in bytes for distances with a bounded cache, 
+     * or -1 to use the distance's default
+     */
+    public long getDistanceCacheSize(){
+        return distanceCacheSize;
+    }
+    
     @Override
     public String toString(){
         return minLength + " " + maxLength + " " + kShapelets + " " + balanceClasses;
@@ -110,6 +120,7 @@ public class ShapeletTransformFactoryOptions {
         private DistanceType dist;
         private ShapeletQualityChoice qualityChoice;
         private ShapeletSearchOptions searchOptions;
+        private long distanceCacheSize = -1;
         
         
         public Builder useRoundRobin(){
@@ -164,6 +175,14 @@ public class ShapeletTransformFactoryOptions {
             return this;
         }
         
+        /**
+         * Memory limit in bytes for the BOUNDED_CACHED distance, 0 disables its cache.
+         */
+        public Builder setDistanceCacheSize(long bytes){
+            distanceCacheSize = bytes;
+            return this;
+        }
+        
         public ShapeletTransformFactoryOptions build(){
             setDefaults();
             return new ShapeletTransformFactoryOptions(this);
@@ -27,6 +27,7 @@ public class BinaryClassValue extends NormalClassValue{
 
     
     ClassCounts[] binaryClassDistribution;
+    int[][] binaryClassCounts;
     
     @Override
     public void init(Instances inst)
@@ -34,12 +35,22 @@ public class BinaryClassValue extends NormalClassValue{
         //this inits the classDistributions.
         super.init(inst);
         binaryClassDistribution = createBinaryDistributions();
+        binaryClassCounts = new int[binaryClassDistribution.length][];
+        for(int i=0; i<binaryClassDistribution.length; i++)
+        {
+            binaryClassCounts[i] = toClassCounts(binaryClassDistribution[i]);
+        }
     }
     
     @Override
     public ClassCounts getClassDistributions() {
         return binaryClassDistribution[(int)shapeletValue];        
     }
+    
+    @Override
+    public int[] getClassCounts() {
+        return binaryClassCounts[(int)shapeletValue];
+    }
 
     @Override
     public double getClassValue(Instance in) {
@@ -28,10 +28,12 @@ public class NormalClassValue implements Serializable{
     
     double shapeletValue;
     ClassCounts classDistributions;
+    int[] classCounts;
     
     public void init(Instances inst)
     {
         classDistributions = new TreeSetClassCounts(inst);
+        classCounts = toClassCounts(classDistributions);
     }
     
     public ClassCounts getClassDistributions()
@@ -39,6 +41,31 @@ public class NormalClassValue implements Serializable{
         return classDistributions;
     }
     
+    /**
+     * The class distribution as counts indexed by class value, for the shapelet 
+     * quality measures. The same array is returned each time and must not be changed.
+     */
+    public int[] getClassCounts()
+    {
+        return classCounts;
+    }
+    
+    //counts indexed by class value, 0 for any value below the largest that does not occur
+    static int[] toClassCounts(ClassCounts distribution)
+    {
+        int numClasses = 0;
+        for(double key : distribution.keySet())
+        {
+            numClasses = Math.max(numClasses, (int)key + 1);
+        }
+        int[] counts = new int[numClasses];
+        for(double key : distribution.keySet())
+        {
+            counts[(int)key] = distribution.get(key);
+        }
+        return counts;
+    }
+    
     //this will get updated as and when we work with a new shapelet.
     public void setShapeletValue(Instance shapeletSeries)
     {
@@ -0,0 +1,344 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters.shapelet_transforms.distance_functions;
+
+import java.util.Arrays;
+import weka.core.Instance;
+import weka.core.Instances;
+import timeseriesweka.filters.shapelet_transforms.Shapelet;
+
+/**
+ * Cached shapelet distance with a bounded cache. Like CachedSubSeqDistance it
+ * works from the cumulative sums of every series and the cross products
+ * between the series candidates are taken from and each other series, so a
+ * candidate's distance to a series is O(m) instead of O(m*l). Rather than
+ * holding the cross products for every series at once, which is quadratic in
+ * the series length and runs out of memory on long series, they are kept for
+ * as many series as fit in maxCacheSize bytes. The series are visited in the
+ * same order for every candidate, so evicting would throw away each series
+ * just before it is needed again. Instead the first series that fit are kept
+ * for as long as candidates come from the same series. The distance to any
+ * other series is found as in ImprovedOnlineSubSeqDistance, scanning from the
+ * candidate's own position and abandoning each subsequence once it is further
+ * than the best so far, with the means and standard deviations taken from the
+ * cumulative sums.
+ *
+ * Each subsequence is normalised with its own mean and standard deviation, so
+ * the distances are the same as the NORMAL distance up to rounding.
+ */
+public class BoundedCachedSubSeqDistance extends SubSeqDistance{
+
+    public static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+
+    protected long maxCacheSize = DEFAULT_CACHE_SIZE;
+
+    //normalised series and their cumulative sums, index i holds the sum of the first i values.
+    protected double[][] data;
+    protected double[][] cummSums;
+    protected double[][] cummSqSums;
+    protected int seriesLength;
+
+    //the series candidates currently come from, the cached cross products are all against it.
+    protected int xIndex = -1;
+    protected boolean useCache;
+
+    //crossProds[y] holds the cross products against series y, or null if they are not cached.
+    //the arrays are kept in buffers to be reused when the candidates move to another series.
+    private transient double[][] crossProds;
+    private transient double[][] buffers;
+    private int numCached;
+    private int maxCachedSeries;
+    //the candidate's indices by decreasing absolute value, for early abandoning, or null if not yet sorted.
+    private transient int[] candidateOrder;
+    private long cacheHits;
+    private long cacheMisses;
+
+    public BoundedCachedSubSeqDistance(){
+    }
+
+    public BoundedCachedSubSeqDistance(long maxCacheSize){
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * @param maxCacheSize upper limit on the memory held by cross products, in
+     * bytes. 0 disables caching, every pair is then found with the direct scan.
+     * Takes effect when the cache is next made, after init or newThreadInstance.
+     */
+    public void setMaxCacheSize(long maxCacheSize){
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    public long getMaxCacheSize(){
+        return maxCacheSize;
+    }
+
+    @Override
+    public SubSeqDistance newInstance(){
+        return new BoundedCachedSubSeqDistance(maxCacheSize);
+    }
+
+    public long getCacheHits(){
+        return cacheHits;
+    }
+
+    public long getCacheMisses(){
+        return cacheMisses;
+    }
+
+    @Override
+    public void init(Instances dataInst)
+    {
+        super.init(dataInst);
+        xIndex = -1;
+        crossProds = null;
+        buffers = null;
+        numCached = 0;
+        cacheHits = 0;
+        cacheMisses = 0;
+
+        if(seriesData == null){
+            //multivariate data, fall back to the normal calculation.
+            data = null;
+            useCache = false;
+            return;
+        }
+
+        int dataSize = seriesData.numSeries();
+        seriesLength = seriesData.seriesLength();
+        data = new double[dataSize][];
+        cummSums = new double[dataSize][];
+        cummSqSums = new double[dataSize][];
+        double[] series = new double[seriesLength];
+        for (int i = 0; i < dataSize; i++)
+        {
+            seriesData.copyRow(i, series);
+            data[i] = zNormalise(series, false);
+            cummSums[i] = new double[seriesLength + 1];
+            cummSqSums[i] = new double[seriesLength + 1];
+            for (int j = 0; j < seriesLength; j++)
+            {
+                cummSums[i][j + 1] = cummSums[i][j] + data[i][j];
+                cummSqSums[i][j + 1] = cummSqSums[i][j] + data[i][j] * data[i][j];
+            }
+        }
+
+        useCache = true;
+    }
+
+    @Override
+    public SubSeqDistance newThreadInstance(Instances dataInst)
+    {
+        if(seriesData == null)
+            return super.newThreadInstance(dataInst);
+
+        //the normalised series and their sums are shared, the cache of cross products is per thread.
+        BoundedCachedSubSeqDistance distance = (BoundedCachedSubSeqDistance) newInstance();
+        distance.seriesData = seriesData;
+        distance.seriesLength = seriesLength;
+        distance.data = data;
+        distance.cummSums = cummSums;
+        distance.cummSqSums = cummSqSums;
+        distance.useCache = true;
+        return distance;
+    }
+
+    @Override
+    public void setShapelet(Shapelet shp)
+    {
+        super.setShapelet(shp);
+
+        //for transforming we don't want to use the stats. it doesn't make sense.
+        useCache = false;
+    }
+
+    @Override
+    public void setCandidate(Instance inst, int start, int len, int dim) {
+        super.setCandidate(inst, start, len, dim);
+        candidateOrder = null;
+    }
+
+    @Override
+    public void setSeries(int seriesId) {
+        super.setSeries(seriesId);
+
+        //every table holds the products of series xIndex with another series, so none apply to
+        //the new series. The one against the new series could be transposed, but that saves one
+        //table of the n computed for each series, so only the buffers are kept.
+        if(seriesId != xIndex){
+            xIndex = seriesId;
+            if(crossProds != null)
+                Arrays.fill(crossProds, null);
+            numCached = 0;
+        }
+    }
+
+    @Override
+    protected double calculate(double[] timeSeries, int offset, int seriesLength, int timeSeriesId) {
+        //if we're not searching the data passed to init, use normal calculations.
+        if(!useCache || xIndex < 0 || timeSeriesId < 0 || timeSeriesId >= data.length || seriesLength != this.seriesLength)
+            return super.calculate(timeSeries, offset, seriesLength, timeSeriesId);
+
+        double[] prods = crossProducts(timeSeriesId);
+        if(prods == null)
+            return onlineDistance(timeSeriesId);
+
+        int width = seriesLength + 1;
+        int subLength = length;
+
+        double xMean = mean(cummSums[xIndex], startPos, subLength);
+        double xStdDev = stdDev(cummSums[xIndex], cummSqSums[xIndex], startPos, subLength, xMean);
+
+        double[] ySums = cummSums[timeSeriesId];
+        double[] ySqSums = cummSqSums[timeSeriesId];
+        double minSum = Double.MAX_VALUE;
+        double yMean, yStdDev, crossProd, dist;
+        int diagonalEnd = (startPos + subLength) * width + subLength;
+        int diagonalStart = startPos * width;
+
+        // Scan through all possible subsequences of two
+        for (int v = 0; v <= seriesLength - subLength; v++)
+        {
+            incrementCount();
+            yMean = mean(ySums, v, subLength);
+            yStdDev = stdDev(ySums, ySqSums, v, subLength, yMean);
+
+            if (xStdDev == 0.0 && yStdDev == 0.0)
+            {
+                dist = 0.0;
+            }
+            else if (xStdDev == 0.0 || yStdDev == 0.0)
+            {
+                //one side normalises to all zeros, the other has unit variance.
+                dist = 1.0;
+            }
+            else
+            {
+                crossProd = prods[diagonalEnd + v] - prods[diagonalStart + v];
+                double cXY = (crossProd - (subLength * xMean * yMean)) / ((double) subLength * xStdDev * yStdDev);
+                dist = 2.0 * (1.0 - cXY);
+            }
+
+            if (dist < minSum)
+            {
+                minSum = dist;
+            }
+        }
+
+        return minSum;
+    }
+
+    /**
+     * @return the distance to series yIndex without its cross products. The
+     * subsequence at the candidate's position is tried first, as it is often
+     * close, then the rest are abandoned once further than the best so far.
+     */
+    private double onlineDistance(int yIndex){
+        int subLength = length;
+        double[] candidate = cand.getShapeletContent();
+        if(candidateOrder == null){
+            double[][] sorted = OnlineSubSeqDistance.sortIndexes(candidate);
+            candidateOrder = new int[subLength];
+            for (int j = 0; j < subLength; j++)
+                candidateOrder[j] = (int) sorted[j][0];
+        }
+
+        int last = seriesLength - subLength;
+        int first = Math.min(startPos, last);
+        double bestSum = sumOfSquares(candidate, yIndex, first, Double.MAX_VALUE);
+        for (int v = 0; v <= last; v++)
+        {
+            if (v == first)
+                continue;
+
+            double sum = sumOfSquares(candidate, yIndex, v, bestSum);
+            if (sum < bestSum)
+            {
+                bestSum = sum;
+            }
+        }
+
+        return (bestSum == 0.0) ? 0.0 : (1.0 / subLength * bestSum);
+    }
+
+    //the squared distance from the candidate to the normalised subsequence of y at start, or at least bestSum.
+    private double sumOfSquares(double[] candidate, int yIndex, int start, double bestSum){
+        int subLength = length;
+        double[] y = data[yIndex];
+        double yMean = mean(cummSums[yIndex], start, subLength);
+        double yStdDev = stdDev(cummSums[yIndex], cummSqSums[yIndex], start, subLength, yMean);
+
+        double sum = 0.0;
+        for (int j = 0; j < subLength && sum < bestSum; j++)
+        {
+            incrementCount();
+            int k = candidateOrder[j];
+            double normalised = (yStdDev == 0.0) ? 0.0 : (y[start + k] - yMean) / yStdDev;
+            double diff = candidate[k] - normalised;
+            sum = sum + diff * diff;
+        }
+        return sum;
+    }
+
+    private static double mean(double[] sums, int start, int subLength){
+        return (sums[start + subLength] - sums[start]) / (double) subLength;
+    }
+
+    private static double stdDev(double[] sums, double[] sqSums, int start, int subLength, double mean){
+        double variance = (sqSums[start + subLength] - sqSums[start]) / (double) subLength - mean * mean;
+        return (variance < ROUNDING_ERROR_CORRECTION) ? 0.0 : Math.sqrt(variance);
+    }
+
+    /**
+     * @return the cross products of series xIndex and yIndex, computed and 
+     * cached if there is room, or null if the cache is full. Index u*(l+1)+v
+     * holds the sum of x[u-1-k]*y[v-1-k] for k from 0 to min(u,v)-1.
+     */
+    private double[] crossProducts(int yIndex){
+        double[] prods = crossProds == null ? null : crossProds[yIndex];
+        if(prods != null){
+            cacheHits++;
+            return prods;
+        }
+        cacheMisses++;
+
+        int width = seriesLength + 1;
+        if(crossProds == null){
+            long entrySize = 8L * width * width;
+            maxCachedSeries = (int) Math.min(data.length, maxCacheSize / entrySize);
+            crossProds = new double[data.length][];
+            buffers = new double[maxCachedSeries][];
+        }
+        if(numCached >= maxCachedSeries)
+            return null;
+        if(buffers[numCached] == null)
+            buffers[numCached] = new double[width * width];
+        prods = buffers[numCached++];
+        crossProds[yIndex] = prods;
+
+        double[] x = data[xIndex];
+        double[] y = data[yIndex];
+        for (int u = 1; u < width; u++)
+        {
+            int row = u * width;
+            int previousRow = row - width;
+            for (int v = 1; v < width; v++)
+            {
+                prods[row + v] = prods[previousRow + v - 1] + x[u - 1] * y[v - 1];
+            }
+        }
+        return prods;
+    }
+}
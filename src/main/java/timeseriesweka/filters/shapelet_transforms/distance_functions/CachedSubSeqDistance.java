@@ -14,6 +14,7 @@
  */
 package timeseriesweka.filters.shapelet_transforms.distance_functions;
 
+import java.io.Serializable;
 import weka.core.Instances;
 import timeseriesweka.filters.shapelet_transforms.Shapelet;
 
@@ -40,6 +41,28 @@ public class CachedSubSeqDistance extends SubSeqDistance{
         {
             data[i] = zNormalise(dataInst.get(i).toDoubleArray(), true);
         }
+        
+        //computed up front so the sums can be shared with other threads without being written to.
+        stats.computeCummSums(data);
+    }
+    
+    @Override
+    public SubSeqDistance newThreadInstance(Instances dataInst)
+    {
+        //the normalised series and their sums are shared, the cross products are per candidate series.
+        CachedSubSeqDistance distance = (CachedSubSeqDistance) newInstance();
+        distance.data = data;
+        distance.stats = new Stats(stats);
+        return distance;
+    }
+    
+    @Override
+    public void initTransform(Instances dataInst)
+    {
+        //the stats are not used for transforming, only the in place reads of SubSeqDistance.
+        stats = null;
+        data = null;
+        initSeriesData(dataInst);
     }
     
     @Override
@@ -108,7 +131,7 @@ public class CachedSubSeqDistance extends SubSeqDistance{
      * and all time series TO DO: CONVERT IT ALL TO FLOATS
      * Aaron: Changed to floats, why?
      */
-    public static class Stats
+    public static class Stats implements Serializable
     {
 
         private double[][] cummSums;
@@ -128,6 +151,19 @@ public class CachedSubSeqDistance extends SubSeqDistance{
             xIndex = -1;
             yIndex = -1;
         }
+        
+        /**
+         * A copy sharing the cumulative sums of other, for use on another
+         * thread. The cross products and current series are its own.
+         * 
+         * @param other stats to share the cumulative sums of
+         */
+        public Stats(Stats other)
+        {
+            this();
+            cummSums = other.cummSums;
+            cummSqSums = other.cummSqSums;
+        }
 
         /**
          * A method to retrieve cumulative sums for all time series processed so
@@ -295,6 +331,23 @@ public class CachedSubSeqDistance extends SubSeqDistance{
             return output;
         }
 
+        /**
+         * A method to compute the cumulative sums of all the time series
+         * 
+         * @param data the normalised database of time series
+         */
+        public void computeCummSums(double[][] data)
+        {
+            cummSums = new double[data.length][];
+            cummSqSums = new double[data.length][];
+            for (int i = 0; i < data.length; i++)
+            {
+                double[][] sums = computeCummSums(data[i]);
+                cummSums[i] = sums[0];
+                cummSqSums[i] = sums[1];
+            }
+        }
+
         /**
          * A method to compute statistics for a given candidate series index and
          * normalised time series
@@ -0,0 +1,291 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters.shapelet_transforms.distance_functions;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+import weka.core.Instances;
+import timeseriesweka.filters.shapelet_transforms.ShapeletCandidate;
+
+/**
+ * Subsequence distance that finds the dot products of the candidate with
+ * every subsequence of a series in one FFT based convolution, as in MASS
+ * (Mueen's Algorithm for Similarity Search), then gets each z-normalised
+ * distance from the dot product and the subsequence mean and standard
+ * deviation. This is O(l log l) per series rather than the O(m*l) of the
+ * dot products, so is faster for long candidates. Candidates shorter than
+ * fftFactor times log2 of the padded series length have their dot products
+ * found directly instead, which is still quicker than the NORMAL distance
+ * since the subsequences are not copied and normalised.
+ *
+ * The spectra and cumulative sums of the series passed to init are computed
+ * the first time each is used and kept. The distances are the same as the
+ * NORMAL distance up to rounding.
+ */
+public class FFTSubSeqDistance extends SubSeqDistance{
+
+    /**
+     * The measured crossover between the direct dot products and the FFT, 
+     * which was at candidates of length 0.6 to 0.9 times log2 of the padded 
+     * length for series of length 64 to 4096, e.g. 7 for series of length 470.
+     */
+    public static final double DEFAULT_FFT_FACTOR = 0.75;
+
+    protected double fftFactor = DEFAULT_FFT_FACTOR;
+
+    protected int seriesLength;
+    protected int fftLength;
+    protected double log2FFTLength;
+
+    private transient DoubleFFT_1D fft;
+    //per series, its spectrum, its mean and the cumulative sums of it less its mean, index i holds the sum of the first i values.
+    private transient double[][] spectra;
+    private transient double[] means;
+    private transient double[][] cummSums;
+    private transient double[][] cummSqSums;
+
+    //the candidate the query sums are for, and the spectrum of it reversed if needed.
+    private transient ShapeletCandidate queryCandidate;
+    private transient double[] querySpectrum;
+    private transient boolean querySpectrumReady;
+    private transient double querySum;
+    private transient double querySqSum;
+
+    private transient double[] product;
+    private transient double[] seriesSpectrum;
+    private transient double[] seriesSums;
+    private transient double[] seriesSqSums;
+
+    public FFTSubSeqDistance(){
+    }
+
+    public FFTSubSeqDistance(double fftFactor){
+        this.fftFactor = fftFactor;
+    }
+
+    /**
+     * @param fftFactor the FFT is used for candidates at least fftFactor times 
+     * log2 of the padded series length long. 0 always uses it.
+     */
+    public void setFFTFactor(double fftFactor){
+        this.fftFactor = fftFactor;
+    }
+
+    public double getFFTFactor(){
+        return fftFactor;
+    }
+
+    /**
+     * @param candidateLength
+     * @return true if the FFT is used for candidates of this length on the
+     * series passed to init
+     */
+    public boolean usesFFT(int candidateLength){
+        return spectra != null && candidateLength >= fftFactor * log2FFTLength;
+    }
+
+    @Override
+    public SubSeqDistance newInstance(){
+        return new FFTSubSeqDistance(fftFactor);
+    }
+
+    @Override
+    public void init(Instances data)
+    {
+        super.init(data);
+        queryCandidate = null;
+
+        if(seriesData == null){
+            //multivariate data, fall back to the normal calculation.
+            spectra = null;
+            return;
+        }
+
+        seriesLength = seriesData.seriesLength();
+        fftLength = Integer.highestOneBit(Math.max(2, seriesLength));
+        if(fftLength < seriesLength)
+            fftLength <<= 1;
+
+        log2FFTLength = Integer.numberOfTrailingZeros(fftLength);
+
+        fft = new DoubleFFT_1D(fftLength);
+        int dataSize = seriesData.numSeries();
+        spectra = new double[dataSize][];
+        means = new double[dataSize];
+        cummSums = new double[dataSize][];
+        cummSqSums = new double[dataSize][];
+        querySpectrum = new double[fftLength];
+        product = new double[fftLength];
+        seriesSpectrum = new double[fftLength];
+        seriesSums = new double[seriesLength + 1];
+        seriesSqSums = new double[seriesLength + 1];
+    }
+
+    @Override
+    protected double calculate(double[] timeSeries, int offset, int seriesLength, int timeSeriesId) {
+        if(spectra == null || seriesLength != this.seriesLength)
+            return super.calculate(timeSeries, offset, seriesLength, timeSeriesId);
+
+        boolean useFFT = usesFFT(length);
+        double[] spectrum, sums, sqSums;
+        double seriesMean;
+        if(timeSeries == seriesData.getData() && timeSeriesId >= 0 && timeSeriesId < spectra.length && offset == seriesData.offset(timeSeriesId)){
+            if(cummSums[timeSeriesId] == null){
+                cummSums[timeSeriesId] = new double[seriesLength + 1];
+                cummSqSums[timeSeriesId] = new double[seriesLength + 1];
+                means[timeSeriesId] = sumSeries(timeSeries, offset, cummSums[timeSeriesId], cummSqSums[timeSeriesId]);
+            }
+            if(useFFT && spectra[timeSeriesId] == null){
+                spectra[timeSeriesId] = new double[fftLength];
+                transformSeries(timeSeries, offset, means[timeSeriesId], spectra[timeSeriesId]);
+            }
+            spectrum = spectra[timeSeriesId];
+            sums = cummSums[timeSeriesId];
+            sqSums = cummSqSums[timeSeriesId];
+            seriesMean = means[timeSeriesId];
+        }
+        else{
+            seriesMean = sumSeries(timeSeries, offset, seriesSums, seriesSqSums);
+            if(useFFT)
+                transformSeries(timeSeries, offset, seriesMean, seriesSpectrum);
+            spectrum = seriesSpectrum;
+            sums = seriesSums;
+            sqSums = seriesSqSums;
+        }
+
+        if(queryCandidate != cand){
+            prepareQuery();
+        }
+
+        if(useFFT){
+            if(!querySpectrumReady){
+                transformQuery();
+            }
+            //multiply the spectra, packed as realForward leaves them, and transform back to get the convolution.
+            product[0] = spectrum[0] * querySpectrum[0];
+            product[1] = spectrum[1] * querySpectrum[1];
+            for (int k = 2; k < fftLength; k += 2)
+            {
+                product[k] = spectrum[k] * querySpectrum[k] - spectrum[k + 1] * querySpectrum[k + 1];
+                product[k + 1] = spectrum[k] * querySpectrum[k + 1] + spectrum[k + 1] * querySpectrum[k];
+            }
+            fft.realInverse(product, true);
+        }
+        else{
+            //short candidates, the dot products are quicker found directly. product[i + length - 1] is the one for subsequence i, as from the convolution.
+            double[] content = cand.getShapeletContent();
+            double dot;
+            for (int i = 0; i <= seriesLength - length; i++)
+            {
+                dot = 0;
+                for (int j = 0; j < length; j++)
+                {
+                    dot += content[j] * timeSeries[offset + i + j];
+                }
+                product[i + length - 1] = dot - seriesMean * querySum;
+            }
+        }
+
+        double bestSum = Double.MAX_VALUE;
+        double mean, variance, stdv, dotProduct, sum;
+        for (int i = 0; i <= seriesLength - length; i++)
+        {
+            count++;
+            mean = (sums[i + length] - sums[i]) / length;
+            variance = (sqSums[i + length] - sqSums[i]) / length - mean * mean;
+
+            //the convolution with the reversed candidate at its last value is the dot product with the subsequence.
+            dotProduct = product[i + length - 1];
+
+            // if the variance is less than the error correction the subsequence normalises to all zeros, as in zNormalise.
+            if (variance < ROUNDING_ERROR_CORRECTION)
+            {
+                sum = querySqSum;
+            }
+            else
+            {
+                stdv = Math.sqrt(variance);
+                sum = querySqSum + length - 2.0 * (dotProduct - mean * querySum) / stdv;
+            }
+
+            if (sum < bestSum)
+            {
+                bestSum = sum;
+            }
+        }
+
+        bestSum = Math.max(bestSum, 0.0);
+        double dist = (bestSum == 0.0) ? 0.0 : (1.0 / length * bestSum);
+        return dist;
+    }
+
+    //cumulative sums of the series less its mean, so the sums stay small. returns the mean.
+    private double sumSeries(double[] timeSeries, int offset, double[] sums, double[] sqSums){
+        double seriesMean = 0;
+        for (int j = 0; j < seriesLength; j++)
+        {
+            seriesMean += timeSeries[offset + j];
+        }
+        seriesMean /= seriesLength;
+
+        double value;
+        for (int j = 0; j < seriesLength; j++)
+        {
+            value = timeSeries[offset + j] - seriesMean;
+            sums[j + 1] = sums[j] + value;
+            sqSums[j + 1] = sqSums[j] + value * value;
+        }
+        return seriesMean;
+    }
+
+    //the spectrum of the series less its mean.
+    private void transformSeries(double[] timeSeries, int offset, double seriesMean, double[] spectrum){
+        for (int j = 0; j < seriesLength; j++)
+        {
+            spectrum[j] = timeSeries[offset + j] - seriesMean;
+        }
+        for (int j = seriesLength; j < fftLength; j++)
+        {
+            spectrum[j] = 0.0;
+        }
+        fft.realForward(spectrum);
+    }
+
+    private void prepareQuery(){
+        double[] content = cand.getShapeletContent();
+        querySum = 0;
+        querySqSum = 0;
+        for (int j = 0; j < length; j++)
+        {
+            querySum += content[j];
+            querySqSum += content[j] * content[j];
+        }
+        queryCandidate = cand;
+        querySpectrumReady = false;
+    }
+
+    private void transformQuery(){
+        double[] content = cand.getShapeletContent();
+        for (int j = 0; j < length; j++)
+        {
+            querySpectrum[j] = content[length - 1 - j];
+        }
+        for (int j = length; j < fftLength; j++)
+        {
+            querySpectrum[j] = 0.0;
+        }
+        fft.realForward(querySpectrum);
+        querySpectrumReady = true;
+    }
+}
@@ -24,14 +24,14 @@ import java.util.Arrays;
 public class ImprovedOnlineSubSeqDistance extends OnlineSubSeqDistance{
 
     @Override
-    public double calculate(double[] timeSeries, int timeSeriesId)
+    protected double calculate(double[] timeSeries, int offset, int seriesLength, int timeSeriesId)
     {    
         DoubleWrapper sumPointer = new DoubleWrapper();
         DoubleWrapper sum2Pointer = new DoubleWrapper();
 
         //Generate initial subsequence that starts at the same position our candidate does.
         double[] subseq = new double[length];
-        System.arraycopy(timeSeries, startPos, subseq, 0, subseq.length);
+        System.arraycopy(timeSeries, offset + startPos, subseq, 0, subseq.length);
         subseq = zNormalise(subseq, false, sumPointer, sum2Pointer);
         
         double bestDist = 0.0;
@@ -65,20 +65,20 @@ public class ImprovedOnlineSubSeqDistance extends OnlineSubSeqDistance{
                 pos[j] = startPos + (modifier*i); 
                 
                 //if we're going left check we're greater than 0 if we're going right check we've got room to move.
-                traverse[j] = j==0 ? pos[j] >= 0 : pos[j] < timeSeries.length - length;
+                traverse[j] = j==0 ? pos[j] >= 0 : pos[j] < seriesLength + 1 - length;
 
                 //if we can't traverse in that direction. skip it.
                 if(!traverse[j] )
                     continue;
                 
                 //either take off nothing, or take off 1. This gives us our offset.
-                double start = timeSeries[pos[j]-j];
-                double end   = timeSeries[pos[j]-j + length];
+                double start = timeSeries[offset + pos[j]-j];
+                double end   = timeSeries[offset + pos[j]-j + length];
                                 
                 sum[j] = sum[j] + (modifier*end) - (modifier*start);
                 sumsq[j] = sumsq[j] + (modifier *(end * end)) - (modifier*(start * start));
 
-                currentDist = calculateBestDistance(pos[j], timeSeries, bestDist, sum[j], sumsq[j]);  
+                currentDist = calculateBestDistance(offset + pos[j], timeSeries, bestDist, sum[j], sumsq[j]);  
 
                 if (currentDist < bestDist)
                 {
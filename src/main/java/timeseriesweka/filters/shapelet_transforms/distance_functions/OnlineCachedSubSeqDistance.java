@@ -49,6 +49,25 @@ public class OnlineCachedSubSeqDistance extends SubSeqDistance{
         }
     }
     
+    @Override
+    public SubSeqDistance newThreadInstance(Instances dataInst)
+    {
+        //the normalised series are shared, the stats are all per series being compared.
+        OnlineCachedSubSeqDistance distance = (OnlineCachedSubSeqDistance) newInstance();
+        distance.data = data;
+        distance.stats = new Stats();
+        return distance;
+    }
+    
+    @Override
+    public void initTransform(Instances dataInst)
+    {
+        //the stats are not used for transforming, only the in place reads of SubSeqDistance.
+        stats = null;
+        data = null;
+        initSeriesData(dataInst);
+    }
+    
     @Override
     public void setShapelet(Shapelet shp)
     {
@@ -41,13 +41,13 @@ public class OnlineSubSeqDistance extends SubSeqDistance {
     
     //we take in a start pos, but we also start from 0.
     @Override
-    public double calculate(double[] timeSeries, int timeSeriesId) {
+    protected double calculate(double[] timeSeries, int offset, int seriesLength, int timeSeriesId) {
         DoubleWrapper sumPointer = new DoubleWrapper();
         DoubleWrapper sumsqPointer = new DoubleWrapper();
 
         //Generate initial subsequence 
         double[] subseq = new double[length];
-        System.arraycopy(timeSeries, 0, subseq, 0, subseq.length);
+        System.arraycopy(timeSeries, offset, subseq, 0, subseq.length);
         subseq = zNormalise(subseq, false, sumPointer, sumsqPointer);
         //Keep count of fundamental ops for experiment
 
@@ -67,15 +67,15 @@ public class OnlineSubSeqDistance extends SubSeqDistance {
 
         double currentDist, start, end;
         // Scan through all possible subsequences of two
-        for (int i = 1; i < timeSeries.length - length; i++) {
+        for (int i = 1; i < seriesLength + 1 - length; i++) {
             //Update the running sums
-            start = timeSeries[i - 1];
-            end = timeSeries[i - 1 + length];
+            start = timeSeries[offset + i - 1];
+            end = timeSeries[offset + i - 1 + length];
             
             //get rid of the start and add on the ends.
             sum = sum + end - start;
             sumsq = sumsq + (end * end) - (start * start);
-            currentDist = calculateBestDistance(i, timeSeries, bestDist, sum, sumsq);  
+            currentDist = calculateBestDistance(offset + i, timeSeries, bestDist, sum, sumsq);  
             
             if (currentDist < bestDist) {
                 bestDist = currentDist;
@@ -19,6 +19,8 @@ import java.util.Arrays;
 import weka.core.Instances;
 import timeseriesweka.filters.shapelet_transforms.Shapelet;
 import timeseriesweka.filters.shapelet_transforms.ShapeletCandidate;
+import utilities.TimeSeriesDataset;
+import weka.core.Attribute;
 import weka.core.Instance;
 
 /**
@@ -27,7 +29,7 @@ import weka.core.Instance;
  */
 public class SubSeqDistance implements Serializable{
        
-    public enum DistanceType{NORMAL, ONLINE, IMP_ONLINE, CACHED, ONLINE_CACHED, DEPENDENT, INDEPENDENT, DIMENSION};
+    public enum DistanceType{NORMAL, ONLINE, IMP_ONLINE, CACHED, ONLINE_CACHED, DEPENDENT, INDEPENDENT, DIMENSION, BOUNDED_CACHED, FFT};
     
     public static final double ROUNDING_ERROR_CORRECTION = 0.000000000000001;
     
@@ -43,15 +45,64 @@ public class SubSeqDistance implements Serializable{
     
     protected long count;
     
+    //the series passed to init, read in place rather than through toDoubleArray for each candidate
+    protected transient TimeSeriesDataset seriesData;
+    
     public void init(Instances data)
     {
         count =0;
+        initSeriesData(data);
+    }
+    
+    /**
+     * Prepares to find the distances from shapelets set with setShapelet to the
+     * series in data. Distances that precompute anything for searching candidates
+     * in init should override this to skip it, the default is init.
+     */
+    public void initTransform(Instances data)
+    {
+        init(data);
+    }
+    
+    //univariate series are read in place from a TimeSeriesDataset of data.
+    protected void initSeriesData(Instances data)
+    {
+        seriesData = data.checkForAttributeType(Attribute.RELATIONAL) ? null : new TimeSeriesDataset(data);
+    }
+    
+    /**
+     * @return a new distance of the same type and settings, not yet initialised, 
+     * e.g. for use on another thread. Subclasses with settings should copy them.
+     */
+    public SubSeqDistance newInstance(){
+        try {
+            return getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(getClass().getName()+" has no constructor with no arguments", ex);
+        }
+    }
+    
+    /**
+     * @return a distance of the same type and settings, initialised on data, 
+     * for searching candidates on another thread while this one is not used. 
+     * This must already have been initialised on data. The default is 
+     * newInstance followed by init, subclasses whose init precomputes from the 
+     * data override it to share what is only read while searching, so it is 
+     * not built again for every thread.
+     */
+    public SubSeqDistance newThreadInstance(Instances data){
+        SubSeqDistance distance = newInstance();
+        distance.init(data);
+        return distance;
     }
     
     final void incrementCount(){ count++;}
     
     public long getCount() {return count;}
     
+    //adds the count of a copy used on another thread.
+    public void addCount(long ops) {count += ops;}
+    
     public ShapeletCandidate getCandidate(){
         return cand;
     }
@@ -91,6 +142,9 @@ public class SubSeqDistance implements Serializable{
     }
     
     public double calculate(Instance timeSeries, int timeSeriesId){
+        if(seriesData != null && seriesData.isRow(timeSeries, timeSeriesId)){
+            return calculate(seriesData.getData(), seriesData.offset(timeSeriesId), seriesData.seriesLength(), timeSeriesId);
+        }
         return calculate(timeSeries.toDoubleArray(), timeSeriesId);
     }
          
@@ -108,20 +162,30 @@ public class SubSeqDistance implements Serializable{
     }
     
     
-    //we take in a start pos, but we also start from 0.
-    public double calculate(double[] timeSeries, int timeSeriesId) 
+    //timeSeries is expected to end with the class value, as from toDoubleArray().
+    public double calculate(double[] timeSeries, int timeSeriesId)
+    {
+        return calculate(timeSeries, 0, timeSeries.length - 1, timeSeriesId);
+    }
+    
+    /**
+     * Distance to the series held in data[offset] to data[offset+seriesLength-1].
+     * Subclasses that search the series differently should override this
+     * rather than calculate(double[], int).
+     */
+    protected double calculate(double[] data, int offset, int seriesLength, int timeSeriesId) 
     {
         double bestSum = Double.MAX_VALUE;
         double sum;
         double[] subseq;
         double temp;
         
-        for (int i = 0; i < timeSeries.length - length; i++)
+        for (int i = 0; i < seriesLength + 1 - length; i++)
         {
             sum = 0;
             // get subsequence of two that is the same lengh as one
             subseq = new double[length];
-            System.arraycopy(timeSeries, i, subseq, 0, length);
+            System.arraycopy(data, offset + i, subseq, 0, length);
 
             subseq = zNormalise(subseq, false); // Z-NORM HERE
 
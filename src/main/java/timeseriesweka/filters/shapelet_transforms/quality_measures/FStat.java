@@ -15,10 +15,11 @@
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import utilities.class_counts.ClassCounts;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
 /**
  *
@@ -30,6 +31,10 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
      */
     public class FStat implements ShapeletQualityMeasure, Serializable
     {
+        // per class sums, kept between calls
+        private transient double[] sums;
+        private transient double[] sumsSquared;
+        private transient double[] sumOfSquares;
 
         protected FStat(){
             
@@ -43,31 +48,32 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
          * @param orderline the pre-computed set of distances for a dataset to a
          * single shapelet
          * @param classDistribution the distibution of all possible class values
-         * in the orderline
+         * in the orderline, indexed by class value
          * @return a measure of shapelet quality according to f-stat
          */
         @Override
-        public double calculateQuality(List<OrderLineObj> orderline, ClassCounts classDistribution)
+        public double calculateQuality(OrderLine orderline, int[] classDistribution)
         {
-            Collections.sort(orderline);
-            int numClasses = classDistribution.size();
+            orderline.sort();
+            int numClasses = classDistribution.length;
             int numInstances = orderline.size();
 
-            double[] sums = new double[numClasses];
-            double[] sumsSquared = new double[numClasses];
-            double[] sumOfSquares = new double[numClasses];
-
-            for (int i = 0; i < numClasses; i++)
+            if (sums == null || sums.length != numClasses)
             {
-                sums[i] = 0;
-                sumsSquared[i] = 0;
-                sumOfSquares[i] = 0;
+                sums = new double[numClasses];
+                sumsSquared = new double[numClasses];
+                sumOfSquares = new double[numClasses];
+            }
+            else
+            {
+                Arrays.fill(sums, 0);
+                Arrays.fill(sumOfSquares, 0);
             }
 
-            for (OrderLineObj orderline1 : orderline)
+            for (int j = 0; j < numInstances; j++)
             {
-                int c = (int) orderline1.getClassVal();
-                double thisDist = orderline1.getDistance();
+                int c = orderline.getClassVal(j);
+                double thisDist = orderline.getDistance(j);
                 sums[c] += thisDist;
                 sumOfSquares[c] += thisDist * thisDist;
             }
@@ -96,7 +102,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             part2 = 0;
             for (int i = 0; i < numClasses; i++)
             {
-                part1 += (double) sumsSquared[i] / classDistribution.get((double) i);//.data[i].size();
+                part1 += (double) sumsSquared[i] / classDistribution[i];//.data[i].size();
                 part2 += sums[i];
             }
             ssAmoung = part1 - (part2 * part2) / numInstances;
@@ -175,7 +181,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
         }
 
         @Override
-        public double calculateSeperationGap(List<OrderLineObj> orderline) {
+        public double calculateSeperationGap(OrderLine orderline) {
             throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
         }
     }
@@ -13,11 +13,8 @@
  *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import utilities.class_counts.ClassCounts;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
+import java.util.Arrays;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 
 
 /**
@@ -33,7 +30,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
         private double[] sums;        
         private double[] sumsSquared;
         private double[] sumOfSquares;
-        private List<OrderLineObj> meanDistOrderLine;
+        private OrderLine meanDistOrderLine;
        
         private double minDistance;
         private double maxDistance;
@@ -44,51 +41,63 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
          * @param percentage percentage of data required to be processed before
          *                   bounding mechanism is used.
          */
-        protected FStatBound(ClassCounts classDist, int percentage){
-            initParentFields(classDist, percentage);
+        protected FStatBound(int[] classDist, int percentage){
+            reset(classDist, percentage);
+        }
+        
+        @Override
+        public void reset(int[] classDist, int percentage){
+            super.reset(classDist, percentage);
           
-            int numClasses = parentClassDist.size();
-            sums = new double[numClasses];
-            sumsSquared = new double[numClasses];
-            sumOfSquares = new double[numClasses];
-            meanDistOrderLine = new ArrayList<>(numClasses);
+            int numClasses = parentClassDist.length;
+            if(sums == null || sums.length != numClasses){
+                sums = new double[numClasses];
+                sumsSquared = new double[numClasses];
+                sumOfSquares = new double[numClasses];
+                meanDistOrderLine = new OrderLine(numClasses);
+            }else{
+                Arrays.fill(sums, 0);
+                Arrays.fill(sumsSquared, 0);
+                Arrays.fill(sumOfSquares, 0);
+                meanDistOrderLine.clear();
+            }
             minDistance = -1.0;
             maxDistance = -1.0;
         }
         
         @Override
-        public void updateOrderLine(OrderLineObj orderLineObj){
-            super.updateOrderLine(orderLineObj);
+        public void updateOrderLine(double distance, int classVal){
+            super.updateOrderLine(distance, classVal);
             
-            int c = (int) orderLineObj.getClassVal();
-            double thisDist = orderLineObj.getDistance();
+            int c = classVal;
+            double thisDist = distance;
             sums[c] += thisDist;
             sumOfSquares[c] += thisDist * thisDist;
             sumsSquared[c] = sums[c] * sums[c];
             
             //Update min/max distance observed so far
-            if(orderLineObj.getDistance() != 0.0){
-                if(minDistance == -1 || minDistance > orderLineObj.getDistance()){
-                    minDistance = orderLineObj.getDistance();
+            if(distance != 0.0){
+                if(minDistance == -1 || minDistance > distance){
+                    minDistance = distance;
                 }
             
-                if(maxDistance == -1 || maxDistance < orderLineObj.getDistance()){
-                    maxDistance = orderLineObj.getDistance();
+                if(maxDistance == -1 || maxDistance < distance){
+                    maxDistance = distance;
                 }
             }
             
             //Update mean distance orderline
             boolean isUpdated = false;
-            for (OrderLineObj meanDistOrderLine1 : meanDistOrderLine) {
-                if (meanDistOrderLine1.getClassVal() == orderLineObj.getClassVal()) {
-                    meanDistOrderLine1.setDistance(sums[(int)orderLineObj.getClassVal()] / orderLineClassDist.get(orderLineObj.getClassVal()));
+            for (int i = 0; i < meanDistOrderLine.size(); i++) {
+                if (meanDistOrderLine.getClassVal(i) == classVal) {
+                    meanDistOrderLine.setDistance(i, sums[classVal] / orderLineClassDist[classVal]);
                     isUpdated = true;
                     break;
                 }
             }
             
             if(!isUpdated){
-                meanDistOrderLine.add(new OrderLineObj(sums[(int)orderLineObj.getClassVal()] / orderLineClassDist.get(orderLineObj.getClassVal()), orderLineObj.getClassVal()));
+                meanDistOrderLine.add(sums[classVal] / orderLineClassDist[classVal], classVal);
             }
         }
 
@@ -99,51 +108,54 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
          */
         @Override
         public double calculateBestQuality() {
-            int numClasses = parentClassDist.size();
+            int numClasses = parentClassDist.length;
             
             //Sort the mean distance orderline
-            Collections.sort(meanDistOrderLine);
+            meanDistOrderLine.sort();
             
             //Find approximate minimum orderline objects
-            OrderLineObj min = new OrderLineObj(-1.0, 0.0);
-            for(Double d : parentClassDist.keySet()){
-                int unassignedObjs = parentClassDist.get(d) - orderLineClassDist.get(d);
-                double distMin = (sums[d.intValue()] + (unassignedObjs * minDistance)) / parentClassDist.get(d);
-                if(min.getDistance() == -1.0 || distMin < min.getDistance()){
-                    min.setDistance(distMin);
-                    min.setClassVal(d);
+            double minMeanDist = -1.0;
+            int minClassVal = 0;
+            for(int d = 0; d < numClasses; d++){
+                int unassignedObjs = parentClassDist[d] - orderLineClassDist[d];
+                double distMin = (sums[d] + (unassignedObjs * minDistance)) / parentClassDist[d];
+                if(minMeanDist == -1.0 || distMin < minMeanDist){
+                    minMeanDist = distMin;
+                    minClassVal = d;
                 }
             }
             
             //Find approximate maximum orderline objects
-            OrderLineObj max = new OrderLineObj(-1.0, 0.0);
-            for(Double d : parentClassDist.keySet()){
-                int unassignedObjs = parentClassDist.get(d) - orderLineClassDist.get(d);
-                double distMax = (sums[d.intValue()] + (unassignedObjs * maxDistance)) / parentClassDist.get(d); 
-                if(d != min.getClassVal() && (max.getDistance() == -1.0 || distMax > max.getDistance())){
-                    max.setDistance(distMax);
-                    max.setClassVal(d);
+            double maxMeanDist = -1.0;
+            int maxClassVal = 0;
+            for(int d = 0; d < numClasses; d++){
+                int unassignedObjs = parentClassDist[d] - orderLineClassDist[d];
+                double distMax = (sums[d] + (unassignedObjs * maxDistance)) / parentClassDist[d]; 
+                if(d != minClassVal && (maxMeanDist == -1.0 || distMax > maxMeanDist)){
+                    maxMeanDist = distMax;
+                    maxClassVal = d;
                 }
             }
             
             //Adjust running sums
-            double increment = (max.getDistance() - min.getDistance()) / (numClasses-1);
+            double increment = (maxMeanDist - minMeanDist) / (numClasses-1);
             int multiplyer = 1;
-            for (OrderLineObj currentObj : meanDistOrderLine) {
+            for (int i = 0; i < meanDistOrderLine.size(); i++) {
                 double thisDist;
-                int unassignedObjs = parentClassDist.get(currentObj.getClassVal()) - orderLineClassDist.get(currentObj.getClassVal());
+                int classVal = meanDistOrderLine.getClassVal(i);
+                int unassignedObjs = parentClassDist[classVal] - orderLineClassDist[classVal];
                 
-                if(currentObj.getClassVal() == min.getClassVal()){
+                if(classVal == minClassVal){
                     thisDist = minDistance;
-                }else if(currentObj.getClassVal() == max.getClassVal()){
+                }else if(classVal == maxClassVal){
                     thisDist = maxDistance;
                 }else{
                     thisDist = minDistance + (increment * multiplyer);
                     multiplyer++;        
                 }
-                sums[(int)currentObj.getClassVal()] += thisDist * unassignedObjs;
-                sumOfSquares[(int)currentObj.getClassVal()] += thisDist * thisDist * unassignedObjs;
-                sumsSquared[(int)currentObj.getClassVal()] = sums[(int)currentObj.getClassVal()] * sums[(int)currentObj.getClassVal()];
+                sums[classVal] += thisDist * unassignedObjs;
+                sumOfSquares[classVal] += thisDist * thisDist * unassignedObjs;
+                sumsSquared[classVal] = sums[classVal] * sums[classVal];
             }
             
             double ssTotal;
@@ -163,7 +175,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             part1 = 0;
             part2 = 0;
             for (int i = 0; i < numClasses; i++) {
-                part1 += (double) sumsSquared[i] / parentClassDist.get((double) i);//.data[i].size();
+                part1 += (double) sumsSquared[i] / parentClassDist[i];//.data[i].size();
                 part2 += sums[i];
             }
             ssAmoung = part1 - (part2 * part2) / numInstances;
@@ -179,21 +191,22 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             
             //Reset running sums
             multiplyer = 1;
-            for (OrderLineObj currentObj : meanDistOrderLine) {
+            for (int i = 0; i < meanDistOrderLine.size(); i++) {
                 double thisDist;
-                int unassignedObjs = parentClassDist.get(currentObj.getClassVal()) - orderLineClassDist.get(currentObj.getClassVal());
+                int classVal = meanDistOrderLine.getClassVal(i);
+                int unassignedObjs = parentClassDist[classVal] - orderLineClassDist[classVal];
                 
-                if(currentObj.getClassVal() == min.getClassVal()){
+                if(classVal == minClassVal){
                     thisDist = minDistance;
-                }else if(currentObj.getClassVal() == max.getClassVal()){
+                }else if(classVal == maxClassVal){
                     thisDist = maxDistance;
                 }else{
                     thisDist = minDistance + (increment * multiplyer);
                     multiplyer++;        
                 }
-                sums[(int)currentObj.getClassVal()] -= thisDist * unassignedObjs;
-                sumOfSquares[(int)currentObj.getClassVal()] -= thisDist * thisDist * unassignedObjs;
-                sumsSquared[(int)currentObj.getClassVal()] = sums[(int)currentObj.getClassVal()] * sums[(int)currentObj.getClassVal()];
+                sums[classVal] -= thisDist * unassignedObjs;
+                sumOfSquares[classVal] -= thisDist * thisDist * unassignedObjs;
+                sumsSquared[classVal] = sums[classVal] * sums[classVal];
             }
             
             return Double.isNaN(f) ? 0.0 : f;
@@ -201,7 +214,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
         
         @Override
         public boolean pruneCandidate(){
-            if(orderLine.size() % parentClassDist.size() != 0){
+            if(orderLine.size() % parentClassDist.length != 0){
                 return false;
             }else{
                 return super.pruneCandidate();
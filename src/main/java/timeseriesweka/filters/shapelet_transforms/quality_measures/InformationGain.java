@@ -15,12 +15,8 @@
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
 
 import java.io.Serializable;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-import utilities.class_counts.ClassCounts;
-import utilities.class_counts.TreeSetClassCounts;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
+import java.util.Arrays;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 /**
  *
  * @author raj09hxu
@@ -32,6 +28,9 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
      */
     public class InformationGain implements ShapeletQualityMeasure, Serializable 
     {
+        // class counts either side of the threshold, kept between calls
+        private transient int[] lessClasses;
+        private transient int[] greaterClasses;
 
         protected InformationGain(){
             
@@ -45,50 +44,51 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
          * @param orderline the pre-computed set of distances for a dataset to a
          * single shapelet
          * @param classDistribution the distibution of all possible class values
-         * in the orderline
+         * in the orderline, indexed by class value
          * @return a measure of shapelet quality according to information gain
          */
         @Override
-        public double calculateQuality(List<OrderLineObj> orderline, ClassCounts classDistribution)
+        public double calculateQuality(OrderLine orderline, int[] classDistribution)
         {
-            Collections.sort(orderline);
+            orderline.sort();
             // for each split point, starting between 0 and 1, ending between end-1 and end
             // addition: track the last threshold that was used, don't bother if it's the same as the last one
-            double lastDist = -1;//orderline.get(0).getDistance(); // must be initialised as not visited(no point breaking before any data!)
+            double lastDist = -1;//orderline.getDistance(0); // must be initialised as not visited(no point breaking before any data!)
             double thisDist = -1;
 
             double bsfGain = -1;
 
             // initialise class counts
-            ClassCounts lessClasses = new TreeSetClassCounts();
-            ClassCounts greaterClasses = new TreeSetClassCounts();
+            int numClasses = classDistribution.length;
+            if (lessClasses == null || lessClasses.length != numClasses)
+            {
+                lessClasses = new int[numClasses];
+                greaterClasses = new int[numClasses];
+            }
 
             // parent entropy will always be the same, so calculate just once
             double parentEntropy = entropy(classDistribution);
 
             int sumOfAllClasses = 0;
-            for (double j : classDistribution.keySet())
+            Arrays.fill(lessClasses, 0);
+            for (int j = 0; j < numClasses; j++)
             {
-                lessClasses.put(j, 0);
-                greaterClasses.put(j, classDistribution.get(j));
-                sumOfAllClasses += classDistribution.get(j);
+                greaterClasses[j] = classDistribution[j];
+                sumOfAllClasses += classDistribution[j];
             }
             int sumOfLessClasses = 0;
             int sumOfGreaterClasses = sumOfAllClasses;
 
-            double thisClassVal;
-            int oldCount;
+            int thisClassVal;
 
-            for (OrderLineObj ol : orderline)
+            for (int i = 0; i < orderline.size(); i++)
             {
-                thisDist = ol.getDistance();
+                thisDist = orderline.getDistance(i);
 
                 //move the threshold along one (effectively by adding this dist to lessClasses
-                thisClassVal = ol.getClassVal();
-                oldCount = lessClasses.get(thisClassVal) + 1;
-                lessClasses.put(thisClassVal, oldCount);
-                oldCount = greaterClasses.get(thisClassVal) - 1;
-                greaterClasses.put(thisClassVal, oldCount);
+                thisClassVal = orderline.getClassVal(i);
+                lessClasses[thisClassVal]++;
+                greaterClasses[thisClassVal]--;
 
                 // adjust counts - maybe makes more sense if these are called counts, rather than sums!
                 sumOfLessClasses++;
@@ -119,9 +119,13 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             return bsfGain;
         }
 
-        public static double entropy(ClassCounts classDistributions)
+        /**
+         * @param classCounts the number of instances of each class, indexed by class value
+         * @return the entropy of the class distribution, in bits
+         */
+        public static double entropy(int[] classCounts)
         {
-            if (classDistributions.size() == 1)
+            if (classCounts.length == 1)
             {
                 return 0;
             }
@@ -129,10 +133,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             double thisPart;
             double toAdd;
             int total = 0;
-            //Aaron: should be simpler than iterating using the keySet.
-            //Values is backed by the Map so it doesn't need to be constructed.
-            Collection<Integer> values = classDistributions.values();
-            for (Integer d : values)
+            for (int d : classCounts)
             {
                 total += d;
             }
@@ -140,10 +141,8 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             // to avoid NaN calculations, the individual parts of the entropy are calculated and summed.
             // i.e. if there is 0 of a class, then that part would calculate as NaN, but this can be caught and
             // set to 0. 
-            //Aaron:  Instead of using the keyset to loop through, use the underlying Array to iterate through, ordering of calculations doesnt matter.
-            //just that we do them all. so i think previously it was n log n, now should be just n.
             double entropy = 0;
-            for (Integer d : values)
+            for (int d : classCounts)
             {
                 thisPart = (double) d / total;
                 toAdd = -thisPart * Math.log10(thisPart) / Math.log10(2);
@@ -158,7 +157,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
         }
 
         @Override
-        public double calculateSeperationGap(List<OrderLineObj> orderline) {
+        public double calculateSeperationGap(OrderLine orderline) {
             throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
         }
 
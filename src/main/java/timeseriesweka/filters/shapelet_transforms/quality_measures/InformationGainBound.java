@@ -13,10 +13,7 @@
  *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
-import java.util.Map;
-import java.util.TreeMap;
-import utilities.class_counts.ClassCounts;
-import utilities.class_counts.TreeSetClassCounts;
+import java.util.Arrays;
 /**
  *
  * @author raj09hxu
@@ -25,6 +22,13 @@ public class InformationGainBound extends ShapeletQualityBound{
         private double parentEntropy;
         boolean isExact;
         
+        // the classes assigned to the left in the current permutation, and the 
+        // counts either side of the threshold, kept between calls
+        private transient boolean[] perms;
+        private transient boolean[] isShifted;
+        private transient int[] lessClasses;
+        private transient int[] greaterClasses;
+        
         /**
          * Constructor to construct InformationGainBound
          * @param classDist class distribution of the data currently being processed
@@ -33,14 +37,26 @@ public class InformationGainBound extends ShapeletQualityBound{
          *
          * @param isExact
          * */
-        protected InformationGainBound(ClassCounts classDist, int percentage, boolean isExact){
-            initParentFields(classDist, percentage);
+        protected InformationGainBound(int[] classDist, int percentage, boolean isExact){
             this.isExact = isExact;
-            parentEntropy = InformationGain.entropy(parentClassDist);
+            reset(classDist, percentage);
         }
-        protected InformationGainBound(ClassCounts classDist, int percentage){
+        protected InformationGainBound(int[] classDist, int percentage){
             this(classDist,percentage,false);
         }
+        
+        @Override
+        public void reset(int[] classDist, int percentage){
+            super.reset(classDist, percentage);
+            parentEntropy = InformationGain.entropy(parentClassDist);
+            int numClasses = parentClassDist.length;
+            if(perms == null || perms.length != numClasses){
+                perms = new boolean[numClasses];
+                isShifted = new boolean[numClasses];
+                lessClasses = new int[numClasses];
+                greaterClasses = new int[numClasses];
+            }
+        }
            
         /**
          * Method to calculate the quality bound for the current orderline
@@ -48,30 +64,27 @@ public class InformationGainBound extends ShapeletQualityBound{
          */
         @Override
         protected double calculateBestQuality(){
-            Map<Double, Boolean> perms = new TreeMap<>();
             double bsfGain = -1;
                         
             //Cycle through all permutations
             if(isExact){
                 //Initialise perms
-                for(Double key : orderLineClassDist.keySet()){
-                    perms.put(key, Boolean.TRUE);
-                }
+                int size = perms.length;
+                Arrays.fill(perms, true);
             
-                for(int totalCycles = perms.keySet().size(); totalCycles > 1; totalCycles--){
+                for(int totalCycles = size; totalCycles > 1; totalCycles--){
                     for(int cycle = 0; cycle < totalCycles; cycle++){
                         int start = 0, count = 0;
-                        for(Double key : perms.keySet()){
-                            Boolean val = Boolean.TRUE;
+                        for(int key = 0; key < size; key++){
+                            boolean val = true;
                             if(cycle == start){
-                                val = Boolean.FALSE;
-                                int size = perms.keySet().size();
+                                val = false;
                                 if(totalCycles <  size && count < (size - totalCycles)){
                                     count++;
                                     start--;
                                 }
                             }
-                            perms.put(key, val);
+                            perms[key] = val;
                             start++;
                         }
                         //Check quality of current permutation
@@ -98,56 +111,52 @@ public class InformationGainBound extends ShapeletQualityBound{
             return bsfGain;
         }
         
-        private double computeIG(Map<Double, Boolean> perm){
+        private double computeIG(boolean[] perm){
             //Initialise class counts
-            TreeSetClassCounts lessClasses = new TreeSetClassCounts();
-            TreeSetClassCounts greaterClasses = new TreeSetClassCounts();
-            TreeMap<Double, Boolean> isShifted = new TreeMap<>();
+            Arrays.fill(lessClasses, 0);
+            Arrays.fill(greaterClasses, 0);
             
             int countOfAllClasses = 0;
             int countOfLessClasses = 0;
             int countOfGreaterClasses = 0;
             
-            for(double j : parentClassDist.keySet()){
+            for(int j = 0; j < parentClassDist.length; j++){
                 int lessVal =0;
-                int greaterVal = parentClassDist.get(j);
+                int greaterVal = parentClassDist[j];
                 
                 if(perm != null){
-                    if(perm.get(j) != null && perm.get(j)){
-                        lessVal = parentClassDist.get(j) - orderLineClassDist.get(j);
-                        greaterVal = orderLineClassDist.get(j);
+                    if(perm[j]){
+                        lessVal = parentClassDist[j] - orderLineClassDist[j];
+                        greaterVal = orderLineClassDist[j];
                     }
-                    countOfLessClasses += lessClasses.get(j);
+                    countOfLessClasses += lessClasses[j];
                 
                //Assign everything to the right for fast bound
                 }else{
-                    isShifted.put(j, Boolean.FALSE);
+                    isShifted[j] = false;
                 }
                 
-                lessClasses.put(j, lessVal);
-                greaterClasses.put(j, greaterVal);
-                countOfGreaterClasses += greaterClasses.get(j);
+                lessClasses[j] = lessVal;
+                greaterClasses[j] = greaterVal;
+                countOfGreaterClasses += greaterClasses[j];
                 
                 
-                countOfAllClasses += parentClassDist.get(j);
+                countOfAllClasses += parentClassDist[j];
             }
            
 
             double bsfGain = -1;
             double lastDist = -1;
             double thisDist;
-            double thisClassVal;
-            int oldCount;
+            int thisClassVal;
 
             for(int i = 0; i < orderLine.size()-1; i++){ 
-                thisDist = orderLine.get(i).getDistance();
-                thisClassVal = orderLine.get(i).getClassVal();
+                thisDist = orderLine.getDistance(i);
+                thisClassVal = orderLine.getClassVal(i);
 
                  //move the threshold along one (effectively by adding this dist to lessClasses
-                oldCount = lessClasses.get(thisClassVal)+1;
-                lessClasses.put(thisClassVal,oldCount);                
-                oldCount = greaterClasses.get(thisClassVal)-1;
-                greaterClasses.put(thisClassVal,oldCount);
+                lessClasses[thisClassVal]++;
+                greaterClasses[thisClassVal]--;
                 
                 // adjust counts - maybe makes more sense if these are called counts, rather than sums!
                 countOfLessClasses++;
@@ -156,17 +165,18 @@ public class InformationGainBound extends ShapeletQualityBound{
                 //For fast bound dynamically shift the unassigned objects when majority side changes
                 if(!isExact){
                     //Check if shift has not already happened
-                    if(!isShifted.get(thisClassVal)){
-                        int greaterCount = greaterClasses.get(thisClassVal) - (parentClassDist.get(thisClassVal) - orderLineClassDist.get(thisClassVal));
-                        int lessCount = lessClasses.get(thisClassVal);
+                    if(!isShifted[thisClassVal]){
+                        int unassigned = parentClassDist[thisClassVal] - orderLineClassDist[thisClassVal];
+                        int greaterCount = greaterClasses[thisClassVal] - unassigned;
+                        int lessCount = lessClasses[thisClassVal];
                         
                         //Check if shift has happened
                         if(lessCount - greaterCount > 0){
-                            greaterClasses.put(thisClassVal, greaterClasses.get(thisClassVal) - (parentClassDist.get(thisClassVal) - orderLineClassDist.get(thisClassVal)));
-                            countOfGreaterClasses -= parentClassDist.get(thisClassVal) - orderLineClassDist.get(thisClassVal);
-                            lessClasses.put(thisClassVal, lessClasses.get(thisClassVal) + (parentClassDist.get(thisClassVal) - orderLineClassDist.get(thisClassVal)));
-                            countOfLessClasses += parentClassDist.get(thisClassVal) - orderLineClassDist.get(thisClassVal);
-                            isShifted.put(thisClassVal, Boolean.TRUE);
+                            greaterClasses[thisClassVal] -= unassigned;
+                            countOfGreaterClasses -= unassigned;
+                            lessClasses[thisClassVal] += unassigned;
+                            countOfLessClasses += unassigned;
+                            isShifted[thisClassVal] = true;
                         }
                     }
                 }
@@ -200,7 +210,7 @@ public class InformationGainBound extends ShapeletQualityBound{
         @Override
         public boolean pruneCandidate(){
             //Check if we at least have observed an object from each class
-            if(orderLine.size() % parentClassDist.size() != 0){
+            if(orderLine.size() % parentClassDist.length != 0){
                 return false;
             }else{
                 return super.pruneCandidate();
@@ -15,10 +15,8 @@
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
 
 import java.io.Serializable;
-import java.util.Collections;
-import java.util.List;
-import utilities.class_counts.ClassCounts;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
+import java.util.Arrays;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 
 
 /**
@@ -31,6 +29,9 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
      */
     public class KruskalWallis implements ShapeletQualityMeasure, Serializable
     {
+        // per class ranks, kept between calls
+        private transient int[] classRankCounts;
+        private transient double[] classRankMeans;
 
         protected KruskalWallis(){}
         
@@ -42,31 +43,37 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
          * @param orderline the pre-computed set of distances for a dataset to a
          * single shapelet
          * @param classDistribution the distibution of all possible class values
-         * in the orderline
+         * in the orderline, indexed by class value
          * @return a measure of shapelet quality according to Kruskal-Wallis
          */
         @Override
-        public double calculateQuality(List<OrderLineObj> orderline, ClassCounts classDistribution)
+        public double calculateQuality(OrderLine orderline, int[] classDistribution)
         {
             // sort
-            Collections.sort(orderline);
-            int numClasses = classDistribution.size();
-            int[] classRankCounts = new int[numClasses];
-            double[] classRankMeans = new double[numClasses];
+            orderline.sort();
+            int numClasses = classDistribution.length;
+            if (classRankCounts == null || classRankCounts.length != numClasses)
+            {
+                classRankCounts = new int[numClasses];
+                classRankMeans = new double[numClasses];
+            }
+            else
+            {
+                Arrays.fill(classRankCounts, 0);
+            }
 
-            double lastDistance = orderline.get(0).getDistance();
+            double lastDistance = orderline.getDistance(0);
             double thisDistance = lastDistance;
-            double classVal = orderline.get(0).getClassVal();
-            classRankCounts[(int) classVal] += 1;
+            classRankCounts[orderline.getClassVal(0)] += 1;
 
             int duplicateCount = 0;
 
             for (int i = 1; i < orderline.size(); i++)
             {
-                thisDistance = orderline.get(i).getDistance();
+                thisDistance = orderline.getDistance(i);
                 if (duplicateCount == 0 && thisDistance != lastDistance)
                 { // standard entry
-                    classRankCounts[(int) orderline.get(i).getClassVal()] += i + 1;
+                    classRankCounts[orderline.getClassVal(i)] += i + 1;
 
                 }
                 else if (duplicateCount > 0 && thisDistance != lastDistance)
@@ -79,12 +86,12 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
 
                     for (int j = i - duplicateCount - 1; j < i; j++)
                     {
-                        classRankCounts[(int) orderline.get(j).getClassVal()] += avgRank;
+                        classRankCounts[orderline.getClassVal(j)] += avgRank;
                     }
 
                     duplicateCount = 0;
                     // then set this rank
-                    classRankCounts[(int) orderline.get(i).getClassVal()] += i + 1;
+                    classRankCounts[orderline.getClassVal(i)] += i + 1;
                 }
                 else
                 {// thisDistance==lastDistance
@@ -97,7 +104,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
 
                         for (int j = i - duplicateCount - 1; j <= i; j++)
                         {
-                            classRankCounts[(int) orderline.get(j).getClassVal()] += avgRank;
+                            classRankCounts[orderline.getClassVal(j)] += avgRank;
                         }
                     }
                     duplicateCount++;
@@ -112,8 +119,8 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             double s = 0;
             for (int i = 0; i < numClasses; i++)
             {
-                classRankMeans[i] = (double) classRankCounts[i] / classDistribution.get((double) i);
-                s += classDistribution.get((double) i) * (classRankMeans[i] - overallMeanRank) * (classRankMeans[i] - overallMeanRank);
+                classRankMeans[i] = (double) classRankCounts[i] / classDistribution[i];
+                s += classDistribution[i] * (classRankMeans[i] - overallMeanRank) * (classRankMeans[i] - overallMeanRank);
             }
 
             //5) weight s with the scale factor
@@ -123,7 +130,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
         }
 
         @Override
-        public double calculateSeperationGap(List<OrderLineObj> orderline) {
+        public double calculateSeperationGap(OrderLine orderline) {
             throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
         }
     }
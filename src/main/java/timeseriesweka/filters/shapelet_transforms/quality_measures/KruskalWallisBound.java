@@ -14,10 +14,8 @@
  */
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import utilities.class_counts.ClassCounts;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
+import java.util.Arrays;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 
 /**
  *
@@ -29,19 +27,23 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
      */
     public class KruskalWallisBound extends ShapeletQualityBound{
         
+        // per class ranks and the mean rank of each class, kept between calls
+        private transient int[] classRankCounts;
+        private transient OrderLine meanRankOrderLine;
+        
         /**
          * Constructor to construct KruskalWallisBound
          * @param classDist class distribution of the data currently being processed
          * @param percentage percentage of data required to be processed before
          *                   bounding mechanism is used.
          */
-        protected KruskalWallisBound(ClassCounts classDist, int percentage){
-            initParentFields(classDist, percentage);
+        protected KruskalWallisBound(int[] classDist, int percentage){
+            reset(classDist, percentage);
         }
                
         @Override
-        public void updateOrderLine(OrderLineObj orderLineObj){
-            super.updateOrderLine(orderLineObj);
+        public void updateOrderLine(double distance, int classVal){
+            super.updateOrderLine(distance, classVal);
             numInstances--;
         }
                
@@ -53,21 +55,26 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
         protected double calculateBestQuality() {
              
             //1) Find sums of ranks for the observed orderline objects
-            int numClasses = parentClassDist.size();
-            int[] classRankCounts = new int[numClasses];
+            int numClasses = parentClassDist.length;
+            if(classRankCounts == null || classRankCounts.length != numClasses){
+                classRankCounts = new int[numClasses];
+                meanRankOrderLine = new OrderLine(numClasses);
+            }else{
+                Arrays.fill(classRankCounts, 0);
+            }
             double minimumRank = -1.0;
             double maximumRank = -1.0;
-            double lastDistance = orderLine.get(0).getDistance();
+            double lastDistance = orderLine.getDistance(0);
             double thisDistance;
-            double classVal = orderLine.get(0).getClassVal();
-            classRankCounts[(int)classVal]+=1;
+            int classVal = orderLine.getClassVal(0);
+            classRankCounts[classVal]+=1;
 
             int duplicateCount = 0;
 
             for(int i=1; i< orderLine.size(); i++){
-                thisDistance = orderLine.get(i).getDistance();
+                thisDistance = orderLine.getDistance(i);
                 if(duplicateCount == 0 && thisDistance!=lastDistance){ // standard entry
-                    classRankCounts[(int)orderLine.get(i).getClassVal()]+=i+1;
+                    classRankCounts[orderLine.getClassVal(i)]+=i+1;
                     
                     //Set min/max ranks
                     if(thisDistance > 0.0 && minimumRank == -1.0){
@@ -82,13 +89,13 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
                     double avgRank = (minRank+maxRank)/2;
 
                     for(int j = i-duplicateCount-1; j < i; j++){
-                        classRankCounts[(int)orderLine.get(j).getClassVal()]+=avgRank;
+                        classRankCounts[orderLine.getClassVal(j)]+=avgRank;
                     }
 
 
                     duplicateCount = 0;
                     // then set this rank
-                    classRankCounts[(int)orderLine.get(i).getClassVal()]+=i+1;
+                    classRankCounts[orderLine.getClassVal(i)]+=i+1;
                    
                     //Set min/max ranks
                     if(thisDistance > 0.0 && minimumRank == -1.0){
@@ -103,7 +110,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
                         double avgRank = (minRank+maxRank)/2;
 
                         for(int j = i-duplicateCount-1; j <= i; j++){
-                            classRankCounts[(int)orderLine.get(j).getClassVal()]+=avgRank;
+                            classRankCounts[orderLine.getClassVal(j)]+=avgRank;
                         }
                         
                         //Set min/max ranks
@@ -118,37 +125,39 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             }
 
             // 2) Compute mean rank for the obsereved objects 
-            ArrayList<OrderLineObj> meanRankOrderLine = new ArrayList<>();
+            meanRankOrderLine.clear();
             for(int i = 0; i < numClasses; i++){
-                meanRankOrderLine.add(new OrderLineObj((double)classRankCounts[i]/orderLineClassDist.get((double)i), (double)i));
+                meanRankOrderLine.add((double)classRankCounts[i]/orderLineClassDist[i], i);
             }
-            Collections.sort(meanRankOrderLine);
+            meanRankOrderLine.sort();
             
             //Find approximate minimum orderline objects
-            OrderLineObj min = new OrderLineObj(-1.0, 0.0);
-            for (OrderLineObj meanRankOrderLine1 : meanRankOrderLine) {
-                classVal = meanRankOrderLine1.getClassVal();
-                int unassignedObjs = parentClassDist.get(classVal) - orderLineClassDist.get(classVal);
-                double observed = classRankCounts[(int)classVal];
+            double minRank = -1.0;
+            int minClassVal = 0;
+            for (int k = 0; k < numClasses; k++) {
+                classVal = meanRankOrderLine.getClassVal(k);
+                int unassignedObjs = parentClassDist[classVal] - orderLineClassDist[classVal];
+                double observed = classRankCounts[classVal];
                 double predicted = minimumRank * unassignedObjs;
-                double approximateRank = (observed + predicted) / parentClassDist.get(classVal);
-                if(min.getDistance() == -1.0 || approximateRank < min.getDistance()){
-                    min.setDistance(approximateRank);
-                    min.setClassVal(classVal);
+                double approximateRank = (observed + predicted) / parentClassDist[classVal];
+                if(minRank == -1.0 || approximateRank < minRank){
+                    minRank = approximateRank;
+                    minClassVal = classVal;
                 }
             }
             
             //Find approximate maximum orderline objects
-            OrderLineObj max = new OrderLineObj(-1.0, 0.0);
-            for (OrderLineObj meanRankOrderLine1 : meanRankOrderLine) {
-                classVal = meanRankOrderLine1.getClassVal();
-                int unassignedObjs = parentClassDist.get(classVal) - orderLineClassDist.get(classVal);
-                double observed = classRankCounts[(int)classVal];
+            double maxRank = -1.0;
+            int maxClassVal = 0;
+            for (int k = 0; k < numClasses; k++) {
+                classVal = meanRankOrderLine.getClassVal(k);
+                int unassignedObjs = parentClassDist[classVal] - orderLineClassDist[classVal];
+                double observed = classRankCounts[classVal];
                 double predicted = maximumRank * unassignedObjs;
-                double approximateRank = (observed + predicted) / parentClassDist.get(classVal); 
-                if(classVal != min.getClassVal() && (max.getDistance() == -1.0 || approximateRank > max.getDistance())){
-                    max.setDistance(approximateRank);
-                    max.setClassVal(classVal);
+                double approximateRank = (observed + predicted) / parentClassDist[classVal]; 
+                if(classVal != minClassVal && (maxRank == -1.0 || approximateRank > maxRank)){
+                    maxRank = approximateRank;
+                    maxClassVal = classVal;
                 }
             }
             
@@ -156,21 +165,21 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             double overallMeanRank = (1.0+ orderLine.size() + numInstances)/2;
     
             //4) Interpolate mean ranks
-            double increment = (max.getDistance() - min.getDistance()) / (numClasses-1);
+            double increment = (maxRank - minRank) / (numClasses-1);
             int multiplyer = 1;
-            for (OrderLineObj currentObj : meanRankOrderLine) {
-                int unassignedObjs = parentClassDist.get(currentObj.getClassVal()) - orderLineClassDist.get(currentObj.getClassVal());
+            for (int k = 0; k < numClasses; k++) {
+                classVal = meanRankOrderLine.getClassVal(k);
+                int unassignedObjs = parentClassDist[classVal] - orderLineClassDist[classVal];
                 
-                if(currentObj.getClassVal() == min.getClassVal()){
-                    currentObj.setDistance(min.getDistance());
-                }else if(currentObj.getClassVal() == max.getClassVal()){
-                    currentObj.setDistance(max.getDistance());
+                if(classVal == minClassVal){
+                    meanRankOrderLine.setDistance(k, minRank);
+                }else if(classVal == maxClassVal){
+                    meanRankOrderLine.setDistance(k, maxRank);
                 }else{
-                    classVal = currentObj.getClassVal();
-                    double observed = classRankCounts[(int)classVal];
+                    double observed = classRankCounts[classVal];
                     double predicted = (minimumRank + (increment * multiplyer)) * unassignedObjs;
-                    double approximateRank = (observed + predicted) / parentClassDist.get(classVal); 
-                    currentObj.setDistance(approximateRank);
+                    double approximateRank = (observed + predicted) / parentClassDist[classVal]; 
+                    meanRankOrderLine.setDistance(k, approximateRank);
                     multiplyer++;        
                 }
             }
@@ -178,7 +187,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             //5) sum of squared deviations from the overall mean rank
             double s = 0;
             for(int i = 0; i < numClasses; i++){
-                s+= parentClassDist.get((double)i)*(meanRankOrderLine.get(i).getDistance() -overallMeanRank)*(meanRankOrderLine.get(i).getDistance() -overallMeanRank);
+                s+= parentClassDist[i]*(meanRankOrderLine.getDistance(i) -overallMeanRank)*(meanRankOrderLine.getDistance(i) -overallMeanRank);
             }
 
             //6) weight s with the scale factor
@@ -190,7 +199,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
     
         @Override
         public boolean pruneCandidate(){
-            if(orderLine.size() % parentClassDist.size() != 0){
+            if(orderLine.size() % parentClassDist.length != 0){
                 return false;
             }else{
                 return super.pruneCandidate();
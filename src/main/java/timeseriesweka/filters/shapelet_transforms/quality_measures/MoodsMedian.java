@@ -15,10 +15,8 @@
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
 
 import java.io.Serializable;
-import java.util.Collections;
-import java.util.List;
-import utilities.class_counts.ClassCounts;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
+import java.util.Arrays;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 
 /**
  *
@@ -30,6 +28,9 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
      */
     public class MoodsMedian implements ShapeletQualityMeasure, Serializable
     {
+        // per class counts either side of the median, kept between calls
+        private transient int[] classCountsBelowMedian;
+        private transient int[] classCountsAboveMedian;
 
         protected MoodsMedian(){}
         
@@ -41,49 +42,56 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
          * @param orderline the pre-computed set of distances for a dataset to a
          * single shapelet
          * @param classDistributions the distibution of all possible class
-         * values in the orderline
+         * values in the orderline, indexed by class value
          * @return a measure of shapelet quality according to Mood's Median
          */
         @Override
-        public double calculateQuality(List<OrderLineObj> orderline, ClassCounts classDistributions)
+        public double calculateQuality(OrderLine orderline, int[] classDistributions)
         {
 
             //naive implementation as a benchmark for finding median - actually faster than manual quickSelect! Probably due to optimised java implementation
-            Collections.sort(orderline);
+            orderline.sort();
             int lengthOfOrderline = orderline.size();
             double median;
             if (lengthOfOrderline % 2 == 0)
             {
-                median = (orderline.get(lengthOfOrderline / 2 - 1).getDistance() + orderline.get(lengthOfOrderline / 2).getDistance()) / 2;
+                median = (orderline.getDistance(lengthOfOrderline / 2 - 1) + orderline.getDistance(lengthOfOrderline / 2)) / 2;
             }
             else
             {
-                median = orderline.get(lengthOfOrderline / 2).getDistance();
+                median = orderline.getDistance(lengthOfOrderline / 2);
             }
 
             int totalCount = orderline.size();
             int countBelow = 0;
             int countAbove = 0;
-            int numClasses = classDistributions.size();
-            int[] classCountsBelowMedian = new int[numClasses];
-            int[] classCountsAboveMedian = new int[numClasses];
+            int numClasses = classDistributions.length;
+            if (classCountsBelowMedian == null || classCountsBelowMedian.length != numClasses)
+            {
+                classCountsBelowMedian = new int[numClasses];
+                classCountsAboveMedian = new int[numClasses];
+            }
+            else
+            {
+                Arrays.fill(classCountsBelowMedian, 0);
+                Arrays.fill(classCountsAboveMedian, 0);
+            }
 
             double distance;
-            double classVal;
-            int countSoFar;
-            for (OrderLineObj orderline1 : orderline)
+            int classVal;
+            for (int j = 0; j < totalCount; j++)
             {
-                distance = orderline1.getDistance();
-                classVal = orderline1.getClassVal();
+                distance = orderline.getDistance(j);
+                classVal = orderline.getClassVal(j);
                 if (distance < median)
                 {
                     countBelow++;
-                    classCountsBelowMedian[(int) classVal]++;
+                    classCountsBelowMedian[classVal]++;
                 }
                 else
                 {
                     countAbove++;
-                    classCountsAboveMedian[(int) classVal]++;
+                    classCountsAboveMedian[classVal]++;
                 }
             }
 
@@ -91,10 +99,10 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             double expectedAbove, expectedBelow;
             for (int i = 0; i < numClasses; i++)
             {
-                expectedBelow = (double) (countBelow * classDistributions.get((double) i)) / totalCount;
+                expectedBelow = (double) (countBelow * classDistributions[i]) / totalCount;
                 chi += ((classCountsBelowMedian[i] - expectedBelow) * (classCountsBelowMedian[i] - expectedBelow)) / expectedBelow;
 
-                expectedAbove = (double) (countAbove * classDistributions.get((double) i)) / totalCount;
+                expectedAbove = (double) (countAbove * classDistributions[i]) / totalCount;
                 chi += ((classCountsAboveMedian[i] - expectedAbove)) * (classCountsAboveMedian[i] - expectedAbove) / expectedAbove;
             }
 
@@ -106,7 +114,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
         }
 
         @Override
-        public double calculateSeperationGap(List<OrderLineObj> orderline) {
+        public double calculateSeperationGap(OrderLine orderline) {
             throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
         }
 
@@ -13,9 +13,7 @@
  *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
-import utilities.class_counts.ClassCounts;
-import utilities.class_counts.SimpleClassCounts;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
+import java.util.Arrays;
 
     
     /**
@@ -24,14 +22,18 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
      */
     public class MoodsMedianBound extends ShapeletQualityBound{  
         
+        // per class counts either side of the median, kept between calls
+        private transient int[] classCountsBelowMedian;
+        private transient int[] classCountsAboveMedian;
+        
         /**
          * Constructor to construct MoodsMedianBound
          * @param classDist class distribution of the data currently being processed
          * @param percentage percentage of data required to be processed before
          *                   bounding mechanism is used.
          */
-        protected MoodsMedianBound(ClassCounts classDist, int percentage){
-            initParentFields(classDist, percentage);
+        protected MoodsMedianBound(int[] classDist, int percentage){
+            reset(classDist, percentage);
         }
                 
         /**
@@ -43,43 +45,48 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             int lengthOfOrderline = orderLine.size();
             double median;
             if(lengthOfOrderline%2==0){
-                median = (orderLine.get(lengthOfOrderline/2-1).getDistance()+orderLine.get(lengthOfOrderline/2).getDistance())/2;
+                median = (orderLine.getDistance(lengthOfOrderline/2-1)+orderLine.getDistance(lengthOfOrderline/2))/2;
             }else{
-                median = orderLine.get(lengthOfOrderline/2).getDistance();
+                median = orderLine.getDistance(lengthOfOrderline/2);
             }
 
             int totalCount = orderLine.size();
             int countBelow = 0;
             int countAbove = 0;
-            int numClasses = parentClassDist.size();
+            int numClasses = parentClassDist.length;
             
-            ClassCounts classCountsBelowMedian = new SimpleClassCounts(numClasses);
-            ClassCounts classCountsAboveMedian = new SimpleClassCounts(numClasses);
+            if(classCountsBelowMedian == null || classCountsBelowMedian.length != numClasses){
+                classCountsBelowMedian = new int[numClasses];
+                classCountsAboveMedian = new int[numClasses];
+            }else{
+                Arrays.fill(classCountsBelowMedian, 0);
+                Arrays.fill(classCountsAboveMedian, 0);
+            }
 
             double distance;
-            double classVal;
+            int classVal;
             
             // Count observed class distributions above and below the median
-            for (OrderLineObj orderLine1 : orderLine) {
-                distance = orderLine1.getDistance();
-                classVal = orderLine1.getClassVal();
+            for (int j = 0; j < lengthOfOrderline; j++) {
+                distance = orderLine.getDistance(j);
+                classVal = orderLine.getClassVal(j);
                 if(distance < median){
                     countBelow++;
-                    classCountsBelowMedian.addTo(classVal, 1); //increment by 1
+                    classCountsBelowMedian[classVal]++; //increment by 1
                 }else{
                     countAbove++;
-                    classCountsAboveMedian.addTo(classVal, 1);
+                    classCountsAboveMedian[classVal]++;
                 }
             }
             
             // Add count of predicted class distributions above and below the median
-            for(double key : orderLineClassDist.keySet()){
-                int predictedCount = parentClassDist.get(key) - orderLineClassDist.get(key);
-                if(classCountsBelowMedian.get(key) <= classCountsAboveMedian.get(key)){
-                    classCountsAboveMedian.addTo(key, predictedCount);
+            for(int key = 0; key < numClasses; key++){
+                int predictedCount = parentClassDist[key] - orderLineClassDist[key];
+                if(classCountsBelowMedian[key] <= classCountsAboveMedian[key]){
+                    classCountsAboveMedian[key] += predictedCount;
                     countAbove += predictedCount;
                 }else{
-                    classCountsBelowMedian.addTo(key, predictedCount);
+                    classCountsBelowMedian[key] += predictedCount;
                     countBelow += predictedCount;
                 }
                 totalCount += predictedCount;
@@ -88,12 +95,12 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
             double chi = 0;
             double expectedAbove = 0, expectedBelow;
             for(int i = 0; i < numClasses; i++){
-                expectedBelow = (double)(countBelow*parentClassDist.get((double)i))/totalCount;
-                double classCountsBelow = classCountsBelowMedian.get(i) - expectedBelow;
-                double classCountsAbove = classCountsAboveMedian.get(i) - expectedAbove;
+                expectedBelow = (double)(countBelow*parentClassDist[i])/totalCount;
+                double classCountsBelow = classCountsBelowMedian[i] - expectedBelow;
+                double classCountsAbove = classCountsAboveMedian[i] - expectedAbove;
                 chi += (classCountsBelow*classCountsBelow)/expectedBelow;
 
-                expectedAbove = (double)(countAbove*parentClassDist.get((double)i))/totalCount;
+                expectedAbove = (double)(countAbove*parentClassDist[i])/totalCount;
                 chi += (classCountsAbove*classCountsAbove)/expectedAbove;
             }
 
@@ -105,7 +112,7 @@ import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
         
         @Override
         public boolean pruneCandidate(){
-            if(orderLine.size() % parentClassDist.size() != 0){//if(orderLine.size() < parentClassDist.size()){
+            if(orderLine.size() % parentClassDist.length != 0){//if(orderLine.size() < parentClassDist.size()){
                 return false;
             }else{
                 return super.pruneCandidate();
@@ -19,8 +19,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.Supplier;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
-import utilities.class_counts.ClassCounts;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 
 
 /**
@@ -30,6 +29,7 @@ import utilities.class_counts.ClassCounts;
 
 
 // a container class for a ShapeletQualityMeasure and an optional bounding class.
+// the orderline, measure and bound are reused for every candidate, so each thread needs its own ShapeletQuality.
 public class ShapeletQuality {
     
     public enum ShapeletQualityChoice
@@ -69,13 +69,21 @@ public class ShapeletQuality {
         return bound;
     }
     
+    /**
+     * @return the orderline to fill for each candidate, cleared by initOrderLine()
+     */
+    public OrderLine getOrderLine() {
+        return orderLine;
+    }
+    
     ShapeletQualityChoice choice;
     ShapeletQualityMeasure qualityMeasure;
     Optional<ShapeletQualityBound> bound = Optional.empty();
+    OrderLine orderLine = new OrderLine();
     
     //init static lists of constructors.
     private static final List<Supplier<ShapeletQualityMeasure>> qualityConstructors = createQuality();
-    private static final List<BiFunction<ClassCounts, Integer, ShapeletQualityBound>>  boundConstructor = createBound();
+    private static final List<BiFunction<int[], Integer, ShapeletQualityBound>>  boundConstructor = createBound();
     private static List<Supplier<ShapeletQualityMeasure>> createQuality(){
         List<Supplier<ShapeletQualityMeasure>> cons = new ArrayList<>();
         cons.add(InformationGain::new);
@@ -85,8 +93,8 @@ public class ShapeletQuality {
         return cons;
     }
     
-    private static List<BiFunction<ClassCounts, Integer, ShapeletQualityBound>> createBound(){
-        List<BiFunction<ClassCounts, Integer, ShapeletQualityBound>> cons = new ArrayList();
+    private static List<BiFunction<int[], Integer, ShapeletQualityBound>> createBound(){
+        List<BiFunction<int[], Integer, ShapeletQualityBound>> cons = new ArrayList();
         cons.add(InformationGainBound::new);
         cons.add(FStatBound::new);
         cons.add(KruskalWallisBound::new);
@@ -99,8 +107,21 @@ public class ShapeletQuality {
         qualityMeasure = qualityConstructors.get(choice.ordinal()).get();
     }
     
-    public void initQualityBound(ClassCounts classDist, int percentage){
-        bound = Optional.of(boundConstructor.get(choice.ordinal()).apply(classDist, percentage));
+    public void initOrderLine(){
+        orderLine.clear();
+    }
+    
+    /**
+     * Sets up the bound for a new candidate, creating it the first time and resetting it after that.
+     * 
+     * @param classDist class counts indexed by class value
+     * @param percentage
+     */
+    public void initQualityBound(int[] classDist, int percentage){
+        if(bound.isPresent())
+            bound.get().reset(classDist, percentage);
+        else
+            bound = Optional.of(boundConstructor.get(choice.ordinal()).apply(classDist, percentage));
     }
     
     public void setBsfQuality(double bsf){
@@ -112,9 +133,9 @@ public class ShapeletQuality {
         return bound.isPresent() && bound.get().pruneCandidate();
     }
     
-    public void updateOrderLine(OrderLineObj obj){
+    public void updateOrderLine(double distance, int classVal){
         if(bound.isPresent())
-            bound.get().updateOrderLine(obj);
+            bound.get().updateOrderLine(distance, classVal);
     }
     
 }
@@ -15,14 +15,12 @@
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
-import utilities.class_counts.ClassCounts;
-import utilities.class_counts.TreeSetClassCounts;
+import java.util.Arrays;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 
 /**
+ * A bound is created once and reset(int[], int) for each candidate, reusing its
+ * orderline and counts, so no memory is allocated per candidate.
  *
  * @author raj09hxu
  */
@@ -36,15 +34,17 @@ public abstract class ShapeletQualityBound implements Serializable {
     /**
      * Orderline of the observed distance, class pairs
      */
-    protected List<OrderLineObj> orderLine;
+    protected OrderLine orderLine;
     /**
-     * Class distribution of the observed distance, class pairs
+     * Class distribution of the observed distance, class pairs, indexed by
+     * class value
      */
-    protected ClassCounts orderLineClassDist;
+    protected int[] orderLineClassDist;
     /**
-     * Class distribution of the dataset, which currently being processed
+     * Class distribution of the dataset, which currently being processed,
+     * indexed by class value
      */
-    protected ClassCounts parentClassDist;
+    protected int[] parentClassDist;
     /**
      * Number of instances in the dataset, which is currently being processed
      */
@@ -60,23 +60,42 @@ public abstract class ShapeletQualityBound implements Serializable {
      * @param classDist
      * @param percentage
      */
-    protected void initParentFields(ClassCounts classDist, int percentage) {
+    protected void initParentFields(int[] classDist, int percentage) {
         //Initialize the fields
         bsfQuality = Double.MAX_VALUE;
-        orderLine = new ArrayList<>();
+        if (orderLine == null) {
+            orderLine = new OrderLine();
+        }
+        orderLine.clear();
 
-        orderLineClassDist = new TreeSetClassCounts();
         parentClassDist = classDist;
         this.percentage = percentage;
 
         //Initialize orderline class distribution
+        if (orderLineClassDist == null || orderLineClassDist.length != parentClassDist.length) {
+            orderLineClassDist = new int[parentClassDist.length];
+        } else {
+            Arrays.fill(orderLineClassDist, 0);
+        }
         numInstances = 0;
-        for (Double key : parentClassDist.keySet()) {
-            orderLineClassDist.put(key, 0);
-            numInstances += parentClassDist.get(key);
+        for (int count : parentClassDist) {
+            numInstances += count;
         }
     }
 
+    /**
+     * Method to reset the bound for a new candidate, keeping the memory it has
+     * allocated
+     *
+     * @param classDist class distribution of the data currently being
+     * processed, indexed by class value
+     * @param percentage percentage of data required to be processed before
+     * bounding mechanism is used.
+     */
+    public void reset(int[] classDist, int percentage) {
+        initParentFields(classDist, percentage);
+    }
+
     /**
      * Method to set the best quality so far of the shapelet
      *
@@ -87,23 +106,18 @@ public abstract class ShapeletQualityBound implements Serializable {
     }
 
     /**
-     * Method to update the ShapeletQualityBound with newly observed
-     * OrderLineObj
+     * Method to update the ShapeletQualityBound with a newly observed distance,
+     * class pair
      *
-     * @param orderLineObj newly observed OrderLineObj
+     * @param distance newly observed distance
+     * @param classVal class value of the newly observed instance
      */
-    public void updateOrderLine(OrderLineObj orderLineObj) {
+    public void updateOrderLine(double distance, int classVal) {
         //Update classDistribution of unprocessed elements
-        orderLineClassDist.put(orderLineObj.getClassVal(), orderLineClassDist.get(orderLineObj.getClassVal()) + 1);
+        orderLineClassDist[classVal]++;
 
         //use a binarySearch to update orderLine - rather than a O(n) search.
-        int index = Collections.binarySearch(orderLine, orderLineObj);
-        if (index < 0) {
-            index *= -1;
-            index -= 1;
-        }
-        orderLine.add(index, orderLineObj);
-
+        orderLine.insert(distance, classVal);
     }
 
     /**
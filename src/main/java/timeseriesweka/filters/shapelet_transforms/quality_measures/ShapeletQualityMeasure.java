@@ -14,9 +14,7 @@
  */
 package timeseriesweka.filters.shapelet_transforms.quality_measures;
 
-import java.util.List;
-import timeseriesweka.filters.shapelet_transforms.OrderLineObj;
-import utilities.class_counts.ClassCounts;
+import timeseriesweka.filters.shapelet_transforms.OrderLine;
 
 /**
  *
@@ -25,7 +23,12 @@ import utilities.class_counts.ClassCounts;
     
     public interface ShapeletQualityMeasure 
     {
-        public double calculateQuality(List<OrderLineObj> orderline, ClassCounts classDistribution);
+        /**
+         * @param orderline the distances and class values of the candidate, which may be sorted in place
+         * @param classCounts the number of instances of each class, indexed by class value
+         * @return the quality of the candidate
+         */
+        public double calculateQuality(OrderLine orderline, int[] classCounts);
 
-        public double calculateSeperationGap(List<OrderLineObj> orderline);
+        public double calculateSeperationGap(OrderLine orderline);
     }
@@ -43,6 +43,12 @@ public class GeneticSearch extends ImpRandomSearch{
         numShapeletsPerSeries = (int) (numShapelets / inputData.numInstances());  
     }
 
+    //the search carries state from one series to the next.
+    @Override
+    public boolean isThreadSafe(){
+        return false;
+    }
+    
     @Override
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ProcessCandidate checkCandidate){
        evaluated = 0;
@@ -70,10 +70,14 @@ public class ImpRandomSearch extends RandomSearch{
     
     @Override
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ShapeletSearch.ProcessCandidate checkCandidate){
+        return SearchForShapeletsInSeries(timeSeries, currentSeries++, checkCandidate);
+    }
+    
+    @Override
+    public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, int seriesId, ShapeletSearch.ProcessCandidate checkCandidate){
         
         ArrayList<Shapelet> seriesShapelets = new ArrayList<>();
-        ArrayList<CandidateSearchData> shapeletList = shapeletsToFind.get(currentSeries);
-        currentSeries++;
+        ArrayList<CandidateSearchData> shapeletList = shapeletsToFind.get(seriesId);
         
         //no shapelets to consider.
         if(shapeletList == null){
@@ -90,4 +94,10 @@ public class ImpRandomSearch extends RandomSearch{
 
         return seriesShapelets;
     }
+    
+    //the candidates for every series are drawn in init, so they can be searched in any order.
+    @Override
+    public boolean isThreadSafe(){
+        return true;
+    }
 }
@@ -82,6 +82,12 @@ public class MagnifySearch extends ImpRandomSearch{
             System.err.println("Too Few Starting shapelets");
     }
     
+    //the search carries state from one series to the next.
+    @Override
+    public boolean isThreadSafe(){
+        return false;
+    }
+    
     @Override
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ShapeletSearch.ProcessCandidate checkCandidate){
         ArrayList<Shapelet> candidateList = new ArrayList<>();
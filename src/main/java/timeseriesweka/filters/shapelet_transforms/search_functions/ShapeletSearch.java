@@ -141,7 +141,25 @@ public class ShapeletSearch implements Serializable{
     
     //given a series and a function to find a shapelet 
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ProcessCandidate checkCandidate){
+        ArrayList<Shapelet> seriesShapelets = SearchForShapeletsInSeries(timeSeries, seriesCount, checkCandidate);
+        seriesCount++;
+        return seriesShapelets;
+    }
+    
+    /**
+     * Searches series seriesId of the data passed to init. Unlike 
+     * SearchForShapeletsInSeries(Instance, ProcessCandidate) the candidates 
+     * don't depend on the order the series are searched in, so if isThreadSafe()
+     * this can be called for different series from several threads at once.
+     * 
+     * @param timeSeries
+     * @param seriesId index of timeSeries in the data passed to init
+     * @param checkCandidate
+     * @return the shapelets returned by checkCandidate
+     */
+    public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, int seriesId, ProcessCandidate checkCandidate){
         ArrayList<Shapelet> seriesShapelets = new ArrayList<>();
+        ArrayList<String> visited = new ArrayList<>();
         
         //for univariate this will just 
         for (int length = minShapeletLength; length <= maxShapeletLength; length+=lengthIncrement) {
@@ -152,16 +170,27 @@ public class ShapeletSearch implements Serializable{
                     Shapelet shapelet = checkCandidate.process(getTimeSeries(timeSeries,dim), start, length, dim);
                     if (shapelet != null) {
                         seriesShapelets.add(shapelet);
-                        shapeletsVisited.add(seriesCount+","+length+","+start+","+shapelet.qualityValue);
+                        visited.add(seriesId+","+length+","+start+","+shapelet.qualityValue);
                     }
                 }
             }
         }
         
-        seriesCount++;
+        synchronized(shapeletsVisited){
+            shapeletsVisited.addAll(visited);
+        }
         return seriesShapelets;
     }
     
+    /**
+     * @return true if SearchForShapeletsInSeries(Instance, int, ProcessCandidate)
+     * can be called from several threads at once. Subclasses that search 
+     * differently have to override both.
+     */
+    public boolean isThreadSafe(){
+        return getClass() == ShapeletSearch.class;
+    }
+    
     
     protected Instance getTimeSeries(Instance timeSeries, int dim){
         if(numDimensions > 1)
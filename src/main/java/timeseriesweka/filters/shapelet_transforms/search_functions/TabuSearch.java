@@ -84,6 +84,12 @@ public class TabuSearch extends ImpRandomSearch{
     }
     
     
+    //the search carries state from one series to the next.
+    @Override
+    public boolean isThreadSafe(){
+        return false;
+    }
+    
     @Override
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ShapeletSearch.ProcessCandidate checkCandidate){
         
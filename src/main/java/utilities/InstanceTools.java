@@ -116,6 +116,16 @@ public class InstanceTools {
             dist[i]/=classLabels.size();
         return dist;
     }
+    
+    public static double[] findClassDistributions(double[] classLabels, int numClasses)
+    {
+        double[] dist=new double[numClasses];
+        for(double d:classLabels)
+            dist[(int)d]++;
+        for(int i=0;i<dist.length;i++)
+            dist[i]/=classLabels.length;
+        return dist;
+    }
      
     public static Map<Double, Instances> createClassInstancesMap(Instances data)
     {
@@ -0,0 +1,115 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Shared work queue for the MultiThreadable classes: a task is run for each index 0..n-1 by a
+ * number of workers, each taking the next index in order until none remain.
+ */
+public class ParallelUtils {
+
+    /**
+     * The work done for a single index, which may throw
+     */
+    public interface IndexTask {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * Runs the same task for each index 0..n-1 on up to numThreads threads. The task must only
+     * write to state owned by its index.
+     */
+    public static void forEach(int numThreads, int n, IndexTask task) throws Exception {
+        forEach(numThreads, n, () -> task);
+    }
+
+    /**
+     * Runs a task for each index 0..n-1 on a pool of up to numThreads threads. Each worker is
+     * got from workers.get(), in the calling thread before any are started, so it may hold state
+     * of its own (e.g. a copy of a classifier or buffers) for all the indices it takes. With
+     * fewer than two threads or indices, a single worker runs every index in the calling thread.
+     *
+     * The first exception thrown by a worker is rethrown once all workers are done.
+     */
+    public static void forEach(int numThreads, int n, Supplier<IndexTask> workers) throws Exception {
+        int numWorkers = Math.min(numThreads, n);
+        if (numWorkers < 2) {
+            IndexTask worker = workers.get();
+            for (int i = 0; i < n; i++)
+                worker.run(i);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numWorkers);
+        try {
+            forEach(pool, numWorkers, n, workers);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * As forEach(numThreads, n, task), on a pool that is already running, e.g. one made once and
+     * reused over many rounds of work, rather than a new pool per call. The pool is not shut down.
+     * With a null pool, or fewer than two threads or indices, every index is run in the calling thread.
+     */
+    public static void forEach(ExecutorService pool, int numThreads, int n, IndexTask task) throws Exception {
+        int numWorkers = Math.min(numThreads, n);
+        if (pool == null || numWorkers < 2) {
+            for (int i = 0; i < n; i++)
+                task.run(i);
+            return;
+        }
+        forEach(pool, numWorkers, n, () -> task);
+    }
+
+    /**
+     * As forEach(numThreads, n, workers), with numWorkers workers on a pool that is already
+     * running, e.g. one reused over many rounds of work. The pool is not shut down.
+     */
+    public static void forEach(ExecutorService pool, int numWorkers, int n, Supplier<IndexTask> workers) throws Exception {
+        final AtomicInteger next = new AtomicInteger(0);
+        List<Callable<Void>> tasks = new ArrayList<>(numWorkers);
+        for (int w = 0; w < numWorkers; w++) {
+            final IndexTask worker = workers.get();
+            tasks.add(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < n)
+                    worker.run(i);
+                return null;
+            });
+        }
+
+        for (Future<Void> task : pool.invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception)
+                    throw (Exception)e.getCause();
+                throw e;
+            }
+        }
+    }
+}
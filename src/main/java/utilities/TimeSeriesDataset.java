@@ -0,0 +1,171 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A read-only copy of univariate, equal length Instances with all series in
+ * one contiguous row-major double[] and the class labels in a separate int[].
+ * Series i occupies getData()[offset(i)] to getData()[offset(i)+seriesLength()-1],
+ * so hot loops can index the backing array directly instead of going through
+ * Instance.value(i) or toDoubleArray(), which copies and includes the class
+ * value.
+ *
+ * The values are copied once on construction, later changes to the Instances
+ * are not seen.
+ */
+public class TimeSeriesDataset implements Serializable {
+
+    private final double[] data;
+    private final int[] classes;
+    private final int numSeries;
+    private final int seriesLength;
+    private final int numClasses;
+    private transient Instances source;
+
+    /**
+     * @param instances univariate series, with or without a class attribute
+     * in any position
+     */
+    public TimeSeriesDataset(Instances instances){
+        if(instances.checkForAttributeType(Attribute.RELATIONAL)){
+            throw new IllegalArgumentException("TimeSeriesDataset only holds univariate series");
+        }
+        int classIndex = instances.classIndex();
+        boolean nominalClass = classIndex >= 0 && instances.classAttribute().isNominal();
+        this.source = instances;
+        this.numSeries = instances.numInstances();
+        this.seriesLength = classIndex >= 0 ? instances.numAttributes()-1 : instances.numAttributes();
+        this.numClasses = nominalClass ? instances.numClasses() : 0;
+        this.data = new double[numSeries*seriesLength];
+        this.classes = new int[numSeries];
+
+        Instance ins;
+        for(int i = 0; i < numSeries; i++){
+            ins = instances.instance(i);
+            copyValues(ins, data, i*seriesLength);
+            classes[i] = nominalClass && !ins.classIsMissing() ? (int)ins.classValue() : -1;
+        }
+    }
+
+    public int numSeries(){
+        return numSeries;
+    }
+
+    public int seriesLength(){
+        return seriesLength;
+    }
+
+    /**
+     * @return number of class labels, or 0 if the class is absent or not nominal
+     */
+    public int numClasses(){
+        return numClasses;
+    }
+
+    /**
+     * @return the backing array, which must not be modified
+     */
+    public double[] getData(){
+        return data;
+    }
+
+    /**
+     * @param row
+     * @return index of the first value of series row in getData()
+     */
+    public int offset(int row){
+        return row*seriesLength;
+    }
+
+    public double value(int row, int index){
+        return data[row*seriesLength+index];
+    }
+
+    /**
+     * @param row
+     * @return the class label of series row, or -1 if it is missing or not nominal
+     */
+    public int classValue(int row){
+        return classes[row];
+    }
+
+    /**
+     * @return the class labels by row, which must not be modified
+     */
+    public int[] getClasses(){
+        return classes;
+    }
+
+    /**
+     * @param row
+     * @return a read-only view of series row that shares the backing array
+     */
+    public DoubleBuffer row(int row){
+        return DoubleBuffer.wrap(data, row*seriesLength, seriesLength).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies series row into the start of dest.
+     */
+    public void copyRow(int row, double[] dest){
+        System.arraycopy(data, row*seriesLength, dest, 0, seriesLength);
+    }
+
+    /**
+     * @return the Instances this was built from, or null after deserialisation
+     */
+    public Instances getSource(){
+        return source;
+    }
+
+    /**
+     * @param ins
+     * @param row
+     * @return true if ins is the instance series row was copied from, i.e. its
+     * values can be read from getData() at offset(row)
+     */
+    public boolean isRow(Instance ins, int row){
+        return source != null && row >= 0 && row < numSeries && source.instance(row) == ins;
+    }
+
+    /**
+     * @param ins
+     * @return the values of ins without its class value
+     */
+    public static double[] values(Instance ins){
+        double[] values = new double[ins.classIndex() >= 0 ? ins.numAttributes()-1 : ins.numAttributes()];
+        copyValues(ins, values, 0);
+        return values;
+    }
+
+    /**
+     * Copies the values of ins, skipping its class value, into dest from offset.
+     */
+    public static void copyValues(Instance ins, double[] dest, int offset){
+        int classIndex = ins.classIndex();
+        int numAttributes = ins.numAttributes();
+        for(int j = 0; j < numAttributes; j++){
+            if(j != classIndex){
+                dest[offset++] = ins.value(j);
+            }
+        }
+    }
+}
@@ -644,7 +644,7 @@ public class CAWPE extends AbstractClassifier implements SaveParameterInfo, Debu
 
             if (!trainResultsLoaded)
                 errors.log("\nTRAIN results files for '" + modules[m].getModuleName() + "' on '" + datasetName + "' fold '" + resampleIdentifier + "' not found. ");
-            else if (needIndividualTrainPreds() && modules[m].trainResults.getProbabilityDistributions().isEmpty())
+            else if (needIndividualTrainPreds() && modules[m].trainResults.numInstances() == 0)
                 errors.log("\nNo pred/distribution for instance data found in TRAIN results file for '" + modules[m].getModuleName() + "' on '" + datasetName + "' fold '" + resampleIdentifier + "'. ");
 
             if (!testResultsLoaded)
@@ -48,6 +48,7 @@ import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 import evaluation.storage.ClassifierResults;
+import experiments.Experiments;
 import timeseriesweka.classifiers.SaveParameterInfo;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
@@ -100,7 +101,8 @@ public class ContractRotationForest extends AbstractClassifier
     double timeUsed;
     Random random;
     int seed =0;
-    double alpha=0.2;//Learning rate for timing update
+//Smallest number of attributes or cases a tree is built on
+    static final int MINSAMPLE=3;
 
   /**
    * Constructor.
@@ -332,159 +334,78 @@ public class ContractRotationForest extends AbstractClassifier
 
         int n=data.numInstances();
         int m=data.numAttributes()-1;
-        double treeTime;
+        long startBuild=System.currentTimeMillis(); 
     //Re-estimate even if loading serialised, may be different hardware ....        
+        tm.calibrate(n,m);
         estSingleTree=tm.estimateSingleTreeHours(n,m);
         if(debug){
             System.out.println("n ="+n+" m = "+m+" estSingleTree = "+estSingleTree);
             System.out.println("Contract time ="+contractHours+" hours ");
 
         }
-        int maxAtts=m;
-//CASE 1: think we can build the minimum number of trees with full data.
-        if((estSingleTree*minNumTrees)<contractHours){ 
-            if(debug)
-                System.out.println("Think we are able to build at least 50 trees");
-            boolean buildFullTree=true;
+        timeUsed=(System.currentTimeMillis()-startBuild)/(1000.0*60.0*60.0);
+//Re-plan before every tree with the latest timing model, for the trees still needed to reach minNumTrees, or just
+//the next tree once we have them. Stop once even the smallest tree would overrun the contract, but always build one.
+//CASE 1: think we can build them with full data
+//CASE 2: dont think we can, and m > n: SAMPLE ATTRIBUTES, the largest sample that lets them be built in the time left
+//CASE 3: dont think we can, and m <= n: SAMPLE CASES, likewise
+        while((timeUsed<contractHours || numTrees==0) && numTrees<maxNumTrees){
+            double timeLeft=contractHours-timeUsed;
+            int treesLeft=Math.max(1,minNumTrees-numTrees);
+            boolean sampleCases=estSingleTree*treesLeft>=timeLeft && m<=n;
+            int full=sampleCases?n:m;
+            int max=sampleCases?tm.estimateMaxCases(n,m,treesLeft,timeLeft):tm.estimateMaxAttributes(n,m,treesLeft,timeLeft);
             int size;
-//Option to build in batches for smaller data, but not used at the moment            
-            int batchSize=1;//setBatchSize(estSingleTree);    //Set larger for smaller data
-//            if(debug)
-//                System.out.println("Batch size = "+batchSize);
-            long startBuild=System.currentTimeMillis(); 
-            while(timeUsed<contractHours && numTrees<maxNumTrees){
-                long sTime=System.currentTimeMillis();              
-                if(buildFullTree)
-                    size=m;
-                else{
-                    maxAtts=tm.estimateMaxAttributes(m,minNumTrees-numTrees,estSingleTree,contractHours);
-                    size=random.nextInt(maxAtts/2)+maxAtts/2;
-                }
-                    
-                if(batchSize+numTrees>maxNumTrees)
-                    batchSize=maxNumTrees-numTrees;
-                for(int i=0;i<batchSize;i++)
-                    buildTreeAttSample(data,instancesOfClass,numTrees++,m);
-            //Update time used
-                long newTime=System.currentTimeMillis(); 
-                timeUsed=(newTime-startBuild)/(1000.0*60.0*60.0);
-                treeTime=(newTime-sTime)/(1000.0*60.0*60.0);
-                
-            //  Update single tree estimate                
-                estSingleTree=updateTreeTime(estSingleTree,treeTime,alpha,size,m);
-           //Taking much longer than we thought!
-                if(estSingleTree*minNumTrees>contractHours)
-                    buildFullTree=false;
-                else
-                    buildFullTree=true;
-            //Checkpoint here   
-                    if(debug)
-                        System.out.println("Built tree number "+numTrees+" in "+timeUsed+" hours ");
-                if(checkpointPath!=null){
-                    //save the serialised version
-                    try{
-                        File f=new File(checkpointPath);
-                        if(!f.isDirectory())
-                            f.mkdirs();
-                        saveToFile(checkpointPath+relationName+"ContractRotationForest.ser");
-                        if(debug)
-                            System.out.println("HERE!!!  Saved to "+checkpointPath+relationName+"ContractRotationForest.ser");
-                    }
-                    catch(Exception e){
-                        System.out.println("Serialisation to "+checkpointPath+"/"+relationName+"ContractRotationForest.ser  FAILED");
-                    }
-                } 
+            if(max>=full)
+                size=full;
+            else if(max>=MINSAMPLE)
+                size=Math.max(MINSAMPLE,random.nextInt(max/2)+max/2+1);
+            else if(numTrees==0 || tm.fits(sampleCases?MINSAMPLE:n,sampleCases?m:MINSAMPLE,timeLeft))
+                size=Math.min(MINSAMPLE,full);
+            else{
+                if(debug)
+                    System.out.println("No time left for another tree, "+timeLeft+" hours unused");
+                break;
             }
-        }
-//CASE 2 and 3: dont think we can build min number of trees        
-        else{
+            long sTime=System.currentTimeMillis();
+            if(sampleCases)
+                buildTreeCaseSample(data,instancesOfClass,numTrees++,size);
+            else
+                buildTreeAttSample(data,instancesOfClass,numTrees++,size);
+        //Update time used
+            long newTime=System.currentTimeMillis(); 
+            timeUsed=(newTime-startBuild)/(1000.0*60.0*60.0);
+            double treeTime=(newTime-sTime)/(1000.0*60.0*60.0);
+        //Refit the timing model with the time this tree actually took
+            if(sampleCases)
+                tm.update(size,m,treeTime);
+            else
+                tm.update(n,size,treeTime);
+            estSingleTree=tm.estimateSingleTreeHours(n,m);
             if(debug)
-                System.out.println("Dont think we can build 50 trees in the time allowed ");
-//If m > n: SAMPLE ATTRIBUTES
-            if(m>n){
-//estimate maximum number of attributes allowed, x, to get minNumberOfTrees.                
-                maxAtts=m;
-                long startBuild=System.currentTimeMillis(); 
-                while(timeUsed<contractHours && numTrees<minNumTrees){
-                    maxAtts=tm.estimateMaxAttributes(m,minNumTrees-numTrees,estSingleTree,contractHours);
-                    int size=random.nextInt(maxAtts/2)+maxAtts/2;
-                    if(debug){
-                        System.out.print("Max estimated attributes ="+maxAtts);
-                        System.out.println("    using "+size+" attributes, building single tree at a time. Total time used ="+timeUsed);
-                    }
-                    long sTime=System.currentTimeMillis();
-                    buildTreeAttSample(data,instancesOfClass,numTrees++,size);
-            //Update time used
-                    long newTime=System.currentTimeMillis(); 
-                    timeUsed=(newTime-startBuild)/(1000.0*60.0*60.0);
-                    treeTime=(newTime-sTime)/(1000.0*60.0*60.0);
-                    estSingleTree=updateTreeTime(estSingleTree,treeTime,alpha,size,m);
-//                    (1-alpha)*estSingleTree+alpha*treeTime;
-                    if(debug)
-                        System.out.println(" actual time used ="+timeUsed+" new est single tree = "+estSingleTree);
-                    
-                //Checkpoint here   
-                }
-//Use up any time left here on randomised trees
-                while(timeUsed<contractHours && numTrees<maxNumTrees){
-                    int size=tm.estimateMaxAttributes(m, 1, estSingleTree,contractHours-timeUsed);
-   //                 if(estSingleTree<timeUsed-contractHours || size>m)//Build a whole treee
-   //                     size=m;
-                    maxAtts*=2;
-                    if(maxAtts>size)
-                        maxAtts=size;
+                System.out.println("Built tree number "+numTrees+" on "+size+(sampleCases?" cases":" attributes")+" in "+treeTime
+                        +" hours, total time used ="+timeUsed+" new est single tree = "+estSingleTree);
+        //Checkpoint here   
+            if(checkpointPath!=null){
+                //save the serialised version
+                try{
+                    File f=new File(checkpointPath);
+                    if(!f.isDirectory())
+                        f.mkdirs();
+                    saveToFile(checkpointPath+relationName+"ContractRotationForest.ser");
                     if(debug)
-                        System.out.println("OVERTIME: using "+size+" attributes, building single tree at a time. Time used -"+timeUsed);
-                    buildTreeAttSample(data,instancesOfClass,numTrees++,maxAtts);
-            //Update time used
-                    long newTime=System.currentTimeMillis(); 
-                    timeUsed=(newTime-startBuild)/(1000.0*60.0*60.0);
-                //Checkpoint here   
-                    if(debug)
-                        System.out.println("Built tree number "+numTrees+" in "+timeUsed+" hours ");
-                
-                }
-            }
-            else{
-//estimate maximum number of attributes allowed, x, to get minNumberOfTrees.                
-                int maxCases=tm.estimateMaxCases(n,minNumTrees,estSingleTree,contractHours);
-                if(debug)
-                    System.out.println("using max "+maxCases+" case, building single tree at a time");
-                long startBuild=System.currentTimeMillis(); 
-                while(timeUsed<contractHours && numTrees<minNumTrees){
-                    int size=random.nextInt(maxCases/2)+maxCases/2;
-                    buildTreeCaseSample(data,instancesOfClass,numTrees++,size);
-            //Update time used
-                    long newTime=System.currentTimeMillis(); 
-                    timeUsed=(newTime-startBuild)/(1000.0*60.0*60.0);
-                //Checkpoint here   
+                        System.out.println("HERE!!!  Saved to "+checkpointPath+relationName+"ContractRotationForest.ser");
                 }
-//Use up any time left here on randomised trees
-                while(timeUsed<contractHours && numTrees<maxNumTrees){
-                    int size=tm.estimateMaxCases(n, 1, estSingleTree,contractHours-timeUsed);
-                    buildTreeCaseSample(data,instancesOfClass,numTrees++,size);
-            //Update time used
-                    long newTime=System.currentTimeMillis(); 
-                    timeUsed=(newTime-startBuild)/(1000.0*60.0*60.0);
-                //Checkpoint here   
-                    if(debug)
-                        System.out.println("Built tree number "+numTrees+" in "+timeUsed+" hours ");
-                
+                catch(Exception e){
+                    System.out.println("Serialisation to "+checkpointPath+"/"+relationName+"ContractRotationForest.ser  FAILED");
                 }
-            }
+            } 
         }
         res.setBuildTime(System.currentTimeMillis()-startTime);
         if(debug)
             System.out.println("Finished build");
 
     }
-    double updateTreeTime(double estSingleTree,double obsTreeTime,double alpha,int numAtts,int m){
-        double t=(1-alpha)*estSingleTree;
-        t+=alpha*(m/(double)numAtts)*obsTreeTime;
-        if(t<0)
-            return estSingleTree;
-        return t;
-    }
 
     
 /** Build a rotation forest tree on a random subsample of the attributes
@@ -1037,59 +958,181 @@ public class ContractRotationForest extends AbstractClassifier
         ObjectInputStream in = new ObjectInputStream(fis);
         Object crf =in.readObject();
         in.close();
-        TimingModel tm=cf.new TimingModel();
+        TimingModel tm=new TimingModel();
 
   }
    
-    private class TimingModel implements Serializable{
-        double b0,b1,b2,b3,b4;
-        double predictionInterval=3.67;
-        double baseNumberOfTrees=200;
-//Time taken to do a standard operation on the model build computer        
-        static final double BASEFACTOR=1;
-        double normalisingFactor;
+/**
+ * Model of the time, in hours, to build one tree on n cases and m attributes, t = b0 + b1*n + b2*m + b3*n*m.
+ * 
+ * The model starts as one fitted to 200 tree forests on the authors' machine, scaled by the time 
+ * Experiments.findBenchmarkTime() takes on this machine relative to that one. Every tree built is then 
+ * recorded with the time it actually took and the model refitted: first a single factor for the speed 
+ * of this machine, by least squares over all trees so far, then the coefficients themselves, by ridge 
+ * regression towards the default model scaled by that factor. The default fills in for terms the trees 
+ * built so far say nothing about, e.g. the n terms when only attributes are sampled.
+ * 
+ * The ratio of actual to predicted time of recent trees is tracked, and estimates of how much can be 
+ * built in a given time allow for the predictions running that much short.
+ */
+    static class TimingModel implements Serializable{
+//Default model b0+b1n+b2m+b3mn, hours to build baseNumberOfTrees trees on the model build computer
+        static final double[] DEFAULTCOEFS={0.679693678,0.000132076,0.000245885,1.23057E-06};
+        static final double baseNumberOfTrees=200;
+//Time taken to do a standard operation (Experiments.findBenchmarkTime()) on the model build computer, in nanoseconds
+        static final double BASEFACTOR=0.8e9;
+//Weight of the default model in the refit, as a number of trees
+        static final double PRIORWEIGHT=1;
+//Learning rate for the prediction error of recent trees
+        static final double ALPHA=0.2;
+        private static long benchmark=-1;
+        double normalisingFactor=1;
+//The features n, m and nm are divided by the full data n and m, so the coefficients are all the same scale
+        int scaleN=-1,scaleM=-1;
+        double[] defaults=new double[4];
+        double speed;
+        double[] coefs=new double[4];
+//Sufficient statistics of the trees built so far, in the scaled features
+        double[][] xtx=new double[4][4];
+        double[] xty=new double[4];
+        double sumDD,sumDY;
+        int numObs=0;
+        double errorMean=1,errorVar=0;
+        
         public TimingModel(){
-//Default model an+bm+cmn    
-
-
-
-
-
-
-            b0=0.679693678;
-            b1=0.000132076; //n
-            b2=0.000245885;//m
-            b3=1.23057E-06;//mn
-            normalisingFactor=normalise();
+        }
+/** 
+ * Fits the model to data with n cases and m attributes. If the model has already seen trees 
+ * built on data of this size, e.g. when restored from a checkpoint, they are kept, else the 
+ * model is reset to the default scaled for this machine.
+ */        
+        void calibrate(int n, int m){
+            normalisingFactor=machineBenchmark()/BASEFACTOR;
+            if(n==scaleN && m==scaleM && numObs>0)
+                return;
+            scaleN=n;
+            scaleM=m;
+            double[] scales={1,n,m,(double)n*m};
+            for(int j=0;j<4;j++)
+                defaults[j]=DEFAULTCOEFS[j]*scales[j]/baseNumberOfTrees;
+            xtx=new double[4][4];
+            xty=new double[4];
+            sumDD=sumDY=0;
+            numObs=0;
+            errorMean=1;
+            errorVar=0;
+            refit();
         }
         double estimateSingleTreeHours(int n, int m){
-//Estimate time    
-            double t=b0+b1*n+b2*m+b3*n*m+predictionInterval;
-            t*=normalisingFactor/BASEFACTOR;
-            t/=baseNumberOfTrees;
-//Normalise for this computer
+            double[] x=features(n,m);
+            double t=0;
+            for(int j=0;j<4;j++)
+                t+=coefs[j]*x[j];
             return t; //This is a fraction of an hour! so .1 ==6 minutes
         }
-        final double  normalise(){
-            return 1.0;
+/** Records that a tree built on n cases and m attributes took treeHours, and refits the model */        
+        void update(int n, int m, double treeHours){
+            double predicted=estimateSingleTreeHours(n,m);
+            if(numObs>0 && predicted>0){
+                double err=treeHours/predicted-errorMean;
+                errorMean+=ALPHA*err;
+                errorVar=(1-ALPHA)*(errorVar+ALPHA*err*err);
+            }
+            double[] x=features(n,m);
+            for(int j=0;j<4;j++){
+                for(int k=0;k<4;k++)
+                    xtx[j][k]+=x[j]*x[k];
+                xty[j]+=x[j]*treeHours;
+            }
+            double d=0;
+            for(int j=0;j<4;j++)
+                d+=defaults[j]*x[j];
+            sumDD+=d*d;
+            sumDY+=d*treeHours;
+            numObs++;
+            refit();
+        }
+/** @return true if a tree on n cases and m attributes is expected to be built within timeLeft hours */        
+        boolean fits(int n, int m, double timeLeft){
+            return estimateSingleTreeHours(n,m)*safetyFactor()<=timeLeft;
+        }
+//estimate of the number of possible attributes to build numTrees on all n cases given a contract time         
+        int estimateMaxAttributes(int n, int m, int numTrees, double contractTime){
+            double[] x=features(n,m);
+            double fixed=coefs[0]+coefs[1]*x[1];
+            double perAtt=(coefs[2]+coefs[3]*x[1])/m;
+            return maxSize(fixed,perAtt,m,numTrees,contractTime);
+        }
+//estimate of the number of possible cases to build numTrees on all m attributes given a contract time         
+        int estimateMaxCases(int n, int m, int numTrees, double contractTime){
+            double[] x=features(n,m);
+            double fixed=coefs[0]+coefs[2]*x[2];
+            double perCase=(coefs[1]+coefs[3]*x[2])/n;
+            return maxSize(fixed,perCase,n,numTrees,contractTime);
+        }
+//largest size, at most full, such that numTrees trees costing fixed+perUnit*size each fit in contractTime. May be 0        
+        private int maxSize(double fixed, double perUnit, int full, int numTrees, double contractTime){
+            double budget=contractTime/numTrees/safetyFactor();
+            if(perUnit<=0)
+                return fixed<=budget?full:0;
+            double est=(budget-fixed)/perUnit;
+            if(est<0)
+                return 0;
+            else if(est>full)
+                return full;
+            return (int)est;
+        }
+        private double safetyFactor(){
+            return Math.max(1,errorMean+Math.sqrt(errorVar));
         }
-//estimate of the number of possible attributes to build numTrees given a contract time         
-        int estimateMaxAttributes(int m, int numTrees, double singleTreeTime, double contractTime){
-            
-            double estM=(m*contractTime)/(numTrees*singleTreeTime);
-            if(estM<3)
-                estM=3;
-            else if(estM>m)
-                estM=m;
-            return (int)(estM);
+        private double[] features(int n, int m){
+            double sn=n/(double)scaleN, sm=m/(double)scaleM;
+            return new double[]{1,sn,sm,sn*sm};
+        }
+        private void refit(){
+//Speed of this machine relative to the model build computer, from the benchmark until there are trees to go on
+            speed=numObs>0?sumDY/sumDD:normalisingFactor;
+//Ridge regression towards the default model at that speed: (X'X+wI)b=X'y+w*speed*defaults
+            double[][] a=new double[4][5];
+            for(int j=0;j<4;j++){
+                for(int k=0;k<4;k++)
+                    a[j][k]=xtx[j][k];
+                a[j][j]+=PRIORWEIGHT;
+                a[j][4]=xty[j]+PRIORWEIGHT*speed*defaults[j];
+            }
+            solve(a,coefs);
+//Times cannot fall as the data grows
+            for(int j=0;j<4;j++)
+                if(coefs[j]<0)
+                    coefs[j]=0;
+        }
+//Gaussian elimination with partial pivoting of the augmented matrix a, solution written to b        
+        private static void solve(double[][] a, double[] b){
+            int p=b.length;
+            for(int c=0;c<p;c++){
+                int pivot=c;
+                for(int r=c+1;r<p;r++)
+                    if(Math.abs(a[r][c])>Math.abs(a[pivot][c]))
+                        pivot=r;
+                double[] t=a[c]; a[c]=a[pivot]; a[pivot]=t;
+                for(int r=c+1;r<p;r++){
+                    double f=a[r][c]/a[c][c];
+                    for(int k=c;k<=p;k++)
+                        a[r][k]-=f*a[c][k];
+                }
+            }
+            for(int r=p-1;r>=0;r--){
+                double s=a[r][p];
+                for(int k=r+1;k<p;k++)
+                    s-=a[r][k]*b[k];
+                b[r]=s/a[r][r];
+            }
         }
-        int estimateMaxCases(int n, int numTrees, double singleTreeTime, double contractTime){
-            double estN=(n*contractTime)/(numTrees*singleTreeTime);
-            if(estN<3)
-                estN=3;
-            else if(estN>n)
-                estN=n;
-            return (int)(estN);
+//The benchmark is run once, the first time any model is calibrated        
+        private static synchronized long machineBenchmark(){
+            if(benchmark<0)
+                benchmark=Experiments.findBenchmarkTime();
+            return benchmark;
         }
 
 
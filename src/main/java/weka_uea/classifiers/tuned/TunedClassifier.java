@@ -30,6 +30,7 @@ import weka.core.Instances;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import timeseriesweka.classifiers.Checkpointable;
+import timeseriesweka.classifiers.MultiThreadable;
 import timeseriesweka.classifiers.TrainTimeContractable;
 import weka_uea.classifiers.SaveEachParameter;
 import timeseriesweka.classifiers.TrainAccuracyEstimator;
@@ -58,7 +59,7 @@ import timeseriesweka.classifiers.TrainAccuracyEstimator;
  * @author James Large (james.large@uea.ac.uk)
  */
 public class TunedClassifier extends AbstractClassifier 
-        implements SaveParameterInfo,TrainAccuracyEstimator,SaveEachParameter,ParameterSplittable,Checkpointable, TrainTimeContractable {
+        implements SaveParameterInfo,TrainAccuracyEstimator,SaveEachParameter,ParameterSplittable,Checkpointable, TrainTimeContractable, MultiThreadable {
 
     int seed;
     ParameterSpace space = null;
@@ -79,6 +80,8 @@ public class TunedClassifier extends AbstractClassifier
     long CC_contractTimeNanos; //TrainTimeContractClassifier  //note, leaving in nanos for max fidelity, max val of long = 2^64-1 = 586 years in nanoseconds
     boolean CC_contracting = false; //TrainTimeContractClassifier
     
+    int MT_numThreads = 1; //MultiThreadable
+    
     boolean PS_parameterSplitting = false; //ParameterSplittable
     int PS_paraSetID = -1; //ParameterSplittable
     
@@ -389,6 +392,11 @@ public class TunedClassifier extends AbstractClassifier
         }
     }
     
+    @Override //MultiThreadable
+    public void setThreadAllowance(int numThreads) {
+        MT_numThreads = Math.max(1, numThreads);
+    }
+    
     /**
      * To be called at start of buildClassifier
      * 
@@ -402,5 +410,8 @@ public class TunedClassifier extends AbstractClassifier
         
         if (CC_contracting)
             tuner.setTrainTimeLimit(this.CC_contractTimeNanos);
+        
+        if (MT_numThreads > 1)
+            tuner.setThreadAllowance(MT_numThreads);
     }
 }